@@ -0,0 +1,36 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so the allocation rate is
+ * reported next to the throughput. An optional argument selects the
+ * benchmarks by a regular expression, e.g. "ParseBenchmark.parseRoster".
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		final String include = args.length > 0 ? args[0]
+				: BenchmarkRunner.class.getPackage().getName() + ".*";
+		final Options options = new OptionsBuilder().include(include)
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack.benchmark;
+
+import java.util.Random;
+
+import org.jivesoftware.smack.util.Base64;
+
+/**
+ * Builds the XML corpora the benchmarks parse. The corpora imitate the
+ * traffic a mobile client receives in bursts: the initial roster, presence
+ * floods after login, MUC history, in-band bytestream chunks and pubsub
+ * notifications. A fixed seed keeps the corpora identical between runs.
+ */
+final class Corpora {
+
+	private static final String[] RESOURCES = { "mobile", "desktop", "tablet",
+			"work", "home" };
+
+	private static final String[] SHOWS = { null, "away", "chat", "dnd", "xa" };
+
+	private static String hex(Random random, int bytes) {
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < bytes; i++) {
+			buf.append(Integer.toHexString(0x100 + random.nextInt(0x100))
+					.substring(1));
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Returns the stanzas of a chunked in-band bytestream transfer (XEP-0047).
+	 * 
+	 * @param count
+	 *            the number of data chunks.
+	 * @param blockSize
+	 *            the number of bytes per chunk before encoding.
+	 * @return the data stanzas.
+	 */
+	static String ibbData(int count, int blockSize) {
+		final Random random = new Random(47);
+		final byte[] block = new byte[blockSize];
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			random.nextBytes(block);
+			buf.append("<iq from='romeo@montague.lit/orchard' id='ibb").append(i)
+					.append("' to='juliet@capulet.lit/balcony' type='set'>");
+			buf.append("<data xmlns='http://jabber.org/protocol/ibb' seq='")
+					.append(i & 0xFFFF).append("' sid='i781hf64'>");
+			buf.append(Base64.encodeBytes(block, Base64.DONT_BREAK_LINES));
+			buf.append("</data></iq>");
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Returns a burst of MUC history messages (XEP-0045) with delayed delivery
+	 * information (XEP-0203), as sent when joining a room.
+	 * 
+	 * @param count
+	 *            the number of messages.
+	 * @return the message stanzas.
+	 */
+	static String mucHistory(int count) {
+		final Random random = new Random(45);
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			final int occupant = random.nextInt(40);
+			buf.append("<message from='coven@chat.shakespeare.lit/occupant")
+					.append(occupant).append("' id='hist").append(i)
+					.append("' to='hecate@shakespeare.lit/broom'")
+					.append(" type='groupchat'>");
+			buf.append("<body>").append(text(random, 5 + random.nextInt(30)))
+					.append("</body>");
+			buf.append("<delay xmlns='urn:xmpp:delay' from='coven@chat.")
+					.append("shakespeare.lit' stamp='2012-10-")
+					.append(10 + i % 20).append("T").append(10 + i % 14)
+					.append(":").append(10 + i % 50).append(":00Z'/>");
+			buf.append("<x xmlns='jabber:x:delay' from='coven@chat.")
+					.append("shakespeare.lit' stamp='201210")
+					.append(10 + i % 20).append("T").append(10 + i % 14)
+					.append(":").append(10 + i % 50).append(":00'/>");
+			buf.append("</message>");
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Returns a flood of presences with entity capabilities (XEP-0115) and
+	 * avatar hashes (XEP-0153), as received after the initial presence.
+	 * 
+	 * @param count
+	 *            the number of presences.
+	 * @return the presence stanzas.
+	 */
+	static String presenceFlood(int count) {
+		final Random random = new Random(115);
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			final String show = SHOWS[random.nextInt(SHOWS.length)];
+			buf.append("<presence from='contact").append(i)
+					.append("@example.com/")
+					.append(RESOURCES[random.nextInt(RESOURCES.length)])
+					.append("' to='user@example.com/mobile'>");
+			if (show != null) {
+				buf.append("<show>").append(show).append("</show>");
+			}
+			buf.append("<status>").append(text(random, 1 + random.nextInt(8)))
+					.append("</status>");
+			buf.append("<priority>").append(random.nextInt(10))
+					.append("</priority>");
+			buf.append("<c xmlns='http://jabber.org/protocol/caps'")
+					.append(" hash='sha-1' node='http://code.google.com/p/")
+					.append("exodus' ver='QgayPKawpkPSDYmwT/WM94uAlu0='/>");
+			buf.append("<x xmlns='vcard-temp:x:update'><photo>")
+					.append(hex(random, 20)).append("</photo></x>");
+			buf.append("</presence>");
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Returns pubsub event notifications (XEP-0060) carrying Atom entries, as
+	 * received for microblogging or PEP nodes.
+	 * 
+	 * @param count
+	 *            the number of notifications.
+	 * @return the message stanzas.
+	 */
+	static String pubsubEvents(int count) {
+		final Random random = new Random(60);
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			buf.append("<message from='pubsub.shakespeare.lit' id='event")
+					.append(i).append("' to='francisco@denmark.lit'>");
+			buf.append("<event xmlns='http://jabber.org/protocol/pubsub#")
+					.append("event'><items node='princely_musings'>");
+			buf.append("<item id='").append(hex(random, 16)).append("'>");
+			buf.append("<entry xmlns='http://www.w3.org/2005/Atom'>");
+			buf.append("<title>").append(text(random, 6)).append("</title>");
+			buf.append("<summary>").append(text(random, 40))
+					.append("</summary>");
+			buf.append("<link rel='alternate' type='text/html' href='")
+					.append("http://denmark.lit/2003/12/13/atom03'/>");
+			buf.append("<id>tag:denmark.lit,2003:entry-").append(i)
+					.append("</id>");
+			buf.append("<published>2003-12-13T18:30:02Z</published>");
+			buf.append("<updated>2003-12-13T18:30:02Z</updated>");
+			buf.append("</entry></item></items></event></message>");
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Returns a roster result with the given number of items, as received
+	 * when the complete roster is requested.
+	 * 
+	 * @param count
+	 *            the number of roster items.
+	 * @return the IQ stanza.
+	 */
+	static String rosterPush(int count) {
+		final Random random = new Random(237);
+		final StringBuilder buf = new StringBuilder();
+		buf.append("<iq id='roster1' to='user@example.com/mobile'")
+				.append(" type='result'><query xmlns='jabber:iq:roster'")
+				.append(" ver='ver").append(count).append("'>");
+		for (int i = 0; i < count; i++) {
+			buf.append("<item jid='contact").append(i)
+					.append("@example.com' name='").append(text(random, 2))
+					.append("' subscription='both'>");
+			buf.append("<group>Group ").append(random.nextInt(20))
+					.append("</group>");
+			if (random.nextInt(4) == 0) {
+				buf.append("<group>Friends &amp; Family</group>");
+			}
+			buf.append("</item>");
+		}
+		buf.append("</query></iq>");
+		return buf.toString();
+	}
+
+	/**
+	 * Returns words of natural language text. Escaped characters appear now
+	 * and then, as they do in real messages.
+	 * 
+	 * @param random
+	 *            the source of the words.
+	 * @param words
+	 *            the number of words.
+	 * @return the text, escaped for XML.
+	 */
+	static String text(Random random, int words) {
+		final String[] vocabulary = { "wherefore", "art", "thou", "romeo",
+				"deny", "thy", "father", "and", "refuse", "name", "or", "if",
+				"wilt", "not", "be", "but", "sworn", "my", "love", "&amp;",
+				"&lt;3", "I&apos;ll", "no", "longer", "a", "capulet" };
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				buf.append(' ');
+			}
+			buf.append(vocabulary[random.nextInt(vocabulary.length)]);
+		}
+		return buf.toString();
+	}
+
+	private Corpora() {
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack.benchmark;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Measures parsing a stream of stanzas into packets with
+ * {@link PacketParserUtils}, and tokenizing it with {@link MXParser} alone.
+ * Every corpus is wrapped in a stream element, as the packet reader parses
+ * it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+	/**
+	 * Wraps stanzas in a stream element.
+	 * 
+	 * @param stanzas
+	 *            the stanzas.
+	 * @return the XML stream.
+	 */
+	static String stream(String stanzas) {
+		return "<stream:stream xmlns='jabber:client'"
+				+ " xmlns:stream='http://etherx.jabber.org/streams'"
+				+ " from='example.com' id='benchmark' version='1.0'>"
+				+ stanzas + "</stream:stream>";
+	}
+
+	private String rosterPush;
+	private String presenceFlood;
+	private String mucHistory;
+	private String ibbData;
+	private String pubsubEvents;
+
+	private XmlPullParser newParser(String xml) throws Exception {
+		final XmlPullParser parser = new MXParser();
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		parser.setInput(new StringReader(xml));
+		return parser;
+	}
+
+	@Benchmark
+	public void parseIbbData(Blackhole blackhole) throws Exception {
+		parseStanzas(ibbData, blackhole);
+	}
+
+	@Benchmark
+	public void parseMucHistory(Blackhole blackhole) throws Exception {
+		parseStanzas(mucHistory, blackhole);
+	}
+
+	@Benchmark
+	public void parsePresenceFlood(Blackhole blackhole) throws Exception {
+		parseStanzas(presenceFlood, blackhole);
+	}
+
+	@Benchmark
+	public void parsePubsubEvents(Blackhole blackhole) throws Exception {
+		parseStanzas(pubsubEvents, blackhole);
+	}
+
+	@Benchmark
+	public void parseRosterPush(Blackhole blackhole) throws Exception {
+		parseStanzas(rosterPush, blackhole);
+	}
+
+	/**
+	 * Parses the stanzas of a stream the way the packet reader does.
+	 */
+	private void parseStanzas(String xml, Blackhole blackhole)
+			throws Exception {
+		final XmlPullParser parser = newParser(xml);
+		// Skip the stream element
+		parser.next();
+		int eventType = parser.next();
+		while (eventType != XmlPullParser.END_DOCUMENT) {
+			if (eventType == XmlPullParser.START_TAG) {
+				final String name = parser.getName();
+				if (name.equals("message")) {
+					blackhole.consume(PacketParserUtils.parseMessage(parser));
+				} else if (name.equals("iq")) {
+					blackhole.consume(PacketParserUtils.parseIQ(parser, null));
+				} else if (name.equals("presence")) {
+					blackhole.consume(PacketParserUtils.parsePresence(parser));
+				}
+			}
+			eventType = parser.next();
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		rosterPush = stream(Corpora.rosterPush(5000));
+		presenceFlood = stream(Corpora.presenceFlood(1000));
+		mucHistory = stream(Corpora.mucHistory(500));
+		ibbData = stream(Corpora.ibbData(100, 4096));
+		pubsubEvents = stream(Corpora.pubsubEvents(200));
+	}
+
+	@Benchmark
+	public void tokenizePresenceFlood(Blackhole blackhole) throws Exception {
+		tokenize(presenceFlood, blackhole);
+	}
+
+	@Benchmark
+	public void tokenizeRosterPush(Blackhole blackhole) throws Exception {
+		tokenize(rosterPush, blackhole);
+	}
+
+	/**
+	 * Pulls all events of a stream without building packets, to separate the
+	 * cost of the XML parser from the cost of the packet parsers.
+	 */
+	private void tokenize(String xml, Blackhole blackhole) throws Exception {
+		final XmlPullParser parser = newParser(xml);
+		int eventType;
+		while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (eventType == XmlPullParser.START_TAG) {
+				blackhole.consume(parser.getName());
+			} else if (eventType == XmlPullParser.TEXT) {
+				blackhole.consume(parser.getText());
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack.benchmark;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Measures serializing packets with {@link Packet#toXML()} and with the
+ * streaming {@link Packet#toXML(Appendable)} the packet writer uses. The
+ * packets are parsed from the corpora once, so they carry the same
+ * extensions as received packets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializeBenchmark {
+
+	/**
+	 * Parses all stanzas of a stream.
+	 */
+	private static List<Packet> parse(String stanzas) throws Exception {
+		final XmlPullParser parser = new MXParser();
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		parser.setInput(new StringReader(ParseBenchmark.stream(stanzas)));
+		final List<Packet> packets = new ArrayList<Packet>();
+		parser.next();
+		int eventType = parser.next();
+		while (eventType != XmlPullParser.END_DOCUMENT) {
+			if (eventType == XmlPullParser.START_TAG) {
+				final String name = parser.getName();
+				if (name.equals("message")) {
+					packets.add(PacketParserUtils.parseMessage(parser));
+				} else if (name.equals("iq")) {
+					packets.add(PacketParserUtils.parseIQ(parser, null));
+				} else if (name.equals("presence")) {
+					packets.add(PacketParserUtils.parsePresence(parser));
+				}
+			}
+			eventType = parser.next();
+		}
+		return packets;
+	}
+
+	private List<Packet> rosterPush;
+	private List<Packet> presenceFlood;
+	private List<Packet> mucHistory;
+	private List<Packet> ibbData;
+	private List<Packet> pubsubEvents;
+
+	private final StringBuilder buffer = new StringBuilder(1 << 20);
+
+	@Setup
+	public void setUp() throws Exception {
+		rosterPush = parse(Corpora.rosterPush(5000));
+		presenceFlood = parse(Corpora.presenceFlood(1000));
+		mucHistory = parse(Corpora.mucHistory(500));
+		ibbData = parse(Corpora.ibbData(100, 4096));
+		pubsubEvents = parse(Corpora.pubsubEvents(200));
+	}
+
+	@Benchmark
+	public void streamIbbData(Blackhole blackhole) throws Exception {
+		stream(ibbData, blackhole);
+	}
+
+	@Benchmark
+	public void streamMucHistory(Blackhole blackhole) throws Exception {
+		stream(mucHistory, blackhole);
+	}
+
+	@Benchmark
+	public void streamPresenceFlood(Blackhole blackhole) throws Exception {
+		stream(presenceFlood, blackhole);
+	}
+
+	@Benchmark
+	public void streamPubsubEvents(Blackhole blackhole) throws Exception {
+		stream(pubsubEvents, blackhole);
+	}
+
+	@Benchmark
+	public void streamRosterPush(Blackhole blackhole) throws Exception {
+		stream(rosterPush, blackhole);
+	}
+
+	/**
+	 * Streams the packets into a reused buffer, like the packet writer
+	 * streams them into the connection writer.
+	 */
+	private void stream(List<Packet> packets, Blackhole blackhole)
+			throws Exception {
+		buffer.setLength(0);
+		for (int i = 0; i < packets.size(); i++) {
+			packets.get(i).toXML(buffer);
+		}
+		blackhole.consume(buffer.length());
+	}
+
+	@Benchmark
+	public void toXMLIbbData(Blackhole blackhole) {
+		toXML(ibbData, blackhole);
+	}
+
+	@Benchmark
+	public void toXMLMucHistory(Blackhole blackhole) {
+		toXML(mucHistory, blackhole);
+	}
+
+	@Benchmark
+	public void toXMLPresenceFlood(Blackhole blackhole) {
+		toXML(presenceFlood, blackhole);
+	}
+
+	@Benchmark
+	public void toXMLPubsubEvents(Blackhole blackhole) {
+		toXML(pubsubEvents, blackhole);
+	}
+
+	@Benchmark
+	public void toXMLRosterPush(Blackhole blackhole) {
+		toXML(rosterPush, blackhole);
+	}
+
+	private void toXML(List<Packet> packets, Blackhole blackhole) {
+		for (int i = 0; i < packets.size(); i++) {
+			blackhole.consume(packets.get(i).toXML());
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.Base64;
+import org.jivesoftware.smack.util.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the helpers on the serialization path: escaping text for XML and
+ * the Base64 coding of in-band bytestream and avatar data.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UtilBenchmark {
+
+	private String plainText;
+	private String specialText;
+	private byte[] block;
+	private String encodedBlock;
+	private final StringBuilder buffer = new StringBuilder(1 << 12);
+
+	@Benchmark
+	public byte[] base64Decode() {
+		return Base64.decode(encodedBlock);
+	}
+
+	@Benchmark
+	public String base64Encode() {
+		return Base64.encodeBytes(block, Base64.DONT_BREAK_LINES);
+	}
+
+	@Benchmark
+	public String escapePlainText() {
+		return StringUtils.escapeForXML(plainText);
+	}
+
+	@Benchmark
+	public String escapeSpecialText() {
+		return StringUtils.escapeForXML(specialText);
+	}
+
+	@Benchmark
+	public int escapeSpecialTextStreaming() throws Exception {
+		buffer.setLength(0);
+		StringUtils.escapeForXML(specialText, buffer);
+		return buffer.length();
+	}
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(64);
+		// A chat message without and one with characters to escape
+		plainText = "Wherefore art thou Romeo? Deny thy father and refuse "
+				+ "thy name, or if thou wilt not, be but sworn my love.";
+		specialText = Corpora.text(random, 40).replace("&amp;", "&")
+				.replace("&lt;", "<").replace("&apos;", "'");
+		block = new byte[4096];
+		random.nextBytes(block);
+		encodedBlock = Base64.encodeBytes(block, Base64.DONT_BREAK_LINES);
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.javawi.jstun.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.javawi.jstun.attribute.MessageAttributeException;
+import de.javawi.jstun.attribute.MessageAttributeParsingException;
+import de.javawi.jstun.header.MessageHeaderParsingException;
+import de.javawi.jstun.util.UtilityException;
+
+/**
+ * Caches the results of the discovery tests, so the tests don't have to be
+ * repeated for every session. The result of a test depends on the network
+ * the local address is attached to, so a result is kept for the local
+ * address, the gateway of its interface and the STUN server.
+ * <p>
+ * 
+ * A result expires after the time to live. All results are discarded as soon
+ * as the addresses of the network interfaces change, since the NAT in front
+ * of an address may have changed as well.
+ */
+public class DiscoveryCache {
+
+	private static class Entry {
+
+		private final DiscoveryInfo info;
+		private final long expiry;
+
+		private Entry(DiscoveryInfo info, long expiry) {
+			this.info = info;
+			this.expiry = expiry;
+		}
+	}
+
+	/**
+	 * The default time to live of a result in milliseconds.
+	 */
+	public static final long DEFAULT_TTL = 10 * 60 * 1000;
+
+	private static final String ROUTE_TABLE = "/proc/net/route";
+
+	private static final DiscoveryCache instance = new DiscoveryCache(
+			DEFAULT_TTL);
+
+	/**
+	 * Returns the gateway of the default route of an interface. The routing
+	 * table is only readable on Linux, e.g. Android.
+	 * 
+	 * @param iface
+	 *            the interface name.
+	 * @return the gateway or an empty string if unknown.
+	 */
+	private static String getGateway(String iface) {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(ROUTE_TABLE));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// Iface Destination Gateway Flags ...
+				final String[] fields = line.trim().split("\\s+");
+				if (fields.length > 2 && fields[0].equals(iface)
+						&& fields[1].equals("00000000")) {
+					return fields[2];
+				}
+			}
+		} catch (final IOException e) {
+			// Not available on this platform
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (final IOException e) {
+					// Ignore
+				}
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * Returns the cache shared by the resolvers.
+	 * 
+	 * @return the shared cache.
+	 */
+	public static DiscoveryCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the addresses of all network interfaces.
+	 * 
+	 * @return the addresses, sorted so they can be compared.
+	 */
+	private static List<String> getInterfaceAddresses() {
+		final List<String> addresses = new ArrayList<String>();
+		try {
+			final Enumeration<NetworkInterface> ifaces = NetworkInterface
+					.getNetworkInterfaces();
+			while (ifaces != null && ifaces.hasMoreElements()) {
+				final NetworkInterface iface = ifaces.nextElement();
+				final Enumeration<InetAddress> iaddresses = iface
+						.getInetAddresses();
+				while (iaddresses.hasMoreElements()) {
+					addresses.add(iface.getName() + "/"
+							+ iaddresses.nextElement().getHostAddress());
+				}
+			}
+		} catch (final SocketException e) {
+			// Compared as no addresses
+		}
+		Collections.sort(addresses);
+		return addresses;
+	}
+
+	private final long ttl;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	// The interface addresses the entries were discovered with
+	private List<String> interfaceAddresses;
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param ttl
+	 *            the time to live of a result in milliseconds.
+	 */
+	public DiscoveryCache(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Returns the cached result for a local address.
+	 * 
+	 * @param iaddress
+	 *            the local address.
+	 * @param stunServer
+	 *            the STUN server.
+	 * @param port
+	 *            the port of the STUN server.
+	 * @return the result or <tt>null</tt> if no valid result is cached.
+	 */
+	public DiscoveryInfo get(InetAddress iaddress, String stunServer, int port) {
+		final String key = getKey(iaddress, stunServer, port);
+		final List<String> addresses = getInterfaceAddresses();
+		synchronized (this) {
+			if (!addresses.equals(interfaceAddresses)) {
+				// Another network, the results may be wrong
+				entries.clear();
+				interfaceAddresses = addresses;
+				return null;
+			}
+			final Entry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.expiry <= System.currentTimeMillis()) {
+				entries.remove(key);
+				return null;
+			}
+			return entry.info;
+		}
+	}
+
+	/**
+	 * Returns the key of a result.
+	 */
+	private String getKey(InetAddress iaddress, String stunServer, int port) {
+		String gateway = "";
+		try {
+			final NetworkInterface iface = NetworkInterface
+					.getByInetAddress(iaddress);
+			if (iface != null) {
+				gateway = getGateway(iface.getName());
+			}
+		} catch (final SocketException e) {
+			// Keyed without gateway
+		}
+		return iaddress.getHostAddress() + "|" + gateway + "|" + stunServer
+				+ ":" + port;
+	}
+
+	/**
+	 * Discards all results.
+	 */
+	public synchronized void invalidate() {
+		entries.clear();
+		interfaceAddresses = null;
+	}
+
+	/**
+	 * Caches the result of a discovery test. Only results with a public
+	 * address are cached, so a test that failed due to packet loss is
+	 * repeated.
+	 * 
+	 * @param stunServer
+	 *            the STUN server.
+	 * @param port
+	 *            the port of the STUN server.
+	 * @param info
+	 *            the result.
+	 */
+	public void put(String stunServer, int port, DiscoveryInfo info) {
+		if (info.isError() || info.getPublicIP() == null) {
+			return;
+		}
+		final String key = getKey(info.getLocalIP(), stunServer, port);
+		final List<String> addresses = getInterfaceAddresses();
+		synchronized (this) {
+			if (!addresses.equals(interfaceAddresses)) {
+				entries.clear();
+				interfaceAddresses = addresses;
+			}
+			entries.put(key,
+					new Entry(info, System.currentTimeMillis() + ttl));
+		}
+	}
+
+	/**
+	 * Returns the cached result for a local address, or runs the discovery
+	 * test if no valid result is cached.
+	 * 
+	 * @param iaddress
+	 *            the local address.
+	 * @param stunServer
+	 *            the STUN server.
+	 * @param port
+	 *            the port of the STUN server.
+	 * @return the result.
+	 * @see DiscoveryTest#test()
+	 */
+	public DiscoveryInfo test(InetAddress iaddress, String stunServer, int port)
+			throws UtilityException, SocketException, IOException,
+			MessageAttributeParsingException, MessageAttributeException,
+			MessageHeaderParsingException {
+		DiscoveryInfo info = get(iaddress, stunServer, port);
+		if (info == null) {
+			info = new DiscoveryTest(iaddress, stunServer, port).test();
+			put(stunServer, port, info);
+		}
+		return info;
+	}
+}
@@ -28,6 +28,7 @@ public class DiscoveryInfo {
 	private boolean symmetric = false;
 	private boolean symmetricUDPFirewall = false;
 	private InetAddress publicIP;
+	private int publicPort = -1;
 
 	public DiscoveryInfo(InetAddress testIP) {
 		this.testIP = testIP;
@@ -41,6 +42,15 @@ public class DiscoveryInfo {
 		return publicIP;
 	}
 
+	/**
+	 * Returns the port the NAT mapped the port of the test socket to.
+	 * 
+	 * @return the mapped port or -1 if unknown.
+	 */
+	public int getPublicPort() {
+		return publicPort;
+	}
+
 	public boolean isBlockedUDP() {
 		if (error) {
 			return false;
@@ -120,6 +130,10 @@ public class DiscoveryInfo {
 		this.publicIP = publicIP;
 	}
 
+	public void setPublicPort(int publicPort) {
+		this.publicPort = publicPort;
+	}
+
 	public void setRestrictedCone() {
 		restrictedCone = true;
 	}
@@ -178,6 +192,9 @@ public class DiscoveryInfo {
 		sb.append("Public IP address: ");
 		if (publicIP != null) {
 			sb.append(publicIP.getHostAddress());
+			if (publicPort != -1) {
+				sb.append(" (mapped port " + publicPort + ")");
+			}
 		} else {
 			sb.append("unknown");
 		}
@@ -124,6 +124,7 @@ public class DiscoveryTest {
 					return false;
 				} else {
 					di.setPublicIP(ma.getAddress().getInetAddress());
+					di.setPublicPort(ma.getPort());
 					if ((ma.getPort() == socketTest1.getLocalPort())
 							&& (ma.getAddress().getInetAddress()
 									.equals(socketTest1.getLocalAddress()))) {
@@ -25,8 +25,8 @@ import java.util.Vector;
 
 import de.javawi.jstun.attribute.MessageAttributeException;
 import de.javawi.jstun.header.MessageHeaderParsingException;
+import de.javawi.jstun.test.DiscoveryCache;
 import de.javawi.jstun.test.DiscoveryInfo;
-import de.javawi.jstun.test.DiscoveryTest;
 import de.javawi.jstun.test.demo.ice.Candidate.CandidateType;
 import de.javawi.jstun.util.Address;
 import de.javawi.jstun.util.UtilityException;
@@ -99,9 +99,9 @@ public class ICENegociator {
 									iaddress.getAddress()), componentId);
 							candidates.add(local);
 							// add server reflexive address
-							final DiscoveryTest test = new DiscoveryTest(
-									iaddress, stunServer, stunPort);
-							final DiscoveryInfo di = test.test();
+							final DiscoveryInfo di = DiscoveryCache
+									.getInstance().test(iaddress, stunServer,
+											stunPort);
 							if (di.getPublicIP() != null) {
 								final Candidate cand = new Candidate(
 										new Address(di.getPublicIP()
@@ -33,6 +33,9 @@ import java.util.Random;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.harmony.javax.naming.NameNotFoundException;
 import org.apache.harmony.javax.naming.NamingException;
@@ -121,6 +124,29 @@ public class Resolver implements Runnable {
 
 	private static final Random rndGen = new Random();
 
+	/**
+	 * Runs the resolver threads and the background refreshes of the cache.
+	 */
+	static final ExecutorService executor = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable,
+							"DNS Resolver"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Removes the cached negative answers. They depend on the servers that
+	 * gave them, so they shouldn't outlive a change of the servers.
+	 */
+	public static void clearNegativeCache() {
+		ResolverCache.getInstance().clearNegative();
+	}
+
 	/**
 	 * Creates a new <code>Message</code> object and fills some of it's standard
 	 * fields.
@@ -821,7 +847,8 @@ public class Resolver implements Runnable {
 	/**
 	 * Checks available name servers if they have any resource records related
 	 * to given name & type & class combination. Standard DNS lookup algorithm
-	 * is used.
+	 * is used. The answer is taken from the cache if possible, expired answers
+	 * are served while they are refreshed in the background.
 	 * 
 	 * @param name
 	 *            well-formed domain name
@@ -840,10 +867,41 @@ public class Resolver implements Runnable {
 	 *             servers are dead or malfunction
 	 * @throws DomainProtocolException
 	 *             if some DNS specific error has occurred
+	 * @see ResolverCache#lookup(Resolver, String, int[], int[])
 	 */
 	public Enumeration<ResourceRecord> lookup(String name, int[] types,
 			int[] classes) throws SecurityException, NameNotFoundException,
 			ServiceUnavailableException, DomainProtocolException {
+		return ResolverCache.getInstance().lookup(this, name, types, classes);
+	}
+
+	/**
+	 * Checks available name servers if they have any resource records related
+	 * to given name & type & class combination. Standard DNS lookup algorithm
+	 * is used. Fresh records are taken from the cache, but negative and stale
+	 * answers are not and the query is not shared with other lookups.
+	 * 
+	 * @param name
+	 *            well-formed domain name
+	 * @param types
+	 *            an array of types; only records that have such types will be
+	 *            returned
+	 * @param classes
+	 * @return enumeration with found resource records
+	 * @throws SecurityException
+	 *             if the resolver is not allowed to use a network subsystem
+	 * @throws NameNotFoundException
+	 *             if authoritative server for desired zone was contacted but
+	 *             given name has not been found in that zone
+	 * @throws ServiceUnavailableException
+	 *             if no authoritative server for desired name was found or all
+	 *             servers are dead or malfunction
+	 * @throws DomainProtocolException
+	 *             if some DNS specific error has occurred
+	 */
+	Enumeration<ResourceRecord> query(String name, int[] types, int[] classes)
+			throws SecurityException, NameNotFoundException,
+			ServiceUnavailableException, DomainProtocolException {
 
 		// Algorithm:
 		// 1. Set workZone to the parent of qName; clear queriedServers.
@@ -1505,7 +1563,6 @@ public class Resolver implements Runnable {
 	 *            DNS class of host
 	 */
 	void startResolvingThread(String hostname, int dnsClass) {
-		Thread newThread;
 		Resolver.ThreadListEntry newEntry;
 		final int classes[] = new int[1];
 
@@ -1544,12 +1601,11 @@ public class Resolver implements Runnable {
 			newEntry.dnsClass = dnsClass;
 			hostnamesToResolve.add(newEntry);
 			// starting new thread that should make further updates by itself
-			newThread = new Thread(this);
 			// if (LogConst.DEBUG) {
 			// ProviderMgr.logger.fine("Starting new resolver thread," +
 			// " target hostname: " + hostname);
 			// }
-			newThread.start();
+			executor.execute(this);
 		}
 	}
 }
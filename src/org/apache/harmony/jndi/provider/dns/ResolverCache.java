@@ -22,14 +22,30 @@
 
 package org.apache.harmony.jndi.provider.dns;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.harmony.javax.naming.NameNotFoundException;
+import org.apache.harmony.javax.naming.ServiceUnavailableException;
+import org.apache.harmony.jndi.internal.nls.Messages;
 
 /**
  * A cache for received resource records. Common for all active resolvers.
- * 
- * TODO handling of records with TTL set to 0; should not be cached.
+ * <p>
+ * The records of a name are kept in an immutable array that is replaced as a
+ * whole, so lookups don't lock. Writers of the same name are serialized by a
+ * striped lock. The number of cached names is bounded, the names cached
+ * first are evicted first.
+ * <p>
+ * Besides records the cache keeps negative answers (RFC 2308): a name that
+ * doesn't exist or a name without records of the requested type. Expired
+ * records are kept for a while, so a lookup can be answered with the stale
+ * records while a background query refreshes them (RFC 8767). Concurrent
+ * lookups of the same records share a single query.
  */
 class ResolverCache {
 
@@ -42,6 +58,11 @@ class ResolverCache {
 
 		private final long bestBefore;
 
+		// type and class of a negative entry, the resource record is null
+		private final int rrType;
+
+		private final int rrClass;
+
 		/**
 		 * Constructs new cache entry.
 		 * 
@@ -53,6 +74,27 @@ class ResolverCache {
 		public CacheEntry(ResourceRecord rr, long bestBefore) {
 			this.rr = rr;
 			this.bestBefore = bestBefore;
+			rrType = rr.getRRType();
+			rrClass = rr.getRRClass();
+		}
+
+		/**
+		 * Constructs new negative cache entry.
+		 * 
+		 * @param rrType
+		 *            the type without records, or
+		 *            <code>ProviderConstants.ANY_QTYPE</code> if the name
+		 *            doesn't exist
+		 * @param rrClass
+		 *            the class without records
+		 * @param bestBefore
+		 *            best before (time in millis)
+		 */
+		CacheEntry(int rrType, int rrClass, long bestBefore) {
+			rr = null;
+			this.bestBefore = bestBefore;
+			this.rrType = rrType;
+			this.rrClass = rrClass;
 		}
 
 		/**
@@ -68,12 +110,96 @@ class ResolverCache {
 		public ResourceRecord getRR() {
 			return rr;
 		}
+
+		boolean isNameError() {
+			return rr == null && rrType == ProviderConstants.ANY_QTYPE;
+		}
+
+		boolean matches(int qType, int qClass) {
+			return rrClass == qClass
+					&& (rrType == qType || isNameError());
+		}
 	}
 
-	/** keys - zone & host names; values - vectors with RRs */
-	HashMap<String, Vector<CacheEntry>> names = new HashMap<String, Vector<CacheEntry>>();
+	/**
+	 * A query in progress. Lookups of the same records wait for its result
+	 * instead of sending their own query.
+	 */
+	private static class Query {
+
+		private boolean done;
 
-	private static ResolverCache instance = null;
+		private Vector<ResourceRecord> records;
+
+		private Exception failure;
+
+		synchronized Enumeration<ResourceRecord> await()
+				throws NameNotFoundException, ServiceUnavailableException,
+				DomainProtocolException {
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					wait();
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (failure instanceof NameNotFoundException) {
+				throw (NameNotFoundException) failure;
+			} else if (failure instanceof ServiceUnavailableException) {
+				throw (ServiceUnavailableException) failure;
+			} else if (failure instanceof DomainProtocolException) {
+				throw (DomainProtocolException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			return records.elements();
+		}
+
+		synchronized void complete(Vector<ResourceRecord> records,
+				Exception failure) {
+			this.records = records;
+			this.failure = failure;
+			done = true;
+			notifyAll();
+		}
+	}
+
+	/** maximum number of cached names */
+	static final int MAX_NAMES = 1000;
+
+	/** how long expired records may still be served while being refreshed */
+	static final long STALE_PERIOD = 60 * 60 * 1000;
+
+	/**
+	 * how long negative answers are cached; the SOA minimum isn't available
+	 * here, so a fixed period is used
+	 */
+	static final long NEGATIVE_TTL = 60 * 1000;
+
+	private static final int LOCK_STRIPES = 16;
+
+	// lookup states of a question
+	private static final int MISSING = 0;
+
+	private static final int STALE = 1;
+
+	private static final int FRESH = 2;
+
+	private static final ResolverCache instance = new ResolverCache();
+
+	private static boolean containsType(Vector<ResourceRecord> records,
+			int type, int dnsClass) {
+		for (final ResourceRecord record : records) {
+			if (record.getRRType() == type && record.getRRClass() == dnsClass) {
+				return true;
+			}
+		}
+		return false;
+	}
 
 	/**
 	 * <code>ResolverCache</code> is a singleton class.
@@ -81,25 +207,220 @@ class ResolverCache {
 	 * @return active instance of <code>ResolverCache</code>
 	 */
 	static ResolverCache getInstance() {
-		if (instance == null) {
-			instance = new ResolverCache();
-		}
 		return instance;
 	}
 
+	/**
+	 * Returns true if the answer to the given types and classes can be taken
+	 * from the cache.
+	 */
+	private static boolean isCacheable(int[] types, int[] classes) {
+		for (final int type : types) {
+			if (type == ProviderConstants.ANY_QTYPE) {
+				return false;
+			}
+		}
+		for (final int dnsClass : classes) {
+			if (dnsClass == ProviderConstants.ANY_QCLASS) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String queryKey(String name, int[] types, int[] classes) {
+		final StringBuilder key = new StringBuilder(name.toLowerCase());
+		for (final int type : types) {
+			key.append('/').append(type);
+		}
+		key.append(';');
+		for (final int dnsClass : classes) {
+			key.append('/').append(dnsClass);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns true if the new entry replaces the existing one: a record
+	 * replaces the same record and all negative entries of its type, a
+	 * negative entry replaces the entries of its type.
+	 */
+	private static boolean replaces(CacheEntry entry, CacheEntry exEntry) {
+		if (entry.rrClass != exEntry.rrClass) {
+			return false;
+		}
+		if (entry.rr == null) {
+			return entry.isNameError() || entry.rrType == exEntry.rrType;
+		}
+		if (exEntry.rr == null) {
+			return exEntry.isNameError() || entry.rrType == exEntry.rrType;
+		}
+		final ResourceRecord record = entry.rr;
+		final ResourceRecord exRec = exEntry.rr;
+
+		return ProviderMgr.namesAreEqual(record.getName(), exRec.getName())
+				&& record.getRRType() == exRec.getRRType()
+				&& record.getRData() != null && exRec.getRData() != null
+				&& record.getRData().equals(exRec.getRData());
+	}
+
+	/** keys - zone & host names; values - arrays with RRs */
+	private final ConcurrentHashMap<String, CacheEntry[]> names = new ConcurrentHashMap<String, CacheEntry[]>();
+
+	/** the cached names in the order they were added, used for eviction */
+	private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<String>();
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	/** queries in progress by their query keys */
+	private final ConcurrentHashMap<String, Query> queries = new ConcurrentHashMap<String, Query>();
+
 	/**
 	 * Since <code>ResolverCache</code> is singleton class its constructor
 	 * should be hidden.
 	 */
 	private ResolverCache() {
-		names = new HashMap<String, Vector<CacheEntry>>();
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Adds an entry to the entries of a name. Entries that are too old to be
+	 * served as stale and entries the new entry replaces are dropped.
+	 * 
+	 * @param name
+	 *            the lower case name
+	 * @param entry
+	 *            the new entry
+	 */
+	private void add(String name, CacheEntry entry) {
+		final long curTime = System.currentTimeMillis();
+		final boolean added;
+
+		synchronized (locks[(name.hashCode() & 0x7fffffff) % locks.length]) {
+			final CacheEntry[] oldEntries = names.get(name);
+			final List<CacheEntry> newEntries = new ArrayList<CacheEntry>();
+
+			if (oldEntries != null) {
+				for (final CacheEntry exEntry : oldEntries) {
+					if (exEntry.bestBefore + STALE_PERIOD < curTime
+							|| replaces(entry, exEntry)) {
+						continue;
+					}
+					newEntries.add(exEntry);
+				}
+			}
+			newEntries.add(entry);
+			added = names.put(name,
+					newEntries.toArray(new CacheEntry[newEntries.size()])) == null;
+		}
+		if (added) {
+			order.add(name);
+			// evict the oldest names
+			while (names.size() > MAX_NAMES) {
+				final String oldest = order.poll();
+
+				if (oldest == null) {
+					break;
+				}
+				names.remove(oldest);
+			}
+		}
 	}
 
 	/**
 	 * Removes all cached entries.
 	 */
-	synchronized void clear() {
-		names = new HashMap<String, Vector<CacheEntry>>();
+	void clear() {
+		names.clear();
+		order.clear();
+	}
+
+	/**
+	 * Removes the negative entries, the records are kept.
+	 */
+	void clearNegative() {
+		for (final String name : names.keySet()) {
+			synchronized (locks[(name.hashCode() & 0x7fffffff) % locks.length]) {
+				final CacheEntry[] oldEntries = names.get(name);
+
+				if (oldEntries == null) {
+					continue;
+				}
+				final List<CacheEntry> newEntries = new ArrayList<CacheEntry>();
+
+				for (final CacheEntry exEntry : oldEntries) {
+					if (exEntry.rr != null) {
+						newEntries.add(exEntry);
+					}
+				}
+				if (newEntries.isEmpty()) {
+					names.remove(name);
+					order.remove(name);
+				} else if (newEntries.size() < oldEntries.length) {
+					names.put(name, newEntries.toArray(new CacheEntry[newEntries
+							.size()]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the cached records of a question.
+	 * 
+	 * @param question
+	 *            the question
+	 * @param includeStale
+	 *            whether expired records that may still be served as stale
+	 *            are collected
+	 * @param records
+	 *            the vector the records are added to
+	 * @return <code>FRESH</code> if the question can be answered from the
+	 *         cache, <code>STALE</code> if the answer is expired and
+	 *         <code>MISSING</code> if nothing is cached
+	 * @throws NameNotFoundException
+	 *             if the name is cached as not existing
+	 */
+	private int collect(QuestionRecord question, boolean includeStale,
+			Vector<ResourceRecord> records) throws NameNotFoundException {
+		final CacheEntry[] entries = names.get(question.getQName()
+				.toLowerCase());
+		final long curTime = System.currentTimeMillis();
+		final Vector<ResourceRecord> staleRecords = new Vector<ResourceRecord>();
+		boolean fresh = false;
+
+		if (entries == null) {
+			return MISSING;
+		}
+		for (final CacheEntry entry : entries) {
+			if (!entry.matches(question.getQType(), question.getQClass())) {
+				continue;
+			}
+			if (entry.bestBefore >= curTime) {
+				if (entry.isNameError()) {
+					// jndi.6D=Name {0} was not found
+					throw new NameNotFoundException(Messages.getString(
+							"jndi.6D", question.getQName())); //$NON-NLS-1$
+				}
+				// a fresh negative entry answers the question without records
+				if (entry.rr != null) {
+					records.addElement(entry.rr);
+				}
+				fresh = true;
+			} else if (entry.rr != null && includeStale
+					&& entry.bestBefore + STALE_PERIOD >= curTime) {
+				staleRecords.addElement(entry.rr);
+			}
+		}
+		if (fresh) {
+			return FRESH;
+		}
+		if (staleRecords.isEmpty()) {
+			return MISSING;
+		}
+		records.addAll(staleRecords);
+		return STALE;
 	}
 
 	/**
@@ -110,35 +431,73 @@ class ResolverCache {
 	 *            from the cache
 	 * @return Enumeration of found Resource Records.
 	 */
-	synchronized Enumeration<ResourceRecord> get(QuestionRecord question) {
-		final String name = question.getQName().toLowerCase();
-		final Vector<CacheEntry> vect = names.get(name);
-		final int qClass = question.getQClass();
-		final int qType = question.getQType();
+	Enumeration<ResourceRecord> get(QuestionRecord question) {
 		final Vector<ResourceRecord> resVect = new Vector<ResourceRecord>();
 
-		if (vect != null) {
-			for (int i = 0; i < vect.size(); i++) {
-				final CacheEntry curEntry = vect.elementAt(i);
-				final ResourceRecord curRR = curEntry.getRR();
+		if (question.getQClass() == ProviderConstants.ANY_QCLASS
+				|| question.getQType() == ProviderConstants.ANY_QTYPE) {
+			return resVect.elements();
+		}
+		try {
+			collect(question, false, resVect);
+		} catch (final NameNotFoundException e) {
+			// no records
+		}
+		return resVect.elements();
+	}
+
+	/**
+	 * Answers a lookup from the cache if possible. Expired records are
+	 * returned while a background query refreshes them. Otherwise the
+	 * resolver queries the servers, concurrent lookups of the same records
+	 * share the query.
+	 * 
+	 * @param resolver
+	 *            the resolver to query the servers with
+	 * @param name
+	 *            name to look for
+	 * @param types
+	 *            resource record types to look for
+	 * @param classes
+	 *            resource record classes to look for
+	 * @return enumeration with found resource records
+	 * @see Resolver#lookup(String, int[], int[])
+	 */
+	Enumeration<ResourceRecord> lookup(final Resolver resolver,
+			final String name, final int[] types, final int[] classes)
+			throws NameNotFoundException, ServiceUnavailableException,
+			DomainProtocolException {
+		if (name == null || types == null || classes == null
+				|| !isCacheable(types, classes)) {
+			return resolver.query(name, types, classes);
+		}
+		final Vector<ResourceRecord> records = new Vector<ResourceRecord>();
+		int state = FRESH;
 
-				if (curEntry.getBestBefore() < System.currentTimeMillis()) {
-					// the record is out of date
-					vect.removeElementAt(i--);
-					continue;
-				}
-				if (qClass == ProviderConstants.ANY_QCLASS
-						|| qClass != curRR.getRRClass()) {
-					continue;
-				}
-				if (qType == ProviderConstants.ANY_QTYPE
-						|| qType != curRR.getRRType()) {
-					continue;
-				}
-				resVect.addElement(curRR);
+		for (final int dnsClass : classes) {
+			for (final int type : types) {
+				state = Math.min(state, collect(new QuestionRecord(name, type,
+						dnsClass), true, records));
 			}
 		}
-		return resVect.elements();
+		if (state == FRESH) {
+			return records.elements();
+		}
+		if (state == STALE) {
+			Resolver.executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						query(resolver, name, types, classes);
+					} catch (final Exception e) {
+						// keep serving the stale records
+					}
+				}
+			});
+			return records.elements();
+		}
+		return query(resolver, name, types, classes);
 	}
 
 	/**
@@ -148,16 +507,7 @@ class ResolverCache {
 	 * @param record
 	 *            a resource record to insert
 	 */
-	synchronized void put(ResourceRecord record) {
-		final String name = record.getName().toLowerCase();
-		Vector<CacheEntry> vect = names.get(name);
-		final long curTime = System.currentTimeMillis();
-		CacheEntry entry = null;
-
-		if (vect == null) {
-			vect = new Vector<CacheEntry>();
-			names.put(name, vect);
-		}
+	void put(ResourceRecord record) {
 		// TTL should be between 0 and 2^31; if greater - should be set to 0
 		// See RFC 2181 point 8
 		if (record.getTtl() >> 31 != 0) {
@@ -165,25 +515,78 @@ class ResolverCache {
 		}
 		// skip records with wildcards in names or with zero TTL
 		if (record.getTtl() > 0 && (record.getName().indexOf('*') == -1)) {
-			entry = new CacheEntry(record, curTime + record.getTtl());
-			// remove old occurrence if any
-			for (int i = 0; i < vect.size(); i++) {
-				final CacheEntry exEntry = vect.elementAt(i);
-				final ResourceRecord exRec = exEntry.rr;
-
-				if (ProviderMgr
-						.namesAreEqual(record.getName(), exRec.getName())
-						&& record.getRRClass() == exRec.getRRClass()
-						&& record.getRRType() == exRec.getRRType()) {
-					if (record.getRData() != null && exRec.getRData() != null
-							&& record.getRData().equals(exRec.getRData())) {
-						vect.remove(i);
-						break;
+			// the TTL is given in seconds
+			add(record.getName().toLowerCase(), new CacheEntry(record,
+					System.currentTimeMillis() + record.getTtl() * 1000));
+		}
+	}
+
+	/**
+	 * Puts a negative answer into the cache.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param rrType
+	 *            the type without records, or
+	 *            <code>ProviderConstants.ANY_QTYPE</code> if the name doesn't
+	 *            exist
+	 * @param rrClass
+	 *            the class without records
+	 */
+	void putNegative(String name, int rrType, int rrClass) {
+		add(name.toLowerCase(), new CacheEntry(rrType, rrClass,
+				System.currentTimeMillis() + NEGATIVE_TTL));
+	}
+
+	/**
+	 * Queries the servers unless the same query is already in progress, in
+	 * which case its result is awaited. The answer is cached by the resolver,
+	 * negative answers are cached here.
+	 */
+	private Enumeration<ResourceRecord> query(Resolver resolver, String name,
+			int[] types, int[] classes) throws NameNotFoundException,
+			ServiceUnavailableException, DomainProtocolException {
+		final String key = queryKey(name, types, classes);
+		final Query query = new Query();
+		final Query running = queries.putIfAbsent(key, query);
+
+		if (running != null) {
+			return running.await();
+		}
+		try {
+			final Vector<ResourceRecord> records = new Vector<ResourceRecord>();
+			final Enumeration<ResourceRecord> found = resolver.query(name,
+					types, classes);
+
+			while (found.hasMoreElements()) {
+				records.addElement(found.nextElement());
+			}
+			for (final int dnsClass : classes) {
+				for (final int type : types) {
+					if (!containsType(records, type, dnsClass)) {
+						putNegative(name, type, dnsClass);
 					}
 				}
 			}
-			vect.addElement(entry);
+			query.complete(records, null);
+			return records.elements();
+		} catch (final NameNotFoundException e) {
+			for (final int dnsClass : classes) {
+				putNegative(name, ProviderConstants.ANY_QTYPE, dnsClass);
+			}
+			query.complete(null, e);
+			throw e;
+		} catch (final ServiceUnavailableException e) {
+			query.complete(null, e);
+			throw e;
+		} catch (final DomainProtocolException e) {
+			query.complete(null, e);
+			throw e;
+		} catch (final RuntimeException e) {
+			query.complete(null, e);
+			throw e;
+		} finally {
+			queries.remove(key, query);
 		}
 	}
-
 }
@@ -0,0 +1,152 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The selector loop shared by all connections using the non-blocking
+ * transport. A single daemon thread reads and writes the channels of all
+ * connections, the received elements are parsed and processed by a small
+ * pool of threads shared by all connections as well. So the number of
+ * threads doesn't grow with the number of connections.
+ * <p>
+ * 
+ * The selector thread never blocks on a connection. Changes of the interest
+ * set and new registrations are queued and applied by the selector thread,
+ * since they may block while the selector is selecting on some platforms.
+ * 
+ * @see ConnectionConfiguration#setNonBlockingTransportEnabled(boolean)
+ */
+final class ChannelSelector implements Runnable {
+
+	private static ChannelSelector instance;
+
+	/**
+	 * Returns the shared selector, it is started on first use.
+	 * 
+	 * @return the shared selector.
+	 * @throws IOException
+	 *             if the selector can't be opened.
+	 */
+	static synchronized ChannelSelector getInstance() throws IOException {
+		if (instance == null) {
+			instance = new ChannelSelector();
+			final Thread thread = new Thread(instance, "Smack Selector");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return instance;
+	}
+
+	private final Selector selector;
+	private final Queue<ChannelTransport> updates = new ConcurrentLinkedQueue<ChannelTransport>();
+	private final ThreadPoolExecutor executor;
+
+	private ChannelSelector() throws IOException {
+		selector = Selector.open();
+		final int poolSize = Math.max(2, Runtime.getRuntime()
+				.availableProcessors());
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								"Smack Stream Processor");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// Idle processes don't keep any thread
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs a task on the shared processor threads, such as parsing the
+	 * received elements of a connection or a delegated task of a TLS
+	 * handshake.
+	 * 
+	 * @param task
+	 *            the task to run.
+	 */
+	void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+				ChannelTransport transport;
+				while ((transport = updates.poll()) != null) {
+					try {
+						transport.updateKey(selector);
+					} catch (final RuntimeException e) {
+						transport.fail(new IOException(e));
+					}
+				}
+				final Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					transport = (ChannelTransport) key.attachment();
+					try {
+						if (key.isWritable()) {
+							transport.writable();
+						}
+						if (key.isValid() && key.isReadable()) {
+							transport.readable();
+						}
+					} catch (final CancelledKeyException e) {
+						// The channel was closed in the meantime
+					} catch (final RuntimeException e) {
+						// Only the connection of the channel fails, e.g. on
+						// an error of its SSLEngine
+						transport.fail(new IOException(e));
+					}
+				}
+			} catch (final IOException e) {
+				// Keep serving the other channels
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Requests the selector thread to register the channel of a transport or
+	 * to update its interest set.
+	 * 
+	 * @param transport
+	 *            the transport whose interest changed.
+	 */
+	void update(ChannelTransport transport) {
+		updates.add(transport);
+		selector.wakeup();
+	}
+}
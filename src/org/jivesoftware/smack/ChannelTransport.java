@@ -0,0 +1,704 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Non-blocking transport of a connection on a {@link SocketChannel}. The
+ * shared {@link ChannelSelector} thread reads the channel, decrypts the data
+ * with an {@link SSLEngine} once TLS was started, decodes it and appends it to
+ * a {@link StreamFeed} the packet reader parses complete elements from.
+ * <p>
+ * 
+ * Data written to the writer of the transport is encoded into a buffer and
+ * written to the channel by the thread flushing the writer. Whatever doesn't
+ * fit into the socket buffer is written by the selector thread once the
+ * channel becomes writable again. A thread flushing the writer waits while
+ * too much data is pending, so a server that doesn't read slows the sender
+ * down like a blocking socket would.
+ * <p>
+ * 
+ * The delegated tasks of the TLS handshake run on the processor threads of
+ * the selector. The channel, the buffers and the engine are guarded by the
+ * instance lock.
+ */
+class ChannelTransport {
+
+	/**
+	 * Receives the events of a transport. The methods are called by the
+	 * selector thread and must not block.
+	 */
+	interface Listener {
+
+		/**
+		 * Notification that complete elements can be read from the reader of
+		 * the transport.
+		 */
+		public void elementsReceived();
+
+		/**
+		 * Notification that the connection failed or was closed by the
+		 * server.
+		 * 
+		 * @param e
+		 *            the cause of the failure.
+		 */
+		public void transportFailed(IOException e);
+	}
+
+	/**
+	 * Writer that encodes into the output buffer of the transport.
+	 */
+	private class ChannelWriter extends Writer {
+
+		@Override
+		public void close() {
+			ChannelTransport.this.close();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			ChannelTransport.this.flush();
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			ChannelTransport.this.write(cbuf, off, len);
+		}
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Number of bytes that may be pending before flushing the writer waits.
+	 */
+	private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+
+	private static void checkResult(CoderResult result) throws IOException {
+		if (result.isError()) {
+			result.throwException();
+		}
+	}
+
+	/**
+	 * Returns a buffer with at least the given number of bytes free. The
+	 * content of the buffer is kept.
+	 */
+	private static ByteBuffer ensureFree(ByteBuffer buffer, int free) {
+		if (buffer.remaining() >= free) {
+			return buffer;
+		}
+		final ByteBuffer grown = ByteBuffer.allocate(Math.max(
+				buffer.capacity() * 2, buffer.position() + free));
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+	private final SocketChannel channel;
+	private final ChannelSelector selector;
+	private final StreamFeed feed = new StreamFeed();
+	private final Writer writer = new ChannelWriter();
+	private final CharsetDecoder decoder = UTF8.newDecoder();
+	private final CharsetEncoder encoder = UTF8.newEncoder();
+	private final CharBuffer charIn = CharBuffer.allocate(BUFFER_SIZE);
+	private final CharBuffer charOut = CharBuffer.allocate(BUFFER_SIZE);
+	private final ByteBuffer empty = ByteBuffer.allocate(0);
+
+	// Bytes received from and to be sent to the network
+	private ByteBuffer netIn = ByteBuffer.allocate(BUFFER_SIZE);
+	private ByteBuffer netOut = ByteBuffer.allocate(BUFFER_SIZE);
+	// Decrypted bytes and bytes to be encrypted once TLS was started
+	private ByteBuffer appIn;
+	private ByteBuffer appOut;
+
+	private volatile Listener listener;
+	private SelectionKey key;
+	private boolean writeInterest;
+	private boolean readPaused;
+
+	private SSLEngine engine;
+	private TLSStatistics tlsStatistics;
+	private boolean handshaking;
+	private boolean tasksRunning;
+	private long handshakeStart;
+	private long handshakeStartNanos;
+
+	private IOException failure;
+	private boolean closed;
+
+	/**
+	 * Creates a transport on a connected channel and registers it with the
+	 * shared selector.
+	 * 
+	 * @param channel
+	 *            the connected channel.
+	 * @throws IOException
+	 *             if the channel can't be switched to non-blocking mode.
+	 */
+	ChannelTransport(SocketChannel channel) throws IOException {
+		this.channel = channel;
+		channel.configureBlocking(false);
+		selector = ChannelSelector.getInstance();
+		selector.update(this);
+	}
+
+	/**
+	 * Checks that the transport can still be used.
+	 */
+	private void checkOpen() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		if (closed) {
+			throw new IOException("Connection closed");
+		}
+	}
+
+	/**
+	 * Closes the transport. The data that was flushed is sent if it fits
+	 * into the socket buffer, TLS is closed with a close notification.
+	 */
+	void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			try {
+				if (engine != null && !handshaking) {
+					engine.closeOutbound();
+					while (!engine.isOutboundDone() && wrap(empty)) {
+						// Wrap the close notification
+					}
+				}
+				writeOutput();
+			} catch (final IOException e) {
+				// Closing anyway
+			}
+			closeChannel();
+		}
+		feed.close();
+	}
+
+	private void closeChannel() {
+		closed = true;
+		try {
+			channel.close();
+		} catch (final IOException e) {
+			// Ignore
+		}
+		// Wake up threads waiting for the handshake or to write
+		notifyAll();
+	}
+
+	/**
+	 * Decodes the received bytes and appends them to the feed. Incomplete
+	 * characters are kept in the buffer.
+	 */
+	private void decode(ByteBuffer in) throws IOException {
+		in.flip();
+		try {
+			CoderResult result;
+			do {
+				result = decoder.decode(in, charIn, false);
+				if (result.isError()) {
+					result.throwException();
+				}
+				charIn.flip();
+				feed.append(charIn);
+				charIn.clear();
+			} while (result.isOverflow());
+		} finally {
+			in.compact();
+		}
+	}
+
+	/**
+	 * Encodes the characters written so far into the output buffer. A
+	 * surrogate pair split between two writes is kept until the second half
+	 * was written.
+	 */
+	private void encode() throws IOException {
+		charOut.flip();
+		try {
+			// UTF-8 needs at most three bytes per char
+			final int needed = charOut.remaining() * 3;
+			if (engine == null) {
+				netOut = ensureFree(netOut, needed);
+				checkResult(encoder.encode(charOut, netOut, false));
+			} else {
+				appOut = ensureFree(appOut, needed);
+				checkResult(encoder.encode(charOut, appOut, false));
+			}
+		} finally {
+			charOut.compact();
+		}
+	}
+
+	/**
+	 * Fails the transport and notifies the listener.
+	 * 
+	 * @param e
+	 *            the cause of the failure.
+	 */
+	void fail(IOException e) {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			failure = e;
+			closeChannel();
+		}
+		feed.close();
+		final Listener listener = this.listener;
+		if (listener != null) {
+			listener.transportFailed(e);
+		}
+	}
+
+	/**
+	 * Writes the encoded data to the channel. Waits while more data is
+	 * pending than the socket can take.
+	 */
+	private void flush() throws IOException {
+		final boolean elements;
+		synchronized (this) {
+			checkOpen();
+			process();
+			while (getPendingOutput() > MAX_PENDING_OUTPUT) {
+				try {
+					wait();
+				} catch (final InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				checkOpen();
+			}
+			elements = feed.hasElements();
+		}
+		if (elements) {
+			notifyElements();
+		}
+	}
+
+	/**
+	 * Returns the feed the received XML stream is parsed from. It only
+	 * returns complete elements.
+	 * 
+	 * @return the feed of the received stream.
+	 */
+	StreamFeed getFeed() {
+		return feed;
+	}
+
+	/**
+	 * Returns the number of bytes that were written but not yet sent.
+	 */
+	private int getPendingOutput() {
+		return netOut.position() + (appOut != null ? appOut.position() : 0);
+	}
+
+	/**
+	 * Returns the selector the transport is registered with.
+	 * 
+	 * @return the shared selector.
+	 */
+	ChannelSelector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Returns the writer to send XML to the server. Writes are sent when the
+	 * writer is flushed.
+	 * 
+	 * @return the writer of the transport.
+	 */
+	Writer getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Notes that the TLS handshake finished.
+	 */
+	private void handshakeFinished() {
+		handshaking = false;
+		if (tlsStatistics != null) {
+			// A resumed session was created by an earlier handshake
+			tlsStatistics.recordHandshake(System.nanoTime()
+					- handshakeStartNanos, engine.getSession()
+					.getCreationTime() < handshakeStart);
+		}
+		notifyAll();
+	}
+
+	private void notifyElements() {
+		final Listener listener = this.listener;
+		if (listener != null) {
+			listener.elementsReceived();
+		}
+	}
+
+	/**
+	 * Moves the data as far as possible: drives the TLS handshake, decrypts
+	 * and decodes the received data, encrypts the data to be sent and writes
+	 * it to the channel.
+	 */
+	private void process() throws IOException {
+		if (engine == null) {
+			decode(netIn);
+		} else {
+			boolean progress = true;
+			while (progress && !tasksRunning) {
+				switch (engine.getHandshakeStatus()) {
+				case NEED_TASK:
+					runDelegatedTasks();
+					progress = false;
+					break;
+				case NEED_WRAP:
+					progress = wrap(empty);
+					break;
+				case NEED_UNWRAP:
+					progress = unwrap();
+					break;
+				default:
+					if (handshaking) {
+						handshakeFinished();
+					}
+					progress = unwrap();
+					progress |= wrap(appOut);
+					break;
+				}
+			}
+		}
+		writeOutput();
+	}
+
+	/**
+	 * Reads from the channel. Called by the selector thread when the channel
+	 * is readable.
+	 */
+	void readable() {
+		final boolean elements;
+		try {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				netIn = ensureFree(netIn, 1);
+				if (channel.read(netIn) < 0) {
+					throw new EOFException("Connection closed by server");
+				}
+				process();
+				elements = feed.hasElements();
+			}
+		} catch (final IOException e) {
+			fail(e);
+			return;
+		}
+		if (elements) {
+			notifyElements();
+		}
+	}
+
+	/**
+	 * Runs the delegated tasks of the TLS handshake on a processor thread and
+	 * continues the handshake afterwards.
+	 */
+	private void runDelegatedTasks() {
+		tasksRunning = true;
+		final SSLEngine engine = this.engine;
+		selector.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				final boolean elements;
+				try {
+					Runnable task;
+					while ((task = engine.getDelegatedTask()) != null) {
+						task.run();
+					}
+					synchronized (ChannelTransport.this) {
+						tasksRunning = false;
+						if (closed) {
+							return;
+						}
+						process();
+						elements = feed.hasElements();
+					}
+				} catch (final IOException e) {
+					fail(e);
+					return;
+				} catch (final RuntimeException e) {
+					// A failing task must not leave the handshake hanging
+					fail(new IOException(e));
+					return;
+				}
+				if (elements) {
+					notifyElements();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops or resumes reading from the channel. Reading is stopped while the
+	 * received packets are delivered slower than they arrive, so the server
+	 * is held back by TCP flow control.
+	 * 
+	 * @param paused
+	 *            true to stop reading.
+	 */
+	void setReadPaused(boolean paused) {
+		synchronized (this) {
+			if (closed || readPaused == paused) {
+				return;
+			}
+			readPaused = paused;
+		}
+		selector.update(this);
+	}
+
+	/**
+	 * Sets the listener that is notified of received elements and failures.
+	 * 
+	 * @param listener
+	 *            the listener.
+	 */
+	void setListener(Listener listener) {
+		this.listener = listener;
+		final IOException failure;
+		synchronized (this) {
+			failure = this.failure;
+		}
+		// Report what happened before the listener was set
+		if (failure != null) {
+			listener.transportFailed(failure);
+		} else if (feed.hasElements()) {
+			listener.elementsReceived();
+		}
+	}
+
+	/**
+	 * Starts TLS on the transport. The data written afterwards is encrypted,
+	 * the handshake is driven by the selector and the threads writing, so
+	 * this method doesn't wait for the handshake to finish.
+	 * 
+	 * @param engine
+	 *            the engine in client mode.
+	 * @param statistics
+	 *            the statistics to record the handshake in.
+	 * @throws IOException
+	 *             if the handshake can't be started.
+	 * @see #waitForHandshake(long)
+	 */
+	void startTLS(SSLEngine engine, TLSStatistics statistics)
+			throws IOException {
+		synchronized (this) {
+			checkOpen();
+			final SSLSession session = engine.getSession();
+			this.engine = engine;
+			tlsStatistics = statistics;
+			// The data written so far is sent unencrypted
+			netIn = ensureFree(netIn, session.getPacketBufferSize());
+			netOut = ensureFree(netOut, session.getPacketBufferSize());
+			appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+			appOut = ByteBuffer.allocate(BUFFER_SIZE);
+			handshaking = true;
+			handshakeStart = System.currentTimeMillis();
+			handshakeStartNanos = System.nanoTime();
+			engine.beginHandshake();
+			process();
+		}
+	}
+
+	/**
+	 * Decrypts the received data and decodes it.
+	 * 
+	 * @return true if data was consumed or produced.
+	 */
+	private boolean unwrap() throws IOException {
+		netIn.flip();
+		try {
+			while (true) {
+				final SSLEngineResult result = engine.unwrap(netIn, appIn);
+				switch (result.getStatus()) {
+				case BUFFER_OVERFLOW:
+					appIn = ensureFree(appIn, engine.getSession()
+							.getApplicationBufferSize());
+					break;
+				case BUFFER_UNDERFLOW:
+					// Wait for the rest of the record
+					return false;
+				case CLOSED:
+					throw new EOFException("TLS closed by server");
+				default:
+					if (result.bytesProduced() > 0) {
+						decode(appIn);
+					}
+					return result.bytesConsumed() > 0
+							|| result.bytesProduced() > 0;
+				}
+			}
+		} finally {
+			netIn.compact();
+		}
+	}
+
+	/**
+	 * Applies the interest set of the transport to its key. Called by the
+	 * selector thread.
+	 * 
+	 * @param selector
+	 *            the selector of the selector thread.
+	 */
+	void updateKey(Selector selector) {
+		final int ops;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			ops = (readPaused ? 0 : SelectionKey.OP_READ)
+					| (writeInterest ? SelectionKey.OP_WRITE : 0);
+		}
+		try {
+			if (key == null) {
+				key = channel.register(selector, ops, this);
+			} else if (key.isValid()) {
+				key.interestOps(ops);
+			}
+		} catch (final ClosedChannelException e) {
+			// The transport was closed in the meantime
+		}
+	}
+
+	/**
+	 * Waits until the TLS handshake finished.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds.
+	 * @throws IOException
+	 *             if the handshake failed or timed out.
+	 */
+	synchronized void waitForHandshake(long timeout) throws IOException {
+		final long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (handshaking && failure == null && !closed && remaining > 0) {
+			try {
+				wait(remaining);
+			} catch (final InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		checkOpen();
+		if (handshaking) {
+			throw new SocketTimeoutException("TLS handshake timed out");
+		}
+	}
+
+	/**
+	 * Encrypts the data of the given buffer.
+	 * 
+	 * @return true if data was consumed or produced.
+	 */
+	private boolean wrap(ByteBuffer source) throws IOException {
+		source.flip();
+		try {
+			while (true) {
+				final SSLEngineResult result = engine.wrap(source, netOut);
+				if (result.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW) {
+					return result.bytesConsumed() > 0
+							|| result.bytesProduced() > 0;
+				}
+				netOut = ensureFree(netOut, engine.getSession()
+						.getPacketBufferSize());
+			}
+		} finally {
+			source.compact();
+		}
+	}
+	/**
+	 * Continues writing. Called by the selector thread when the channel is
+	 * writable.
+	 */
+	void writable() {
+		try {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				process();
+				// Wake up threads waiting for the pending data to be sent
+				notifyAll();
+			}
+		} catch (final IOException e) {
+			fail(e);
+		}
+	}
+
+	private void write(char[] cbuf, int off, int len) throws IOException {
+		synchronized (this) {
+			checkOpen();
+			while (len > 0) {
+				final int count = Math.min(len, charOut.remaining());
+				charOut.put(cbuf, off, count);
+				off += count;
+				len -= count;
+				encode();
+			}
+		}
+	}
+
+	/**
+	 * Writes as much of the encrypted or encoded data to the channel as the
+	 * socket takes. The selector writes the rest when the channel becomes
+	 * writable again.
+	 */
+	private void writeOutput() throws IOException {
+		if (netOut.position() > 0) {
+			netOut.flip();
+			try {
+				channel.write(netOut);
+			} finally {
+				netOut.compact();
+			}
+		}
+		final boolean pending = netOut.position() > 0;
+		if (pending != writeInterest) {
+			writeInterest = pending;
+			selector.update(this);
+		}
+	}
+}
@@ -35,6 +35,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jivesoftware.smack.debugger.SmackDebugger;
 import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.Presence;
 
@@ -265,6 +266,24 @@ public abstract class Connection {
 	 */
 	protected final Map<PacketListener, ListenerWrapper> recvListeners = new ConcurrentHashMap<PacketListener, ListenerWrapper>();
 
+	/**
+	 * Index of the packet collectors by their filter, used to find the
+	 * collectors that may accept an incoming packet.
+	 */
+	final PacketDispatchIndex<PacketCollector> collectorIndex = new PacketDispatchIndex<PacketCollector>();
+
+	/**
+	 * Index of the listeners for received packets by their filter, used to
+	 * find the listeners that may accept an incoming packet.
+	 */
+	final PacketDispatchIndex<ListenerWrapper> recvListenerIndex = new PacketDispatchIndex<ListenerWrapper>();
+
+	/**
+	 * The IQ requests sent with {@link #sendIqAsync(IQ, long)} that are waiting
+	 * for a response.
+	 */
+	final PendingIQRequests pendingIQRequests = new PendingIQRequests();
+
 	/**
 	 * List of PacketListeners that will be notified when a new packet was sent.
 	 */
@@ -323,6 +342,8 @@ public abstract class Connection {
 	 */
 	protected final ConnectionConfiguration config;
 
+	private final ReconnectionStatistics reconnectionStatistics = new ReconnectionStatistics();
+
 	/**
 	 * Create a new Connection to a XMPP server.
 	 * 
@@ -391,7 +412,14 @@ public abstract class Connection {
 		}
 		final ListenerWrapper wrapper = new ListenerWrapper(packetListener,
 				packetFilter);
-		recvListeners.put(packetListener, wrapper);
+		synchronized (recvListenerIndex) {
+			final ListenerWrapper previous = recvListeners.put(packetListener,
+					wrapper);
+			if (previous != null) {
+				recvListenerIndex.remove(previous);
+			}
+			recvListenerIndex.add(wrapper, packetFilter);
+		}
 	}
 
 	/**
@@ -446,6 +474,7 @@ public abstract class Connection {
 				packetFilter);
 		// Add the collector to the list of active collectors.
 		collectors.add(collector);
+		collectorIndex.add(collector, packetFilter);
 		return collector;
 	}
 
@@ -634,6 +663,15 @@ public abstract class Connection {
 		return config.getPort();
 	}
 
+	/**
+	 * Returns the counters of the automatic reconnections of this connection.
+	 * 
+	 * @return the reconnection statistics.
+	 */
+	public ReconnectionStatistics getReconnectionStatistics() {
+		return reconnectionStatistics;
+	}
+
 	/**
 	 * Returns the roster for the user.
 	 * <p>
@@ -784,6 +822,14 @@ public abstract class Connection {
 		return config.isReconnectionAllowed();
 	}
 
+	/**
+	 * Returns true if the server announced support for roster versioning
+	 * (XEP-0237).
+	 * 
+	 * @return true if the server supports roster versioning.
+	 */
+	public abstract boolean isRosterVersioningSupported();
+
 	/**
 	 * Returns true if the connection to the server has successfully negotiated
 	 * encryption.
@@ -792,6 +838,16 @@ public abstract class Connection {
 	 */
 	public abstract boolean isSecureConnection();
 
+	/**
+	 * Returns true if the session of the connection can be resumed with stream
+	 * management (XEP-0198) after the connection to the server was lost. The
+	 * server keeps a resumable session alive for a while, so the state of the
+	 * connection doesn't have to be discarded.
+	 * 
+	 * @return true if the session can be resumed.
+	 */
+	protected abstract boolean isStreamResumable();
+
 	/**
 	 * Returns true if network traffic is being compressed. When using stream
 	 * compression network traffic can be reduced up to 90%. Therefore, stream
@@ -803,6 +859,15 @@ public abstract class Connection {
 	 */
 	public abstract boolean isUsingCompression();
 
+	/**
+	 * Returns true if stream management (XEP-0198) is enabled on the stream.
+	 * With stream management the server acknowledges the stanzas it received,
+	 * and a lost connection can resume its session without logging in again.
+	 * 
+	 * @return true if stream management is in use.
+	 */
+	public abstract boolean isUsingStreamManagement();
+
 	/**
 	 * Logs in to the server using the strongest authentication mode supported
 	 * by the server, then sets presence to available. If the server supports
@@ -907,6 +972,7 @@ public abstract class Connection {
 	 */
 	protected void removePacketCollector(PacketCollector collector) {
 		collectors.remove(collector);
+		collectorIndex.remove(collector);
 	}
 
 	/**
@@ -926,7 +992,13 @@ public abstract class Connection {
 	 *            the packet listener to remove.
 	 */
 	public void removePacketListener(PacketListener packetListener) {
-		recvListeners.remove(packetListener);
+		synchronized (recvListenerIndex) {
+			final ListenerWrapper wrapper = recvListeners
+					.remove(packetListener);
+			if (wrapper != null) {
+				recvListenerIndex.remove(wrapper);
+			}
+		}
 	}
 
 	/**
@@ -939,6 +1011,55 @@ public abstract class Connection {
 		sendListeners.remove(packetListener);
 	}
 
+	/**
+	 * Resumes the session of a previous stream after the client was
+	 * authenticated, instead of binding a new resource. The stanzas the server
+	 * didn't acknowledge are sent again.
+	 * 
+	 * @return the full JID of the resumed session, or <tt>null</tt> if the
+	 *         session couldn't be resumed.
+	 */
+	protected abstract String resumeStream();
+
+	/**
+	 * Sends an IQ request to the server without blocking for the response. The
+	 * response is awaited for the default reply timeout of
+	 * {@link SmackConfiguration#getPacketReplyTimeout()}.
+	 * 
+	 * @param request
+	 *            the IQ request to send.
+	 * @return the future that is completed with the response.
+	 * @see #sendIqAsync(IQ, long)
+	 */
+	public IQFuture sendIqAsync(IQ request) {
+		return sendIqAsync(request, SmackConfiguration.getPacketReplyTimeout());
+	}
+
+	/**
+	 * Sends an IQ request to the server without blocking for the response. The
+	 * returned future is completed by the packet reader as soon as an IQ of
+	 * type result or error with the packet ID of the request is received. If
+	 * no response arrives within the given timeout, or the connection is
+	 * closed first, the future fails. No packet collector is created and no
+	 * thread is blocked while the request is pending.
+	 * 
+	 * @param request
+	 *            the IQ request to send.
+	 * @param timeout
+	 *            the time to wait for a response in milliseconds.
+	 * @return the future that is completed with the response.
+	 */
+	public IQFuture sendIqAsync(IQ request, long timeout) {
+		final IQFuture future = pendingIQRequests.register(request, timeout);
+		try {
+			sendPacket(request);
+		} catch (final RuntimeException e) {
+			future.cancel(false);
+			throw e;
+		}
+		return future;
+	}
+
 	/**
 	 * Sends the specified packet to the server.
 	 * 
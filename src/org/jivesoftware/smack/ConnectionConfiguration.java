@@ -21,11 +21,15 @@
 package org.jivesoftware.smack;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
 import javax.security.auth.callback.CallbackHandler;
 
 import org.jivesoftware.smack.proxy.ProxyInfo;
+import org.jivesoftware.smack.proxy.ProxyInfo.ProxyType;
 import org.jivesoftware.smack.util.DNSUtil;
 
 /**
@@ -42,6 +46,36 @@ import org.jivesoftware.smack.util.DNSUtil;
  */
 public class ConnectionConfiguration implements Cloneable {
 
+	/**
+	 * An enumeration of the policies that apply when the queue of received
+	 * packets waiting to be delivered to packet listeners is full.
+	 */
+	public static enum ListenerOverflowPolicy {
+
+		/**
+		 * The packet reader blocks until the listeners have caught up. No
+		 * packet is lost. This is the default setting. With the non-blocking
+		 * transport the connection stops reading from the socket instead of
+		 * blocking, as its packets are parsed on threads shared by all
+		 * connections.
+		 */
+		block,
+
+		/**
+		 * Presence packets are discarded while the queue is full. The packet
+		 * reader blocks for any other packet.
+		 */
+		dropPresence,
+
+		/**
+		 * A presence packet replaces a queued presence packet from the same
+		 * sender while the queue is full, since only the latest presence of an
+		 * entity matters. The packet reader blocks if there is no such packet
+		 * to replace.
+		 */
+		coalescePresence
+	}
+
 	/**
 	 * An enumeration for TLS security modes that are available when making a
 	 * connection to the XMPP server.
@@ -78,6 +112,16 @@ public class ConnectionConfiguration implements Cloneable {
 	private String host;
 
 	private int port;
+	// All addresses the server can be reached at, in the order of preference
+	private List<DNSUtil.HostAddress> hostAddresses;
+	// Milliseconds between starting connection attempts to the addresses and
+	// the timeout of a single attempt
+	private int connectStaggerDelay = 250;
+	private int connectTimeout = 10000;
+	// Whether the host was looked up by the service name, only then the
+	// addresses for direct TLS are looked up as well
+	private boolean serviceResolved = false;
+	private boolean directTLSEnabled = true;
 	private String truststorePath;
 	private String truststoreType;
 	private String truststorePassword;
@@ -92,6 +136,7 @@ public class ConnectionConfiguration implements Cloneable {
 	private boolean notMatchingDomainCheckEnabled = false;
 
 	private boolean compressionEnabled = false;
+	private StreamCompressionHandler streamCompressionHandler = new ZlibStreamCompressionHandler();
 	private boolean saslAuthenticationEnabled = true;
 
 	/**
@@ -104,6 +149,7 @@ public class ConnectionConfiguration implements Cloneable {
 	// Flag that indicates if a reconnection should be attempted when abruptly
 	// disconnected
 	private boolean reconnectionAllowed = true;
+	private NetworkAvailability networkAvailability;
 
 	// Holds the socket factory that is used to generate the socket in the
 	// connection
@@ -114,9 +160,43 @@ public class ConnectionConfiguration implements Cloneable {
 	private String resource;
 	private boolean sendPresence = true;
 	private boolean rosterLoadedAtLogin = true;
+	private RosterStore rosterStore;
 
 	private SecurityMode securityMode = SecurityMode.enabled;
 
+	// The TLS context is shared by all connections using this configuration,
+	// so TLS sessions can be resumed and the stores are loaded only once
+	private volatile SSLContext sslContext;
+	private final TLSStatistics tlsStatistics = new TLSStatistics();
+
+	// Upper bounds for the number of stanzas and the time (in milliseconds)
+	// the packet writer collects before flushing them to the server
+	private int packetWriterBatchSize = 50;
+	private int packetWriterMaxLinger = 0;
+
+	// Number of threads delivering received packets to packet listeners, the
+	// capacity of their queue and what happens when the queue is full
+	private int listenerThreadPoolSize = 1;
+	private int listenerQueueCapacity = 5000;
+	private ListenerOverflowPolicy listenerOverflowPolicy = ListenerOverflowPolicy.block;
+
+	// Stream management (XEP-0198): the number of stanzas sent before an ack
+	// is requested and the number of unacknowledged stanzas kept for resending
+	// after the stream was resumed
+	private boolean streamManagementEnabled = true;
+	private int streamManagementAckFrequency = 5;
+	private int streamManagementBufferSize = 500;
+
+	// Keep-alive pings, the interval grows from the keep-alive interval of
+	// SmackConfiguration up to the maximum
+	private int keepAliveMaxInterval = 300000;
+	private int maxMissedPongs = 2;
+
+	// Whether connections share the selector thread of the non-blocking
+	// transport, which needs direct connections
+	private boolean nonBlockingTransportEnabled = false;
+	private boolean socketFactoryReplaced = false;
+
 	// Holds the proxy information (such as proxyhost, proxyport, username,
 	// password etc)
 	protected ProxyInfo proxy;
@@ -130,11 +210,14 @@ public class ConnectionConfiguration implements Cloneable {
 	 *            the name of the service provided by an XMPP server.
 	 */
 	public ConnectionConfiguration(String serviceName) {
-		// Perform DNS lookup to get host and port to use
-		final DNSUtil.HostAddress address = DNSUtil
-				.resolveXMPPDomain(serviceName);
+		// Perform DNS lookup to get the hosts and ports to use
+		final List<DNSUtil.HostAddress> addresses = DNSUtil
+				.resolveXMPPClientAddresses(serviceName);
+		final DNSUtil.HostAddress address = addresses.get(0);
 		init(address.getHost(), address.getPort(), serviceName,
 				ProxyInfo.forDefaultProxy());
+		hostAddresses = addresses;
+		serviceResolved = true;
 	}
 
 	/**
@@ -221,10 +304,13 @@ public class ConnectionConfiguration implements Cloneable {
 	 *            the proxy through which XMPP is to be connected
 	 */
 	public ConnectionConfiguration(String serviceName, ProxyInfo proxy) {
-		// Perform DNS lookup to get host and port to use
-		final DNSUtil.HostAddress address = DNSUtil
-				.resolveXMPPDomain(serviceName);
+		// Perform DNS lookup to get the hosts and ports to use
+		final List<DNSUtil.HostAddress> addresses = DNSUtil
+				.resolveXMPPClientAddresses(serviceName);
+		final DNSUtil.HostAddress address = addresses.get(0);
 		init(address.getHost(), address.getPort(), serviceName, proxy);
+		hostAddresses = addresses;
+		serviceResolved = true;
 	}
 
 	/**
@@ -240,6 +326,43 @@ public class ConnectionConfiguration implements Cloneable {
 		return callbackHandler;
 	}
 
+	/**
+	 * Returns the number of milliseconds to wait for a connection attempt
+	 * before an attempt to the next address of the server is started in
+	 * parallel. The default value is 250.
+	 * 
+	 * @return the milliseconds between starting connection attempts.
+	 */
+	public int getConnectStaggerDelay() {
+		return connectStaggerDelay;
+	}
+
+	/**
+	 * Returns the number of milliseconds a single connection attempt may take
+	 * before it is given up. The default value is 10000.
+	 * 
+	 * @return the timeout of a connection attempt in milliseconds.
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Returns the addresses the server accepts TLS connections at without
+	 * STARTTLS negotiation, in the order of preference. They are only looked
+	 * up if direct TLS is enabled and the host was looked up by the service
+	 * name.
+	 * 
+	 * @return the addresses for direct TLS, possibly empty.
+	 */
+	List<DNSUtil.HostAddress> getDirectTLSAddresses() {
+		if (!directTLSEnabled || !serviceResolved
+				|| securityMode == SecurityMode.disabled) {
+			return Collections.emptyList();
+		}
+		return DNSUtil.resolveXMPPSClientAddresses(serviceName);
+	}
+
 	/**
 	 * Returns the host to use when establishing the connection. The host and
 	 * port to use might have been resolved by a DNS lookup as specified by the
@@ -252,6 +375,28 @@ public class ConnectionConfiguration implements Cloneable {
 		return host;
 	}
 
+	/**
+	 * Returns all addresses the server can be reached at, in the order of
+	 * preference. If the host was resolved by a DNS lookup this includes the
+	 * targets of all SRV records, otherwise only the configured host and port.
+	 * 
+	 * @return the addresses of the server.
+	 */
+	List<DNSUtil.HostAddress> getHostAddresses() {
+		return hostAddresses;
+	}
+
+	/**
+	 * Returns the longest time in milliseconds the connection may be idle
+	 * before a keep-alive ping is sent. The interval grows up to this value
+	 * while the pings are answered.
+	 * 
+	 * @return the maximum keep-alive interval.
+	 */
+	public int getKeepAliveMaxInterval() {
+		return keepAliveMaxInterval;
+	}
+
 	/**
 	 * Retuns the path to the keystore file. The key store file contains the
 	 * certificates that may be used to authenticate the client to the server,
@@ -272,6 +417,82 @@ public class ConnectionConfiguration implements Cloneable {
 		return keystoreType;
 	}
 
+	/**
+	 * Returns the policy that applies when the queue of received packets
+	 * waiting for the packet listeners is full. The default policy is
+	 * {@link ListenerOverflowPolicy#block}.
+	 * 
+	 * @return the overflow policy of the listener queue.
+	 */
+	public ListenerOverflowPolicy getListenerOverflowPolicy() {
+		return listenerOverflowPolicy;
+	}
+
+	/**
+	 * Returns the maximum number of received packets that may wait for
+	 * delivery to the packet listeners. The default value is 5000.
+	 * 
+	 * @return the capacity of the listener queue.
+	 */
+	public int getListenerQueueCapacity() {
+		return listenerQueueCapacity;
+	}
+
+	/**
+	 * Returns the number of threads that deliver received packets to the
+	 * packet listeners. With a single thread, the default, packets are
+	 * delivered in the order they were received. With more threads, packets
+	 * from different bare JIDs are delivered in parallel while the packets of
+	 * one bare JID keep their order.
+	 * 
+	 * @return the number of listener threads.
+	 */
+	public int getListenerThreadPoolSize() {
+		return listenerThreadPoolSize;
+	}
+
+	/**
+	 * Returns the number of keep-alive pings that may go unanswered before
+	 * the connection is considered dead.
+	 * 
+	 * @return the number of missed pongs.
+	 */
+	public int getMaxMissedPongs() {
+		return maxMissedPongs;
+	}
+
+	/**
+	 * Returns the signal telling whether the network is available, or
+	 * <tt>null</tt> if the network is assumed to be always available.
+	 * 
+	 * @return the network availability or <tt>null</tt>.
+	 */
+	public NetworkAvailability getNetworkAvailability() {
+		return networkAvailability;
+	}
+
+	/**
+	 * Returns the maximum number of stanzas the packet writer will serialize
+	 * before flushing them to the server in a single write. A value of 1 flushes
+	 * every stanza on its own. The default value is 50.
+	 * 
+	 * @return the maximum number of stanzas written per flush.
+	 */
+	public int getPacketWriterBatchSize() {
+		return packetWriterBatchSize;
+	}
+
+	/**
+	 * Returns the maximum number of milliseconds the packet writer will wait
+	 * for more stanzas to arrive once it has started a batch. By default the
+	 * writer does not wait and flushes as soon as the queue has been drained.
+	 * 
+	 * @return the milliseconds a batch may be held back before being flushed.
+	 */
+	public int getPacketWriterMaxLinger() {
+		return packetWriterMaxLinger;
+	}
+
 	/**
 	 * Returns the password to use when trying to reconnect to the server.
 	 * 
@@ -311,6 +532,16 @@ public class ConnectionConfiguration implements Cloneable {
 		return resource;
 	}
 
+	/**
+	 * Returns the store that keeps a local copy of the roster between
+	 * connections, or <tt>null</tt> if the roster is not stored.
+	 * 
+	 * @return the roster store or <tt>null</tt>.
+	 */
+	public RosterStore getRosterStore() {
+		return rosterStore;
+	}
+
 	/**
 	 * Returns the TLS security mode used when making the connection. By
 	 * default, the mode is {@link SecurityMode#enabled}.
@@ -340,6 +571,56 @@ public class ConnectionConfiguration implements Cloneable {
 		return socketFactory;
 	}
 
+	/**
+	 * Returns the TLS context shared by the connections using this
+	 * configuration, or <tt>null</tt> if no connection secured its stream yet.
+	 * 
+	 * @return the TLS context or <tt>null</tt>.
+	 */
+	SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	/**
+	 * Returns the handler that compresses the stream if stream compression is
+	 * enabled. By default a {@link ZlibStreamCompressionHandler} is used.
+	 * 
+	 * @return the stream compression handler.
+	 */
+	public StreamCompressionHandler getStreamCompressionHandler() {
+		return streamCompressionHandler;
+	}
+
+	/**
+	 * Returns the number of stanzas that are sent to the server before an
+	 * acknowledgement is requested, if stream management is in use.
+	 * 
+	 * @return the number of stanzas sent per ack request.
+	 */
+	public int getStreamManagementAckFrequency() {
+		return streamManagementAckFrequency;
+	}
+
+	/**
+	 * Returns the maximum number of stanzas that are kept until the server
+	 * acknowledged them, if stream management is in use.
+	 * 
+	 * @return the maximum number of unacknowledged stanzas.
+	 */
+	public int getStreamManagementBufferSize() {
+		return streamManagementBufferSize;
+	}
+
+	/**
+	 * Returns the counters describing the TLS handshakes of the connections
+	 * using this configuration.
+	 * 
+	 * @return the TLS statistics.
+	 */
+	TLSStatistics getTLSStatistics() {
+		return tlsStatistics;
+	}
+
 	/**
 	 * Returns the password to use to access the trust store file. It is assumed
 	 * that all certificates share the same password in the trust store.
@@ -384,6 +665,8 @@ public class ConnectionConfiguration implements Cloneable {
 		this.port = port;
 		this.serviceName = serviceName;
 		this.proxy = proxy;
+		hostAddresses = Collections
+				.singletonList(new DNSUtil.HostAddress(host, port));
 
 		// Build the default path to the cacert truststore file. By default we
 		// are
@@ -431,6 +714,17 @@ public class ConnectionConfiguration implements Cloneable {
 		return debuggerEnabled;
 	}
 
+	/**
+	 * Returns true if the connection tries to open a TLS connection right
+	 * away (XEP-0368) before it falls back to the STARTTLS negotiation. By
+	 * default direct TLS is enabled.
+	 * 
+	 * @return true if direct TLS is enabled.
+	 */
+	public boolean isDirectTLSEnabled() {
+		return directTLSEnabled;
+	}
+
 	/**
 	 * Returns true if certificates presented by the server are going to be
 	 * checked for their validity. By default certificates are not verified.
@@ -442,6 +736,28 @@ public class ConnectionConfiguration implements Cloneable {
 		return expiredCertificatesCheckEnabled;
 	}
 
+	/**
+	 * Returns true if connections use the non-blocking transport. By default
+	 * every connection uses a blocking socket with threads of its own.
+	 * 
+	 * @return true if the non-blocking transport is enabled.
+	 */
+	public boolean isNonBlockingTransportEnabled() {
+		return nonBlockingTransportEnabled;
+	}
+
+	/**
+	 * Returns true if the non-blocking transport is enabled and can be used.
+	 * Channels connect directly, so it can't be used with a proxy or a socket
+	 * factory that was set.
+	 * 
+	 * @return true if connections use the non-blocking transport.
+	 */
+	boolean isNonBlockingTransportUsable() {
+		return nonBlockingTransportEnabled && !socketFactoryReplaced
+				&& (proxy == null || proxy.getProxyType() == ProxyType.NONE);
+	}
+
 	/**
 	 * Returns true if certificates presented by the server are going to be
 	 * checked for their domain. By default certificates are not verified.
@@ -508,6 +824,16 @@ public class ConnectionConfiguration implements Cloneable {
 		return sendPresence;
 	}
 
+	/**
+	 * Returns true if stream management (XEP-0198) is enabled when the server
+	 * supports it. By default stream management is enabled.
+	 * 
+	 * @return true if stream management is enabled.
+	 */
+	public boolean isStreamManagementEnabled() {
+		return streamManagementEnabled;
+	}
+
 	/**
 	 * Returns true if the whole chain of certificates presented by the server
 	 * are going to be checked. By default the certificate chain is not
@@ -542,6 +868,7 @@ public class ConnectionConfiguration implements Cloneable {
 	 */
 	public void setCallbackHandler(CallbackHandler callbackHandler) {
 		this.callbackHandler = callbackHandler;
+		sslContext = null;
 	}
 
 	/**
@@ -558,6 +885,38 @@ public class ConnectionConfiguration implements Cloneable {
 		this.compressionEnabled = compressionEnabled;
 	}
 
+	/**
+	 * Sets the number of milliseconds to wait for a connection attempt before
+	 * an attempt to the next address of the server is started in parallel.
+	 * Racing the addresses hides unreachable hosts and broken IPv6 routes,
+	 * a value of 0 starts all attempts at once.
+	 * 
+	 * @param connectStaggerDelay
+	 *            the milliseconds between starting connection attempts.
+	 */
+	public void setConnectStaggerDelay(int connectStaggerDelay) {
+		if (connectStaggerDelay < 0) {
+			throw new IllegalArgumentException(
+					"Stagger delay must not be negative.");
+		}
+		this.connectStaggerDelay = connectStaggerDelay;
+	}
+
+	/**
+	 * Sets the number of milliseconds a single connection attempt may take
+	 * before it is given up. A value of 0 disables the timeout.
+	 * 
+	 * @param connectTimeout
+	 *            the timeout of a connection attempt in milliseconds.
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException(
+					"Connect timeout must not be negative.");
+		}
+		this.connectTimeout = connectTimeout;
+	}
+
 	/**
 	 * Sets if the new connection about to be establish is going to be debugged.
 	 * By default the value of {@link Connection#DEBUG_ENABLED} is used.
@@ -570,6 +929,22 @@ public class ConnectionConfiguration implements Cloneable {
 		this.debuggerEnabled = debuggerEnabled;
 	}
 
+	/**
+	 * Sets whether the connection tries to open a TLS connection right away
+	 * (XEP-0368). If the server publishes "_xmpps-client" SRV records for the
+	 * service name, the TLS handshake starts as soon as the socket is
+	 * connected, which saves the round-trips of the STARTTLS negotiation. If
+	 * there are no such records or the TLS connection fails, the connection
+	 * falls back to STARTTLS. Direct TLS is only used if the host was looked
+	 * up by the service name and security isn't disabled.
+	 * 
+	 * @param directTLSEnabled
+	 *            true to enable direct TLS.
+	 */
+	public void setDirectTLSEnabled(boolean directTLSEnabled) {
+		this.directTLSEnabled = directTLSEnabled;
+	}
+
 	/**
 	 * Sets if certificates presented by the server are going to be checked for
 	 * their validity. By default certificates are not verified.
@@ -583,6 +958,21 @@ public class ConnectionConfiguration implements Cloneable {
 		this.expiredCertificatesCheckEnabled = expiredCertificatesCheckEnabled;
 	}
 
+	/**
+	 * Sets the longest time in milliseconds the connection may be idle before
+	 * a keep-alive ping is sent. The pings start at the interval of
+	 * {@link SmackConfiguration#getKeepAliveInterval()}, which grows while the
+	 * pings are answered, so a network that keeps idle connections open for
+	 * long gets fewer pings. Once an idle connection was lost the interval
+	 * falls back to the longest one that worked. The default is five minutes.
+	 * 
+	 * @param keepAliveMaxInterval
+	 *            the maximum keep-alive interval in milliseconds.
+	 */
+	public void setKeepAliveMaxInterval(int keepAliveMaxInterval) {
+		this.keepAliveMaxInterval = keepAliveMaxInterval;
+	}
+
 	/**
 	 * Sets the path to the keystore file. The key store file contains the
 	 * certificates that may be used to authenticate the client to the server,
@@ -593,6 +983,7 @@ public class ConnectionConfiguration implements Cloneable {
 	 */
 	public void setKeystorePath(String keystorePath) {
 		this.keystorePath = keystorePath;
+		sslContext = null;
 	}
 
 	/**
@@ -603,6 +994,55 @@ public class ConnectionConfiguration implements Cloneable {
 	 */
 	public void setKeystoreType(String keystoreType) {
 		this.keystoreType = keystoreType;
+		sslContext = null;
+	}
+
+	/**
+	 * Sets the policy that applies when the queue of received packets waiting
+	 * for the packet listeners is full.
+	 * 
+	 * @param listenerOverflowPolicy
+	 *            the overflow policy of the listener queue.
+	 */
+	public void setListenerOverflowPolicy(
+			ListenerOverflowPolicy listenerOverflowPolicy) {
+		if (listenerOverflowPolicy == null) {
+			throw new IllegalArgumentException(
+					"Overflow policy must not be null.");
+		}
+		this.listenerOverflowPolicy = listenerOverflowPolicy;
+	}
+
+	/**
+	 * Sets the maximum number of received packets that may wait for delivery
+	 * to the packet listeners. Once the queue is full the
+	 * {@link #getListenerOverflowPolicy() overflow policy} applies.
+	 * 
+	 * @param listenerQueueCapacity
+	 *            the capacity of the listener queue.
+	 */
+	public void setListenerQueueCapacity(int listenerQueueCapacity) {
+		if (listenerQueueCapacity < 1) {
+			throw new IllegalArgumentException(
+					"Queue capacity must be at least 1.");
+		}
+		this.listenerQueueCapacity = listenerQueueCapacity;
+	}
+
+	/**
+	 * Sets the number of threads that deliver received packets to the packet
+	 * listeners. With more than one thread, packets from different bare JIDs
+	 * are delivered in parallel, so listeners must be thread safe.
+	 * 
+	 * @param listenerThreadPoolSize
+	 *            the number of listener threads.
+	 */
+	public void setListenerThreadPoolSize(int listenerThreadPoolSize) {
+		if (listenerThreadPoolSize < 1) {
+			throw new IllegalArgumentException(
+					"Thread pool size must be at least 1.");
+		}
+		this.listenerThreadPoolSize = listenerThreadPoolSize;
 	}
 
 	void setLoginInfo(String username, String password, String resource) {
@@ -611,6 +1051,58 @@ public class ConnectionConfiguration implements Cloneable {
 		this.resource = resource;
 	}
 
+	/**
+	 * Sets the number of keep-alive pings that may go unanswered before the
+	 * connection is closed with an error, which starts the reconnection. The
+	 * default is 2.
+	 * 
+	 * @param maxMissedPongs
+	 *            the number of missed pongs.
+	 */
+	public void setMaxMissedPongs(int maxMissedPongs) {
+		if (maxMissedPongs < 1) {
+			throw new IllegalArgumentException(
+					"Missed pongs must be at least 1.");
+		}
+		this.maxMissedPongs = maxMissedPongs;
+	}
+
+	/**
+	 * Sets the signal telling whether the network is available. While the
+	 * network is unavailable no reconnection is attempted, and once it becomes
+	 * available again the connection is re-established immediately. By
+	 * default the network is assumed to be always available.
+	 * 
+	 * @param networkAvailability
+	 *            the network availability, or <tt>null</tt> to assume the
+	 *            network is always available.
+	 */
+	public void setNetworkAvailability(NetworkAvailability networkAvailability) {
+		this.networkAvailability = networkAvailability;
+	}
+
+	/**
+	 * Sets whether connections use the non-blocking transport. Instead of a
+	 * reader, a writer and a keep-alive thread per connection, the sockets of
+	 * all such connections are served by a single selector thread, and the
+	 * received stanzas are parsed by a small pool of threads shared by all
+	 * connections. This keeps the number of threads low in processes with
+	 * many connections. The {@link Connection} API is the same for both
+	 * transports.
+	 * <p>
+	 * 
+	 * The non-blocking transport connects directly and is not used if a proxy
+	 * or a socket factory is configured. Stream compression is not negotiated
+	 * on the non-blocking transport.
+	 * 
+	 * @param nonBlockingTransportEnabled
+	 *            true to use the non-blocking transport.
+	 */
+	public void setNonBlockingTransportEnabled(
+			boolean nonBlockingTransportEnabled) {
+		this.nonBlockingTransportEnabled = nonBlockingTransportEnabled;
+	}
+
 	/**
 	 * Sets if certificates presented by the server are going to be checked for
 	 * their domain. By default certificates are not verified.
@@ -624,6 +1116,40 @@ public class ConnectionConfiguration implements Cloneable {
 		this.notMatchingDomainCheckEnabled = notMatchingDomainCheckEnabled;
 	}
 
+	/**
+	 * Sets the maximum number of stanzas the packet writer will serialize
+	 * before flushing them to the server in a single write. Under presence
+	 * storms or MUC bursts batching avoids one flush (and one TLS record) per
+	 * stanza. A value of 1 disables batching.
+	 * 
+	 * @param packetWriterBatchSize
+	 *            the maximum number of stanzas written per flush.
+	 */
+	public void setPacketWriterBatchSize(int packetWriterBatchSize) {
+		if (packetWriterBatchSize < 1) {
+			throw new IllegalArgumentException(
+					"Batch size must be at least 1.");
+		}
+		this.packetWriterBatchSize = packetWriterBatchSize;
+	}
+
+	/**
+	 * Sets the maximum number of milliseconds the packet writer will wait for
+	 * more stanzas to arrive once it has started a batch. A value of 0 means
+	 * that the batch is flushed as soon as the queue has been drained.
+	 * 
+	 * @param packetWriterMaxLinger
+	 *            the milliseconds a batch may be held back before being
+	 *            flushed.
+	 */
+	public void setPacketWriterMaxLinger(int packetWriterMaxLinger) {
+		if (packetWriterMaxLinger < 0) {
+			throw new IllegalArgumentException(
+					"Linger time must not be negative.");
+		}
+		this.packetWriterMaxLinger = packetWriterMaxLinger;
+	}
+
 	/**
 	 * Sets the PKCS11 library file location, needed when the Keystore type is
 	 * PKCS11
@@ -633,6 +1159,7 @@ public class ConnectionConfiguration implements Cloneable {
 	 */
 	public void setPKCS11Library(String pkcs11Library) {
 		this.pkcs11Library = pkcs11Library;
+		sslContext = null;
 	}
 
 	/**
@@ -658,6 +1185,20 @@ public class ConnectionConfiguration implements Cloneable {
 		this.rosterLoadedAtLogin = rosterLoadedAtLogin;
 	}
 
+	/**
+	 * Sets the store that keeps a local copy of the roster between
+	 * connections. When the server supports roster versioning the roster is
+	 * then only requested if it changed since the stored version, and
+	 * otherwise only the changes are pushed. By default the roster is not
+	 * stored.
+	 * 
+	 * @param rosterStore
+	 *            the roster store, or <tt>null</tt> to not store the roster.
+	 */
+	public void setRosterStore(RosterStore rosterStore) {
+		this.rosterStore = rosterStore;
+	}
+
 	/**
 	 * Sets whether the client will use SASL authentication when logging into
 	 * the server. If SASL authenticatin fails then the client will try to use
@@ -727,6 +1268,85 @@ public class ConnectionConfiguration implements Cloneable {
 	 */
 	public void setSocketFactory(SocketFactory socketFactory) {
 		this.socketFactory = socketFactory;
+		socketFactoryReplaced = true;
+	}
+
+	/**
+	 * Sets the TLS context shared by the connections using this
+	 * configuration.
+	 * 
+	 * @param sslContext
+	 *            the TLS context, or <tt>null</tt> to create a new one for the
+	 *            next connection.
+	 */
+	void setSSLContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
+	}
+
+	/**
+	 * Sets the handler that compresses the stream if stream compression is
+	 * enabled. The compression method of the handler is requested from the
+	 * server.
+	 * 
+	 * @param streamCompressionHandler
+	 *            the stream compression handler.
+	 * @see #setCompressionEnabled(boolean)
+	 */
+	public void setStreamCompressionHandler(
+			StreamCompressionHandler streamCompressionHandler) {
+		if (streamCompressionHandler == null) {
+			throw new NullPointerException("Compression handler is null.");
+		}
+		this.streamCompressionHandler = streamCompressionHandler;
+	}
+
+	/**
+	 * Sets the number of stanzas that are sent to the server before an
+	 * acknowledgement is requested. The server acknowledges the stanzas it has
+	 * received, so they can be removed from the buffer of unacknowledged
+	 * stanzas. Smaller values keep the buffer small at the price of more
+	 * traffic.
+	 * 
+	 * @param streamManagementAckFrequency
+	 *            the number of stanzas sent per ack request.
+	 */
+	public void setStreamManagementAckFrequency(
+			int streamManagementAckFrequency) {
+		if (streamManagementAckFrequency < 1) {
+			throw new IllegalArgumentException(
+					"Ack frequency must be at least 1.");
+		}
+		this.streamManagementAckFrequency = streamManagementAckFrequency;
+	}
+
+	/**
+	 * Sets the maximum number of stanzas that are kept until the server
+	 * acknowledged them. The unacknowledged stanzas are sent again after the
+	 * stream was resumed. If more stanzas are unacknowledged the stream can't
+	 * be resumed any more and a new session is established on reconnection.
+	 * 
+	 * @param streamManagementBufferSize
+	 *            the maximum number of unacknowledged stanzas.
+	 */
+	public void setStreamManagementBufferSize(int streamManagementBufferSize) {
+		if (streamManagementBufferSize < 1) {
+			throw new IllegalArgumentException(
+					"Buffer size must be at least 1.");
+		}
+		this.streamManagementBufferSize = streamManagementBufferSize;
+	}
+
+	/**
+	 * Sets if stream management (XEP-0198) is enabled when the server supports
+	 * it. With stream management the server acknowledges the stanzas it
+	 * received and a connection that was lost can resume the previous session
+	 * without logging in again.
+	 * 
+	 * @param streamManagementEnabled
+	 *            true to enable stream management.
+	 */
+	public void setStreamManagementEnabled(boolean streamManagementEnabled) {
+		this.streamManagementEnabled = streamManagementEnabled;
 	}
 
 	/**
@@ -738,6 +1358,7 @@ public class ConnectionConfiguration implements Cloneable {
 	 */
 	public void setTruststorePassword(String truststorePassword) {
 		this.truststorePassword = truststorePassword;
+		sslContext = null;
 	}
 
 	/**
@@ -750,6 +1371,7 @@ public class ConnectionConfiguration implements Cloneable {
 	 */
 	public void setTruststorePath(String truststorePath) {
 		this.truststorePath = truststorePath;
+		sslContext = null;
 	}
 
 	/**
@@ -760,6 +1382,7 @@ public class ConnectionConfiguration implements Cloneable {
 	 */
 	public void setTruststoreType(String truststoreType) {
 		this.truststoreType = truststoreType;
+		sslContext = null;
 	}
 
 	/**
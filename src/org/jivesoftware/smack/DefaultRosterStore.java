@@ -0,0 +1,256 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jivesoftware.smack.packet.RosterPacket;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * A {@link RosterStore} that keeps the roster in a directory. Every roster
+ * item is stored in a file of its own, so a roster push only rewrites a single
+ * small file. The items are read once when the store is created and are kept
+ * in memory afterwards.
+ * <p>
+ * 
+ * Files are replaced by writing a temporary file first and renaming it. If a
+ * file can't be read or written the version is discarded, so the complete
+ * roster is requested from the server the next time.
+ */
+public class DefaultRosterStore implements RosterStore {
+
+	private static final String ENTRY_PREFIX = "entry-";
+	private static final String VERSION_FILE = "version";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static String readFile(File file) throws IOException {
+		final Reader reader = new InputStreamReader(new FileInputStream(file),
+				"UTF-8");
+		try {
+			final StringBuilder buf = new StringBuilder();
+			final char[] chars = new char[1024];
+			int count;
+			while ((count = reader.read(chars)) != -1) {
+				buf.append(chars, 0, count);
+			}
+			return buf.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static RosterPacket.Item readItem(File file) throws Exception {
+		final Reader reader = new InputStreamReader(new FileInputStream(file),
+				"UTF-8");
+		try {
+			final XmlPullParser parser = new MXParser();
+			parser.setInput(reader);
+			int eventType = parser.getEventType();
+			while (eventType != XmlPullParser.END_DOCUMENT) {
+				if (eventType == XmlPullParser.START_TAG
+						&& parser.getName().equals("item")) {
+					return PacketParserUtils.parseRosterItem(parser);
+				}
+				eventType = parser.next();
+			}
+			throw new IOException("No roster item in " + file);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void writeFile(File file, String content)
+			throws IOException {
+		final File temp = new File(file.getPath() + TEMP_SUFFIX);
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(
+				temp), "UTF-8");
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		// File.renameTo doesn't replace existing files on all platforms
+		if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+			throw new IOException("Failed to replace " + file);
+		}
+	}
+
+	private final File directory;
+	private final Map<String, RosterPacket.Item> items = new ConcurrentHashMap<String, RosterPacket.Item>();
+	private String version;
+	// False once a change was lost, until the complete roster is stored again
+	private boolean consistent = true;
+
+	/**
+	 * Creates a store in the given directory and reads the roster stored in
+	 * it. The directory is created if it doesn't exist.
+	 * 
+	 * @param directory
+	 *            the directory to store the roster in.
+	 * @throws IllegalArgumentException
+	 *             if the directory can't be created.
+	 */
+	public DefaultRosterStore(File directory) {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Can't create directory "
+					+ directory);
+		}
+		load();
+	}
+
+	@Override
+	public synchronized void addEntry(RosterPacket.Item item, String version) {
+		items.put(item.getUser(), item);
+		try {
+			writeFile(getEntryFile(item.getUser()), item.toXML());
+			setVersion(version);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			discardVersion();
+		}
+	}
+
+	/**
+	 * Forgets the stored version after a failure, so the next roster request
+	 * fetches the complete roster.
+	 */
+	private void discardVersion() {
+		consistent = false;
+		version = null;
+		new File(directory, VERSION_FILE).delete();
+	}
+
+	@Override
+	public Collection<RosterPacket.Item> getEntries() {
+		return new ArrayList<RosterPacket.Item>(items.values());
+	}
+
+	@Override
+	public RosterPacket.Item getEntry(String bareJid) {
+		return items.get(bareJid.toLowerCase());
+	}
+
+	private File getEntryFile(String user) {
+		return new File(directory, ENTRY_PREFIX + StringUtils.hash(user));
+	}
+
+	@Override
+	public synchronized String getRosterVersion() {
+		return version;
+	}
+
+	private synchronized void load() {
+		final File versionFile = new File(directory, VERSION_FILE);
+		boolean complete = versionFile.isFile();
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				final String name = file.getName();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					file.delete();
+				} else if (name.startsWith(ENTRY_PREFIX)) {
+					try {
+						final RosterPacket.Item item = readItem(file);
+						items.put(item.getUser(), item);
+					} catch (final Exception e) {
+						e.printStackTrace();
+						file.delete();
+						complete = false;
+					}
+				}
+			}
+		}
+		if (complete) {
+			try {
+				version = readFile(versionFile);
+			} catch (final IOException e) {
+				e.printStackTrace();
+				complete = false;
+			}
+		}
+		if (!complete) {
+			discardVersion();
+		}
+	}
+
+	@Override
+	public synchronized void removeEntry(String bareJid, String version) {
+		final String user = bareJid.toLowerCase();
+		items.remove(user);
+		final File file = getEntryFile(user);
+		if (file.exists() && !file.delete()) {
+			discardVersion();
+			return;
+		}
+		try {
+			setVersion(version);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			discardVersion();
+		}
+	}
+
+	@Override
+	public synchronized void resetEntries(Collection<RosterPacket.Item> items,
+			String version) {
+		// Drop the version first so an interrupted reset is never mistaken
+		// for a complete roster
+		discardVersion();
+		consistent = true;
+		this.items.clear();
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				if (file.getName().startsWith(ENTRY_PREFIX)) {
+					file.delete();
+				}
+			}
+		}
+		try {
+			for (final RosterPacket.Item item : items) {
+				this.items.put(item.getUser(), item);
+				writeFile(getEntryFile(item.getUser()), item.toXML());
+			}
+			setVersion(version);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			discardVersion();
+		}
+	}
+
+	private void setVersion(String version) throws IOException {
+		if (!consistent) {
+			return;
+		}
+		this.version = version;
+		writeFile(new File(directory, VERSION_FILE), version);
+	}
+}
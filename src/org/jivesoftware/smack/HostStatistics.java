@@ -0,0 +1,141 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+/**
+ * Outcomes of the connection attempts to a single server address. The
+ * connection prefers addresses that recently accepted connections quickly and
+ * tries addresses that keep failing last.
+ * 
+ * @see XMPPConnection#getHostStatistics()
+ */
+public class HostStatistics {
+
+	/**
+	 * Weight of a new connect time in the smoothed connect time.
+	 */
+	private static final double SMOOTHING = 0.3;
+
+	private final String host;
+	private final int port;
+	private long successCount;
+	private long failureCount;
+	private int consecutiveFailures;
+	private long lastFailureTime;
+	private double smoothedConnectTime = -1;
+
+	HostStatistics(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Returns the number of connection attempts that failed since the last
+	 * successful one.
+	 * 
+	 * @return the number of consecutive failures.
+	 */
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * Returns the number of failed connection attempts. Attempts that were
+	 * cancelled because another address was faster are not counted.
+	 * 
+	 * @return the number of failed connection attempts.
+	 */
+	public synchronized long getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * Returns the hostname.
+	 * 
+	 * @return the hostname.
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the time of the last failed connection attempt.
+	 * 
+	 * @return the time in milliseconds since the epoch, or 0 if no attempt
+	 *         failed.
+	 */
+	public synchronized long getLastFailureTime() {
+		return lastFailureTime;
+	}
+
+	/**
+	 * Returns the port.
+	 * 
+	 * @return the port.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the exponentially smoothed time in milliseconds the successful
+	 * connection attempts took.
+	 * 
+	 * @return the smoothed connect time, or -1 if no attempt succeeded.
+	 */
+	public synchronized double getSmoothedConnectTime() {
+		return smoothedConnectTime;
+	}
+
+	/**
+	 * Returns the number of successful connection attempts.
+	 * 
+	 * @return the number of successful connection attempts.
+	 */
+	public synchronized long getSuccessCount() {
+		return successCount;
+	}
+
+	synchronized void recordFailure() {
+		failureCount++;
+		consecutiveFailures++;
+		lastFailureTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records a successful connection attempt.
+	 * 
+	 * @param connectTime
+	 *            the milliseconds the attempt took.
+	 */
+	synchronized void recordSuccess(long connectTime) {
+		successCount++;
+		consecutiveFailures = 0;
+		if (smoothedConnectTime < 0) {
+			smoothedConnectTime = connectTime;
+		} else {
+			smoothedConnectTime += SMOOTHING
+					* (connectTime - smoothedConnectTime);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return host + ":" + port + " successes=" + successCount
+				+ ", failures=" + failureCount + ", consecutiveFailures="
+				+ consecutiveFailures + ", connectTime=" + smoothedConnectTime
+				+ "ms";
+	}
+}
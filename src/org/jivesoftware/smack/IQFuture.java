@@ -0,0 +1,248 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jivesoftware.smack.packet.IQ;
+
+/**
+ * The pending response to an IQ request sent with
+ * {@link Connection#sendIqAsync(IQ)}. The future is completed by the packet
+ * reader as soon as the response arrives, or fails when the server answers
+ * with an error, the reply timeout elapses or the connection is closed.
+ * <p>
+ * 
+ * Callers that need the response right away can block on
+ * {@link #getResult()}, which reports failures the same way the synchronous
+ * methods of Smack do. Callers that must not block register an
+ * {@link IQResponseListener} instead.
+ * 
+ * @see Connection#sendIqAsync(IQ, long)
+ */
+public class IQFuture implements Future<IQ> {
+
+	private final PendingIQRequests requests;
+	private final String packetID;
+	private final List<IQResponseListener> listeners = new ArrayList<IQResponseListener>(
+			1);
+	private volatile ScheduledFuture<?> timeoutTask;
+
+	private IQ response;
+	private XMPPException exception;
+	private boolean done;
+	private boolean cancelled;
+
+	IQFuture(PendingIQRequests requests, String packetID) {
+		this.requests = requests;
+		this.packetID = packetID;
+	}
+
+	/**
+	 * Registers a listener that is notified once the request completes. If the
+	 * request has already completed the listener is notified right away by
+	 * the calling thread.
+	 * 
+	 * @param listener
+	 *            the listener to notify.
+	 */
+	public void addListener(IQResponseListener listener) {
+		synchronized (this) {
+			if (!done) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		notifyListener(listener);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(null, new XMPPException("Request cancelled."), true);
+	}
+
+	/**
+	 * Completes the request with the given response.
+	 * 
+	 * @param result
+	 *            the IQ of type result or error.
+	 * @return true if the request was completed by this call.
+	 */
+	boolean complete(IQ result) {
+		if (result.getType() == IQ.Type.ERROR) {
+			return finish(result, new XMPPException(result.getError()), false);
+		}
+		return finish(result, null, false);
+	}
+
+	/**
+	 * Fails the request with the given exception.
+	 * 
+	 * @param e
+	 *            the reason of the failure.
+	 * @return true if the request was completed by this call.
+	 */
+	boolean fail(XMPPException e) {
+		return finish(null, e, false);
+	}
+
+	private boolean finish(IQ result, XMPPException e, boolean cancel) {
+		final List<IQResponseListener> toNotify;
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			done = true;
+			response = result;
+			exception = e;
+			cancelled = cancel;
+			notifyAll();
+			toNotify = new ArrayList<IQResponseListener>(listeners);
+			listeners.clear();
+		}
+		final ScheduledFuture<?> task = timeoutTask;
+		if (task != null) {
+			task.cancel(false);
+		}
+		requests.remove(this);
+		for (final IQResponseListener listener : toNotify) {
+			notifyListener(listener);
+		}
+		return true;
+	}
+
+	@Override
+	public IQ get() throws InterruptedException, ExecutionException {
+		synchronized (this) {
+			while (!done) {
+				wait();
+			}
+		}
+		return report();
+	}
+
+	@Override
+	public IQ get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		final long deadline = System.currentTimeMillis()
+				+ unit.toMillis(timeout);
+		synchronized (this) {
+			while (!done) {
+				final long waitTime = deadline - System.currentTimeMillis();
+				if (waitTime <= 0) {
+					throw new TimeoutException();
+				}
+				wait(waitTime);
+			}
+		}
+		return report();
+	}
+
+	/**
+	 * Returns the packet ID of the request.
+	 * 
+	 * @return the packet ID of the request.
+	 */
+	public String getPacketID() {
+		return packetID;
+	}
+
+	/**
+	 * Waits until the request completes and returns the result. The wait is
+	 * bounded by the reply timeout the request was sent with.
+	 * 
+	 * @return the IQ of type result.
+	 * @throws XMPPException
+	 *             if the server answered with an error, no response was
+	 *             received in time, the request was cancelled or the
+	 *             connection was closed.
+	 */
+	public IQ getResult() throws XMPPException {
+		boolean interrupted = false;
+		synchronized (this) {
+			while (!done && !interrupted) {
+				try {
+					wait();
+				} catch (final InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			cancel(false);
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (exception != null) {
+				throw exception;
+			}
+			return response;
+		}
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	private void notifyListener(IQResponseListener listener) {
+		final XMPPException e;
+		final IQ result;
+		synchronized (this) {
+			e = exception;
+			result = response;
+		}
+		if (e != null) {
+			listener.processException(e);
+		} else {
+			listener.processResult(result);
+		}
+	}
+
+	private synchronized IQ report() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (exception != null) {
+			throw new ExecutionException(exception);
+		}
+		return response;
+	}
+
+	/**
+	 * Sets the task that fails the request once the reply timeout elapses.
+	 * 
+	 * @param task
+	 *            the timeout task.
+	 */
+	void setTimeoutTask(ScheduledFuture<?> task) {
+		timeoutTask = task;
+		if (isDone()) {
+			task.cancel(false);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import org.jivesoftware.smack.packet.IQ;
+
+/**
+ * Receives the outcome of an IQ request sent with
+ * {@link Connection#sendIqAsync(IQ)}. The methods are invoked by the thread
+ * that completes the request, which is either the packet reader thread or the
+ * timeout thread of the {@link SmackScheduler}. Implementations must therefore
+ * return quickly and hand longer work over to a different thread.
+ * 
+ * @see IQFuture#addListener(IQResponseListener)
+ */
+public interface IQResponseListener {
+
+	/**
+	 * Notification that the request failed. This happens when the server
+	 * answered with an error, no response was received in time, the request
+	 * was cancelled or the connection was closed.
+	 * 
+	 * @param exception
+	 *            the reason of the failure.
+	 */
+	public void processException(XMPPException exception);
+
+	/**
+	 * Notification that a result was received for the request.
+	 * 
+	 * @param result
+	 *            the IQ of type result.
+	 */
+	public void processResult(IQ result);
+}
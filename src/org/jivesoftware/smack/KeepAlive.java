@@ -0,0 +1,264 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.filter.PacketTypeFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.Ping;
+
+/**
+ * Keeps a connection alive and detects dead connections with XEP-0199 pings.
+ * A ping is only sent when nothing was sent or received for the keep-alive
+ * interval, so a busy connection sends no pings at all. If the pings aren't
+ * answered the connection is closed with an error, so the reconnection starts
+ * instead of waiting minutes for TCP to notice a half-open socket.
+ * <p>
+ * 
+ * The interval adapts to the NAT timeout of the network. It starts at
+ * {@link SmackConfiguration#getKeepAliveInterval()} and grows while pings
+ * after idle periods are answered, up to
+ * {@link ConnectionConfiguration#getKeepAliveMaxInterval()}. When a ping after
+ * a longer idle period isn't answered, the interval falls back to the longest
+ * one that worked and stops growing. The learned interval is kept when the
+ * connection is re-established.
+ * <p>
+ * 
+ * All connections use the {@link SmackScheduler}. Instead of waking up
+ * periodically, the check is scheduled for the time the connection becomes
+ * idle. Before the connection is authenticated a whitespace is sent instead
+ * of a ping, since the server doesn't answer stanzas yet.
+ */
+final class KeepAlive implements IQResponseListener {
+
+	/**
+	 * The number of answered pings after idle periods before the interval
+	 * grows.
+	 */
+	private static final int PROBE_SUCCESSES = 3;
+
+	private final XMPPConnection connection;
+
+	/**
+	 * Answers the pings of the server.
+	 */
+	private final PacketListener pingResponder = new PacketListener() {
+
+		@Override
+		public void processPacket(Packet packet) {
+			final Ping ping = (Ping) packet;
+			if (ping.getType() == IQ.Type.GET) {
+				connection.sendPacket(IQ.createResultIQ(ping));
+			}
+		}
+	};
+
+	private final Runnable checkTask = new Runnable() {
+
+		@Override
+		public void run() {
+			check();
+		}
+	};
+
+	private volatile long lastReceived;
+
+	// State of the current connection
+	private boolean running;
+	private PacketWriter packetWriter;
+	private ScheduledFuture<?> scheduledCheck;
+	private IQFuture pendingPing;
+	private long pendingIdleTime;
+	private int missedPongs;
+
+	// The adapted interval, kept across connections
+	private long interval;
+	private long confirmedInterval;
+	private boolean limitFound;
+	private int successes;
+
+	KeepAlive(XMPPConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Sends a ping if the connection has been idle for the interval, or
+	 * schedules the next check for the time it will be.
+	 */
+	private synchronized void check() {
+		scheduledCheck = null;
+		if (!running || pendingPing != null) {
+			return;
+		}
+		final long idleTime = System.currentTimeMillis()
+				- Math.max(lastReceived, packetWriter.getLastActive());
+		if (idleTime < interval) {
+			schedule(interval - idleTime);
+		} else if (!connection.isAuthenticated()) {
+			packetWriter.sendHeartbeat();
+			schedule(interval);
+		} else {
+			sendPing(idleTime);
+		}
+	}
+
+	/**
+	 * Notification that data was received from the server.
+	 */
+	void dataReceived() {
+		lastReceived = System.currentTimeMillis();
+	}
+
+	/**
+	 * Closes the connection with an error because the pings weren't answered.
+	 * Closing the connection blocks, so it is done by a thread of its own.
+	 */
+	private void failConnection() {
+		final PacketReader packetReader = connection.packetReader;
+		final Thread thread = new Thread() {
+
+			@Override
+			public void run() {
+				packetReader.notifyConnectionError(new XMPPException(
+						"Ping timeout"));
+			}
+		};
+		thread.setName("Smack Keep Alive (" + connection.connectionCounterValue
+				+ ")");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the number of milliseconds the connection may currently be idle
+	 * before a ping is sent.
+	 * 
+	 * @return the keep-alive interval.
+	 */
+	synchronized long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Notification that the server answered a ping.
+	 * 
+	 * @param idleTime
+	 *            the time the connection was idle when the ping was sent.
+	 */
+	private void pongReceived(long idleTime) {
+		missedPongs = 0;
+		if (idleTime >= interval) {
+			confirmedInterval = Math.max(confirmedInterval, interval);
+			if (!limitFound && ++successes >= PROBE_SUCCESSES) {
+				successes = 0;
+				interval = Math.min(interval + interval / 2, connection
+						.getConfiguration().getKeepAliveMaxInterval());
+			}
+		}
+		schedule(interval);
+	}
+
+	@Override
+	public synchronized void processException(XMPPException exception) {
+		if (!running || pendingPing == null) {
+			return;
+		}
+		pendingPing = null;
+		if (exception.getXMPPError() != null) {
+			// The server doesn't support pings, but it answered
+			pongReceived(pendingIdleTime);
+			return;
+		}
+		if (++missedPongs < connection.getConfiguration().getMaxMissedPongs()) {
+			sendPing(pendingIdleTime);
+			return;
+		}
+		// The NAT mapping probably expired between the longest idle period
+		// that worked and this one
+		if (confirmedInterval > 0 && pendingIdleTime > confirmedInterval) {
+			interval = confirmedInterval;
+			limitFound = true;
+		}
+		running = false;
+		failConnection();
+	}
+
+	@Override
+	public synchronized void processResult(IQ result) {
+		if (!running || pendingPing == null) {
+			return;
+		}
+		pendingPing = null;
+		pongReceived(pendingIdleTime);
+	}
+
+	private void schedule(long delay) {
+		scheduledCheck = SmackScheduler.schedule(checkTask, delay,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private void sendPing(long idleTime) {
+		final Ping ping = new Ping();
+		ping.setTo(connection.getServiceName());
+		pendingIdleTime = idleTime;
+		try {
+			pendingPing = connection.sendIqAsync(ping);
+		} catch (final IllegalStateException e) {
+			// Not connected any more
+			return;
+		}
+		pendingPing.addListener(this);
+	}
+
+	/**
+	 * Starts keeping the connection alive. Called whenever the connection was
+	 * established.
+	 */
+	synchronized void start() {
+		stop();
+		final int minInterval = SmackConfiguration.getKeepAliveInterval();
+		if (minInterval <= 0) {
+			return;
+		}
+		final int maxInterval = Math.max(minInterval, connection
+				.getConfiguration().getKeepAliveMaxInterval());
+		interval = Math.min(Math.max(interval, minInterval), maxInterval);
+		running = true;
+		packetWriter = connection.packetWriter;
+		missedPongs = 0;
+		lastReceived = System.currentTimeMillis();
+		connection.addPacketListener(pingResponder, new PacketTypeFilter(
+				Ping.class));
+		schedule(interval);
+	}
+
+	/**
+	 * Stops keeping the connection alive.
+	 */
+	synchronized void stop() {
+		running = false;
+		if (scheduledCheck != null) {
+			scheduledCheck.cancel(false);
+			scheduledCheck = null;
+		}
+		if (pendingPing != null) {
+			pendingPing.cancel(false);
+			pendingPing = null;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how received packets are delivered to the packet
+ * listeners of a connection. The values can be used to tune
+ * {@link ConnectionConfiguration#setListenerThreadPoolSize(int)},
+ * {@link ConnectionConfiguration#setListenerQueueCapacity(int)} and
+ * {@link ConnectionConfiguration#setListenerOverflowPolicy(ConnectionConfiguration.ListenerOverflowPolicy)}
+ * and to find slow listeners.
+ * 
+ * @see XMPPConnection#getListenerDispatchStatistics()
+ */
+public class ListenerDispatchStatistics {
+
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong queueNanos = new AtomicLong();
+	private final AtomicLong listenerNanos = new AtomicLong();
+	private final AtomicLong maxListenerNanos = new AtomicLong();
+
+	ListenerDispatchStatistics() {
+	}
+
+	/**
+	 * Returns the average time in milliseconds the listeners took to process
+	 * a packet.
+	 * 
+	 * @return the average processing time of a packet.
+	 */
+	public double getAverageListenerTime() {
+		final long count = delivered.get();
+		return count == 0 ? 0 : listenerNanos.get() / 1000000d / count;
+	}
+
+	/**
+	 * Returns the average time in milliseconds a packet waited in the queue
+	 * before it was handed to the listeners.
+	 * 
+	 * @return the average waiting time of a packet.
+	 */
+	public double getAverageQueueTime() {
+		final long count = delivered.get();
+		return count == 0 ? 0 : queueNanos.get() / 1000000d / count;
+	}
+
+	/**
+	 * Returns the number of presence packets that replaced a queued presence
+	 * packet because the queue was full.
+	 * 
+	 * @return the number of coalesced presence packets.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Returns the number of packets that were handed to the listeners.
+	 * 
+	 * @return the number of delivered packets.
+	 */
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	/**
+	 * Returns the number of presence packets that were discarded because the
+	 * queue was full.
+	 * 
+	 * @return the number of dropped presence packets.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the longest time in milliseconds the listeners took to process a
+	 * single packet.
+	 * 
+	 * @return the longest processing time of a packet.
+	 */
+	public double getMaxListenerTime() {
+		return maxListenerNanos.get() / 1000000d;
+	}
+
+	/**
+	 * Returns the largest number of packets that were waiting for delivery at
+	 * the same time.
+	 * 
+	 * @return the largest queue depth.
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * Returns the number of packets that are currently waiting for delivery.
+	 * 
+	 * @return the current queue depth.
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	void recordCoalesced() {
+		coalesced.incrementAndGet();
+	}
+
+	/**
+	 * Records the delivery of a packet.
+	 * 
+	 * @param waitNanos
+	 *            the nanoseconds the packet waited in the queue.
+	 * @param processNanos
+	 *            the nanoseconds the listeners took to process the packet.
+	 */
+	void recordDelivery(long waitNanos, long processNanos) {
+		delivered.incrementAndGet();
+		queueNanos.addAndGet(waitNanos);
+		listenerNanos.addAndGet(processNanos);
+		long max;
+		while ((max = maxListenerNanos.get()) < processNanos) {
+			if (maxListenerNanos.compareAndSet(max, processNanos)) {
+				break;
+			}
+		}
+	}
+
+	void recordDropped() {
+		dropped.incrementAndGet();
+	}
+
+	/**
+	 * Records the number of packets that are waiting for delivery.
+	 * 
+	 * @param depth
+	 *            the current queue depth.
+	 */
+	void recordQueueDepth(int depth) {
+		queueDepth.set(depth);
+		int max;
+		while ((max = maxQueueDepth.get()) < depth) {
+			if (maxQueueDepth.compareAndSet(max, depth)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Resets all counters to zero, except for the current queue depth.
+	 */
+	public void reset() {
+		maxQueueDepth.set(0);
+		delivered.set(0);
+		dropped.set(0);
+		coalesced.set(0);
+		queueNanos.set(0);
+		listenerNanos.set(0);
+		maxListenerNanos.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "delivered=" + getDeliveredCount() + ", queueDepth="
+				+ getQueueDepth() + ", maxQueueDepth=" + getMaxQueueDepth()
+				+ ", dropped=" + getDroppedCount() + ", coalesced="
+				+ getCoalescedCount() + ", queueTime=" + getAverageQueueTime()
+				+ "ms, listenerTime=" + getAverageListenerTime()
+				+ "ms, maxListenerTime=" + getMaxListenerTime() + "ms";
+	}
+}
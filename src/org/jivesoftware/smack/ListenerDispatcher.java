@@ -0,0 +1,341 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.ConnectionConfiguration.ListenerOverflowPolicy;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.StringUtils;
+
+/**
+ * Delivers received packets to a packet listener on a pool of threads. The
+ * packets of one bare JID are delivered one after the other in the order they
+ * were received, while packets of different bare JIDs are delivered in
+ * parallel. With a pool of a single thread all packets are delivered in the
+ * order they were received.
+ * <p>
+ * 
+ * The number of packets waiting for delivery is bounded. Once the bound is
+ * reached the {@link ListenerOverflowPolicy} of the connection configuration
+ * decides whether the packet reader blocks or presence packets are dropped or
+ * coalesced. Packets parsed on the threads shared by all connections are
+ * never blocked on, instead the transport stops reading until the queue
+ * drained, see {@link #offer(Packet, ChannelTransport)}.
+ */
+class ListenerDispatcher {
+
+	/**
+	 * The packets of one bare JID that wait for delivery. The queue runs on
+	 * the pool while it has packets, so at most one thread delivers the
+	 * packets of a bare JID.
+	 */
+	private class SerialQueue implements Runnable {
+
+		private final String key;
+		private final LinkedList<Task> tasks = new LinkedList<Task>();
+		private boolean scheduled;
+
+		SerialQueue(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * Replaces the last queued presence from the sender of the given
+		 * presence.
+		 * 
+		 * @param presence
+		 *            the presence to queue.
+		 * @return true if a queued presence was replaced.
+		 */
+		boolean coalesce(Presence presence) {
+			final String from = presence.getFrom();
+			if (from == null) {
+				return false;
+			}
+			for (final ListIterator<Task> it = tasks.listIterator(tasks.size()); it
+					.hasPrevious();) {
+				final Task task = it.previous();
+				if (task.packet instanceof Presence
+						&& from.equals(task.packet.getFrom())) {
+					task.packet = presence;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < MAX_DELIVERIES_PER_RUN; i++) {
+				final Packet packet;
+				final long queuedAt;
+				synchronized (lock) {
+					final Task task = tasks.poll();
+					if (task == null) {
+						scheduled = false;
+						queues.remove(key);
+						return;
+					}
+					packet = task.packet;
+					queuedAt = task.queuedAt;
+					queued--;
+					statistics.recordQueueDepth(queued);
+					lock.notifyAll();
+					if (paused != null && queued <= capacity / 2) {
+						paused.setReadPaused(false);
+						paused = null;
+					}
+				}
+				deliver(packet, queuedAt);
+			}
+			// Give the queues of other JIDs a chance to run before continuing
+			synchronized (lock) {
+				if (tasks.isEmpty()) {
+					scheduled = false;
+					queues.remove(key);
+					return;
+				}
+			}
+			try {
+				executor.execute(this);
+			} catch (final RejectedExecutionException e) {
+				// The dispatcher was shut down
+			}
+		}
+	}
+
+	/**
+	 * A packet waiting for delivery.
+	 */
+	private static class Task {
+
+		private Packet packet;
+		private final long queuedAt = System.nanoTime();
+
+		Task(Packet packet) {
+			this.packet = packet;
+		}
+	}
+
+	/**
+	 * Number of packets a queue delivers before it lets other queues run.
+	 */
+	private static final int MAX_DELIVERIES_PER_RUN = 32;
+
+	private final PacketListener listener;
+	private final ListenerDispatchStatistics statistics;
+	private final ListenerOverflowPolicy overflowPolicy;
+	private final int capacity;
+	private final boolean ordered;
+	private final ThreadPoolExecutor executor;
+
+	private final Object lock = new Object();
+	private final Map<String, SerialQueue> queues = new HashMap<String, SerialQueue>();
+	private int queued;
+	private boolean done;
+	// The transport that stopped reading because the queue is full
+	private ChannelTransport paused;
+
+	/**
+	 * Creates a new dispatcher.
+	 * 
+	 * @param listener
+	 *            the listener packets are delivered to.
+	 * @param config
+	 *            the configuration providing the pool size, queue capacity
+	 *            and overflow policy.
+	 * @param statistics
+	 *            the statistics to update.
+	 * @param threadName
+	 *            the name of the pool threads.
+	 */
+	ListenerDispatcher(PacketListener listener,
+			ConnectionConfiguration config,
+			ListenerDispatchStatistics statistics, final String threadName) {
+		this.listener = listener;
+		this.statistics = statistics;
+		overflowPolicy = config.getListenerOverflowPolicy();
+		capacity = config.getListenerQueueCapacity();
+		final int poolSize = config.getListenerThreadPoolSize();
+		ordered = poolSize == 1;
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, threadName);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// Idle connections don't keep any listener thread
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private void deliver(Packet packet, long queuedAt) {
+		final long start = System.nanoTime();
+		try {
+			listener.processPacket(packet);
+		} catch (final RuntimeException e) {
+			// Catch and print any exception so the delivery of further
+			// packets is not affected
+			e.printStackTrace();
+		}
+		statistics.recordDelivery(start - queuedAt, System.nanoTime() - start);
+	}
+
+	/**
+	 * Queues a packet for delivery. Depending on the overflow policy the
+	 * calling thread blocks while the queue is full, so this must only be
+	 * called by a thread of its own connection.
+	 * 
+	 * @param packet
+	 *            the packet to deliver.
+	 */
+	void dispatch(Packet packet) {
+		final String key = key(packet);
+		synchronized (lock) {
+			while (queued >= capacity && !done) {
+				if (overflow(key, packet)) {
+					return;
+				}
+				try {
+					lock.wait();
+				} catch (final InterruptedException ie) {
+					// Ignore and check again
+				}
+			}
+		}
+		enqueue(key, packet);
+	}
+
+	/**
+	 * Queues a packet for delivery without blocking.
+	 * 
+	 * @param key
+	 *            the key of the queue of the packet.
+	 * @param packet
+	 *            the packet to deliver.
+	 */
+	private void enqueue(String key, Packet packet) {
+		SerialQueue schedule = null;
+		synchronized (lock) {
+			if (done) {
+				return;
+			}
+			SerialQueue queue = queues.get(key);
+			if (queue == null) {
+				queue = new SerialQueue(key);
+				queues.put(key, queue);
+			}
+			queue.tasks.add(new Task(packet));
+			queued++;
+			statistics.recordQueueDepth(queued);
+			if (!queue.scheduled) {
+				queue.scheduled = true;
+				schedule = queue;
+			}
+		}
+		if (schedule != null) {
+			try {
+				executor.execute(schedule);
+			} catch (final RejectedExecutionException e) {
+				// The dispatcher was shut down
+			}
+		}
+	}
+
+	/**
+	 * Returns the key of the queue a packet is delivered by.
+	 */
+	private String key(Packet packet) {
+		return ordered || packet.getFrom() == null ? "" : StringUtils
+				.parseBareAddress(packet.getFrom()).toLowerCase();
+	}
+
+	/**
+	 * Queues a packet for delivery without blocking, for packets parsed on
+	 * the threads shared by all connections. Presence packets are dropped or
+	 * coalesced as the overflow policy says while the queue is full. Other
+	 * packets are queued beyond the bound and the transport stops reading
+	 * until half of the queue was delivered.
+	 * 
+	 * @param packet
+	 *            the packet to deliver.
+	 * @param transport
+	 *            the transport the packet was received by.
+	 */
+	void offer(Packet packet, ChannelTransport transport) {
+		final String key = key(packet);
+		synchronized (lock) {
+			if (queued >= capacity && !done) {
+				if (overflow(key, packet)) {
+					return;
+				}
+				// Paused and resumed holding the lock, so a resume can't
+				// overtake the pause
+				paused = transport;
+				transport.setReadPaused(true);
+			}
+		}
+		enqueue(key, packet);
+	}
+
+	/**
+	 * Applies the overflow policy to a packet that arrives while the queue is
+	 * full. Must be called holding the lock.
+	 * 
+	 * @return true if the packet was dropped or coalesced.
+	 */
+	private boolean overflow(String key, Packet packet) {
+		if (packet instanceof Presence) {
+			if (overflowPolicy == ListenerOverflowPolicy.dropPresence) {
+				statistics.recordDropped();
+				return true;
+			}
+			if (overflowPolicy == ListenerOverflowPolicy.coalescePresence) {
+				final SerialQueue queue = queues.get(key);
+				if (queue != null && queue.coalesce((Presence) packet)) {
+					statistics.recordCoalesced();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Shuts the dispatcher down. Packets that are dispatched afterwards are
+	 * discarded and a reader blocked on a full queue is released.
+	 */
+	void shutdown() {
+		synchronized (lock) {
+			done = true;
+			lock.notifyAll();
+		}
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells the connections whether the device has network access. The
+ * application updates it when the connectivity of the device changes, e.g.
+ * from a broadcast receiver on Android. While the network is unavailable no
+ * reconnection is attempted, and once it is available again the connection is
+ * re-established immediately instead of waiting for the next scheduled
+ * attempt.
+ * 
+ * @see ConnectionConfiguration#setNetworkAvailability(NetworkAvailability)
+ */
+public class NetworkAvailability {
+
+	/**
+	 * Notified when the availability of the network changes.
+	 */
+	interface Listener {
+
+		/**
+		 * Notification that the network became available or unavailable.
+		 * 
+		 * @param available
+		 *            true if the network is available.
+		 */
+		void networkAvailabilityChanged(boolean available);
+	}
+
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private volatile boolean available;
+
+	/**
+	 * Creates a signal for a network that is initially available.
+	 */
+	public NetworkAvailability() {
+		this(true);
+	}
+
+	/**
+	 * Creates a signal with the given initial availability.
+	 * 
+	 * @param available
+	 *            true if the network is available.
+	 */
+	public NetworkAvailability(boolean available) {
+		this.available = available;
+	}
+
+	void addListener(Listener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * Returns true if the network is available.
+	 * 
+	 * @return true if the network is available.
+	 */
+	public boolean isAvailable() {
+		return available;
+	}
+
+	void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Sets whether the network is available. The listeners are only notified
+	 * if the availability changed.
+	 * 
+	 * @param available
+	 *            true if the network is available.
+	 */
+	public void setAvailable(boolean available) {
+		synchronized (this) {
+			if (this.available == available) {
+				return;
+			}
+			this.available = available;
+		}
+		for (final Listener listener : listeners) {
+			listener.networkAvailabilityChanged(available);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.FromMatchesFilter;
+import org.jivesoftware.smack.filter.IQTypeFilter;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.filter.PacketExtensionFilter;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.filter.PacketIDFilter;
+import org.jivesoftware.smack.filter.PacketTypeFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.util.StringUtils;
+
+/**
+ * Index of packet collectors or packet listeners that finds the entries whose
+ * filter may accept a packet without evaluating every registered filter.
+ * <p>
+ * 
+ * Each entry is indexed by the most selective condition of its filter that is
+ * known to the index: the packet ID of a {@link PacketIDFilter}, the bare JID
+ * of a {@link FromMatchesFilter}, the namespace of a
+ * {@link PacketExtensionFilter} or the packet class of a
+ * {@link PacketTypeFilter}, {@link MessageTypeFilter} or {@link IQTypeFilter}.
+ * The filters of an {@link AndFilter} are searched for such a condition.
+ * Entries with any other filter are returned for every packet.
+ * <p>
+ * 
+ * The index only narrows down the candidates for a packet. The filter of every
+ * returned entry still has to be evaluated.
+ * 
+ * @param <T>
+ *            the type of the indexed entries.
+ */
+final class PacketDispatchIndex<T> {
+
+	/**
+	 * The bucket an entry is stored in.
+	 */
+	private static class Key {
+
+		private final Map<Object, List<?>> index;
+		private final Object value;
+		private final int rank;
+
+		Key(Map<Object, List<?>> index, Object value, int rank) {
+			this.index = index;
+			this.value = value;
+			this.rank = rank;
+		}
+	}
+
+	private static final int RANK_ID = 0;
+	private static final int RANK_FROM = 1;
+	private static final int RANK_EXTENSION = 2;
+	private static final int RANK_TYPE = 3;
+
+	private final Map<Object, List<?>> idIndex = new ConcurrentHashMap<Object, List<?>>();
+	private final Map<Object, List<?>> fromIndex = new ConcurrentHashMap<Object, List<?>>();
+	private final Map<Object, List<?>> extensionIndex = new ConcurrentHashMap<Object, List<?>>();
+	private final Map<Object, List<?>> typeIndex = new ConcurrentHashMap<Object, List<?>>();
+	private final List<T> unindexed = new CopyOnWriteArrayList<T>();
+
+	/**
+	 * The key of every indexed entry, used to remove the entry again.
+	 */
+	private final Map<T, Key> keys = new IdentityHashMap<T, Key>();
+
+	/**
+	 * Adds an entry with the given filter to the index. A <tt>null</tt> filter
+	 * matches every packet.
+	 * 
+	 * @param entry
+	 *            the entry to add.
+	 * @param filter
+	 *            the filter of the entry.
+	 */
+	synchronized void add(T entry, PacketFilter filter) {
+		remove(entry);
+		final Key key = keyFor(filter);
+		if (key == null) {
+			unindexed.add(entry);
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		List<T> bucket = (List<T>) key.index.get(key.value);
+		if (bucket == null) {
+			bucket = new CopyOnWriteArrayList<T>();
+			key.index.put(key.value, bucket);
+		}
+		bucket.add(entry);
+		keys.put(entry, key);
+	}
+
+	/**
+	 * Adds the entries of the bucket to the list of candidates.
+	 * 
+	 * @param candidates
+	 *            the list of candidates.
+	 * @param index
+	 *            the index to look the bucket up in.
+	 * @param value
+	 *            the value of the bucket.
+	 */
+	@SuppressWarnings("unchecked")
+	private void addBucket(List<T> candidates, Map<Object, List<?>> index,
+			Object value) {
+		final List<?> bucket = index.get(value);
+		if (bucket != null) {
+			candidates.addAll((List<T>) bucket);
+		}
+	}
+
+	/**
+	 * Removes all entries from the index.
+	 */
+	synchronized void clear() {
+		idIndex.clear();
+		fromIndex.clear();
+		extensionIndex.clear();
+		typeIndex.clear();
+		unindexed.clear();
+		keys.clear();
+	}
+
+	/**
+	 * Returns the most selective key for the given filter, or <tt>null</tt>
+	 * if the filter can't be indexed.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @return the key or <tt>null</tt>.
+	 */
+	private Key keyFor(PacketFilter filter) {
+		if (filter instanceof PacketIDFilter) {
+			return new Key(idIndex, ((PacketIDFilter) filter).getPacketID(),
+					RANK_ID);
+		} else if (filter instanceof FromMatchesFilter) {
+			return new Key(fromIndex,
+					StringUtils.parseBareAddress(((FromMatchesFilter) filter)
+							.getAddress()), RANK_FROM);
+		} else if (filter instanceof PacketExtensionFilter) {
+			final String namespace = ((PacketExtensionFilter) filter)
+					.getNamespace();
+			if (namespace != null) {
+				return new Key(extensionIndex, namespace, RANK_EXTENSION);
+			}
+		} else if (filter instanceof PacketTypeFilter) {
+			final Class<?> type = ((PacketTypeFilter) filter).getPacketType();
+			if (!type.isInterface()) {
+				return new Key(typeIndex, type, RANK_TYPE);
+			}
+		} else if (filter instanceof MessageTypeFilter) {
+			return new Key(typeIndex, Message.class, RANK_TYPE);
+		} else if (filter instanceof IQTypeFilter) {
+			return new Key(typeIndex, IQ.class, RANK_TYPE);
+		} else if (filter instanceof AndFilter) {
+			Key best = null;
+			for (final PacketFilter child : ((AndFilter) filter).getFilters()) {
+				final Key key = keyFor(child);
+				if (key != null && (best == null || key.rank < best.rank)) {
+					best = key;
+				}
+			}
+			return best;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the entries whose filter may accept the given packet.
+	 * 
+	 * @param packet
+	 *            the packet to dispatch.
+	 * @return the candidate entries for the packet.
+	 */
+	List<T> lookup(Packet packet) {
+		final List<T> candidates = new ArrayList<T>(unindexed);
+		if (!idIndex.isEmpty()) {
+			final String packetID = packet.getPacketID();
+			if (packetID != null) {
+				addBucket(candidates, idIndex, packetID);
+			}
+		}
+		if (!fromIndex.isEmpty()) {
+			final String from = packet.getFrom();
+			if (from != null) {
+				addBucket(candidates, fromIndex, StringUtils
+						.parseBareAddress(from).toLowerCase());
+			}
+		}
+		if (!extensionIndex.isEmpty()) {
+			final List<String> namespaces = new ArrayList<String>();
+			for (final PacketExtension extension : packet.getExtensions()) {
+				final String namespace = extension.getNamespace();
+				// Several extensions may share a namespace, visit each bucket
+				// only once
+				if (namespace != null && !namespaces.contains(namespace)) {
+					namespaces.add(namespace);
+					addBucket(candidates, extensionIndex, namespace);
+				}
+			}
+		}
+		if (!typeIndex.isEmpty()) {
+			for (Class<?> type = packet.getClass(); type != null; type = type
+					.getSuperclass()) {
+				addBucket(candidates, typeIndex, type);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Removes an entry from the index.
+	 * 
+	 * @param entry
+	 *            the entry to remove.
+	 */
+	synchronized void remove(T entry) {
+		final Key key = keys.remove(entry);
+		if (key == null) {
+			unindexed.remove(entry);
+			return;
+		}
+		final List<?> bucket = key.index.get(key.value);
+		if (bucket != null) {
+			bucket.remove(entry);
+			if (bucket.isEmpty()) {
+				key.index.remove(key.value);
+			}
+		}
+	}
+}
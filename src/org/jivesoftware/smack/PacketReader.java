@@ -20,10 +20,8 @@
 
 package org.jivesoftware.smack;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smack.Connection.ListenerWrapper;
@@ -50,28 +48,142 @@ import org.xmlpull.v1.XmlPullParserException;
 class PacketReader {
 
 	/**
-	 * A runnable to notify all listeners of a packet.
+	 * Parses the elements received by the non-blocking transport on the
+	 * processor threads shared by all connections. The elements of a
+	 * connection are processed by one thread at a time and in order.
 	 */
-	private class ListenerNotification implements Runnable {
+	private class ElementProcessor implements ChannelTransport.Listener,
+			Runnable {
+
+		/**
+		 * Number of elements processed before the thread is handed to the
+		 * other connections.
+		 */
+		private static final int BATCH_SIZE = 32;
+
+		private final ChannelTransport transport;
+		private boolean scheduled;
+		// The thread processing elements right now, or null
+		private Thread thread;
+
+		ElementProcessor(ChannelTransport transport) {
+			this.transport = transport;
+		}
+
+		/**
+		 * Waits until no thread processes elements. Returns right away when
+		 * called while processing an element.
+		 */
+		synchronized void awaitIdle(long timeout) {
+			if (thread == Thread.currentThread()) {
+				return;
+			}
+			final long deadline = System.currentTimeMillis() + timeout;
+			long remaining;
+			while (thread != null
+					&& (remaining = deadline - System.currentTimeMillis()) > 0) {
+				try {
+					wait(remaining);
+				} catch (final InterruptedException e) {
+					return;
+				}
+			}
+		}
 
-		private final Packet packet;
+		@Override
+		public void elementsReceived() {
+			synchronized (this) {
+				if (scheduled) {
+					return;
+				}
+				scheduled = true;
+			}
+			transport.getSelector().execute(this);
+		}
 
-		public ListenerNotification(Packet packet) {
-			this.packet = packet;
+		/**
+		 * Returns true if the parser is at the end of the stream header or of
+		 * an element at the top level of the stream.
+		 */
+		private boolean isElementEnd() throws XmlPullParserException {
+			final int eventType = parser.getEventType();
+			return eventType == XmlPullParser.START_TAG
+					&& parser.getDepth() == 1
+					|| eventType == XmlPullParser.END_TAG
+					&& parser.getDepth() <= 2;
 		}
 
 		@Override
 		public void run() {
-			for (final ListenerWrapper listenerWrapper : connection.recvListeners
-					.values()) {
+			final StreamFeed feed = transport.getFeed();
+			synchronized (this) {
+				thread = Thread.currentThread();
+			}
+			try {
+				for (int i = 0; i < BATCH_SIZE; i++) {
+					synchronized (this) {
+						if (done || elementProcessor != this
+								|| !feed.hasElements()) {
+							scheduled = false;
+							return;
+						}
+					}
+					processEvent(parser.next());
+					// Resetting the parser drops the element that ended the
+					// stream
+					if (isElementEnd()) {
+						feed.elementConsumed();
+					}
+				}
+			} catch (final Exception e) {
+				if (!done) {
+					notifyConnectionError(e);
+				}
+				return;
+			} finally {
+				synchronized (this) {
+					thread = null;
+					notifyAll();
+				}
+			}
+			// Let the other connections go first
+			transport.getSelector().execute(this);
+		}
+
+		@Override
+		public void transportFailed(final IOException e) {
+			// Shutting down the connection blocks, so it must not happen on
+			// the selector thread
+			transport.getSelector().execute(new Runnable() {
+
+				@Override
+				public void run() {
+					if (!done && elementProcessor == ElementProcessor.this) {
+						notifyConnectionError(e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * A listener to notify all listeners of a packet.
+	 */
+	private class ListenerNotification implements PacketListener {
+
+		@Override
+		public void processPacket(Packet packet) {
+			for (final ListenerWrapper listenerWrapper : connection.recvListenerIndex
+					.lookup(packet)) {
 				listenerWrapper.notifyListener(packet);
 			}
 		}
 	}
 
 	private Thread readerThread;
+	private ElementProcessor elementProcessor;
 
-	private ExecutorService listenerExecutor;
+	private ListenerDispatcher listenerDispatcher;
 	private final XMPPConnection connection;
 	private XmlPullParser parser;
 
@@ -85,12 +197,34 @@ class PacketReader {
 		init();
 	}
 
+	/**
+	 * Waits until the reader stopped parsing after it was shut down. The
+	 * reader thread ends once the socket was closed. Returns right away when
+	 * called by the reader itself, e.g. while a connection error is handled.
+	 * 
+	 * @param timeout
+	 *            the maximum number of milliseconds to wait.
+	 */
+	void awaitTermination(long timeout) {
+		if (elementProcessor != null) {
+			elementProcessor.awaitIdle(timeout);
+		} else if (Thread.currentThread() != readerThread) {
+			try {
+				readerThread.join(timeout);
+			} catch (final InterruptedException e) {
+				// Ignore
+			}
+		}
+	}
+
 	/**
 	 * Cleans up all resources used by the packet reader.
 	 */
 	void cleanup() {
 		connection.recvListeners.clear();
+		connection.recvListenerIndex.clear();
 		connection.collectors.clear();
+		connection.collectorIndex.clear();
 	}
 
 	/**
@@ -102,32 +236,31 @@ class PacketReader {
 		done = false;
 		connectionID = null;
 
-		readerThread = new Thread() {
-			@Override
-			public void run() {
-				parsePackets(this);
-			}
-		};
-		readerThread.setName("Smack Packet Reader ("
-				+ connection.connectionCounterValue + ")");
-		readerThread.setDaemon(true);
-
-		// Create an executor to deliver incoming packets to listeners. We'll
-		// use a single
-		// thread with an unbounded queue.
-		listenerExecutor = Executors
-				.newSingleThreadExecutor(new ThreadFactory() {
-
-					@Override
-					public Thread newThread(Runnable runnable) {
-						final Thread thread = new Thread(runnable,
-								"Smack Listener Processor ("
-										+ connection.connectionCounterValue
-										+ ")");
-						thread.setDaemon(true);
-						return thread;
-					}
-				});
+		if (connection.transport != null) {
+			// The elements are parsed on the shared processor threads
+			readerThread = null;
+			elementProcessor = new ElementProcessor(connection.transport);
+		} else {
+			elementProcessor = null;
+			readerThread = new Thread() {
+				@Override
+				public void run() {
+					parsePackets(this);
+				}
+			};
+			readerThread.setName("Smack Packet Reader ("
+					+ connection.connectionCounterValue + ")");
+			readerThread.setDaemon(true);
+		}
+
+		// Create a dispatcher to deliver incoming packets to listeners. It
+		// uses a bounded queue and the number of threads of the connection
+		// configuration.
+		listenerDispatcher = new ListenerDispatcher(new ListenerNotification(),
+				connection.getConfiguration(),
+				connection.getListenerDispatchStatistics(),
+				"Smack Listener Processor ("
+						+ connection.connectionCounterValue + ")");
 
 		resetParser();
 	}
@@ -142,7 +275,7 @@ class PacketReader {
 	void notifyConnectionError(Exception e) {
 		done = true;
 		// Closes the connection temporary. A reconnection is possible
-		connection.shutdown(new Presence(Presence.Type.unavailable));
+		connection.shutdown(new Presence(Presence.Type.unavailable), false);
 		// Print the stack trace to help catch the problem
 		e.printStackTrace();
 		// Notify connection listeners of the error.
@@ -177,6 +310,7 @@ class PacketReader {
 	}
 
 	private void parseFeatures(XmlPullParser parser) throws Exception {
+		boolean bindReceived = false;
 		boolean startTLSReceived = false;
 		boolean startTLSRequired = false;
 		boolean done = false;
@@ -197,7 +331,7 @@ class PacketReader {
 				} else if (parser.getName().equals("bind")) {
 					// The server requires the client to bind a resource to the
 					// stream
-					connection.getSASLAuthentication().bindingRequired();
+					bindReceived = true;
 				} else if (parser.getName().equals("session")) {
 					// The server supports sessions
 					connection.getSASLAuthentication().sessionsSupported();
@@ -208,6 +342,16 @@ class PacketReader {
 				} else if (parser.getName().equals("register")) {
 					connection.getAccountManager().setSupportsAccountCreation(
 							true);
+				} else if (parser.getName().equals("ver")
+						&& "urn:xmpp:features:rosterver".equals(parser
+								.getNamespace())) {
+					// The server supports roster versioning
+					connection.setRosterVersioningSupported();
+				} else if (parser.getName().equals("sm")
+						&& StreamManagement.NAMESPACE.equals(parser
+								.getNamespace())) {
+					// The server supports stream management
+					connection.streamManagement.setSupported();
 				}
 			} else if (eventType == XmlPullParser.END_TAG) {
 				if (parser.getName().equals("starttls")) {
@@ -222,6 +366,12 @@ class PacketReader {
 			}
 		}
 
+		// Wake up the authentication only once all features are known, as
+		// resuming the session depends on the features following <bind/>
+		if (bindReceived) {
+			connection.getSASLAuthentication().bindingRequired();
+		}
+
 		// If TLS is required but the server doesn't offer it, disconnect
 		// from the server and throw an error. First check if we've already
 		// negotiated TLS
@@ -238,8 +388,10 @@ class PacketReader {
 		}
 
 		// Release the lock after TLS has been negotiated or we are not
-		// insterested in TLS
+		// insterested in TLS. A connection secured with direct TLS ignores
+		// the STARTTLS offer.
 		if (!startTLSReceived
+				|| connection.isUsingTLS()
 				|| connection.getConfiguration().getSecurityMode() == ConnectionConfiguration.SecurityMode.disabled) {
 			releaseConnectionIDLock();
 		}
@@ -256,122 +408,7 @@ class PacketReader {
 		try {
 			int eventType = parser.getEventType();
 			do {
-				if (eventType == XmlPullParser.START_TAG) {
-					if (parser.getName().equals("message")) {
-						processPacket(PacketParserUtils.parseMessage(parser));
-					} else if (parser.getName().equals("iq")) {
-						processPacket(PacketParserUtils.parseIQ(parser,
-								connection));
-					} else if (parser.getName().equals("presence")) {
-						processPacket(PacketParserUtils.parsePresence(parser));
-					}
-					// We found an opening stream. Record information about it,
-					// then notify
-					// the connectionID lock so that the packet reader startup
-					// can finish.
-					else if (parser.getName().equals("stream")) {
-						// Ensure the correct jabber:client namespace is being
-						// used.
-						if ("jabber:client".equals(parser.getNamespace(null))) {
-							// Get the connection id.
-							for (int i = 0; i < parser.getAttributeCount(); i++) {
-								if (parser.getAttributeName(i).equals("id")) {
-									// Save the connectionID
-									connectionID = parser.getAttributeValue(i);
-									if (!"1.0".equals(parser.getAttributeValue(
-											"", "version"))) {
-										// Notify that a stream has been opened
-										// if the
-										// server is not XMPP 1.0 compliant
-										// otherwise make the
-										// notification after TLS has been
-										// negotiated or if TLS
-										// is not supported
-										releaseConnectionIDLock();
-									}
-								} else if (parser.getAttributeName(i).equals(
-										"from")) {
-									// Use the server name that the server says
-									// that it is.
-									connection.config.setServiceName(parser
-											.getAttributeValue(i));
-								}
-							}
-						}
-					} else if (parser.getName().equals("error")) {
-						throw new XMPPException(
-								PacketParserUtils.parseStreamError(parser));
-					} else if (parser.getName().equals("features")) {
-						parseFeatures(parser);
-					} else if (parser.getName().equals("proceed")) {
-						// Secure the connection by negotiating TLS
-						connection.proceedTLSReceived();
-						// Reset the state of the parser since a new stream
-						// element is going
-						// to be sent by the server
-						resetParser();
-					} else if (parser.getName().equals("failure")) {
-						final String namespace = parser.getNamespace(null);
-						if ("urn:ietf:params:xml:ns:xmpp-tls".equals(namespace)) {
-							// TLS negotiation has failed. The server will close
-							// the connection
-							throw new Exception("TLS negotiation has failed");
-						} else if ("http://jabber.org/protocol/compress"
-								.equals(namespace)) {
-							// Stream compression has been denied. This is a
-							// recoverable
-							// situation. It is still possible to authenticate
-							// and
-							// use the connection but using an uncompressed
-							// connection
-							connection.streamCompressionDenied();
-						} else {
-							// SASL authentication has failed. The server may
-							// close the connection
-							// depending on the number of retries
-							final Failure failure = PacketParserUtils
-									.parseSASLFailure(parser);
-							processPacket(failure);
-							connection.getSASLAuthentication()
-									.authenticationFailed(
-											failure.getCondition());
-						}
-					} else if (parser.getName().equals("challenge")) {
-						// The server is challenging the SASL authentication
-						// made by the client
-						final String challengeData = parser.nextText();
-						processPacket(new Challenge(challengeData));
-						connection.getSASLAuthentication().challengeReceived(
-								challengeData);
-					} else if (parser.getName().equals("success")) {
-						processPacket(new Success(parser.nextText()));
-						// We now need to bind a resource for the connection
-						// Open a new stream and wait for the response
-						connection.packetWriter.openStream();
-						// Reset the state of the parser since a new stream
-						// element is going
-						// to be sent by the server
-						resetParser();
-						// The SASL authentication with the server was
-						// successful. The next step
-						// will be to bind the resource
-						connection.getSASLAuthentication().authenticated();
-					} else if (parser.getName().equals("compressed")) {
-						// Server confirmed that it's possible to use stream
-						// compression. Start
-						// stream compression
-						connection.startStreamCompression();
-						// Reset the state of the parser since a new stream
-						// element is going
-						// to be sent by the server
-						resetParser();
-					}
-				} else if (eventType == XmlPullParser.END_TAG) {
-					if (parser.getName().equals("stream")) {
-						// Disconnect the connection
-						connection.disconnect();
-					}
-				}
+				processEvent(eventType);
 				eventType = parser.next();
 			} while (!done && eventType != XmlPullParser.END_DOCUMENT
 					&& thread == readerThread);
@@ -385,9 +422,174 @@ class PacketReader {
 	}
 
 	/**
-	 * Processes a packet after it's been fully parsed by looping through the
-	 * installed packet collectors and listeners and letting them examine the
-	 * packet to see if they are a match with the filter.
+	 * Parses a stream management element and updates the stream management
+	 * state of the connection. An element with a malformed counter fails
+	 * stream management, since the stanzas can't be accounted for any more.
+	 * 
+	 * @param parser
+	 *            the parser positioned on the start tag of the element.
+	 */
+	private void parseStreamManagement(XmlPullParser parser) {
+		final StreamManagement streamManagement = connection.streamManagement;
+		final String name = parser.getName();
+		try {
+			if (name.equals("r")) {
+				streamManagement.ackRequested();
+			} else if (name.equals("a")) {
+				streamManagement.ackReceived(Long.parseLong(parser
+						.getAttributeValue("", "h")));
+			} else if (name.equals("enabled")) {
+				final String max = parser.getAttributeValue("", "max");
+				final String resume = parser.getAttributeValue("", "resume");
+				streamManagement.enabled(parser.getAttributeValue("", "id"),
+						"true".equals(resume) || "1".equals(resume),
+						max != null ? Integer.parseInt(max) : 0);
+			} else if (name.equals("resumed")) {
+				streamManagement.resumed(Long.parseLong(parser
+						.getAttributeValue("", "h")));
+			} else if (name.equals("failed")) {
+				streamManagement.failed();
+			}
+		} catch (final NumberFormatException e) {
+			streamManagement.failed();
+		}
+	}
+
+	/**
+	 * Processes the current event of the parser. Stanzas are parsed
+	 * completely, the elements negotiating the stream are handed to the
+	 * connection.
+	 * 
+	 * @param eventType
+	 *            the type of the current event.
+	 * @throws Exception
+	 *             if the stream failed.
+	 */
+	private void processEvent(int eventType) throws Exception {
+		connection.keepAlive.dataReceived();
+		if (eventType == XmlPullParser.START_TAG) {
+			if (parser.getName().equals("message")) {
+				processStanza(PacketParserUtils.parseMessage(parser));
+			} else if (parser.getName().equals("iq")) {
+				processStanza(PacketParserUtils.parseIQ(parser, connection));
+			} else if (parser.getName().equals("presence")) {
+				processStanza(PacketParserUtils.parsePresence(parser));
+			} else if (StreamManagement.NAMESPACE.equals(parser
+					.getNamespace())) {
+				parseStreamManagement(parser);
+			}
+			// We found an opening stream. Record information about it,
+			// then notify
+			// the connectionID lock so that the packet reader startup
+			// can finish.
+			else if (parser.getName().equals("stream")) {
+				// Ensure the correct jabber:client namespace is being
+				// used.
+				if ("jabber:client".equals(parser.getNamespace(null))) {
+					// Get the connection id.
+					for (int i = 0; i < parser.getAttributeCount(); i++) {
+						if (parser.getAttributeName(i).equals("id")) {
+							// Save the connectionID
+							connectionID = parser.getAttributeValue(i);
+							if (!"1.0".equals(parser.getAttributeValue(
+									"", "version"))) {
+								// Notify that a stream has been opened
+								// if the
+								// server is not XMPP 1.0 compliant
+								// otherwise make the
+								// notification after TLS has been
+								// negotiated or if TLS
+								// is not supported
+								releaseConnectionIDLock();
+							}
+						} else if (parser.getAttributeName(i).equals("from")) {
+							// Use the server name that the server says
+							// that it is.
+							connection.config.setServiceName(parser
+									.getAttributeValue(i));
+						}
+					}
+				}
+			} else if (parser.getName().equals("error")) {
+				throw new XMPPException(
+						PacketParserUtils.parseStreamError(parser));
+			} else if (parser.getName().equals("features")) {
+				parseFeatures(parser);
+			} else if (parser.getName().equals("proceed")) {
+				// Secure the connection by negotiating TLS
+				connection.proceedTLSReceived();
+				// Reset the state of the parser since a new stream
+				// element is going
+				// to be sent by the server
+				resetParser();
+			} else if (parser.getName().equals("failure")) {
+				final String namespace = parser.getNamespace(null);
+				if ("urn:ietf:params:xml:ns:xmpp-tls".equals(namespace)) {
+					// TLS negotiation has failed. The server will close
+					// the connection
+					throw new Exception("TLS negotiation has failed");
+				} else if ("http://jabber.org/protocol/compress"
+						.equals(namespace)) {
+					// Stream compression has been denied. This is a
+					// recoverable
+					// situation. It is still possible to authenticate
+					// and
+					// use the connection but using an uncompressed
+					// connection
+					connection.streamCompressionDenied();
+				} else {
+					// SASL authentication has failed. The server may
+					// close the connection
+					// depending on the number of retries
+					final Failure failure = PacketParserUtils
+							.parseSASLFailure(parser);
+					processPacket(failure);
+					connection.getSASLAuthentication().authenticationFailed(
+							failure.getCondition());
+				}
+			} else if (parser.getName().equals("challenge")) {
+				// The server is challenging the SASL authentication
+				// made by the client
+				final String challengeData = parser.nextText();
+				processPacket(new Challenge(challengeData));
+				connection.getSASLAuthentication().challengeReceived(
+						challengeData);
+			} else if (parser.getName().equals("success")) {
+				processPacket(new Success(parser.nextText()));
+				// We now need to bind a resource for the connection
+				// Open a new stream and wait for the response
+				connection.packetWriter.openStream();
+				// Reset the state of the parser since a new stream
+				// element is going
+				// to be sent by the server
+				resetParser();
+				// The SASL authentication with the server was
+				// successful. The next step
+				// will be to bind the resource
+				connection.getSASLAuthentication().authenticated();
+			} else if (parser.getName().equals("compressed")) {
+				// Server confirmed that it's possible to use stream
+				// compression. Start
+				// stream compression
+				connection.startStreamCompression();
+				// Reset the state of the parser since a new stream
+				// element is going
+				// to be sent by the server
+				resetParser();
+			}
+		} else if (eventType == XmlPullParser.END_TAG) {
+			if (parser.getName().equals("stream")) {
+				// Disconnect the connection
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Processes a packet after it's been fully parsed by looking up the
+	 * installed packet collectors and listeners that may be interested in the
+	 * packet and letting them examine the packet to see if they are a match
+	 * with the filter.
 	 * 
 	 * @param packet
 	 *            the packet to process.
@@ -397,13 +599,35 @@ class PacketReader {
 			return;
 		}
 
-		// Loop through all collectors and notify the appropriate ones.
-		for (final PacketCollector collector : connection.getPacketCollectors()) {
+		// Complete the pending IQ request the packet is a response to.
+		connection.pendingIQRequests.processPacket(packet);
+
+		// Look up the collectors whose filter may match and notify the
+		// appropriate ones.
+		for (final PacketCollector collector : connection.collectorIndex
+				.lookup(packet)) {
 			collector.processPacket(packet);
 		}
 
-		// Deliver the incoming packet to listeners.
-		listenerExecutor.submit(new ListenerNotification(packet));
+		// Deliver the incoming packet to listeners. The threads shared by
+		// all connections must not block on a full queue.
+		if (elementProcessor != null) {
+			listenerDispatcher.offer(packet, elementProcessor.transport);
+		} else {
+			listenerDispatcher.dispatch(packet);
+		}
+	}
+
+	/**
+	 * Processes a stanza received from the server. Stanzas are counted for
+	 * stream management before they are processed.
+	 * 
+	 * @param stanza
+	 *            the stanza to process.
+	 */
+	private void processStanza(Packet stanza) {
+		connection.streamManagement.stanzaReceived();
+		processPacket(stanza);
 	}
 
 	/**
@@ -427,6 +651,9 @@ class PacketReader {
 	 * new opening stream element is going to be sent by the server.
 	 */
 	private void resetParser() {
+		if (connection.transport != null) {
+			connection.transport.getFeed().restart();
+		}
 		try {
 			parser = new MXParser();
 			parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
@@ -457,7 +684,7 @@ class PacketReader {
 		done = true;
 
 		// Shut down the listener executor.
-		listenerExecutor.shutdown();
+		listenerDispatcher.shutdown();
 	}
 
 	/**
@@ -472,7 +699,11 @@ class PacketReader {
 	public void startup() throws XMPPException {
 		connectionSemaphore = new Semaphore(1);
 
-		readerThread.start();
+		if (elementProcessor != null) {
+			connection.transport.setListener(elementProcessor);
+		} else {
+			readerThread.start();
+		}
 		// Wait for stream tag before returing. We'll wait a couple of seconds
 		// before
 		// giving up and throwing an error.
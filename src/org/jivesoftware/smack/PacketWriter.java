@@ -22,8 +22,12 @@ package org.jivesoftware.smack;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smack.packet.Packet;
 
@@ -32,6 +36,19 @@ import org.jivesoftware.smack.packet.Packet;
  * Packet interceptors can be registered to dynamically modify packets before
  * they're actually sent. Packet listeners can be registered to listen for all
  * outgoing packets.
+ * <p>
+ * 
+ * Packets that are queued while the writer is busy are written out together
+ * and flushed once, bounded by the batch size and linger time of the
+ * {@link ConnectionConfiguration}. The XML of every packet is streamed
+ * directly into the connection writer instead of being built as a String
+ * first.
+ * <p>
+ * 
+ * On the non-blocking transport there is no writer thread. Packets are
+ * written by the sending thread and the transport sends them without
+ * blocking, packets that are written while the socket is busy go out
+ * together.
  * 
  * @see Connection#addPacketInterceptor
  * @see Connection#addPacketSendingListener
@@ -41,70 +58,80 @@ import org.jivesoftware.smack.packet.Packet;
 class PacketWriter {
 
 	/**
-	 * A TimerTask that keeps connections to the server alive by sending a space
-	 * character on an interval.
+	 * A whitespace between two top-level elements, which keeps the connection
+	 * from looking idle.
+	 */
+	private static class Heartbeat extends Packet {
+
+		@Override
+		public String toXML() {
+			return " ";
+		}
+	}
+
+	/**
+	 * Writer that forwards to the current connection writer and counts the
+	 * characters that went through it.
 	 */
-	private class KeepAliveTask implements Runnable {
+	private class CountingWriter extends Writer {
 
-		private final int delay;
-		private Thread thread;
+		private int count;
 
-		public KeepAliveTask(int delay) {
-			this.delay = delay;
+		@Override
+		public void close() throws IOException {
+			writer.close();
 		}
 
 		@Override
-		public void run() {
-			try {
-				// Sleep 15 seconds before sending first heartbeat. This will
-				// give time to
-				// properly finish TLS negotiation and then start sending
-				// heartbeats.
-				Thread.sleep(15000);
-			} catch (final InterruptedException ie) {
-				// Do nothing
-			}
-			while (!done && keepAliveThread == thread) {
-				synchronized (writer) {
-					// Send heartbeat if no packet has been sent to the server
-					// for a given time
-					if (System.currentTimeMillis() - lastActive >= delay) {
-						try {
-							writer.write(" ");
-							writer.flush();
-						} catch (final Exception e) {
-							// Do nothing
-						}
-					}
-				}
-				try {
-					// Sleep until we should write the next keep-alive.
-					Thread.sleep(delay);
-				} catch (final InterruptedException ie) {
-					// Do nothing
-				}
-			}
+		public void flush() throws IOException {
+			writer.flush();
 		}
 
-		protected void setThread(Thread thread) {
-			this.thread = thread;
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			writer.write(cbuf, off, len);
+			count += len;
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			writer.write(c);
+			count++;
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			writer.write(str, off, len);
+			count += len;
 		}
 	}
 
 	private Thread writerThread;
-	private Thread keepAliveThread;
 	private Writer writer;
 	private final XMPPConnection connection;
 	private final BlockingQueue<Packet> queue;
+	private final PacketWriterStatistics statistics;
+
+	/**
+	 * Reusable list holding the packets of the batch that is being written.
+	 */
+	private final List<Packet> batch = new ArrayList<Packet>();
+	private final CountingWriter countingWriter = new CountingWriter();
+
+	private volatile boolean done;
 
-	private boolean done;
+	/**
+	 * Counted down once the packets queued before the shutdown and the end of
+	 * the stream were written.
+	 */
+	private CountDownLatch drained;
 
 	/**
 	 * Timestamp when the last stanza was sent to the server. This information
-	 * is used by the keep alive process to only send heartbeats when the
+	 * is used by the keep alive process to only send pings when the
 	 * connection has been idle.
 	 */
-	private long lastActive = System.currentTimeMillis();
+	private volatile long lastActive = System.currentTimeMillis();
 
 	/**
 	 * Creates a new packet writer with the specified connection.
@@ -115,9 +142,30 @@ class PacketWriter {
 	protected PacketWriter(XMPPConnection connection) {
 		queue = new ArrayBlockingQueue<Packet>(500, true);
 		this.connection = connection;
+		statistics = connection.getPacketWriterStatistics();
 		init();
 	}
 
+	/**
+	 * Waits until the packets that were queued before the shutdown and the
+	 * end of the stream were written. Returns right away when called by the
+	 * writer thread itself, e.g. while a write error is handled.
+	 * 
+	 * @param timeout
+	 *            the maximum number of milliseconds to wait.
+	 * @return true if everything was written.
+	 */
+	boolean awaitDrained(long timeout) {
+		if (Thread.currentThread() == writerThread) {
+			return false;
+		}
+		try {
+			return drained.await(timeout, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Cleans up all resources used by the packet writer.
 	 */
@@ -126,6 +174,15 @@ class PacketWriter {
 		connection.sendListeners.clear();
 	}
 
+	/**
+	 * Returns the time the last packet was written to the server.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	long getLastActive() {
+		return lastActive;
+	}
+
 	/**
 	 * Initializes the writer in order to be used. It is called at the first
 	 * connection and also is invoked if the connection is disconnected by an
@@ -134,38 +191,99 @@ class PacketWriter {
 	protected void init() {
 		writer = connection.writer;
 		done = false;
+		drained = new CountDownLatch(1);
+		batch.clear();
+		// Packets queued for the previous stream must not be written before
+		// the new stream is authenticated
+		keepQueued();
 
-		writerThread = new Thread() {
-			@Override
-			public void run() {
-				writePackets(this);
-			}
-		};
-		writerThread.setName("Smack Packet Writer ("
-				+ connection.connectionCounterValue + ")");
-		writerThread.setDaemon(true);
+		if (connection.transport != null) {
+			// Packets are written by the sending thread
+			writerThread = null;
+		} else {
+			writerThread = new Thread() {
+				@Override
+				public void run() {
+					writePackets(this);
+				}
+			};
+			writerThread.setName("Smack Packet Writer ("
+					+ connection.connectionCounterValue + ")");
+			writerThread.setDaemon(true);
+		}
 	}
 
 	/**
-	 * Returns the next available packet from the queue for writing.
+	 * Hands the queued packets to stream management, which sends the stanzas
+	 * among them once the next stream is ready. Called when the stream broke.
+	 */
+	private void keepQueued() {
+		if (queue.isEmpty()) {
+			return;
+		}
+		final List<Packet> packets = new ArrayList<Packet>();
+		queue.drainTo(packets);
+		connection.streamManagement.notWritten(packets);
+	}
+
+	/**
+	 * Returns the next available packet from the queue for writing. Blocks
+	 * until a packet is available or the writer has been shut down.
 	 * 
-	 * @return the next packet for writing.
+	 * @return the next packet for writing or <tt>null</tt> if the writer was
+	 *         shut down.
 	 */
 	private Packet nextPacket() {
-		Packet packet = null;
+		Packet packet = queue.poll();
 		// Wait until there's a packet or we're done.
-		while (!done && (packet = queue.poll()) == null) {
+		while (!done && packet == null) {
 			try {
-				synchronized (queue) {
-					queue.wait();
-				}
+				packet = queue.take();
 			} catch (final InterruptedException ie) {
-				// Do nothing
+				// Shutdown interrupts the writer thread to wake it up
 			}
 		}
 		return packet;
 	}
 
+	/**
+	 * Collects the next batch of packets into the batch list. The batch
+	 * starts with the given packet and is extended with every packet that is
+	 * already queued, until the configured batch size is reached. If a linger
+	 * time is configured the writer also waits up to that long for more
+	 * packets before the batch is closed.
+	 * 
+	 * @param first
+	 *            the first packet of the batch.
+	 */
+	private void fillBatch(Packet first) {
+		final ConnectionConfiguration config = connection.getConfiguration();
+		final int maxBatchSize = config.getPacketWriterBatchSize();
+		final long deadline = System.currentTimeMillis()
+				+ config.getPacketWriterMaxLinger();
+
+		batch.clear();
+		batch.add(first);
+		while (batch.size() < maxBatchSize) {
+			Packet packet = queue.poll();
+			if (packet == null) {
+				final long linger = deadline - System.currentTimeMillis();
+				if (linger <= 0 || done) {
+					break;
+				}
+				try {
+					packet = queue.poll(linger, TimeUnit.MILLISECONDS);
+				} catch (final InterruptedException ie) {
+					// Shutdown interrupted the wait, write what we have
+				}
+				if (packet == null) {
+					break;
+				}
+			}
+			batch.add(packet);
+		}
+	}
+
 	/**
 	 * Sends to the server a new stream element. This operation may be requested
 	 * several times so we need to encapsulate the logic in one place. This
@@ -199,14 +317,15 @@ class PacketWriter {
 			// may modify the content of the packet.
 			connection.firePacketInterceptors(packet);
 
-			try {
-				queue.put(packet);
-			} catch (final InterruptedException ie) {
-				ie.printStackTrace();
-				return;
-			}
-			synchronized (queue) {
-				queue.notifyAll();
+			if (writerThread == null) {
+				write(packet);
+			} else {
+				try {
+					queue.put(packet);
+				} catch (final InterruptedException ie) {
+					ie.printStackTrace();
+					return;
+				}
 			}
 
 			// Process packet writer listeners. Note that we're using the
@@ -216,6 +335,37 @@ class PacketWriter {
 		}
 	}
 
+	/**
+	 * Queues a stream element for writing, such as a stream management
+	 * request or a stanza that is sent again after the stream was resumed.
+	 * Unlike {@link #sendPacket(Packet)} no interceptors or listeners are
+	 * invoked.
+	 * 
+	 * @param element
+	 *            the element to send.
+	 */
+	void sendStreamElement(Packet element) {
+		if (!done) {
+			if (writerThread == null) {
+				write(element);
+				return;
+			}
+			try {
+				queue.put(element);
+			} catch (final InterruptedException ie) {
+				ie.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Sends a whitespace heartbeat. It is queued like a packet, so the caller
+	 * doesn't wait for a busy writer.
+	 */
+	void sendHeartbeat() {
+		sendStreamElement(new Heartbeat());
+	}
+
 	void setWriter(Writer writer) {
 		this.writer = writer;
 	}
@@ -225,44 +375,117 @@ class PacketWriter {
 	 * further packets will be written to the server.
 	 */
 	public void shutdown() {
+		if (writerThread == null) {
+			// Close the stream, the packets were written already
+			synchronized (writer) {
+				if (!done) {
+					done = true;
+					try {
+						writer.write("</stream:stream>");
+						writer.flush();
+					} catch (final IOException e) {
+						// Do nothing
+					}
+				}
+			}
+			drained.countDown();
+			return;
+		}
 		done = true;
-		synchronized (queue) {
-			queue.notifyAll();
+		// Wake up the writer thread if it is waiting for packets
+		final Thread thread = writerThread;
+		if (thread.getState() == Thread.State.NEW) {
+			// Nothing was written, so there is nothing to wait for
+			drained.countDown();
+		} else {
+			thread.interrupt();
 		}
 	}
 
 	/**
-	 * Starts the keep alive process. A white space (aka heartbeat) is going to
-	 * be sent to the server every 30 seconds (by default) since the last stanza
-	 * was sent to the server.
+	 * Starts the packet writer thread and opens a connection to the server. The
+	 * packet writer will continue writing packets until {@link #shutdown} or an
+	 * error occurs.
 	 */
-	void startKeepAliveProcess() {
-		// Schedule a keep-alive task to run if the feature is enabled. will
-		// write
-		// out a space character each time it runs to keep the TCP/IP connection
-		// open.
-		final int keepAliveInterval = SmackConfiguration.getKeepAliveInterval();
-		if (keepAliveInterval > 0) {
-			final KeepAliveTask task = new KeepAliveTask(keepAliveInterval);
-			keepAliveThread = new Thread(task);
-			task.setThread(keepAliveThread);
-			keepAliveThread.setDaemon(true);
-			keepAliveThread.setName("Smack Keep Alive ("
-					+ connection.connectionCounterValue + ")");
-			keepAliveThread.start();
+	public void startup() {
+		if (writerThread != null) {
+			writerThread.start();
+			return;
+		}
+		try {
+			openStream();
+		} catch (final IOException ioe) {
+			done = true;
+			connection.packetReader.notifyConnectionError(ioe);
 		}
 	}
 
 	/**
-	 * Starts the packet writer thread and opens a connection to the server. The
-	 * packet writer will continue writing packets until {@link #shutdown} or an
-	 * error occurs.
+	 * Writes a packet right away. Used on the non-blocking transport, where
+	 * writing doesn't block the sending thread.
+	 * 
+	 * @param packet
+	 *            the packet to write.
 	 */
-	public void startup() {
-		writerThread.start();
+	private void write(Packet packet) {
+		final int characters;
+		try {
+			synchronized (writer) {
+				if (done) {
+					return;
+				}
+				batch.add(packet);
+				characters = writeBatch();
+				writer.flush();
+				lastActive = System.currentTimeMillis();
+			}
+		} catch (final IOException ioe) {
+			if (!done) {
+				done = true;
+				connection.packetReader.notifyConnectionError(ioe);
+			}
+			return;
+		}
+		statistics.recordFlush(1, characters);
+	}
+
+	/**
+	 * Streams the XML of every packet in the batch list to the writer. If
+	 * stream management is in use an acknowledgement is requested after the
+	 * batch once enough stanzas were written.
+	 * 
+	 * @return the number of characters that were written.
+	 * @throws IOException
+	 *             If an error occurs while writing to the server.
+	 */
+	private int writeBatch() throws IOException {
+		countingWriter.count = 0;
+		boolean requestAck = false;
+		int written = 0;
+		try {
+			for (; written < batch.size(); written++) {
+				final Packet packet = batch.get(written);
+				packet.toXML(countingWriter);
+				requestAck |= connection.streamManagement
+						.elementWritten(packet);
+			}
+		} catch (final IOException ioe) {
+			connection.streamManagement.notWritten(batch.subList(written,
+					batch.size()));
+			throw ioe;
+		} finally {
+			// A failed batch must not be written again on the next stream
+			batch.clear();
+		}
+		if (requestAck) {
+			new StreamManagement.AckRequest().toXML(countingWriter);
+		}
+		return countingWriter.count;
 	}
 
 	private void writePackets(Thread thisThread) {
+		// A reconnect replaces the latch before this thread ends
+		final CountDownLatch drained = this.drained;
 		try {
 			// Open the stream.
 			openStream();
@@ -270,13 +493,19 @@ class PacketWriter {
 			while (!done && (writerThread == thisThread)) {
 				final Packet packet = nextPacket();
 				if (packet != null) {
+					// Drain everything that is queued and write it out with a
+					// single flush
+					fillBatch(packet);
+					final int count = batch.size();
+					final int characters;
 					synchronized (writer) {
-						writer.write(packet.toXML());
+						characters = writeBatch();
 						writer.flush();
 						// Keep track of the last time a stanza was sent to the
 						// server
 						lastActive = System.currentTimeMillis();
 					}
+					statistics.recordFlush(count, characters);
 				}
 			}
 			// Flush out the rest of the queue. If the queue is extremely large,
@@ -286,12 +515,17 @@ class PacketWriter {
 			// by the shutdown process.
 			try {
 				synchronized (writer) {
-					while (!queue.isEmpty()) {
-						final Packet packet = queue.remove();
-						writer.write(packet.toXML());
+					Packet packet;
+					while ((packet = queue.peek()) != null) {
+						packet.toXML(writer);
+						queue.remove();
+						connection.streamManagement.elementWritten(packet);
 					}
 					writer.flush();
 				}
+			} catch (final IOException e) {
+				// The stream broke, the rest is sent on the next stream
+				keepQueued();
 			} catch (final Exception e) {
 				e.printStackTrace();
 			}
@@ -313,10 +547,13 @@ class PacketWriter {
 				}
 			}
 		} catch (final IOException ioe) {
+			keepQueued();
 			if (!done) {
 				done = true;
 				connection.packetReader.notifyConnectionError(ioe);
 			}
+		} finally {
+			drained.countDown();
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how the packet writer of a connection batches stanzas.
+ * Every time the writer flushes the socket it records how many stanzas and how
+ * many characters of XML went out with that flush. The values can be used to
+ * tune {@link ConnectionConfiguration#setPacketWriterBatchSize(int)} and
+ * {@link ConnectionConfiguration#setPacketWriterMaxLinger(int)}.
+ * 
+ * @see XMPPConnection#getPacketWriterStatistics()
+ */
+public class PacketWriterStatistics {
+
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong stanzas = new AtomicLong();
+	private final AtomicLong characters = new AtomicLong();
+	private final AtomicLong maxStanzasPerFlush = new AtomicLong();
+
+	PacketWriterStatistics() {
+	}
+
+	/**
+	 * Returns the average number of characters written per flush.
+	 * 
+	 * @return the average number of characters written per flush.
+	 */
+	public double getAverageCharactersPerFlush() {
+		final long count = flushes.get();
+		return count == 0 ? 0 : (double) characters.get() / count;
+	}
+
+	/**
+	 * Returns the average number of stanzas written per flush.
+	 * 
+	 * @return the average number of stanzas written per flush.
+	 */
+	public double getAverageStanzasPerFlush() {
+		final long count = flushes.get();
+		return count == 0 ? 0 : (double) stanzas.get() / count;
+	}
+
+	/**
+	 * Returns the total number of characters of stanza XML that were written.
+	 * 
+	 * @return the total number of characters written.
+	 */
+	public long getCharacterCount() {
+		return characters.get();
+	}
+
+	/**
+	 * Returns the number of times the writer flushed stanzas to the server.
+	 * 
+	 * @return the number of flushes.
+	 */
+	public long getFlushCount() {
+		return flushes.get();
+	}
+
+	/**
+	 * Returns the largest number of stanzas that went out with a single flush.
+	 * 
+	 * @return the largest batch that was written.
+	 */
+	public long getMaxStanzasPerFlush() {
+		return maxStanzasPerFlush.get();
+	}
+
+	/**
+	 * Returns the total number of stanzas that were written.
+	 * 
+	 * @return the total number of stanzas written.
+	 */
+	public long getStanzaCount() {
+		return stanzas.get();
+	}
+
+	/**
+	 * Records a flush of the given number of stanzas and characters.
+	 * 
+	 * @param stanzaCount
+	 *            the number of stanzas in the batch.
+	 * @param characterCount
+	 *            the number of characters in the batch.
+	 */
+	void recordFlush(int stanzaCount, int characterCount) {
+		flushes.incrementAndGet();
+		stanzas.addAndGet(stanzaCount);
+		characters.addAndGet(characterCount);
+		long max;
+		while ((max = maxStanzasPerFlush.get()) < stanzaCount) {
+			if (maxStanzasPerFlush.compareAndSet(max, stanzaCount)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Resets all counters to zero.
+	 */
+	public void reset() {
+		flushes.set(0);
+		stanzas.set(0);
+		characters.set(0);
+		maxStanzasPerFlush.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "flushes=" + getFlushCount() + ", stanzas=" + getStanzaCount()
+				+ ", characters=" + getCharacterCount()
+				+ ", stanzas/flush=" + getAverageStanzasPerFlush()
+				+ ", characters/flush=" + getAverageCharactersPerFlush();
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+
+/**
+ * The IQ requests of a connection that are waiting for a response, mapped by
+ * their packet ID. The packet reader completes a request directly when its
+ * response arrives. Reply timeouts are run by the {@link SmackScheduler}, so
+ * no thread is blocked per outstanding request.
+ */
+final class PendingIQRequests {
+
+	private final ConcurrentMap<String, IQFuture> requests = new ConcurrentHashMap<String, IQFuture>();
+
+	/**
+	 * Fails all pending requests, e.g. because the connection was closed.
+	 * 
+	 * @param e
+	 *            the reason of the failure.
+	 */
+	void failAll(XMPPException e) {
+		for (final IQFuture future : new ArrayList<IQFuture>(
+				requests.values())) {
+			future.fail(e);
+		}
+	}
+
+	/**
+	 * Completes the pending request the packet is a response to, if any.
+	 * 
+	 * @param packet
+	 *            the packet that was received.
+	 * @return true if the packet completed a pending request.
+	 */
+	boolean processPacket(Packet packet) {
+		if (requests.isEmpty() || !(packet instanceof IQ)) {
+			return false;
+		}
+		final IQ iq = (IQ) packet;
+		if (iq.getType() != IQ.Type.RESULT && iq.getType() != IQ.Type.ERROR) {
+			return false;
+		}
+		final String packetID = iq.getPacketID();
+		if (packetID == null) {
+			return false;
+		}
+		final IQFuture future = requests.get(packetID);
+		return future != null && future.complete(iq);
+	}
+
+	/**
+	 * Registers a request that is about to be sent.
+	 * 
+	 * @param request
+	 *            the IQ request.
+	 * @param timeout
+	 *            the time to wait for a response in milliseconds.
+	 * @return the future of the request.
+	 */
+	IQFuture register(IQ request, long timeout) {
+		final IQFuture future = new IQFuture(this, request.getPacketID());
+		requests.put(future.getPacketID(), future);
+		future.setTimeoutTask(SmackScheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				future.fail(new XMPPException("No response from server."));
+			}
+		}, timeout, TimeUnit.MILLISECONDS));
+		return future;
+	}
+
+	/**
+	 * Removes a completed request.
+	 * 
+	 * @param future
+	 *            the future of the request.
+	 */
+	void remove(IQFuture future) {
+		requests.remove(future.getPacketID(), future);
+	}
+}
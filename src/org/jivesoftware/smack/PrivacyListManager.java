@@ -29,7 +29,6 @@ import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.IQTypeFilter;
 import org.jivesoftware.smack.filter.PacketExtensionFilter;
 import org.jivesoftware.smack.filter.PacketFilter;
-import org.jivesoftware.smack.filter.PacketIDFilter;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.Privacy;
@@ -317,29 +316,9 @@ public class PrivacyListManager {
 		requestPrivacy.setType(Privacy.Type.GET);
 		requestPrivacy.setFrom(getUser());
 
-		// Filter packets looking for an answer from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(
-				requestPrivacy.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-
-		// Send create & join packet.
-		connection.sendPacket(requestPrivacy);
-
-		// Wait up to a certain number of seconds for a reply.
-		final Privacy privacyAnswer = (Privacy) response
-				.nextResult(SmackConfiguration.getPacketReplyTimeout());
-
-		// Stop queuing results
-		response.cancel();
-
-		// Interprete the result and answer the privacy only if it is valid
-		if (privacyAnswer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (privacyAnswer.getError() != null) {
-			throw new XMPPException(privacyAnswer.getError());
-		}
-		return privacyAnswer;
+		// Send the request and wait up to a certain number of seconds for a
+		// reply. An error answer of the server raises an exception.
+		return (Privacy) connection.sendIqAsync(requestPrivacy).getResult();
 	}
 
 	/**
@@ -492,29 +471,9 @@ public class PrivacyListManager {
 		requestPrivacy.setType(Privacy.Type.SET);
 		requestPrivacy.setFrom(getUser());
 
-		// Filter packets looking for an answer from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(
-				requestPrivacy.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-
-		// Send create & join packet.
-		connection.sendPacket(requestPrivacy);
-
-		// Wait up to a certain number of seconds for a reply.
-		final Packet privacyAnswer = response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-
-		// Stop queuing results
-		response.cancel();
-
-		// Interprete the result and answer the privacy only if it is valid
-		if (privacyAnswer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (privacyAnswer.getError() != null) {
-			throw new XMPPException(privacyAnswer.getError());
-		}
-		return privacyAnswer;
+		// Send the request and wait up to a certain number of seconds for a
+		// reply. An error answer of the server raises an exception.
+		return connection.sendIqAsync(requestPrivacy).getResult();
 	}
 
 	/**
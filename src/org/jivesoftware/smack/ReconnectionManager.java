@@ -10,27 +10,28 @@ import org.jivesoftware.smack.packet.StreamError;
  * automatically tries to reconnect to the server.
  * <p>
  * 
- * The reconnection mechanism will try to reconnect periodically:
- * <ol>
- * <li>For the first minute it will attempt to connect once every ten seconds.
- * <li>For the next five minutes it will attempt to connect once a minute.
- * <li>If that fails it will indefinitely try to connect once every five
- * minutes.
- * </ol>
+ * The delay between two attempts grows exponentially from about five seconds
+ * up to about five minutes. A random part of the delay spreads the attempts of
+ * the many clients that lost their connection at the same time. If the
+ * configuration has a {@link NetworkAvailability}, no attempt is made while
+ * the network is unavailable, and once it becomes available again the
+ * connection is re-established immediately.
  * 
  * @author Francisco Vives
  */
-public class ReconnectionManager implements ConnectionListener {
+public class ReconnectionManager implements ConnectionListener,
+		NetworkAvailability.Listener {
 
-	// Holds the connection to the server
-	private final Connection connection;
-	private Thread reconnectionThread;
-	private final int randomBase = new Random().nextInt(11) + 5; // between 5
-																	// and 15
-																	// seconds
+	/**
+	 * The delay before the first attempt in milliseconds, doubled with every
+	 * failed attempt.
+	 */
+	private static final long BASE_DELAY = 5000;
 
-	// Holds the state of the reconnection
-	boolean done = false;
+	/**
+	 * The longest delay between two attempts in milliseconds.
+	 */
+	private static final long MAX_DELAY = 300000;
 
 	static {
 		// Create a new PrivacyListManager on every established connection. In
@@ -42,6 +43,13 @@ public class ReconnectionManager implements ConnectionListener {
 				.addConnectionCreationListener(new ConnectionCreationListener() {
 					@Override
 					public void connectionCreated(Connection connection) {
+						// Connecting again after a disconnect creates the
+						// connection again, but it must keep a single manager
+						for (final ConnectionListener listener : connection.connectionListeners) {
+							if (listener instanceof ReconnectionManager) {
+								return;
+							}
+						}
 						connection
 								.addConnectionListener(new ReconnectionManager(
 										connection));
@@ -49,13 +57,61 @@ public class ReconnectionManager implements ConnectionListener {
 				});
 	}
 
+	// Holds the connection to the server
+	private final Connection connection;
+	private final Random random = new Random();
+	private Thread reconnectionThread;
+
+	// Holds the state of the reconnection
+	volatile boolean done = false;
+	private int attempts;
+	private boolean attemptNow;
+	// When the connection was lost, or 0 while it is connected
+	private long disconnectedTime;
+
 	private ReconnectionManager(Connection connection) {
 		this.connection = connection;
 	}
 
+	/**
+	 * Waits until the next reconnection attempt is due. The listeners are
+	 * notified once per second about the time that remains. While the network
+	 * is unavailable the wait doesn't end until the network is available
+	 * again.
+	 * 
+	 * @throws InterruptedException
+	 *             if the thread was interrupted.
+	 */
+	private synchronized void awaitNextAttempt() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + nextDelay();
+		int notifiedSeconds = -1;
+		while (!attemptNow && isReconnectionAllowed()) {
+			if (!isNetworkAvailable()) {
+				// The network signal wakes us up
+				wait();
+				continue;
+			}
+			final long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			final int seconds = (int) ((remaining + 999) / 1000);
+			if (seconds != notifiedSeconds) {
+				notifiedSeconds = seconds;
+				notifyAttemptToReconnectIn(seconds);
+			}
+			// Wake up when the remaining seconds change
+			wait(remaining - (seconds - 1) * 1000L);
+		}
+		attemptNow = false;
+	}
+
 	@Override
-	public void connectionClosed() {
+	public synchronized void connectionClosed() {
 		done = true;
+		disconnectedTime = 0;
+		// Stop waiting for the next attempt
+		notifyAll();
 	}
 
 	@Override
@@ -76,10 +132,27 @@ public class ReconnectionManager implements ConnectionListener {
 		}
 
 		if (isReconnectionAllowed()) {
+			synchronized (this) {
+				if (disconnectedTime == 0) {
+					disconnectedTime = System.currentTimeMillis();
+				}
+			}
 			reconnect();
 		}
 	}
 
+	/**
+	 * Returns true if the network is available or if the configuration has no
+	 * network availability signal.
+	 * 
+	 * @return true if the network is available.
+	 */
+	private boolean isNetworkAvailable() {
+		final NetworkAvailability network = connection.getConfiguration()
+				.getNetworkAvailability();
+		return network == null || network.isAvailable();
+	}
+
 	/**
 	 * Returns true if the reconnection mechanism is enabled.
 	 * 
@@ -90,6 +163,29 @@ public class ReconnectionManager implements ConnectionListener {
 				&& connection.isReconnectionAllowed();
 	}
 
+	@Override
+	public synchronized void networkAvailabilityChanged(boolean available) {
+		if (available) {
+			// A new network, so start over with a short delay
+			attempts = 0;
+			attemptNow = true;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Returns the number of milliseconds to wait before the next attempt. Half
+	 * of the delay is random.
+	 * 
+	 * @return the delay of the next attempt.
+	 */
+	private long nextDelay() {
+		// Limit the exponent, so the shift can't overflow
+		final long delay = Math.min(MAX_DELAY,
+				BASE_DELAY << Math.min(attempts++, 16));
+		return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+	}
+
 	/**
 	 * Fires listeners when The Connection will retry a reconnection. Expressed
 	 * in seconds.
@@ -123,97 +219,32 @@ public class ReconnectionManager implements ConnectionListener {
 	/**
 	 * Starts a reconnection mechanism if it was configured to do that. The
 	 * algorithm is been executed when the first connection error is detected.
-	 * <p/>
-	 * The reconnection mechanism will try to reconnect periodically in this
-	 * way:
-	 * <ol>
-	 * <li>First it will try 6 times every 10 seconds.
-	 * <li>Then it will try 10 times every 1 minute.
-	 * <li>Finally it will try indefinitely every 5 minutes.
-	 * </ol>
+	 * The attempts are repeated until the connection is established again or
+	 * the application closes it.
 	 */
 	synchronized protected void reconnect() {
 		if (isReconnectionAllowed()) {
 			// Since there is no thread running, creates a new one to attempt
 			// the reconnection.
 			// avoid to run duplicated reconnectionThread -- fd: 16/09/2010
-			if (reconnectionThread != null && reconnectionThread.isAlive()) {
+			if (reconnectionThread != null) {
 				return;
 			}
 
+			final NetworkAvailability network = connection.getConfiguration()
+					.getNetworkAvailability();
+			if (network != null) {
+				network.addListener(this);
+			}
 			reconnectionThread = new Thread() {
 
-				/**
-				 * Holds the current number of reconnection attempts
-				 */
-				private int attempts = 0;
-
 				/**
 				 * The process will try the reconnection until the connection
 				 * succeed or the user cancell it
 				 */
 				@Override
 				public void run() {
-					// The process will try to reconnect until the connection is
-					// established or
-					// the user cancel the reconnection process {@link
-					// Connection#disconnect()}
-					while (ReconnectionManager.this.isReconnectionAllowed()) {
-						// Find how much time we should wait until the next
-						// reconnection
-						int remainingSeconds = timeDelay();
-						// Sleep until we're ready for the next reconnection
-						// attempt. Notify
-						// listeners once per second about how much time remains
-						// before the next
-						// reconnection attempt.
-						while (ReconnectionManager.this.isReconnectionAllowed()
-								&& remainingSeconds > 0) {
-							try {
-								Thread.sleep(1000);
-								remainingSeconds--;
-								ReconnectionManager.this
-										.notifyAttemptToReconnectIn(remainingSeconds);
-							} catch (final InterruptedException e1) {
-								e1.printStackTrace();
-								// Notify the reconnection has failed
-								ReconnectionManager.this
-										.notifyReconnectionFailed(e1);
-							}
-						}
-
-						// Makes a reconnection attempt
-						try {
-							if (ReconnectionManager.this
-									.isReconnectionAllowed()) {
-								connection.connect();
-							}
-						} catch (final XMPPException e) {
-							// Fires the failed reconnection notification
-							ReconnectionManager.this
-									.notifyReconnectionFailed(e);
-						}
-					}
-				}
-
-				/**
-				 * Returns the number of seconds until the next reconnection
-				 * attempt.
-				 * 
-				 * @return the number of seconds until the next reconnection
-				 *         attempt.
-				 */
-				private int timeDelay() {
-					attempts++;
-					if (attempts > 13) {
-						return randomBase * 6 * 5; // between 2.5 and 7.5
-													// minutes (~5 minutes)
-					}
-					if (attempts > 7) {
-						return randomBase * 6; // between 30 and 90 seconds (~1
-												// minutes)
-					}
-					return randomBase; // 10 seconds
+					runReconnection();
 				}
 			};
 			reconnectionThread.setName("Smack Reconnection Manager");
@@ -236,8 +267,55 @@ public class ReconnectionManager implements ConnectionListener {
 	 * The connection has successfull gotten connected.
 	 */
 	@Override
-	public void reconnectionSuccessful() {
-		// ignore
+	public synchronized void reconnectionSuccessful() {
+		attempts = 0;
+		if (disconnectedTime != 0) {
+			connection.getReconnectionStatistics().recordReconnection(
+					System.currentTimeMillis() - disconnectedTime);
+			disconnectedTime = 0;
+		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Attempts to reconnect until the connection is established or the
+	 * application closes it.
+	 */
+	private void runReconnection() {
+		final ReconnectionStatistics statistics = connection
+				.getReconnectionStatistics();
+		while (true) {
+			synchronized (this) {
+				// Checked with the lock held, so a connection error that
+				// happens now doesn't find this thread still running
+				if (!isReconnectionAllowed()) {
+					reconnectionThread = null;
+					final NetworkAvailability network = connection
+							.getConfiguration().getNetworkAvailability();
+					if (network != null) {
+						network.removeListener(this);
+					}
+					return;
+				}
+			}
+			try {
+				awaitNextAttempt();
+			} catch (final InterruptedException e) {
+				// Notify the reconnection has failed
+				notifyReconnectionFailed(e);
+				continue;
+			}
+
+			// Makes a reconnection attempt
+			if (isReconnectionAllowed() && isNetworkAvailable()) {
+				try {
+					connection.connect();
+					statistics.recordAttempt(true);
+				} catch (final XMPPException e) {
+					statistics.recordAttempt(false);
+					// Fires the failed reconnection notification
+					notifyReconnectionFailed(e);
+				}
+			}
+		}
+	}
+}
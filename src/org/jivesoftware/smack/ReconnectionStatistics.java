@@ -0,0 +1,145 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how quickly a connection is re-established after it was
+ * lost. The time to reconnect is measured from the loss of the connection
+ * until the connection is established again.
+ * 
+ * @see Connection#getReconnectionStatistics()
+ */
+public class ReconnectionStatistics {
+
+	private final AtomicLong reconnections = new AtomicLong();
+	private final AtomicLong attempts = new AtomicLong();
+	private final AtomicLong failedAttempts = new AtomicLong();
+	private final AtomicLong reconnectMillis = new AtomicLong();
+	private final AtomicLong lastReconnectMillis = new AtomicLong();
+	private final AtomicLong maxReconnectMillis = new AtomicLong();
+
+	ReconnectionStatistics() {
+	}
+
+	/**
+	 * Returns the number of reconnection attempts.
+	 * 
+	 * @return the number of attempts.
+	 */
+	public long getAttemptCount() {
+		return attempts.get();
+	}
+
+	/**
+	 * Returns the average time in milliseconds it took to reconnect.
+	 * 
+	 * @return the average time to reconnect.
+	 */
+	public double getAverageTimeToReconnect() {
+		final long count = reconnections.get();
+		return count == 0 ? 0 : (double) reconnectMillis.get() / count;
+	}
+
+	/**
+	 * Returns the number of reconnection attempts that failed.
+	 * 
+	 * @return the number of failed attempts.
+	 */
+	public long getFailedAttemptCount() {
+		return failedAttempts.get();
+	}
+
+	/**
+	 * Returns the time in milliseconds the last reconnection took.
+	 * 
+	 * @return the last time to reconnect.
+	 */
+	public long getLastTimeToReconnect() {
+		return lastReconnectMillis.get();
+	}
+
+	/**
+	 * Returns the longest time in milliseconds a reconnection took.
+	 * 
+	 * @return the maximum time to reconnect.
+	 */
+	public long getMaxTimeToReconnect() {
+		return maxReconnectMillis.get();
+	}
+
+	/**
+	 * Returns the number of times the connection was re-established.
+	 * 
+	 * @return the number of reconnections.
+	 */
+	public long getReconnectionCount() {
+		return reconnections.get();
+	}
+
+	/**
+	 * Records an attempt to reconnect.
+	 * 
+	 * @param succeeded
+	 *            true if the connection was established.
+	 */
+	void recordAttempt(boolean succeeded) {
+		attempts.incrementAndGet();
+		if (!succeeded) {
+			failedAttempts.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a re-established connection.
+	 * 
+	 * @param millis
+	 *            the milliseconds since the connection was lost.
+	 */
+	void recordReconnection(long millis) {
+		reconnections.incrementAndGet();
+		reconnectMillis.addAndGet(millis);
+		lastReconnectMillis.set(millis);
+		long max;
+		while ((max = maxReconnectMillis.get()) < millis) {
+			if (maxReconnectMillis.compareAndSet(max, millis)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Resets all counters to zero.
+	 */
+	public void reset() {
+		reconnections.set(0);
+		attempts.set(0);
+		failedAttempts.set(0);
+		reconnectMillis.set(0);
+		lastReconnectMillis.set(0);
+		maxReconnectMillis.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "reconnections=" + getReconnectionCount() + ", attempts="
+				+ getAttemptCount() + ", failedAttempts="
+				+ getFailedAttemptCount() + ", timeToReconnect="
+				+ getAverageTimeToReconnect() + "ms, lastTimeToReconnect="
+				+ getLastTimeToReconnect() + "ms, maxTimeToReconnect="
+				+ getMaxTimeToReconnect() + "ms";
+	}
+}
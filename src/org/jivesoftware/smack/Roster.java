@@ -33,7 +33,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jivesoftware.smack.filter.PacketFilter;
-import org.jivesoftware.smack.filter.PacketIDFilter;
 import org.jivesoftware.smack.filter.PacketTypeFilter;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Packet;
@@ -191,141 +190,67 @@ public class Roster {
 
 		@Override
 		public void processPacket(Packet packet) {
+			final RosterPacket rosterPacket = (RosterPacket) packet;
+			final String version = rosterPacket.getVersion();
 			// Keep a registry of the entries that were added, deleted or
-			// updated. An event
-			// will be fired for each affected entry
+			// updated. An event will be fired for each affected entry
 			final Collection<String> addedEntries = new ArrayList<String>();
 			final Collection<String> updatedEntries = new ArrayList<String>();
 			final Collection<String> deletedEntries = new ArrayList<String>();
 
-			final RosterPacket rosterPacket = (RosterPacket) packet;
-			for (final RosterPacket.Item item : rosterPacket.getRosterItems()) {
-				final RosterEntry entry = new RosterEntry(item.getUser(),
-						item.getName(), item.getItemType(),
-						item.getItemStatus(), Roster.this, connection);
-
-				// If the packet is of the type REMOVE then remove the entry
-				if (RosterPacket.ItemType.remove.equals(item.getItemType())) {
-					// Remove the entry from the entry list.
-					if (entries.containsKey(item.getUser())) {
-						entries.remove(item.getUser());
-					}
-					// Remove the entry from the unfiled entry list.
-					if (unfiledEntries.contains(entry)) {
-						unfiledEntries.remove(entry);
-					}
-					// Removing the user from the roster, so remove any presence
-					// information
-					// about them.
-					final String key = StringUtils.parseName(item.getUser())
-							+ "@" + StringUtils.parseServer(item.getUser());
-					presenceMap.remove(key);
-					// Keep note that an entry has been removed
-					deletedEntries.add(item.getUser());
-				} else {
-					// Make sure the entry is in the entry list.
-					if (!entries.containsKey(item.getUser())) {
-						entries.put(item.getUser(), entry);
-						// Keep note that an entry has been added
-						addedEntries.add(item.getUser());
-					} else {
-						// If the entry was in then list then update its state
-						// with the new values
-						final RosterEntry oldEntry = entries.put(
-								item.getUser(), entry);
-
-						final RosterPacket.Item oldItem = RosterEntry
-								.toRosterItem(oldEntry);
-						// We have also to check if only the group names have
-						// changed from the item
-						if (oldEntry == null
-								|| !oldEntry.equalsDeep(entry)
-								|| !item.getGroupNames().equals(
-										oldItem.getGroupNames())) {
-							updatedEntries.add(item.getUser());
-						}
-					}
-					// If the roster entry belongs to any groups, remove it from
-					// the
-					// list of unfiled entries.
-					if (!item.getGroupNames().isEmpty()) {
-						unfiledEntries.remove(entry);
-					}
-					// Otherwise add it to the list of unfiled entries.
-					else {
-						if (!unfiledEntries.contains(entry)) {
-							unfiledEntries.add(entry);
+			if (rosterPacket.getType() == IQ.Type.SET) {
+				// A roster push only carries the changed items
+				for (final RosterPacket.Item item : rosterPacket
+						.getRosterItems()) {
+					applyItem(item, addedEntries, updatedEntries,
+							deletedEntries);
+					if (rosterStore != null && version != null) {
+						if (RosterPacket.ItemType.remove.equals(item
+								.getItemType())) {
+							rosterStore.removeEntry(item.getUser(), version);
+						} else {
+							rosterStore.addEntry(item, version);
 						}
 					}
 				}
-
-				// Find the list of groups that the user currently belongs to.
-				final List<String> currentGroupNames = new ArrayList<String>();
-				for (final RosterGroup group : getGroups()) {
-					if (group.contains(entry)) {
-						currentGroupNames.add(group.getName());
-					}
+				connection.sendPacket(IQ.createResultIQ(rosterPacket));
+			} else if (rosterPacket.getType() == IQ.Type.RESULT) {
+				// The complete roster, entries that are not part of it have
+				// been removed since the roster was loaded or stored
+				final Set<String> removedUsers = new HashSet<String>(
+						entries.keySet());
+				for (final RosterPacket.Item item : rosterPacket
+						.getRosterItems()) {
+					removedUsers.remove(item.getUser());
+					applyItem(item, addedEntries, updatedEntries,
+							deletedEntries);
 				}
-
-				// If the packet is not of the type REMOVE then add the entry to
-				// the groups
-				if (!RosterPacket.ItemType.remove.equals(item.getItemType())) {
-					// Create the new list of groups the user belongs to.
-					final List<String> newGroupNames = new ArrayList<String>();
-					for (final String groupName : item.getGroupNames()) {
-						// Add the group name to the list.
-						newGroupNames.add(groupName);
-
-						// Add the entry to the group.
-						RosterGroup group = getGroup(groupName);
-						if (group == null) {
-							group = createGroup(groupName);
-							groups.put(groupName, group);
-						}
-						// Add the entry.
-						group.addEntryLocal(entry);
-					}
-
-					// We have the list of old and new group names. We now need
-					// to
-					// remove the entry from the all the groups it may no longer
-					// belong
-					// to. We do this by subtracting the new group set from the
-					// old.
-					for (final String newGroupName : newGroupNames) {
-						currentGroupNames.remove(newGroupName);
-					}
+				for (final String user : removedUsers) {
+					final RosterPacket.Item item = new RosterPacket.Item(user,
+							null);
+					item.setItemType(RosterPacket.ItemType.remove);
+					applyItem(item, addedEntries, updatedEntries,
+							deletedEntries);
 				}
-
-				// Loop through any groups that remain and remove the entries.
-				// This is necessary for the case of remote entry removals.
-				for (final String groupName : currentGroupNames) {
-					final RosterGroup group = getGroup(groupName);
-					group.removeEntryLocal(entry);
-					if (group.getEntryCount() == 0) {
-						groups.remove(groupName);
-					}
-				}
-				// Remove all the groups with no entries. We have to do this
-				// because
-				// RosterGroup.removeEntry removes the entry immediately
-				// (locally) and the
-				// group could remain empty.
-				// TODO Check the performance/logic for rosters with large
-				// number of groups
-				for (final RosterGroup group : getGroups()) {
-					if (group.getEntryCount() == 0) {
-						groups.remove(group.getName());
-					}
+				if (rosterStore != null && version != null) {
+					rosterStore.resetEntries(rosterPacket.getRosterItems(),
+							version);
 				}
+			} else {
+				return;
 			}
 
-			// Mark the roster as initialized.
-			synchronized (Roster.this) {
-				rosterInitialized = true;
-				Roster.this.notifyAll();
+			// Remove all the groups with no entries. We have to do this
+			// because RosterGroup.removeEntry removes the entry immediately
+			// (locally) and the group could remain empty.
+			for (final RosterGroup group : getGroups()) {
+				if (group.getEntryCount() == 0) {
+					groups.remove(group.getName());
+				}
 			}
 
+			setRosterInitialized();
+
 			// Fire event for roster listeners.
 			fireRosterChangedEvent(addedEntries, updatedEntries, deletedEntries);
 		}
@@ -406,6 +331,8 @@ public class Roster {
 
 	private final PresencePacketListener presencePacketListener;
 
+	private final RosterStore rosterStore;
+
 	private SubscriptionMode subscriptionMode = getDefaultSubscriptionMode();
 
 	/**
@@ -421,6 +348,15 @@ public class Roster {
 		entries = new ConcurrentHashMap<String, RosterEntry>();
 		rosterListeners = new CopyOnWriteArrayList<RosterListener>();
 		presenceMap = new ConcurrentHashMap<String, Map<String, Presence>>();
+		// Start with the stored roster, so only the differences to it are
+		// reported once the roster was received from the server.
+		rosterStore = connection.getConfiguration().getRosterStore();
+		if (rosterStore != null) {
+			final Collection<String> ignored = new ArrayList<String>();
+			for (final RosterPacket.Item item : rosterStore.getEntries()) {
+				applyItem(item, ignored, ignored, ignored);
+			}
+		}
 		// Listen for any roster packets.
 		final PacketFilter rosterFilter = new PacketTypeFilter(
 				RosterPacket.class);
@@ -441,8 +377,11 @@ public class Roster {
 
 			@Override
 			public void connectionClosedOnError(Exception e) {
-				// Changes the presence available contacts to unavailable
-				setOfflinePresences();
+				// Changes the presence available contacts to unavailable,
+				// unless the session is going to be resumed
+				if (!connection.isStreamResumable()) {
+					setOfflinePresences();
+				}
 			}
 
 		};
@@ -479,6 +418,111 @@ public class Roster {
 		}
 	}
 
+	/**
+	 * Applies a roster item to the roster and notes whether the entry of the
+	 * user was added, updated or deleted. Items that don't change the entry
+	 * are ignored.
+	 * 
+	 * @param item
+	 *            the roster item.
+	 * @param addedEntries
+	 *            the addresses of the added entries.
+	 * @param updatedEntries
+	 *            the addresses of the updated entries.
+	 * @param deletedEntries
+	 *            the addresses of the deleted entries.
+	 */
+	private void applyItem(RosterPacket.Item item,
+			Collection<String> addedEntries, Collection<String> updatedEntries,
+			Collection<String> deletedEntries) {
+		final RosterEntry oldEntry = entries.get(item.getUser());
+		final RosterEntry entry = new RosterEntry(item.getUser(),
+				item.getName(), item.getItemType(), item.getItemStatus(), this,
+				connection);
+
+		// If the packet is of the type REMOVE then remove the entry
+		if (RosterPacket.ItemType.remove.equals(item.getItemType())) {
+			if (oldEntry == null) {
+				return;
+			}
+			// Remove the entry from the entry list.
+			entries.remove(item.getUser());
+			// Remove the entry from the unfiled entry list.
+			unfiledEntries.remove(entry);
+			// Removing the user from the roster, so remove any presence
+			// information about them.
+			final String key = StringUtils.parseName(item.getUser()) + "@"
+					+ StringUtils.parseServer(item.getUser());
+			presenceMap.remove(key);
+			// Keep note that an entry has been removed
+			deletedEntries.add(item.getUser());
+		} else {
+			if (oldEntry == null) {
+				// Keep note that an entry has been added
+				addedEntries.add(item.getUser());
+			} else {
+				// We have also to check if only the group names have changed
+				// from the item. Unchanged entries are left alone.
+				final RosterPacket.Item oldItem = RosterEntry
+						.toRosterItem(oldEntry);
+				if (oldEntry.equalsDeep(entry)
+						&& item.getGroupNames()
+								.equals(oldItem.getGroupNames())) {
+					return;
+				}
+				updatedEntries.add(item.getUser());
+			}
+			entries.put(item.getUser(), entry);
+			// If the roster entry belongs to any groups, remove it from the
+			// list of unfiled entries.
+			if (!item.getGroupNames().isEmpty()) {
+				unfiledEntries.remove(entry);
+			}
+			// Otherwise add it to the list of unfiled entries.
+			else {
+				if (!unfiledEntries.contains(entry)) {
+					unfiledEntries.add(entry);
+				}
+			}
+		}
+
+		// Find the list of groups that the user currently belongs to.
+		final List<String> currentGroupNames = new ArrayList<String>();
+		for (final RosterGroup group : getGroups()) {
+			if (group.contains(entry)) {
+				currentGroupNames.add(group.getName());
+			}
+		}
+
+		// If the packet is not of the type REMOVE then add the entry to the
+		// groups
+		if (!RosterPacket.ItemType.remove.equals(item.getItemType())) {
+			for (final String groupName : item.getGroupNames()) {
+				// Add the entry to the group.
+				RosterGroup group = getGroup(groupName);
+				if (group == null) {
+					group = new RosterGroup(groupName, connection);
+					groups.put(groupName, group);
+				}
+				group.addEntryLocal(entry);
+				// We have the list of old and new group names. We now need
+				// to remove the entry from the all the groups it may no
+				// longer belong to.
+				currentGroupNames.remove(groupName);
+			}
+		}
+
+		// Loop through any groups that remain and remove the entries.
+		// This is necessary for the case of remote entry removals.
+		for (final String groupName : currentGroupNames) {
+			final RosterGroup group = getGroup(groupName);
+			group.removeEntryLocal(entry);
+			if (group.getEntryCount() == 0) {
+				groups.remove(groupName);
+			}
+		}
+	}
+
 	/**
 	 * Cleans up all resources used by the roster.
 	 */
@@ -538,20 +582,8 @@ public class Roster {
 		}
 		rosterPacket.addRosterItem(item);
 		// Wait up to a certain number of seconds for a reply from the server.
-		final PacketCollector collector = connection
-				.createPacketCollector(new PacketIDFilter(rosterPacket
-						.getPacketID()));
-		connection.sendPacket(rosterPacket);
-		final IQ response = (IQ) collector.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		collector.cancel();
-		if (response == null) {
-			throw new XMPPException("No response from the server.");
-		}
-		// If the server replied with an error, throw an exception.
-		else if (response.getType() == IQ.Type.ERROR) {
-			throw new XMPPException(response.getError());
-		}
+		// If the server replied with an error, an exception is thrown.
+		connection.sendIqAsync(rosterPacket).getResult();
 
 		// Create a presence subscription packet and send.
 		final Presence presencePacket = new Presence(Presence.Type.subscribe);
@@ -924,6 +956,11 @@ public class Roster {
 	 * operation, which means the method will return immediately, and the roster
 	 * will be reloaded at a later point when the server responds to the reload
 	 * request.
+	 * <p>
+	 * 
+	 * If a {@link RosterStore} is configured and the server supports roster
+	 * versioning, the server only sends the changes since the stored roster.
+	 * Roster listeners are only notified about entries that actually changed.
 	 * 
 	 * @throws IllegalStateException
 	 *             if connection is not logged in or logged in anonymously
@@ -937,7 +974,28 @@ public class Roster {
 					"Anonymous users can't have a roster.");
 		}
 
-		connection.sendPacket(new RosterPacket());
+		final RosterPacket packet = new RosterPacket();
+		if (rosterStore != null && connection.isRosterVersioningSupported()) {
+			final String version = rosterStore.getRosterVersion();
+			packet.setVersion(version != null ? version : "");
+		}
+		connection.sendIqAsync(packet).addListener(new IQResponseListener() {
+
+			@Override
+			public void processException(XMPPException exception) {
+				// Ignore, the roster stays uninitialized
+			}
+
+			@Override
+			public void processResult(IQ result) {
+				// An empty result means the stored roster is up to date and
+				// changes will be pushed. A complete roster is processed by
+				// the RosterPacketListener.
+				if (!(result instanceof RosterPacket)) {
+					setRosterInitialized();
+				}
+			}
+		});
 	}
 
 	/**
@@ -975,19 +1033,9 @@ public class Roster {
 		// Set the item type as REMOVE so that the server will delete the entry
 		item.setItemType(RosterPacket.ItemType.remove);
 		packet.addRosterItem(item);
-		final PacketCollector collector = connection
-				.createPacketCollector(new PacketIDFilter(packet.getPacketID()));
-		connection.sendPacket(packet);
-		final IQ response = (IQ) collector.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		collector.cancel();
-		if (response == null) {
-			throw new XMPPException("No response from the server.");
-		}
-		// If the server replied with an error, throw an exception.
-		else if (response.getType() == IQ.Type.ERROR) {
-			throw new XMPPException(response.getError());
-		}
+		// Wait up to a certain number of seconds for a reply from the server.
+		// If the server replied with an error, an exception is thrown.
+		connection.sendIqAsync(packet).getResult();
 	}
 
 	/**
@@ -1006,7 +1054,7 @@ public class Roster {
 	 * unavailable presence sent from the server. After a disconnection, every
 	 * Presence is set to offline.
 	 */
-	private void setOfflinePresences() {
+	void setOfflinePresences() {
 		Presence packetUnavailable;
 		for (final String user : presenceMap.keySet()) {
 			final Map<String, Presence> resources = presenceMap.get(user);
@@ -1020,6 +1068,16 @@ public class Roster {
 		}
 	}
 
+	/**
+	 * Marks the roster as initialized and wakes up threads waiting for it.
+	 */
+	private void setRosterInitialized() {
+		synchronized (this) {
+			rosterInitialized = true;
+			notifyAll();
+		}
+	}
+
 	/**
 	 * Sets the subscription processing mode, which dictates what action Smack
 	 * will take when subscription requests from other users are made. The
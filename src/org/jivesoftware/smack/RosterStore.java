@@ -0,0 +1,93 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.Collection;
+
+import org.jivesoftware.smack.packet.RosterPacket;
+
+/**
+ * Keeps a local copy of the roster and its version (XEP-0237) between
+ * connections. When the server supports roster versioning the {@link Roster}
+ * sends the stored version with its roster request, so the server only sends
+ * the changes since that version instead of the complete roster.
+ * <p>
+ * 
+ * Implementations are called by the thread that processes roster packets and
+ * must not lose the order of the changes. A store that fails to persist a
+ * change must forget its version, so the complete roster is requested the next
+ * time.
+ * 
+ * @see ConnectionConfiguration#setRosterStore(RosterStore)
+ * @see DefaultRosterStore
+ */
+public interface RosterStore {
+
+	/**
+	 * Adds an item to the store or replaces the stored item of the same user.
+	 * 
+	 * @param item
+	 *            the roster item.
+	 * @param version
+	 *            the roster version after the change.
+	 */
+	public void addEntry(RosterPacket.Item item, String version);
+
+	/**
+	 * Returns all stored roster items.
+	 * 
+	 * @return the stored roster items.
+	 */
+	public Collection<RosterPacket.Item> getEntries();
+
+	/**
+	 * Returns the stored roster item of a user, or <tt>null</tt> if the user is
+	 * not stored.
+	 * 
+	 * @param bareJid
+	 *            the bare JID of the user.
+	 * @return the roster item or <tt>null</tt>.
+	 */
+	public RosterPacket.Item getEntry(String bareJid);
+
+	/**
+	 * Returns the version of the stored roster, or <tt>null</tt> if no roster
+	 * is stored.
+	 * 
+	 * @return the roster version or <tt>null</tt>.
+	 */
+	public String getRosterVersion();
+
+	/**
+	 * Removes the item of a user from the store.
+	 * 
+	 * @param bareJid
+	 *            the bare JID of the user.
+	 * @param version
+	 *            the roster version after the change.
+	 */
+	public void removeEntry(String bareJid, String version);
+
+	/**
+	 * Replaces all stored items with the given ones.
+	 * 
+	 * @param items
+	 *            the complete roster.
+	 * @param version
+	 *            the version of the roster.
+	 */
+	public void resetEntries(Collection<RosterPacket.Item> items,
+			String version);
+}
@@ -556,6 +556,13 @@ public class SASLAuthentication implements UserAuthentication {
 			throw new XMPPException("Resource binding not offered by server");
 		}
 
+		// Resume the session of the previous stream if possible. The resumed
+		// session keeps its resource and needs no session establishment.
+		final String resumedJID = connection.resumeStream();
+		if (resumedJID != null) {
+			return resumedJID;
+		}
+
 		final Bind bindResource = new Bind();
 		bindResource.setResource(resource);
 
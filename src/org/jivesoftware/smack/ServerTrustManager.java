@@ -25,6 +25,7 @@ import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.Principal;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
@@ -35,17 +36,27 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.X509TrustManager;
 
+import org.jivesoftware.smack.util.Cache;
+import org.jivesoftware.smack.util.StringUtils;
+
 /**
  * Trust manager that checks all certificates presented by the server. This
  * class is used during TLS negotiation. It is possible to disable/enable some
  * or all checkings by configuring the {@link ConnectionConfiguration}. The
  * truststore file that contains knows and trusted CA root certificates can also
  * be configure in {@link ConnectionConfiguration}.
+ * <p>
+ * 
+ * The trust manager is shared by all connections of a configuration. The
+ * truststore is loaded once and the fingerprints of verified server
+ * certificates are remembered for a while, so a reconnect to a server with an
+ * unchanged certificate only checks its validity dates again.
  * 
  * @author Gaston Dombiak
  */
@@ -53,6 +64,30 @@ class ServerTrustManager implements X509TrustManager {
 
 	private static Pattern cnPattern = Pattern.compile("(?i)(cn=)([^,]*)");
 
+	/**
+	 * Number of verified certificates remembered and for how long.
+	 */
+	private static final int VERIFIED_CACHE_SIZE = 32;
+	private static final long VERIFIED_CACHE_LIFETIME = 60 * 60 * 1000;
+
+	/**
+	 * Returns the SHA-256 fingerprint of a certificate.
+	 * 
+	 * @param certificate
+	 *            the certificate.
+	 * @return the fingerprint as hex string.
+	 */
+	private static String getFingerprint(X509Certificate certificate)
+			throws CertificateException {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return StringUtils.encodeHex(digest.digest(certificate
+					.getEncoded()));
+		} catch (final GeneralSecurityException e) {
+			throw new CertificateException(e);
+		}
+	}
+
 	/**
 	 * Returns the identity of the remote server as defined in the specified
 	 * certificate. The identity is defined in the subjectDN of the certificate
@@ -130,17 +165,17 @@ class ServerTrustManager implements X509TrustManager {
 
 	private final ConnectionConfiguration configuration;
 
+	private KeyStore trustStore;
+
 	/**
-	 * Holds the domain of the remote server we are trying to connect
+	 * The fingerprints of the verified server certificates together with the
+	 * checks that were enabled
 	 */
-	private final String server;
+	private final Map<String, Boolean> verified = new Cache<String, Boolean>(
+			VERIFIED_CACHE_SIZE, VERIFIED_CACHE_LIFETIME);
 
-	private KeyStore trustStore;
-
-	public ServerTrustManager(String server,
-			ConnectionConfiguration configuration) {
+	public ServerTrustManager(ConnectionConfiguration configuration) {
 		this.configuration = configuration;
-		this.server = server;
 
 		final InputStream in = null;
 		try {
@@ -175,6 +210,21 @@ class ServerTrustManager implements X509TrustManager {
 
 		final int nSize = x509Certificates.length;
 
+		// Holds the domain of the remote server we are trying to connect
+		final String server = configuration.getServiceName();
+
+		final String key = getFingerprint(x509Certificates[0]) + " " + server
+				+ " " + configuration.isVerifyChainEnabled()
+				+ configuration.isVerifyRootCAEnabled()
+				+ configuration.isSelfSignedCertificateEnabled()
+				+ configuration.isNotMatchingDomainCheckEnabled();
+		if (verified.containsKey(key)) {
+			configuration.getTLSStatistics().recordCertificateCheck(true);
+			checkValidity(x509Certificates, server);
+			return;
+		}
+		configuration.getTLSStatistics().recordCertificateCheck(false);
+
 		final List<String> peerIdentities = getPeerIdentity(x509Certificates[0]);
 
 		if (configuration.isVerifyChainEnabled()) {
@@ -252,11 +302,18 @@ class ServerTrustManager implements X509TrustManager {
 			}
 		}
 
+		checkValidity(x509Certificates, server);
+
+		verified.put(key, Boolean.TRUE);
+	}
+
+	private void checkValidity(X509Certificate[] x509Certificates,
+			String server) throws CertificateException {
 		if (configuration.isExpiredCertificatesCheckEnabled()) {
 			// For every certificate in the chain, verify that the certificate
 			// is valid at the current time.
 			final Date date = new Date();
-			for (int i = 0; i < nSize; i++) {
+			for (int i = 0; i < x509Certificates.length; i++) {
 				try {
 					x509Certificates[i].checkValidity(date);
 				} catch (final GeneralSecurityException generalsecurityexception) {
@@ -264,7 +321,6 @@ class ServerTrustManager implements X509TrustManager {
 				}
 			}
 		}
-
 	}
 
 	@Override
@@ -180,6 +180,12 @@ public final class SmackConfiguration {
 	 * Returns the number of milleseconds delay between sending keep-alive
 	 * requests to the server. The default value is 30000 ms. A value of -1 mean
 	 * no keep-alive requests will be sent to the server.
+	 * <p>
+	 * 
+	 * A ping is only sent once the connection has been idle for this time,
+	 * and the interval grows up to
+	 * {@link ConnectionConfiguration#getKeepAliveMaxInterval()} while the
+	 * pings are answered.
 	 * 
 	 * @return the milliseconds to wait between keep-alive requests, or -1 if no
 	 *         keep-alive should be sent.
@@ -301,7 +307,8 @@ public final class SmackConfiguration {
 	/**
 	 * Sets the number of milleseconds delay between sending keep-alive requests
 	 * to the server. The default value is 30000 ms. A value of -1 mean no
-	 * keep-alive requests will be sent to the server.
+	 * keep-alive requests will be sent to the server. It is the shortest
+	 * interval of the adaptive keep-alive pings.
 	 * 
 	 * @param interval
 	 *            the milliseconds to wait between keep-alive requests, or -1 if
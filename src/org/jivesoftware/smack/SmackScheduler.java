@@ -0,0 +1,86 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single daemon thread shared by all connections to run short timed tasks,
+ * such as the timeouts of pending IQ requests. Tasks must complete quickly
+ * since they delay every other task that is due.
+ */
+public final class SmackScheduler {
+
+	private static ScheduledExecutorService scheduler;
+
+	private static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable,
+							"Smack Scheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Runs a task once after the given delay.
+	 * 
+	 * @param task
+	 *            the task to run.
+	 * @param delay
+	 *            the time to wait before the task is run.
+	 * @param unit
+	 *            the unit of the delay.
+	 * @return a future that can be used to cancel the task.
+	 */
+	public static ScheduledFuture<?> schedule(Runnable task, long delay,
+			TimeUnit unit) {
+		return getScheduler().schedule(task, delay, unit);
+	}
+
+	/**
+	 * Runs a task repeatedly, waiting the given delay between the end of one
+	 * run and the start of the next one.
+	 * 
+	 * @param task
+	 *            the task to run.
+	 * @param initialDelay
+	 *            the time to wait before the first run.
+	 * @param delay
+	 *            the time to wait between two runs.
+	 * @param unit
+	 *            the unit of the delays.
+	 * @return a future that can be used to cancel the task.
+	 */
+	public static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task,
+			long initialDelay, long delay, TimeUnit unit) {
+		return getScheduler().scheduleWithFixedDelay(task, initialDelay,
+				delay, unit);
+	}
+
+	private SmackScheduler() {
+	}
+}
@@ -0,0 +1,406 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.SocketFactory;
+
+import org.jivesoftware.smack.util.DNSUtil;
+
+/**
+ * Connects to the first reachable address of a server. The addresses are
+ * tried in parallel, a new attempt is started whenever the previous attempt
+ * didn't succeed within the stagger delay or failed. The first socket that
+ * connects wins and the other attempts are cancelled, so unreachable SRV
+ * targets and broken IPv6 routes only cost the stagger delay instead of a
+ * full connect timeout.
+ * <p>
+ * 
+ * If the socket factory supports unconnected sockets every host is resolved
+ * and its IPv6 and IPv4 addresses are tried alternately with the configured
+ * timeout. Otherwise, e.g. for proxies, the factory connects to every host on
+ * its own.
+ * <p>
+ * 
+ * The outcome of every attempt is kept in {@link HostStatistics} shared by all
+ * connections, so hosts that recently failed are tried last and among hosts
+ * of the same SRV priority the fastest one is tried first.
+ * <p>
+ * 
+ * For the non-blocking transport the sockets are created by socket channels,
+ * they are connected in blocking mode and switched to non-blocking mode by
+ * the transport.
+ * 
+ * @see <a href="http://tools.ietf.org/html/rfc6555">RFC 6555: Happy
+ *      Eyeballs</a>
+ */
+class SocketConnector {
+
+	/**
+	 * A single connection attempt.
+	 */
+	private class Attempt extends Thread {
+
+		private final DNSUtil.HostAddress address;
+		private final InetAddress inetAddress;
+		private Socket socket;
+
+		Attempt(DNSUtil.HostAddress address, InetAddress inetAddress) {
+			this.address = address;
+			this.inetAddress = inetAddress;
+			setName("Smack Connect " + address);
+			setDaemon(true);
+		}
+
+		private Socket connect(InetAddress target) throws IOException {
+			final Socket unconnected = createUnconnectedSocket();
+			if (!attemptStarted(this, unconnected)) {
+				throw new SocketException("Connection attempt cancelled");
+			}
+			try {
+				unconnected.connect(
+						new InetSocketAddress(target, address.getPort()),
+						timeout);
+			} catch (final IOException e) {
+				unconnected.close();
+				throw e;
+			}
+			return unconnected;
+		}
+
+		@Override
+		public void run() {
+			final long start = System.currentTimeMillis();
+			try {
+				final Socket connected;
+				if (inetAddress != null) {
+					connected = connect(inetAddress);
+				} else if (isUnconnectedSupported()) {
+					final List<InetAddress> resolved = resolve(address
+							.getHost());
+					attemptsResolved(this, resolved.subList(1, resolved.size()));
+					connected = connect(resolved.get(0));
+				} else {
+					connected = factory.createSocket(address.getHost(),
+							address.getPort());
+				}
+				attemptSucceeded(this, connected, System.currentTimeMillis()
+						- start);
+			} catch (final IOException e) {
+				attemptFailed(this, e);
+			}
+		}
+	}
+
+	/**
+	 * Hosts that failed within this period are tried last.
+	 */
+	private static final long FAILURE_PENALTY = 10 * 60 * 1000;
+
+	private static final ConcurrentHashMap<String, HostStatistics> statistics = new ConcurrentHashMap<String, HostStatistics>();
+
+	/**
+	 * Returns the statistics of all addresses connected to so far.
+	 * 
+	 * @return the statistics of the addresses.
+	 */
+	static Collection<HostStatistics> getStatistics() {
+		return Collections.unmodifiableCollection(statistics.values());
+	}
+
+	private static HostStatistics getStatistics(DNSUtil.HostAddress address) {
+		final String key = address.toString();
+		HostStatistics stats = statistics.get(key);
+		if (stats == null) {
+			stats = new HostStatistics(address.getHost(), address.getPort());
+			final HostStatistics previous = statistics.putIfAbsent(key, stats);
+			if (previous != null) {
+				stats = previous;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Orders the addresses of a server. Hosts that recently failed come last,
+	 * the SRV priorities are kept and within a priority the hosts with the
+	 * shortest connect time come first. Hosts without statistics keep the
+	 * order of their SRV weights.
+	 * 
+	 * @param addresses
+	 *            the addresses in the order of the DNS lookup.
+	 * @return the addresses in the order they should be tried.
+	 */
+	static List<DNSUtil.HostAddress> order(
+			final List<DNSUtil.HostAddress> addresses) {
+		// Take a snapshot, the statistics change while sorting
+		final long now = System.currentTimeMillis();
+		final Map<DNSUtil.HostAddress, double[]> keys = new HashMap<DNSUtil.HostAddress, double[]>();
+		for (int i = 0; i < addresses.size(); i++) {
+			final DNSUtil.HostAddress address = addresses.get(i);
+			final HostStatistics stats = statistics.get(address.toString());
+			double failing = 0;
+			double connectTime = Double.MAX_VALUE;
+			if (stats != null) {
+				synchronized (stats) {
+					if (stats.getConsecutiveFailures() > 0
+							&& now - stats.getLastFailureTime() < FAILURE_PENALTY) {
+						failing = stats.getConsecutiveFailures();
+					}
+					if (stats.getSmoothedConnectTime() >= 0) {
+						connectTime = stats.getSmoothedConnectTime();
+					}
+				}
+			}
+			keys.put(address, new double[] { failing, address.getPriority(),
+					connectTime, i });
+		}
+		final List<DNSUtil.HostAddress> ordered = new ArrayList<DNSUtil.HostAddress>(
+				addresses);
+		Collections.sort(ordered, new Comparator<DNSUtil.HostAddress>() {
+
+			@Override
+			public int compare(DNSUtil.HostAddress a, DNSUtil.HostAddress b) {
+				final double[] keyA = keys.get(a);
+				final double[] keyB = keys.get(b);
+				for (int i = 0; i < keyA.length; i++) {
+					if (keyA[i] != keyB[i]) {
+						return keyA[i] < keyB[i] ? -1 : 1;
+					}
+				}
+				return 0;
+			}
+		});
+		return ordered;
+	}
+
+	/**
+	 * Resolves a host and alternates its IPv6 and IPv4 addresses, starting
+	 * with the family of the first address.
+	 * 
+	 * @param host
+	 *            the hostname.
+	 * @return the addresses of the host, never empty.
+	 * @throws IOException
+	 *             if the host can't be resolved.
+	 */
+	private static List<InetAddress> resolve(String host) throws IOException {
+		final InetAddress[] all = InetAddress.getAllByName(host);
+		final LinkedList<InetAddress> first = new LinkedList<InetAddress>();
+		final LinkedList<InetAddress> second = new LinkedList<InetAddress>();
+		final boolean firstIsIPv6 = all[0] instanceof Inet6Address;
+		for (final InetAddress address : all) {
+			if ((address instanceof Inet6Address) == firstIsIPv6) {
+				first.add(address);
+			} else {
+				second.add(address);
+			}
+		}
+		final List<InetAddress> interleaved = new ArrayList<InetAddress>(
+				all.length);
+		while (!first.isEmpty() || !second.isEmpty()) {
+			if (!first.isEmpty()) {
+				interleaved.add(first.removeFirst());
+			}
+			if (!second.isEmpty()) {
+				interleaved.add(second.removeFirst());
+			}
+		}
+		return interleaved;
+	}
+
+	private final SocketFactory factory;
+	private final boolean channels;
+	private final int staggerDelay;
+	private final int timeout;
+
+	private final LinkedList<Attempt> pending = new LinkedList<Attempt>();
+	private final List<Attempt> started = new ArrayList<Attempt>();
+	private int running;
+	private Socket winner;
+	private boolean done;
+	private IOException lastFailure;
+	private Boolean unconnectedSupported;
+
+	/**
+	 * Creates a connector using the socket factory and the timeouts of a
+	 * configuration.
+	 * 
+	 * @param config
+	 *            the connection configuration.
+	 */
+	SocketConnector(ConnectionConfiguration config) {
+		factory = config.getSocketFactory();
+		channels = config.isNonBlockingTransportUsable();
+		staggerDelay = config.getConnectStaggerDelay();
+		timeout = config.getConnectTimeout();
+	}
+
+	private synchronized void attemptFailed(Attempt attempt, IOException e) {
+		running--;
+		// Cancelled attempts didn't fail
+		if (!done) {
+			getStatistics(attempt.address).recordFailure();
+			lastFailure = e;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Registers the socket of an attempt, so it can be closed when another
+	 * attempt wins.
+	 * 
+	 * @return false if the attempt was already cancelled.
+	 */
+	private synchronized boolean attemptStarted(Attempt attempt, Socket socket) {
+		attempt.socket = socket;
+		return !done;
+	}
+
+	private synchronized void attemptSucceeded(Attempt attempt, Socket socket,
+			long connectTime) {
+		running--;
+		if (!done) {
+			winner = socket;
+			done = true;
+			getStatistics(attempt.address).recordSuccess(connectTime);
+			cancel();
+		} else {
+			close(socket);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Queues attempts to the further addresses of a host that was resolved by
+	 * an attempt. They are tried before the next host.
+	 */
+	private synchronized void attemptsResolved(Attempt attempt,
+			List<InetAddress> addresses) {
+		for (int i = addresses.size() - 1; i >= 0; i--) {
+			pending.addFirst(new Attempt(attempt.address, addresses.get(i)));
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Closes the sockets of all attempts except the winner, the attempts
+	 * that are still connecting fail.
+	 */
+	private void cancel() {
+		pending.clear();
+		for (final Attempt attempt : started) {
+			if (attempt.socket != null && attempt.socket != winner) {
+				close(attempt.socket);
+			}
+		}
+	}
+
+	private void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException e) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * Connects to the first reachable address.
+	 * 
+	 * @param addresses
+	 *            the addresses of the server in the order of preference.
+	 * @return the connected socket.
+	 * @throws IOException
+	 *             the error of the last attempt if no address is reachable.
+	 */
+	synchronized Socket connect(List<DNSUtil.HostAddress> addresses)
+			throws IOException {
+		for (final DNSUtil.HostAddress address : order(addresses)) {
+			pending.add(new Attempt(address, null));
+		}
+		try {
+			while (winner == null) {
+				if (!pending.isEmpty()) {
+					final Attempt attempt = pending.removeFirst();
+					started.add(attempt);
+					running++;
+					attempt.start();
+				} else if (running == 0) {
+					throw lastFailure;
+				}
+				// Wait until an attempt connects, the stagger delay elapsed
+				// or all running attempts failed
+				final long deadline = System.currentTimeMillis()
+						+ staggerDelay;
+				long remaining = staggerDelay;
+				while (winner == null
+						&& running > 0
+						&& (pending.isEmpty() || (remaining = deadline
+								- System.currentTimeMillis()) > 0)) {
+					wait(pending.isEmpty() ? 0 : remaining);
+				}
+			}
+			return winner;
+		} catch (final InterruptedException e) {
+			done = true;
+			cancel();
+			throw new InterruptedIOException("Connecting interrupted");
+		}
+	}
+
+	private Socket createUnconnectedSocket() throws IOException {
+		if (channels) {
+			return SocketChannel.open().socket();
+		}
+		return factory == null ? new Socket() : factory.createSocket();
+	}
+
+	/**
+	 * Returns true if the socket factory can create unconnected sockets, so
+	 * the connect timeout can be applied and the attempts can be cancelled.
+	 */
+	private synchronized boolean isUnconnectedSupported() {
+		if (unconnectedSupported == null) {
+			if (factory == null || channels) {
+				unconnectedSupported = Boolean.TRUE;
+			} else {
+				try {
+					factory.createSocket().close();
+					unconnectedSupported = Boolean.TRUE;
+				} catch (final IOException e) {
+					unconnectedSupported = Boolean.FALSE;
+				}
+			}
+		}
+		return unconnectedSupported.booleanValue();
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses the XML stream of a connection once the server accepted stream
+ * compression (XEP-0138). The handler wraps the streams of the socket, the
+ * connection writes and reads the uncompressed XML through the wrapping
+ * streams.
+ * <p>
+ * 
+ * A new pair of streams is requested for every compressed stream. The
+ * compression state, such as the dictionary, has to live as long as the
+ * streams, and flushing the output stream has to make all data written so far
+ * decompressable by the server.
+ * 
+ * @see ConnectionConfiguration#setStreamCompressionHandler(StreamCompressionHandler)
+ * @see ZlibStreamCompressionHandler
+ */
+public interface StreamCompressionHandler {
+
+	/**
+	 * Returns a stream that decompresses the data read from the given stream.
+	 * 
+	 * @param in
+	 *            the stream of compressed data received from the server.
+	 * @return the stream of decompressed data.
+	 * @throws IOException
+	 *             if the stream can't be created.
+	 */
+	public InputStream getInputStream(InputStream in) throws IOException;
+
+	/**
+	 * Returns the name of the compression method as negotiated with the
+	 * server, e.g. "zlib".
+	 * 
+	 * @return the compression method.
+	 */
+	public String getMethod();
+
+	/**
+	 * Returns a stream that compresses the data written to it and writes the
+	 * compressed data to the given stream.
+	 * 
+	 * @param out
+	 *            the stream to write the compressed data to the server.
+	 * @return the stream to write uncompressed data to.
+	 * @throws IOException
+	 *             if the stream can't be created.
+	 */
+	public OutputStream getOutputStream(OutputStream out) throws IOException;
+
+	/**
+	 * Returns true if the handler can be used on this platform. Compression is
+	 * not requested from the server if the handler is not supported.
+	 * 
+	 * @return true if the handler can be used.
+	 */
+	public boolean isSupported();
+}
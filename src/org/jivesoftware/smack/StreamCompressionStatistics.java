@@ -0,0 +1,219 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how well the stream compression of a connection
+ * performs. The bytes are counted on both sides of the
+ * {@link StreamCompressionHandler}, so the ratios show how much bandwidth is
+ * saved for the CPU time spent on compression. Only compressed streams are
+ * counted.
+ * 
+ * @see XMPPConnection#getStreamCompressionStatistics()
+ */
+public class StreamCompressionStatistics {
+
+	/**
+	 * Input stream that adds the number of bytes read to a counter.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private final AtomicLong counter;
+
+		CountingInputStream(InputStream in, AtomicLong counter) {
+			super(in);
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = in.read();
+			if (b != -1) {
+				counter.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int count = in.read(b, off, len);
+			if (count > 0) {
+				counter.addAndGet(count);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Output stream that adds the number of bytes written to a counter.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private final AtomicLong counter;
+
+		CountingOutputStream(OutputStream out, AtomicLong counter) {
+			super(out);
+			this.counter = counter;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			counter.addAndGet(len);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			counter.incrementAndGet();
+		}
+	}
+
+	private final AtomicLong compressedBytesReceived = new AtomicLong();
+	private final AtomicLong uncompressedBytesReceived = new AtomicLong();
+	private final AtomicLong compressedBytesSent = new AtomicLong();
+	private final AtomicLong uncompressedBytesSent = new AtomicLong();
+
+	StreamCompressionStatistics() {
+	}
+
+	/**
+	 * Returns the number of compressed bytes that were received from the
+	 * server.
+	 * 
+	 * @return the number of compressed bytes received.
+	 */
+	public long getCompressedBytesReceived() {
+		return compressedBytesReceived.get();
+	}
+
+	/**
+	 * Returns the number of compressed bytes that were sent to the server.
+	 * 
+	 * @return the number of compressed bytes sent.
+	 */
+	public long getCompressedBytesSent() {
+		return compressedBytesSent.get();
+	}
+
+	/**
+	 * Returns the ratio of compressed to uncompressed bytes received. A ratio
+	 * of 0.25 means that the server sent a quarter of the uncompressed size.
+	 * 
+	 * @return the compression ratio of the received data, or 1 if nothing was
+	 *         received.
+	 */
+	public double getReceiveRatio() {
+		final long uncompressed = uncompressedBytesReceived.get();
+		return uncompressed == 0 ? 1 : (double) compressedBytesReceived.get()
+				/ uncompressed;
+	}
+
+	/**
+	 * Returns the ratio of compressed to uncompressed bytes sent. A ratio of
+	 * 0.25 means that a quarter of the uncompressed size was sent.
+	 * 
+	 * @return the compression ratio of the sent data, or 1 if nothing was
+	 *         sent.
+	 */
+	public double getSendRatio() {
+		final long uncompressed = uncompressedBytesSent.get();
+		return uncompressed == 0 ? 1 : (double) compressedBytesSent.get()
+				/ uncompressed;
+	}
+
+	/**
+	 * Returns the number of bytes received from the server after
+	 * decompression.
+	 * 
+	 * @return the number of uncompressed bytes received.
+	 */
+	public long getUncompressedBytesReceived() {
+		return uncompressedBytesReceived.get();
+	}
+
+	/**
+	 * Returns the number of bytes sent to the server before compression.
+	 * 
+	 * @return the number of uncompressed bytes sent.
+	 */
+	public long getUncompressedBytesSent() {
+		return uncompressedBytesSent.get();
+	}
+
+	/**
+	 * Wraps the streams of a compressed stream, so the bytes on both sides of
+	 * the compression handler are counted.
+	 * 
+	 * @param handler
+	 *            the compression handler.
+	 * @param in
+	 *            the stream of compressed data received from the server.
+	 * @return the stream of decompressed data.
+	 * @throws IOException
+	 *             if the stream can't be created.
+	 */
+	InputStream getInputStream(StreamCompressionHandler handler, InputStream in)
+			throws IOException {
+		return new CountingInputStream(handler.getInputStream(
+				new CountingInputStream(in, compressedBytesReceived)),
+				uncompressedBytesReceived);
+	}
+
+	/**
+	 * Wraps the streams of a compressed stream, so the bytes on both sides of
+	 * the compression handler are counted.
+	 * 
+	 * @param handler
+	 *            the compression handler.
+	 * @param out
+	 *            the stream to write the compressed data to the server.
+	 * @return the stream to write uncompressed data to.
+	 * @throws IOException
+	 *             if the stream can't be created.
+	 */
+	OutputStream getOutputStream(StreamCompressionHandler handler,
+			OutputStream out) throws IOException {
+		return new CountingOutputStream(handler.getOutputStream(
+				new CountingOutputStream(out, compressedBytesSent)),
+				uncompressedBytesSent);
+	}
+
+	/**
+	 * Resets all counters to zero.
+	 */
+	public void reset() {
+		compressedBytesReceived.set(0);
+		uncompressedBytesReceived.set(0);
+		compressedBytesSent.set(0);
+		uncompressedBytesSent.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "sent=" + getUncompressedBytesSent() + "/"
+				+ getCompressedBytesSent() + ", received="
+				+ getUncompressedBytesReceived() + "/"
+				+ getCompressedBytesReceived() + ", sendRatio="
+				+ getSendRatio() + ", receiveRatio=" + getReceiveRatio();
+	}
+}
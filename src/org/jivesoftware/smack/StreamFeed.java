@@ -0,0 +1,277 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Buffers the XML stream received by a {@link ChannelTransport} and lets the
+ * parser read it one complete element at a time. The characters are scanned
+ * as they arrive to find where the stream header and the elements at the top
+ * level of the stream end. The parser can only read complete elements, so it
+ * never blocks waiting for more data. The whitespace between the top level
+ * elements is dropped, so the parser doesn't have to look ahead after the end
+ * of an element.
+ * <p>
+ * 
+ * The parser reports the end of every element it finished with
+ * {@link #elementConsumed()}. When the stream is restarted, e.g. after the
+ * SASL authentication, {@link #restart()} drops the element that ended the
+ * old stream and scans the rest again as the beginning of a new stream.
+ */
+class StreamFeed extends Reader {
+
+	// States of the scanner
+	private static final int TEXT = 0;
+	private static final int MARKUP = 1;
+	private static final int START_TAG = 2;
+	private static final int END_TAG = 3;
+	private static final int PROCESSING_INSTRUCTION = 4;
+	private static final int DECLARATION = 5;
+	private static final int COMMENT = 6;
+	private static final int CDATA = 7;
+
+	private static final String COMMENT_START = "<!--";
+	private static final String CDATA_START = "<![CDATA[";
+
+	private char[] buf = new char[4096];
+	private int length;
+	private int readPosition;
+	// The end of the last complete element, the parser may read up to here
+	private int completeEnd;
+	// The ends of the complete elements the parser didn't finish yet
+	private final ArrayDeque<Integer> ends = new ArrayDeque<Integer>();
+
+	private int state = TEXT;
+	private int depth;
+	private int markupStart;
+	private char quote;
+	private boolean closed;
+
+	/**
+	 * Appends the characters received from the server.
+	 * 
+	 * @param chars
+	 *            the received characters.
+	 */
+	synchronized void append(CharBuffer chars) {
+		ensureCapacity(chars.remaining());
+		while (chars.hasRemaining()) {
+			scan(chars.get());
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+	}
+
+	/**
+	 * Notes that an element ends at the current end of the buffer.
+	 */
+	private void elementCompleted() {
+		completeEnd = length;
+		ends.addLast(Integer.valueOf(length));
+	}
+
+	/**
+	 * Notification that the parser finished the first complete element.
+	 */
+	synchronized void elementConsumed() {
+		ends.pollFirst();
+	}
+
+	/**
+	 * Makes room for the given number of characters. The characters the
+	 * parser read before the element it is in are no longer needed.
+	 */
+	private void ensureCapacity(int count) {
+		final int start = ends.isEmpty() ? readPosition : Math.min(
+				readPosition, ends.peekFirst().intValue());
+		if (start > 0 && length + count > buf.length) {
+			System.arraycopy(buf, start, buf, 0, length - start);
+			length -= start;
+			readPosition -= start;
+			completeEnd -= start;
+			markupStart -= start;
+			final int size = ends.size();
+			for (int i = 0; i < size; i++) {
+				ends.addLast(Integer.valueOf(ends.pollFirst().intValue()
+						- start));
+			}
+		}
+		if (length + count > buf.length) {
+			final char[] grown = new char[Math.max(buf.length * 2, length
+					+ count)];
+			System.arraycopy(buf, 0, grown, 0, length);
+			buf = grown;
+		}
+	}
+
+	/**
+	 * Returns true if the parser can read a complete element it didn't
+	 * finish yet.
+	 * 
+	 * @return true if a complete element is available.
+	 */
+	synchronized boolean hasElements() {
+		return !ends.isEmpty() && !closed;
+	}
+
+	/**
+	 * Returns true if the markup that started at the beginning of the current
+	 * tag starts with the given string.
+	 */
+	private boolean markupStartsWith(String prefix) {
+		if (length - markupStart != prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buf[markupStart + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized int read(char[] cbuf, int off, int len)
+			throws IOException {
+		if (closed) {
+			return -1;
+		}
+		final int count = Math.min(len, completeEnd - readPosition);
+		if (count <= 0) {
+			throw new IOException("No complete element to read");
+		}
+		System.arraycopy(buf, readPosition, cbuf, off, count);
+		readPosition += count;
+		return count;
+	}
+
+	/**
+	 * Restarts the stream after the first complete element. The characters
+	 * received after it are scanned again as the beginning of a new stream.
+	 */
+	synchronized void restart() {
+		final int start = ends.isEmpty() ? readPosition : ends.peekFirst()
+				.intValue();
+		final char[] rest = new char[length - start];
+		System.arraycopy(buf, start, rest, 0, rest.length);
+		length = 0;
+		readPosition = 0;
+		completeEnd = 0;
+		ends.clear();
+		state = TEXT;
+		depth = 0;
+		quote = 0;
+		for (final char c : rest) {
+			scan(c);
+		}
+	}
+
+	/**
+	 * Appends a character and tracks the markup it belongs to. The capacity
+	 * of the buffer must have been ensured.
+	 */
+	private void scan(char c) {
+		switch (state) {
+		case TEXT:
+			if (c == '<') {
+				markupStart = length;
+				state = MARKUP;
+			} else if (depth <= 1
+					&& (c == ' ' || c == '\t' || c == '\r' || c == '\n')) {
+				// Whitespace between the top level elements
+				return;
+			}
+			break;
+		case MARKUP:
+			if (c == '/') {
+				state = END_TAG;
+			} else if (c == '?') {
+				state = PROCESSING_INSTRUCTION;
+			} else if (c == '!') {
+				state = DECLARATION;
+			} else {
+				state = START_TAG;
+			}
+			break;
+		case START_TAG:
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				state = TEXT;
+				if (buf[length - 1] == '/') {
+					if (depth == 1) {
+						buf[length++] = c;
+						elementCompleted();
+						return;
+					}
+				} else if (++depth == 1) {
+					// The stream header
+					buf[length++] = c;
+					elementCompleted();
+					return;
+				}
+			}
+			break;
+		case END_TAG:
+			if (c == '>') {
+				state = TEXT;
+				if (--depth <= 1) {
+					buf[length++] = c;
+					elementCompleted();
+					return;
+				}
+			}
+			break;
+		case PROCESSING_INSTRUCTION:
+			if (c == '>' && buf[length - 1] == '?') {
+				state = TEXT;
+			}
+			break;
+		case DECLARATION:
+			buf[length++] = c;
+			if (markupStartsWith(COMMENT_START)) {
+				state = COMMENT;
+			} else if (markupStartsWith(CDATA_START)) {
+				state = CDATA;
+			} else if (c == '>') {
+				state = TEXT;
+			}
+			return;
+		case COMMENT:
+			if (c == '>' && buf[length - 1] == '-' && buf[length - 2] == '-'
+					&& length - markupStart > COMMENT_START.length() + 1) {
+				state = TEXT;
+			}
+			break;
+		case CDATA:
+			if (c == '>' && buf[length - 1] == ']' && buf[length - 2] == ']') {
+				state = TEXT;
+			}
+			break;
+		}
+		buf[length++] = c;
+	}
+}
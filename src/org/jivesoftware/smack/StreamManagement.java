@@ -0,0 +1,483 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.StringUtils;
+
+/**
+ * Keeps the stream management (XEP-0198) state of a connection. Stanzas that
+ * were written to the server are kept until the server acknowledged them, and
+ * the stanzas received from the server are counted so they can be
+ * acknowledged when the server asks for it.
+ * <p>
+ * 
+ * The session id and the counters survive the loss of the connection. When the
+ * connection is re-established the previous session is resumed with a single
+ * round-trip and the stanzas the server didn't receive are sent again, so
+ * neither a resource has to be bound nor the roster and presences have to be
+ * requested again.
+ * <p>
+ * 
+ * The packet writer, the packet reader and the thread logging in call this
+ * class, so all state is guarded by the instance lock.
+ * 
+ * @see <a href="http://xmpp.org/extensions/xep-0198.html">XEP-0198: Stream
+ *      Management</a>
+ */
+class StreamManagement {
+
+	/**
+	 * Answers an ack request with the number of handled stanzas.
+	 */
+	static class AckAnswer extends Packet {
+
+		private final long handled;
+
+		AckAnswer(long handled) {
+			this.handled = handled;
+		}
+
+		@Override
+		public String toXML() {
+			return "<a xmlns=\"" + NAMESPACE + "\" h=\"" + handled + "\"/>";
+		}
+	}
+
+	/**
+	 * Requests the server to acknowledge the stanzas it handled.
+	 */
+	static class AckRequest extends Packet {
+
+		@Override
+		public String toXML() {
+			return "<r xmlns=\"" + NAMESPACE + "\"/>";
+		}
+	}
+
+	/**
+	 * Enables stream management with session resumption.
+	 */
+	static class Enable extends Packet {
+
+		@Override
+		public String toXML() {
+			return "<enable xmlns=\"" + NAMESPACE + "\" resume=\"true\"/>";
+		}
+	}
+
+	/**
+	 * Resumes a previous session.
+	 */
+	static class Resume extends Packet {
+
+		private final String previousId;
+		private final long handled;
+
+		Resume(String previousId, long handled) {
+			this.previousId = previousId;
+			this.handled = handled;
+		}
+
+		@Override
+		public String toXML() {
+			return "<resume xmlns=\"" + NAMESPACE + "\" h=\"" + handled
+					+ "\" previd=\"" + StringUtils.escapeForXML(previousId)
+					+ "\"/>";
+		}
+	}
+
+	static final String NAMESPACE = "urn:xmpp:sm:3";
+
+	/**
+	 * The counters are unsigned 32 bit integers that wrap around.
+	 */
+	private static final long COUNTER_MASK = 0xFFFFFFFFL;
+
+	/**
+	 * Returns true if the packet is a stanza that is counted by stream
+	 * management.
+	 * 
+	 * @param packet
+	 *            the packet.
+	 * @return true if the packet is a message, a presence or an IQ.
+	 */
+	private static boolean isStanza(Packet packet) {
+		return packet instanceof Message || packet instanceof Presence
+				|| packet instanceof IQ;
+	}
+
+	private final XMPPConnection connection;
+	private final LinkedList<Packet> unacknowledged = new LinkedList<Packet>();
+	// Stanzas that were queued for a stream that broke before they were
+	// written
+	private final LinkedList<Packet> unsent = new LinkedList<Packet>();
+
+	// State of the current stream
+	private boolean supported;
+	private boolean enabled;
+	private boolean resumed;
+	// True while an enable or resume request waits for the answer
+	private boolean pending;
+	private boolean counting;
+	private int unrequested;
+
+	// State of the session, kept until the session is resumed or discarded
+	private String sessionId;
+	private long resumptionTimeout;
+	private long closedTime;
+	private long handledCount;
+	private long acknowledgedCount;
+	private boolean overflowed;
+
+	StreamManagement(XMPPConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Removes the stanzas the server acknowledged from the unacknowledged
+	 * stanzas.
+	 * 
+	 * @param handled
+	 *            the number of stanzas the server handled.
+	 */
+	private void acknowledge(long handled) {
+		long count = (handled - acknowledgedCount) & COUNTER_MASK;
+		while (count-- > 0 && !unacknowledged.isEmpty()) {
+			unacknowledged.removeFirst();
+		}
+		acknowledgedCount = handled;
+	}
+
+	/**
+	 * Notification that the server acknowledged the stanzas it handled.
+	 * 
+	 * @param handled
+	 *            the value of the h attribute.
+	 */
+	synchronized void ackReceived(long handled) {
+		if (counting) {
+			acknowledge(handled);
+		}
+	}
+
+	/**
+	 * Notification that the server requested an acknowledgement. The answer
+	 * is sent with the number of stanzas handled so far.
+	 */
+	void ackRequested() {
+		final long handled;
+		synchronized (this) {
+			if (!enabled) {
+				return;
+			}
+			handled = handledCount;
+		}
+		connection.packetWriter.sendStreamElement(new AckAnswer(handled));
+	}
+
+	/**
+	 * Forgets the session, so it won't be resumed.
+	 */
+	synchronized void discardSession() {
+		sessionId = null;
+		handledCount = 0;
+		acknowledgedCount = 0;
+		overflowed = false;
+		unacknowledged.clear();
+	}
+
+	/**
+	 * Notification that an element was written to the server. Stanzas are
+	 * kept until the server acknowledged them.
+	 * 
+	 * @param element
+	 *            the element that was written.
+	 * @return true if an acknowledgement should be requested.
+	 */
+	synchronized boolean elementWritten(Packet element) {
+		if (element instanceof Enable) {
+			// The server counts the stanzas it receives after <enable/>
+			counting = true;
+			unrequested = 0;
+			return false;
+		}
+		if (!counting || !isStanza(element)) {
+			return false;
+		}
+		final ConnectionConfiguration config = connection.getConfiguration();
+		final int bufferSize = config.getStreamManagementBufferSize();
+		if (!overflowed) {
+			if (unacknowledged.size() < bufferSize) {
+				unacknowledged.add(element);
+			} else {
+				// The stanzas can't be sent again completely, so the session
+				// must not be resumed
+				overflowed = true;
+				unacknowledged.clear();
+			}
+		}
+		// Request an ack early when the buffer is full, so it is drained
+		// before it overflows
+		if (++unrequested >= config.getStreamManagementAckFrequency()
+				|| unacknowledged.size() >= bufferSize) {
+			unrequested = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Enables stream management on the current stream if the server supports
+	 * it. Waits until the server answered, failing to enable stream
+	 * management is not an error. The stanzas the previous stream couldn't
+	 * write are sent afterwards.
+	 */
+	void enable() {
+		final boolean request;
+		synchronized (this) {
+			discardSession();
+			request = supported
+					&& connection.getConfiguration()
+							.isStreamManagementEnabled();
+			pending = request;
+		}
+		if (request) {
+			connection.packetWriter.sendStreamElement(new Enable());
+			waitForAnswer();
+		}
+		final List<Packet> send;
+		synchronized (this) {
+			// An answer arriving after the timeout is ignored
+			pending = false;
+			send = new ArrayList<Packet>(unsent);
+			unsent.clear();
+		}
+		for (final Packet packet : send) {
+			connection.packetWriter.sendStreamElement(packet);
+		}
+	}
+
+	/**
+	 * Notification that the server enabled stream management.
+	 * 
+	 * @param id
+	 *            the id to resume the session with, or <tt>null</tt> if the
+	 *            session can't be resumed.
+	 * @param resume
+	 *            true if the server allows to resume the session.
+	 * @param max
+	 *            the maximum number of seconds the server keeps the session
+	 *            after the connection was lost, or 0 if unknown.
+	 */
+	synchronized void enabled(String id, boolean resume, int max) {
+		if (!pending) {
+			return;
+		}
+		enabled = true;
+		handledCount = 0;
+		acknowledgedCount = 0;
+		sessionId = resume ? id : null;
+		resumptionTimeout = max * 1000L;
+		pending = false;
+		notifyAll();
+	}
+
+	/**
+	 * Notification that the server failed to enable stream management or to
+	 * resume the session.
+	 */
+	synchronized void failed() {
+		enabled = false;
+		counting = false;
+		discardSession();
+		pending = false;
+		notifyAll();
+	}
+
+	/**
+	 * Returns true if stream management is enabled on the current stream.
+	 * 
+	 * @return true if stream management is enabled.
+	 */
+	synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns true if the session can be resumed after the connection was
+	 * lost.
+	 * 
+	 * @return true if the session can be resumed.
+	 */
+	synchronized boolean isResumable() {
+		return sessionId != null && !overflowed;
+	}
+
+	/**
+	 * Returns true if the current stream resumed a previous session.
+	 * 
+	 * @return true if the session was resumed.
+	 */
+	synchronized boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * Keeps the stanzas that were not written because the stream broke. They
+	 * are sent once the next stream resumed the session or enabled stream
+	 * management. Other stream elements belong to the broken stream and are
+	 * dropped, as are the stanzas beyond the buffer size.
+	 * 
+	 * @param packets
+	 *            the packets that were not written.
+	 */
+	synchronized void notWritten(List<Packet> packets) {
+		final int bufferSize = connection.getConfiguration()
+				.getStreamManagementBufferSize();
+		for (final Packet packet : packets) {
+			if (isStanza(packet) && unsent.size() < bufferSize) {
+				unsent.add(packet);
+			}
+		}
+	}
+
+	/**
+	 * Resumes the previous session on the current stream. The stanzas the
+	 * server didn't acknowledge are sent again once the server resumed the
+	 * session. The session is discarded if it can't be resumed.
+	 * 
+	 * @return true if the session was resumed.
+	 */
+	boolean resume() {
+		final Resume resume;
+		synchronized (this) {
+			if (!supported
+					|| !isResumable()
+					|| (resumptionTimeout > 0 && System.currentTimeMillis()
+							- closedTime > resumptionTimeout)) {
+				discardSession();
+				return false;
+			}
+			pending = true;
+			resume = new Resume(sessionId, handledCount);
+		}
+		connection.packetWriter.sendStreamElement(resume);
+		waitForAnswer();
+		synchronized (this) {
+			// An answer arriving after the timeout is ignored
+			pending = false;
+			if (!resumed) {
+				discardSession();
+			}
+			return resumed;
+		}
+	}
+
+	/**
+	 * Notification that the server resumed the session. The stanzas the
+	 * server didn't handle are sent again, followed by the stanzas the
+	 * previous stream couldn't write.
+	 * 
+	 * @param handled
+	 *            the number of stanzas the server handled.
+	 */
+	void resumed(long handled) {
+		final List<Packet> resend;
+		synchronized (this) {
+			if (!pending) {
+				return;
+			}
+			acknowledge(handled);
+			// The stanzas are counted again when they are written
+			resend = new ArrayList<Packet>(unacknowledged);
+			resend.addAll(unsent);
+			unacknowledged.clear();
+			unsent.clear();
+			enabled = true;
+			counting = true;
+			unrequested = 0;
+			resumed = true;
+			pending = false;
+			notifyAll();
+		}
+		for (final Packet packet : resend) {
+			connection.packetWriter.sendStreamElement(packet);
+		}
+	}
+
+	/**
+	 * Notes that the server announced support for stream management.
+	 */
+	synchronized void setSupported() {
+		supported = true;
+	}
+
+	/**
+	 * Notification that a stanza was received from the server.
+	 */
+	synchronized void stanzaReceived() {
+		if (enabled) {
+			handledCount = (handledCount + 1) & COUNTER_MASK;
+		}
+	}
+
+	/**
+	 * Notification that the stream was closed. The session is kept, so it can
+	 * be resumed by the next stream.
+	 */
+	synchronized void streamClosed() {
+		enabled = false;
+		closedTime = System.currentTimeMillis();
+		// Wake up a thread that waits for an answer that won't come any more
+		pending = false;
+		notifyAll();
+	}
+
+	/**
+	 * Notification that a new stream is opened. Stream management has to be
+	 * enabled or the session has to be resumed on every stream.
+	 */
+	synchronized void streamOpened() {
+		supported = false;
+		enabled = false;
+		resumed = false;
+		counting = false;
+	}
+
+	/**
+	 * Waits until the server answered an enable or resume request.
+	 */
+	private synchronized void waitForAnswer() {
+		final long deadline = System.currentTimeMillis()
+				+ SmackConfiguration.getPacketReplyTimeout();
+		long remaining;
+		while (pending
+				&& (remaining = deadline - System.currentTimeMillis()) > 0) {
+			try {
+				wait(remaining);
+			} catch (final InterruptedException e) {
+				// Ignore
+			}
+		}
+	}
+}
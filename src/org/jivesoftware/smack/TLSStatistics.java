@@ -0,0 +1,199 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing the TLS handshakes of the connections using a
+ * {@link ConnectionConfiguration}. All connections of a configuration share
+ * one TLS context, so a reconnect can resume the TLS session of the previous
+ * connection instead of doing a full handshake, and a server certificate that
+ * was already verified isn't verified again.
+ * 
+ * @see XMPPConnection#getTLSStatistics()
+ */
+public class TLSStatistics {
+
+	private final AtomicLong handshakes = new AtomicLong();
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+	private final AtomicLong handshakeNanos = new AtomicLong();
+	private final AtomicLong lastHandshakeNanos = new AtomicLong();
+	private final AtomicLong certificateChecks = new AtomicLong();
+	private final AtomicLong cachedCertificateChecks = new AtomicLong();
+	private final AtomicLong directTLSConnections = new AtomicLong();
+	private final AtomicLong directTLSFallbacks = new AtomicLong();
+
+	TLSStatistics() {
+	}
+
+	/**
+	 * Returns the average time in milliseconds a TLS handshake took.
+	 * 
+	 * @return the average handshake time.
+	 */
+	public double getAverageHandshakeTime() {
+		final long count = handshakes.get();
+		return count == 0 ? 0 : handshakeNanos.get() / 1000000d / count;
+	}
+
+	/**
+	 * Returns the number of server certificate checks that were answered by a
+	 * previous verification of the same certificate.
+	 * 
+	 * @return the number of cached certificate checks.
+	 */
+	public long getCachedCertificateCheckCount() {
+		return cachedCertificateChecks.get();
+	}
+
+	/**
+	 * Returns the number of times a server certificate was checked.
+	 * 
+	 * @return the number of certificate checks.
+	 */
+	public long getCertificateCheckCount() {
+		return certificateChecks.get();
+	}
+
+	/**
+	 * Returns the number of connections that were secured with direct TLS
+	 * (XEP-0368) instead of STARTTLS.
+	 * 
+	 * @return the number of direct TLS connections.
+	 */
+	public long getDirectTLSCount() {
+		return directTLSConnections.get();
+	}
+
+	/**
+	 * Returns the number of times connecting with direct TLS failed and the
+	 * connection fell back to STARTTLS.
+	 * 
+	 * @return the number of direct TLS fallbacks.
+	 */
+	public long getDirectTLSFallbackCount() {
+		return directTLSFallbacks.get();
+	}
+
+	/**
+	 * Returns the number of completed TLS handshakes.
+	 * 
+	 * @return the number of handshakes.
+	 */
+	public long getHandshakeCount() {
+		return handshakes.get();
+	}
+
+	/**
+	 * Returns the time in milliseconds the last TLS handshake took.
+	 * 
+	 * @return the last handshake time.
+	 */
+	public double getLastHandshakeTime() {
+		return lastHandshakeNanos.get() / 1000000d;
+	}
+
+	/**
+	 * Returns the number of TLS handshakes that resumed a previous session.
+	 * 
+	 * @return the number of resumed handshakes.
+	 */
+	public long getResumedHandshakeCount() {
+		return resumedHandshakes.get();
+	}
+
+	/**
+	 * Returns the share of the TLS handshakes that resumed a previous
+	 * session.
+	 * 
+	 * @return the resumption rate between 0 and 1.
+	 */
+	public double getResumptionRate() {
+		final long count = handshakes.get();
+		return count == 0 ? 0 : (double) resumedHandshakes.get() / count;
+	}
+
+	/**
+	 * Records a check of a server certificate.
+	 * 
+	 * @param cached
+	 *            true if the certificate was verified before.
+	 */
+	void recordCertificateCheck(boolean cached) {
+		certificateChecks.incrementAndGet();
+		if (cached) {
+			cachedCertificateChecks.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records an attempt to connect with direct TLS.
+	 * 
+	 * @param succeeded
+	 *            true if the connection was secured, false if it fell back to
+	 *            STARTTLS.
+	 */
+	void recordDirectTLS(boolean succeeded) {
+		if (succeeded) {
+			directTLSConnections.incrementAndGet();
+		} else {
+			directTLSFallbacks.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a completed TLS handshake.
+	 * 
+	 * @param nanos
+	 *            the nanoseconds the handshake took.
+	 * @param resumed
+	 *            true if a previous session was resumed.
+	 */
+	void recordHandshake(long nanos, boolean resumed) {
+		handshakes.incrementAndGet();
+		handshakeNanos.addAndGet(nanos);
+		lastHandshakeNanos.set(nanos);
+		if (resumed) {
+			resumedHandshakes.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Resets all counters to zero.
+	 */
+	public void reset() {
+		handshakes.set(0);
+		resumedHandshakes.set(0);
+		handshakeNanos.set(0);
+		lastHandshakeNanos.set(0);
+		certificateChecks.set(0);
+		cachedCertificateChecks.set(0);
+		directTLSConnections.set(0);
+		directTLSFallbacks.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "handshakes=" + getHandshakeCount() + ", resumed="
+				+ getResumedHandshakeCount() + ", handshakeTime="
+				+ getAverageHandshakeTime() + "ms, lastHandshakeTime="
+				+ getLastHandshakeTime() + "ms, certificateChecks="
+				+ getCertificateCheckCount() + ", cachedCertificateChecks="
+				+ getCachedCertificateCheckCount() + ", directTLS="
+				+ getDirectTLSCount() + ", directTLSFallbacks="
+				+ getDirectTLSFallbackCount();
+	}
+}
@@ -30,17 +30,18 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.security.KeyStore;
 import java.security.Provider;
 import java.security.Security;
 import java.util.Collection;
+import java.util.List;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocket;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -50,6 +51,7 @@ import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.util.DNSUtil;
 import org.jivesoftware.smack.util.StringUtils;
 
 /**
@@ -65,6 +67,11 @@ public class XMPPConnection extends Connection {
 	 * The socket which is used for this connection.
 	 */
 	Socket socket;
+	/**
+	 * The non-blocking transport on the channel of the socket, or
+	 * <tt>null</tt> if the socket is used with blocking streams.
+	 */
+	ChannelTransport transport;
 
 	String connectionID = null;
 	private String user = null;
@@ -81,10 +88,34 @@ public class XMPPConnection extends Connection {
 	private boolean wasAuthenticated = false;
 	private boolean anonymous = false;
 	private boolean usingTLS = false;
+	/**
+	 * Flag that indicates if TLS was negotiated before the XMPP stream was
+	 * opened (XEP-0368) instead of with STARTTLS.
+	 */
+	private boolean usingDirectTLS = false;
 
 	PacketWriter packetWriter;
 	PacketReader packetReader;
 
+	/**
+	 * Counters of the packet writer, kept across reconnections.
+	 */
+	private final PacketWriterStatistics packetWriterStatistics = new PacketWriterStatistics();
+	private final ListenerDispatchStatistics listenerDispatchStatistics = new ListenerDispatchStatistics();
+	private final StreamCompressionStatistics streamCompressionStatistics = new StreamCompressionStatistics();
+
+	/**
+	 * Stream management state, kept across reconnections so the session can
+	 * be resumed.
+	 */
+	final StreamManagement streamManagement = new StreamManagement(this);
+
+	/**
+	 * Keep-alive pings, the interval adapted to the network is kept across
+	 * reconnections.
+	 */
+	final KeepAlive keepAlive = new KeepAlive(this);
+
 	Roster roster = null;
 
 	/**
@@ -95,6 +126,10 @@ public class XMPPConnection extends Connection {
 	 * Flag that indicates if stream compression is actually in use.
 	 */
 	private boolean usingCompression;
+	/**
+	 * Flag that indicates if the server supports roster versioning.
+	 */
+	private boolean rosterVersioningSupported;
 
 	/**
 	 * Creates a new XMPP connection in the same way
@@ -288,11 +323,11 @@ public class XMPPConnection extends Connection {
 			throws XMPPException {
 		final String host = config.getHost();
 		final int port = config.getPort();
+		usingTLS = false;
+		usingDirectTLS = false;
 		try {
-			if (config.getSocketFactory() == null) {
-				socket = new Socket(host, port);
-			} else {
-				socket = config.getSocketFactory().createSocket(host, port);
+			if (!connectUsingDirectTLS(config)) {
+				connectSocket(config.getHostAddresses());
 			}
 		} catch (final UnknownHostException uhe) {
 			final String errorMessage = "Could not connect to " + host + ":"
@@ -309,6 +344,155 @@ public class XMPPConnection extends Connection {
 		initConnection();
 	}
 
+	/**
+	 * Connects the socket to the first reachable address. If the non-blocking
+	 * transport is used the channel of the socket is registered with the
+	 * shared selector.
+	 * 
+	 * @param addresses
+	 *            the addresses of the server in the order of preference.
+	 * @throws IOException
+	 *             if no address is reachable.
+	 */
+	private void connectSocket(List<DNSUtil.HostAddress> addresses)
+			throws IOException {
+		socket = new SocketConnector(config).connect(addresses);
+		transport = null;
+		if (socket.getChannel() != null) {
+			try {
+				transport = new ChannelTransport(socket.getChannel());
+			} catch (final IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Connects to the direct TLS endpoints of the service (XEP-0368) and
+	 * secures the socket before the XMPP stream is opened, which saves the
+	 * round-trips of STARTTLS. If the service announces no such endpoint or
+	 * neither of them can be secured the caller connects as usual.
+	 * 
+	 * @param config
+	 *            the connection configuration.
+	 * @return true if the socket was connected and secured.
+	 */
+	private boolean connectUsingDirectTLS(ConnectionConfiguration config) {
+		final List<DNSUtil.HostAddress> addresses = config
+				.getDirectTLSAddresses();
+		if (addresses.isEmpty()) {
+			return false;
+		}
+		try {
+			connectSocket(addresses);
+			// The service name is the name the certificate is issued to
+			secureSocket(config.getServiceName());
+			if (transport != null) {
+				transport.waitForHandshake(config.getConnectTimeout());
+			}
+			usingDirectTLS = true;
+			config.getTLSStatistics().recordDirectTLS(true);
+			return true;
+		} catch (final Exception e) {
+			if (transport != null) {
+				transport.close();
+				transport = null;
+			}
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (final IOException ignore) {
+					// Ignore
+				}
+				socket = null;
+			}
+			usingTLS = false;
+			config.getTLSStatistics().recordDirectTLS(false);
+			return false;
+		}
+	}
+
+	/**
+	 * Creates the TLS context with the key managers of the configured
+	 * keystore and a trust manager checking the certificates of the server.
+	 * 
+	 * @return the TLS context.
+	 * @throws Exception
+	 *             if the context can't be created.
+	 */
+	private SSLContext createSSLContext() throws Exception {
+		final SSLContext context = SSLContext.getInstance("TLS");
+		KeyStore ks = null;
+		KeyManager[] kms = null;
+		PasswordCallback pcb = null;
+
+		if (config.getCallbackHandler() == null) {
+			ks = null;
+		} else {
+			// System.out.println("Keystore type: "+configuration.getKeystoreType());
+			if (config.getKeystoreType().equals("NONE")) {
+				ks = null;
+				pcb = null;
+			} else if (config.getKeystoreType().equals("PKCS11")) {
+				try {
+					final Constructor<?> c = Class.forName(
+							"sun.security.pkcs11.SunPKCS11").getConstructor(
+							InputStream.class);
+					final String pkcs11Config = "name = SmartCard\nlibrary = "
+							+ config.getPKCS11Library();
+					final ByteArrayInputStream config = new ByteArrayInputStream(
+							pkcs11Config.getBytes());
+					final Provider p = (Provider) c.newInstance(config);
+					Security.addProvider(p);
+					ks = KeyStore.getInstance("PKCS11", p);
+					pcb = new PasswordCallback("PKCS11 Password: ", false);
+					this.config.getCallbackHandler().handle(
+							new Callback[] { pcb });
+					ks.load(null, pcb.getPassword());
+				} catch (final Exception e) {
+					ks = null;
+					pcb = null;
+				}
+			} else if (config.getKeystoreType().equals("Apple")) {
+				ks = KeyStore.getInstance("KeychainStore", "Apple");
+				ks.load(null, null);
+				// pcb = new PasswordCallback("Apple Keychain",false);
+				// pcb.setPassword(null);
+			} else {
+				ks = KeyStore.getInstance(config.getKeystoreType());
+				try {
+					pcb = new PasswordCallback("Keystore Password: ", false);
+					config.getCallbackHandler().handle(new Callback[] { pcb });
+					ks.load(new FileInputStream(config.getKeystorePath()),
+							pcb.getPassword());
+				} catch (final Exception e) {
+					ks = null;
+					pcb = null;
+				}
+			}
+			final KeyManagerFactory kmf = KeyManagerFactory
+					.getInstance("SunX509");
+			try {
+				if (pcb == null) {
+					kmf.init(ks, null);
+				} else {
+					kmf.init(ks, pcb.getPassword());
+					pcb.clearPassword();
+				}
+				kms = kmf.getKeyManagers();
+			} catch (final NullPointerException npe) {
+				kms = null;
+			}
+		}
+
+		// Verify certificate presented by the server
+		context.init(kms,
+				new javax.net.ssl.TrustManager[] { new ServerTrustManager(
+						config) }, new java.security.SecureRandom());
+		return context;
+	}
+
 	@Override
 	public synchronized void disconnect(Presence unavailablePresence) {
 		// If not connected, ignore this request.
@@ -316,6 +500,8 @@ public class XMPPConnection extends Connection {
 			return;
 		}
 
+		// The session ends with the stream, it can't be resumed any more
+		streamManagement.discardSession();
 		shutdown(unavailablePresence);
 
 		if (roster != null) {
@@ -339,6 +525,61 @@ public class XMPPConnection extends Connection {
 		return connectionID;
 	}
 
+	/**
+	 * Returns the outcomes of the connection attempts to all server addresses
+	 * connected to so far. The addresses of a server are raced, hosts that
+	 * recently failed are tried last and the fastest hosts first.
+	 * 
+	 * @return the statistics of the server addresses.
+	 */
+	public static Collection<HostStatistics> getHostStatistics() {
+		return SocketConnector.getStatistics();
+	}
+
+	/**
+	 * Returns the number of milliseconds the connection may currently be idle
+	 * before a keep-alive ping is sent. The interval adapts to how long the
+	 * network keeps idle connections open.
+	 * 
+	 * @return the keep-alive interval in milliseconds.
+	 * @see ConnectionConfiguration#setKeepAliveMaxInterval(int)
+	 */
+	public long getKeepAliveInterval() {
+		return keepAlive.getInterval();
+	}
+
+	/**
+	 * Returns the counters describing how received packets are delivered to
+	 * the packet listeners of this connection, such as the number of packets
+	 * waiting for delivery and the time the listeners take to process them.
+	 * 
+	 * @return the listener dispatch statistics of this connection.
+	 */
+	public ListenerDispatchStatistics getListenerDispatchStatistics() {
+		return listenerDispatchStatistics;
+	}
+
+	/**
+	 * Returns the counters describing how many stanzas and characters the
+	 * packet writer of this connection flushes at once.
+	 * 
+	 * @return the packet writer statistics of this connection.
+	 */
+	public PacketWriterStatistics getPacketWriterStatistics() {
+		return packetWriterStatistics;
+	}
+
+	/**
+	 * Returns the counters describing how many bytes were sent and received
+	 * before and after stream compression, so the bandwidth saved by
+	 * compression can be compared with the CPU time it costs.
+	 * 
+	 * @return the stream compression statistics of this connection.
+	 */
+	public StreamCompressionStatistics getStreamCompressionStatistics() {
+		return streamCompressionStatistics;
+	}
+
 	@Override
 	public Roster getRoster() {
 		// synchronize against login()
@@ -391,6 +632,17 @@ public class XMPPConnection extends Connection {
 		return roster;
 	}
 
+	/**
+	 * Returns the counters describing the TLS handshakes of the connections
+	 * using the configuration of this connection, such as the handshake time
+	 * and the share of handshakes that resumed a previous TLS session.
+	 * 
+	 * @return the TLS statistics of the configuration.
+	 */
+	public TLSStatistics getTLSStatistics() {
+		return config.getTLSStatistics();
+	}
+
 	@Override
 	public String getUser() {
 		if (!isAuthenticated()) {
@@ -450,6 +702,9 @@ public class XMPPConnection extends Connection {
 				packetReader.init();
 			}
 
+			// Stream management has to be enabled or resumed on every stream
+			streamManagement.streamOpened();
+
 			// Start the packet writer. This will open a XMPP stream to the
 			// server
 			packetWriter.startup();
@@ -462,7 +717,7 @@ public class XMPPConnection extends Connection {
 
 			// Start keep alive process (after TLS was negotiated - if
 			// available)
-			packetWriter.startKeepAliveProcess();
+			keepAlive.start();
 
 			if (isFirstInitialization) {
 				// Notify listeners that a new connection has been established
@@ -523,34 +778,28 @@ public class XMPPConnection extends Connection {
 
 	private void initReaderAndWriter() throws XMPPException {
 		try {
-			if (!usingCompression) {
+			if (transport != null) {
+				// The transport decrypts and decodes the data itself
+				reader = transport.getFeed();
+				writer = transport.getWriter();
+			} else if (!usingCompression) {
 				reader = new BufferedReader(new InputStreamReader(
 						socket.getInputStream(), "UTF-8"));
 				writer = new BufferedWriter(new OutputStreamWriter(
 						socket.getOutputStream(), "UTF-8"));
 			} else {
 				try {
-					final Class<?> zoClass = Class
-							.forName("com.jcraft.jzlib.ZOutputStream");
-					Constructor<?> constructor = zoClass.getConstructor(
-							OutputStream.class, Integer.TYPE);
-					final Object out = constructor.newInstance(
-							socket.getOutputStream(), 9);
-					Method method = zoClass.getMethod("setFlushMode",
-							Integer.TYPE);
-					method.invoke(out, 2);
-					writer = new BufferedWriter(new OutputStreamWriter(
-							(OutputStream) out, "UTF-8"));
-
-					final Class<?> ziClass = Class
-							.forName("com.jcraft.jzlib.ZInputStream");
-					constructor = ziClass.getConstructor(InputStream.class);
-					final Object in = constructor.newInstance(socket
-							.getInputStream());
-					method = ziClass.getMethod("setFlushMode", Integer.TYPE);
-					method.invoke(in, 2);
-					reader = new BufferedReader(new InputStreamReader(
-							(InputStream) in, "UTF-8"));
+					final StreamCompressionHandler handler = config
+							.getStreamCompressionHandler();
+					final OutputStream out = streamCompressionStatistics
+							.getOutputStream(handler, socket.getOutputStream());
+					writer = new BufferedWriter(new OutputStreamWriter(out,
+							"UTF-8"));
+
+					final InputStream in = streamCompressionStatistics
+							.getInputStream(handler, socket.getInputStream());
+					reader = new BufferedReader(new InputStreamReader(in,
+							"UTF-8"));
 				} catch (final Exception e) {
 					e.printStackTrace();
 					reader = new BufferedReader(new InputStreamReader(
@@ -587,16 +836,41 @@ public class XMPPConnection extends Connection {
 		return connected;
 	}
 
+	@Override
+	public boolean isRosterVersioningSupported() {
+		return rosterVersioningSupported;
+	}
+
 	@Override
 	public boolean isSecureConnection() {
 		return isUsingTLS();
 	}
 
+	@Override
+	protected boolean isStreamResumable() {
+		return streamManagement.isResumable();
+	}
+
 	@Override
 	public boolean isUsingCompression() {
 		return usingCompression;
 	}
 
+	/**
+	 * Returns true if TLS was negotiated directly after connecting (XEP-0368)
+	 * instead of with STARTTLS.
+	 * 
+	 * @return true if the connection uses direct TLS.
+	 */
+	public boolean isUsingDirectTLS() {
+		return usingDirectTLS;
+	}
+
+	@Override
+	public boolean isUsingStreamManagement() {
+		return streamManagement.isEnabled();
+	}
+
 	/**
 	 * Returns true if the connection to the server has successfully negotiated
 	 * TLS. Once TLS has been negotiatied the connection has been secured.
@@ -619,6 +893,7 @@ public class XMPPConnection extends Connection {
 		}
 		// Do partial version of nameprep on the username.
 		username = username.toLowerCase().trim();
+		final boolean resumable = isStreamResumable();
 
 		String response;
 		if (config.isSASLAuthenticationEnabled()
@@ -649,10 +924,16 @@ public class XMPPConnection extends Connection {
 			}
 		}
 
-		// If compression is enabled then request the server to use stream
-		// compression
-		if (config.isCompressionEnabled()) {
-			useCompression();
+		// A resumed session keeps its roster and presence, and its stream
+		// can't be restarted for compression any more
+		final boolean resumed = streamManagement.isResumed();
+		if (!resumed) {
+			// If compression is enabled then request the server to use stream
+			// compression
+			if (config.isCompressionEnabled()) {
+				useCompression();
+			}
+			streamManagement.enable();
 		}
 
 		// Indicate that we're now authenticated.
@@ -663,14 +944,19 @@ public class XMPPConnection extends Connection {
 		// created by getRoster()
 		if (roster == null) {
 			roster = new Roster(this);
+		} else if (resumable && !resumed) {
+			// The presences were kept for resuming the session
+			roster.setOfflinePresences();
 		}
-		if (config.isRosterLoadedAtLogin()) {
-			roster.reload();
-		}
+		if (!resumed) {
+			if (config.isRosterLoadedAtLogin()) {
+				roster.reload();
+			}
 
-		// Set presence to online.
-		if (config.isSendPresence()) {
-			packetWriter.sendPacket(new Presence(Presence.Type.available));
+			// Set presence to online.
+			if (config.isSendPresence()) {
+				packetWriter.sendPacket(new Presence(Presence.Type.available));
+			}
 		}
 
 		// Stores the authentication for future reconnection
@@ -711,14 +997,17 @@ public class XMPPConnection extends Connection {
 		// Update the serviceName with the one returned by the server
 		config.setServiceName(StringUtils.parseServer(response));
 
-		// If compression is enabled then request the server to use stream
-		// compression
-		if (config.isCompressionEnabled()) {
-			useCompression();
-		}
+		if (!streamManagement.isResumed()) {
+			// If compression is enabled then request the server to use stream
+			// compression
+			if (config.isCompressionEnabled()) {
+				useCompression();
+			}
+			streamManagement.enable();
 
-		// Set presence to online.
-		packetWriter.sendPacket(new Presence(Presence.Type.available));
+			// Set presence to online.
+			packetWriter.sendPacket(new Presence(Presence.Type.available));
+		}
 
 		// Indicate that we're now authenticated.
 		authenticated = true;
@@ -749,96 +1038,9 @@ public class XMPPConnection extends Connection {
 	 *             if an exception occurs.
 	 */
 	void proceedTLSReceived() throws Exception {
-		final SSLContext context = SSLContext.getInstance("TLS");
-		KeyStore ks = null;
-		KeyManager[] kms = null;
-		PasswordCallback pcb = null;
-
-		if (config.getCallbackHandler() == null) {
-			ks = null;
-		} else {
-			// System.out.println("Keystore type: "+configuration.getKeystoreType());
-			if (config.getKeystoreType().equals("NONE")) {
-				ks = null;
-				pcb = null;
-			} else if (config.getKeystoreType().equals("PKCS11")) {
-				try {
-					final Constructor<?> c = Class.forName(
-							"sun.security.pkcs11.SunPKCS11").getConstructor(
-							InputStream.class);
-					final String pkcs11Config = "name = SmartCard\nlibrary = "
-							+ config.getPKCS11Library();
-					final ByteArrayInputStream config = new ByteArrayInputStream(
-							pkcs11Config.getBytes());
-					final Provider p = (Provider) c.newInstance(config);
-					Security.addProvider(p);
-					ks = KeyStore.getInstance("PKCS11", p);
-					pcb = new PasswordCallback("PKCS11 Password: ", false);
-					this.config.getCallbackHandler().handle(
-							new Callback[] { pcb });
-					ks.load(null, pcb.getPassword());
-				} catch (final Exception e) {
-					ks = null;
-					pcb = null;
-				}
-			} else if (config.getKeystoreType().equals("Apple")) {
-				ks = KeyStore.getInstance("KeychainStore", "Apple");
-				ks.load(null, null);
-				// pcb = new PasswordCallback("Apple Keychain",false);
-				// pcb.setPassword(null);
-			} else {
-				ks = KeyStore.getInstance(config.getKeystoreType());
-				try {
-					pcb = new PasswordCallback("Keystore Password: ", false);
-					config.getCallbackHandler().handle(new Callback[] { pcb });
-					ks.load(new FileInputStream(config.getKeystorePath()),
-							pcb.getPassword());
-				} catch (final Exception e) {
-					ks = null;
-					pcb = null;
-				}
-			}
-			final KeyManagerFactory kmf = KeyManagerFactory
-					.getInstance("SunX509");
-			try {
-				if (pcb == null) {
-					kmf.init(ks, null);
-				} else {
-					kmf.init(ks, pcb.getPassword());
-					pcb.clearPassword();
-				}
-				kms = kmf.getKeyManagers();
-			} catch (final NullPointerException npe) {
-				kms = null;
-			}
-		}
-
-		// Verify certificate presented by the server
-		context.init(kms,
-				new javax.net.ssl.TrustManager[] { new ServerTrustManager(
-						getServiceName(), config) },
-				new java.security.SecureRandom());
-		final Socket plain = socket;
-		// Secure the plain connection
-		socket = context.getSocketFactory().createSocket(plain,
-				plain.getInetAddress().getHostName(), plain.getPort(), true);
-		socket.setSoTimeout(0);
-		socket.setKeepAlive(true);
+		secureSocket(socket.getInetAddress().getHostName());
 		// Initialize the reader and writer with the new secured version
 		initReaderAndWriter();
-		// Proceed to do the handshake
-		((SSLSocket) socket).startHandshake();
-		// if (((SSLSocket) socket).getWantClientAuth()) {
-		// System.err.println("Connection wants client auth");
-		// }
-		// else if (((SSLSocket) socket).getNeedClientAuth()) {
-		// System.err.println("Connection needs client auth");
-		// }
-		// else {
-		// System.err.println("Connection does not require client auth");
-		// }
-		// Set that TLS was successful
-		usingTLS = true;
 
 		// Set the new writer to use
 		packetWriter.setWriter(writer);
@@ -883,13 +1085,81 @@ public class XMPPConnection extends Connection {
 	private void requestStreamCompression() {
 		try {
 			writer.write("<compress xmlns='http://jabber.org/protocol/compress'>");
-			writer.write("<method>zlib</method></compress>");
+			writer.write("<method>");
+			writer.write(config.getStreamCompressionHandler().getMethod());
+			writer.write("</method></compress>");
 			writer.flush();
 		} catch (final IOException e) {
 			packetReader.notifyConnectionError(e);
 		}
 	}
 
+	@Override
+	protected String resumeStream() {
+		if (streamManagement.resume()) {
+			return user;
+		}
+		return null;
+	}
+
+	/**
+	 * Secures the connected socket with the TLS context shared by all
+	 * connections of the configuration and performs the handshake. This
+	 * method won't return until the handshake finished or failed, unless the
+	 * non-blocking transport is used.
+	 * 
+	 * @param host
+	 *            the name of the server, used to resume the TLS session.
+	 * @throws Exception
+	 *             if the socket can't be secured.
+	 */
+	private void secureSocket(String host) throws Exception {
+		final SSLContext context;
+		// All connections of the configuration share the context, so the
+		// TLS session of the previous connection can be resumed
+		synchronized (config) {
+			if (config.getSSLContext() == null) {
+				config.setSSLContext(createSSLContext());
+			}
+			context = config.getSSLContext();
+		}
+		if (transport != null) {
+			// The selector drives the handshake, the data written from now
+			// on is sent once the handshake finished
+			final SSLEngine engine = context.createSSLEngine(host,
+					socket.getPort());
+			engine.setUseClientMode(true);
+			transport.startTLS(engine, config.getTLSStatistics());
+			usingTLS = true;
+			return;
+		}
+		final Socket plain = socket;
+		// Secure the plain connection
+		socket = context.getSocketFactory().createSocket(plain, host,
+				plain.getPort(), true);
+		socket.setSoTimeout(0);
+		socket.setKeepAlive(true);
+		// Proceed to do the handshake
+		final long start = System.currentTimeMillis();
+		final long startNanos = System.nanoTime();
+		((SSLSocket) socket).startHandshake();
+		// A resumed session was created by an earlier handshake
+		config.getTLSStatistics().recordHandshake(
+				System.nanoTime() - startNanos,
+				((SSLSocket) socket).getSession().getCreationTime() < start);
+		// if (((SSLSocket) socket).getWantClientAuth()) {
+		// System.err.println("Connection wants client auth");
+		// }
+		// else if (((SSLSocket) socket).getNeedClientAuth()) {
+		// System.err.println("Connection needs client auth");
+		// }
+		// else {
+		// System.err.println("Connection does not require client auth");
+		// }
+		// Set that TLS was successful
+		usingTLS = true;
+	}
+
 	@Override
 	public void sendPacket(Packet packet) {
 		if (!isConnected()) {
@@ -911,6 +1181,13 @@ public class XMPPConnection extends Connection {
 		compressionMethods = methods;
 	}
 
+	/**
+	 * Notes that the server announced support for roster versioning.
+	 */
+	void setRosterVersioningSupported() {
+		rosterVersioningSupported = true;
+	}
+
 	/**
 	 * Sets whether the connection has already logged in the server.
 	 * 
@@ -935,8 +1212,27 @@ public class XMPPConnection extends Connection {
 	 *            the presence packet to send during shutdown.
 	 */
 	protected void shutdown(Presence unavailablePresence) {
-		// Set presence to offline.
-		packetWriter.sendPacket(unavailablePresence);
+		shutdown(unavailablePresence, true);
+	}
+
+	/**
+	 * Closes the connection. On a planned disconnection the socket is closed
+	 * once the packet writer wrote the pending packets and the end of the
+	 * stream. After a connection error nothing is sent and the socket is
+	 * closed right away.
+	 * 
+	 * @param unavailablePresence
+	 *            the presence packet to send during shutdown.
+	 * @param graceful
+	 *            false if the stream failed.
+	 */
+	void shutdown(Presence unavailablePresence, boolean graceful) {
+		keepAlive.stop();
+		// Set presence to offline, unless the session is kept for resumption
+		if (graceful && !streamManagement.isResumable()) {
+			packetWriter.sendPacket(unavailablePresence);
+		}
+		streamManagement.streamClosed();
 
 		setWasAuthenticated(authenticated);
 		authenticated = false;
@@ -944,11 +1240,9 @@ public class XMPPConnection extends Connection {
 
 		packetReader.shutdown();
 		packetWriter.shutdown();
-		// Wait 150 ms for processes to clean-up, then shutdown.
-		try {
-			Thread.sleep(150);
-		} catch (final Exception e) {
-			// Ignore.
+		final int timeout = SmackConfiguration.getPacketReplyTimeout();
+		if (graceful) {
+			packetWriter.awaitDrained(timeout);
 		}
 
 		// Close down the readers and writers.
@@ -972,8 +1266,13 @@ public class XMPPConnection extends Connection {
 		} catch (final Exception e) {
 			// Ignore.
 		}
+		// Closing the socket ends the reader
+		packetReader.awaitTermination(timeout);
 
 		saslAuthentication.init();
+
+		// Nobody is going to answer requests that are still pending.
+		pendingIQRequests.failAll(new XMPPException("Connection closed."));
 	}
 
 	/**
@@ -1007,6 +1306,10 @@ public class XMPPConnection extends Connection {
 	 *            true when the server indicates that TLS is required.
 	 */
 	void startTLSReceived(boolean required) {
+		if (usingTLS) {
+			// The connection was secured with direct TLS already
+			return;
+		}
 		if (required
 				&& config.getSecurityMode() == ConnectionConfiguration.SecurityMode.disabled) {
 			packetReader
@@ -1046,12 +1349,13 @@ public class XMPPConnection extends Connection {
 	 * <p>
 	 * <p/>
 	 * Stream compression has to have been previously offered by the server.
-	 * Currently only the zlib method is supported by the client. Stream
-	 * compression negotiation has to be done before authentication took place.
+	 * The method of the {@link StreamCompressionHandler} of the configuration
+	 * is requested. Stream compression negotiation has to be done before
+	 * authentication took place.
 	 * <p>
 	 * <p/>
-	 * Note: to use stream compression the smackx.jar file has to be present in
-	 * the classpath.
+	 * Note: compression is not requested if the handler is not supported on
+	 * this platform.
 	 * 
 	 * @return true if stream compression negotiation was successful.
 	 */
@@ -1062,13 +1366,15 @@ public class XMPPConnection extends Connection {
 			throw new IllegalStateException(
 					"Compression should be negotiated before authentication.");
 		}
-		try {
-			Class.forName("com.jcraft.jzlib.ZOutputStream");
-		} catch (final ClassNotFoundException e) {
-			throw new IllegalStateException(
-					"Cannot use compression. Add smackx.jar to the classpath");
+		final StreamCompressionHandler handler = config
+				.getStreamCompressionHandler();
+		// The handlers wrap blocking streams, which the non-blocking
+		// transport doesn't have
+		if (!handler.isSupported() || transport != null) {
+			// Continue without compression instead of failing the login
+			return false;
 		}
-		if (hasAvailableCompressionMethod("zlib")) {
+		if (hasAvailableCompressionMethod(handler.getMethod())) {
 			requestStreamCompression();
 			// Wait until compression is being used or a timeout happened
 			synchronized (this) {
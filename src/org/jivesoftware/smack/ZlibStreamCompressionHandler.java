@@ -0,0 +1,471 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * A {@link StreamCompressionHandler} for the zlib method that uses the
+ * {@link Deflater} and {@link Inflater} of the platform. One deflater and one
+ * inflater are used for the whole stream, so the dictionary built from
+ * previous stanzas is used to compress the following ones.
+ * <p>
+ * 
+ * Low compression levels already shrink XML considerably, while high levels
+ * cost a lot more CPU time for a small gain on typical stanza sizes. The
+ * default is {@link Deflater#BEST_SPEED}.
+ * <p>
+ * 
+ * Flushing the compressed stream requires the flush modes of
+ * {@link Deflater}, which are available since Java 7 and Android 4.4. On older
+ * platforms the streams are backed by jzlib instead. The handler is only
+ * unsupported if neither is available.
+ */
+public class ZlibStreamCompressionHandler implements StreamCompressionHandler {
+
+	/**
+	 * How the compressed stream is flushed.
+	 */
+	public static enum FlushMode {
+
+		/**
+		 * All pending output is flushed and the dictionary is kept. This is
+		 * the default.
+		 */
+		sync,
+
+		/**
+		 * All pending output is flushed and the dictionary is reset, so the
+		 * data following a flush can be decompressed on its own. This
+		 * compresses worse than {@link #sync}.
+		 */
+		full
+	}
+
+	/**
+	 * Inflating stream backed by jzlib, for platforms without the flush modes
+	 * of {@link Deflater}.
+	 */
+	private static class JzlibInputStream extends InputStream {
+
+		private final InputStream in;
+		private final ZStream stream = new ZStream();
+		private final byte[] buffer;
+		private boolean finished;
+
+		JzlibInputStream(InputStream in, int bufferSize) {
+			this.in = in;
+			buffer = new byte[bufferSize];
+			stream.inflateInit();
+		}
+
+		/**
+		 * Returns an estimate of the bytes that can be read without blocking,
+		 * see {@link ZlibInputStream#available()}.
+		 */
+		@Override
+		public int available() throws IOException {
+			if (finished) {
+				return 0;
+			}
+			return stream.avail_in == 0 ? in.available() : 1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				in.close();
+			} finally {
+				stream.inflateEnd();
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (!finished) {
+				if (stream.avail_in == 0) {
+					final int count = in.read(buffer);
+					if (count == -1) {
+						throw new EOFException("Compressed stream ended.");
+					}
+					stream.next_in = buffer;
+					stream.next_in_index = 0;
+					stream.avail_in = count;
+				}
+				stream.next_out = b;
+				stream.next_out_index = off;
+				stream.avail_out = len;
+				final int err = stream.inflate(JZlib.Z_NO_FLUSH);
+				if (err == JZlib.Z_STREAM_END) {
+					finished = true;
+				} else if (err != JZlib.Z_OK && err != JZlib.Z_BUF_ERROR) {
+					throw new IOException("Inflating failed: " + stream.msg);
+				}
+				if (stream.avail_out < len) {
+					return len - stream.avail_out;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Deflating stream backed by jzlib, for platforms without the flush modes
+	 * of {@link Deflater}.
+	 */
+	private static class JzlibOutputStream extends FilterOutputStream {
+
+		private final ZStream stream = new ZStream();
+		private final byte[] buffer;
+		private final int flushMode;
+
+		JzlibOutputStream(OutputStream out, int level, int bufferSize,
+				boolean fullFlush) {
+			super(out);
+			stream.deflateInit(level);
+			buffer = new byte[bufferSize];
+			flushMode = fullFlush ? JZlib.Z_FULL_FLUSH : JZlib.Z_SYNC_FLUSH;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				int err;
+				do {
+					err = deflate(JZlib.Z_FINISH);
+				} while (err == JZlib.Z_OK);
+				out.close();
+			} finally {
+				stream.deflateEnd();
+			}
+		}
+
+		/**
+		 * Deflates the pending input into the buffer and writes the
+		 * compressed data.
+		 * 
+		 * @return the result of the deflater.
+		 */
+		private int deflate(int flush) throws IOException {
+			stream.next_out = buffer;
+			stream.next_out_index = 0;
+			stream.avail_out = buffer.length;
+			final int err = stream.deflate(flush);
+			if (err != JZlib.Z_OK && err != JZlib.Z_STREAM_END
+					&& err != JZlib.Z_BUF_ERROR) {
+				throw new IOException("Deflating failed: " + stream.msg);
+			}
+			out.write(buffer, 0, buffer.length - stream.avail_out);
+			return err;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			do {
+				deflate(flushMode);
+			} while (stream.avail_out == 0);
+			out.flush();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			stream.next_in = b;
+			stream.next_in_index = off;
+			stream.avail_in = len;
+			do {
+				deflate(JZlib.Z_NO_FLUSH);
+			} while (stream.avail_in > 0 || stream.avail_out == 0);
+			stream.next_in = null;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+	}
+
+	/**
+	 * Inflater stream that releases its inflater when it is closed.
+	 */
+	private static class ZlibInputStream extends InflaterInputStream {
+
+		ZlibInputStream(InputStream in, int bufferSize) {
+			super(in, new Inflater(), bufferSize);
+		}
+
+		/**
+		 * Returns an estimate of the bytes that can be read without blocking.
+		 * Readers decoding the stream read on while bytes are available, so
+		 * unlike {@link InflaterInputStream} this doesn't claim available
+		 * bytes once all received data was inflated.
+		 */
+		@Override
+		public int available() throws IOException {
+			if (inf.finished()) {
+				return 0;
+			}
+			return inf.needsInput() ? in.available() : 1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+
+	/**
+	 * Deflater stream that flushes the compressed data with the configured
+	 * flush mode whenever it is flushed.
+	 */
+	private static class ZlibOutputStream extends FilterOutputStream {
+
+		private final Deflater deflater;
+		private final byte[] buffer;
+		private final int flushMode;
+
+		ZlibOutputStream(OutputStream out, int level, int bufferSize,
+				int flushMode) {
+			super(out);
+			deflater = new Deflater(level);
+			buffer = new byte[bufferSize];
+			this.flushMode = flushMode;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				deflater.finish();
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+				out.close();
+			} finally {
+				deflater.end();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			int count;
+			do {
+				count = deflater.deflate(buffer, 0, buffer.length, flushMode);
+				out.write(buffer, 0, count);
+			} while (count == buffer.length);
+			out.flush();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			deflater.setInput(b, off, len);
+			while (!deflater.needsInput()) {
+				final int count = deflater.deflate(buffer);
+				if (count > 0) {
+					out.write(buffer, 0, count);
+				}
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+	}
+
+	// True if the Deflater of the platform supports flush modes
+	private static final boolean FLUSH_SUPPORTED;
+
+	// True if jzlib is available as a fallback
+	private static final boolean JZLIB_AVAILABLE;
+
+	static {
+		boolean supported;
+		try {
+			Deflater.class.getMethod("deflate", byte[].class, Integer.TYPE,
+					Integer.TYPE, Integer.TYPE);
+			supported = true;
+		} catch (final NoSuchMethodException e) {
+			supported = false;
+		}
+		FLUSH_SUPPORTED = supported;
+		boolean available;
+		try {
+			Class.forName("com.jcraft.jzlib.ZStream");
+			available = true;
+		} catch (final ClassNotFoundException e) {
+			available = false;
+		}
+		JZLIB_AVAILABLE = available;
+	}
+
+	private int compressionLevel = Deflater.BEST_SPEED;
+	private int deflaterBufferSize = 1024;
+	private int inflaterBufferSize = 1024;
+	private FlushMode flushMode = FlushMode.sync;
+
+	/**
+	 * Returns the compression level.
+	 * 
+	 * @return the compression level from 0 to 9.
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * Returns the size of the buffer the compressed data is written into
+	 * before it is passed to the socket.
+	 * 
+	 * @return the size of the deflater buffer in bytes.
+	 */
+	public int getDeflaterBufferSize() {
+		return deflaterBufferSize;
+	}
+
+	/**
+	 * Returns the flush mode of the compressed stream.
+	 * 
+	 * @return the flush mode.
+	 */
+	public FlushMode getFlushMode() {
+		return flushMode;
+	}
+
+	/**
+	 * Returns the size of the buffer the compressed data is read into from
+	 * the socket.
+	 * 
+	 * @return the size of the inflater buffer in bytes.
+	 */
+	public int getInflaterBufferSize() {
+		return inflaterBufferSize;
+	}
+
+	@Override
+	public InputStream getInputStream(InputStream in) {
+		if (!FLUSH_SUPPORTED) {
+			return new JzlibInputStream(in, inflaterBufferSize);
+		}
+		return new ZlibInputStream(in, inflaterBufferSize);
+	}
+
+	@Override
+	public String getMethod() {
+		return "zlib";
+	}
+
+	@Override
+	public OutputStream getOutputStream(OutputStream out) {
+		if (!FLUSH_SUPPORTED) {
+			return new JzlibOutputStream(out, compressionLevel,
+					deflaterBufferSize, flushMode == FlushMode.full);
+		}
+		return new ZlibOutputStream(out, compressionLevel, deflaterBufferSize,
+				flushMode == FlushMode.full ? Deflater.FULL_FLUSH
+						: Deflater.SYNC_FLUSH);
+	}
+
+	@Override
+	public boolean isSupported() {
+		return FLUSH_SUPPORTED || JZLIB_AVAILABLE;
+	}
+
+	/**
+	 * Sets the compression level from 0 (no compression) to 9 (best
+	 * compression). The level is used for streams created afterwards.
+	 * 
+	 * @param compressionLevel
+	 *            the compression level.
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel < Deflater.NO_COMPRESSION
+				|| compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException(
+					"Compression level must be between 0 and 9.");
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Sets the size of the buffer the compressed data is written into before
+	 * it is passed to the socket.
+	 * 
+	 * @param deflaterBufferSize
+	 *            the size of the deflater buffer in bytes.
+	 */
+	public void setDeflaterBufferSize(int deflaterBufferSize) {
+		if (deflaterBufferSize < 1) {
+			throw new IllegalArgumentException(
+					"Buffer size must be at least 1.");
+		}
+		this.deflaterBufferSize = deflaterBufferSize;
+	}
+
+	/**
+	 * Sets the flush mode of the compressed stream.
+	 * 
+	 * @param flushMode
+	 *            the flush mode.
+	 */
+	public void setFlushMode(FlushMode flushMode) {
+		if (flushMode == null) {
+			throw new NullPointerException("Flush mode is null.");
+		}
+		this.flushMode = flushMode;
+	}
+
+	/**
+	 * Sets the size of the buffer the compressed data is read into from the
+	 * socket.
+	 * 
+	 * @param inflaterBufferSize
+	 *            the size of the inflater buffer in bytes.
+	 */
+	public void setInflaterBufferSize(int inflaterBufferSize) {
+		if (inflaterBufferSize < 1) {
+			throw new IllegalArgumentException(
+					"Buffer size must be at least 1.");
+		}
+		this.inflaterBufferSize = inflaterBufferSize;
+	}
+}
@@ -21,6 +21,7 @@
 package org.jivesoftware.smack.filter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.jivesoftware.smack.packet.Packet;
@@ -88,6 +89,15 @@ public class AndFilter implements PacketFilter {
 		filters.add(filter);
 	}
 
+	/**
+	 * Returns the filters of the AND operation.
+	 * 
+	 * @return an unmodifiable list of the filters.
+	 */
+	public List<PacketFilter> getFilters() {
+		return Collections.unmodifiableList(filters);
+	}
+
 	@Override
 	public String toString() {
 		return filters.toString();
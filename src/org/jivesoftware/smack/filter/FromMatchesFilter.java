@@ -67,7 +67,8 @@ public class FromMatchesFilter implements PacketFilter {
 		} else if (matchBareJID) {
 			// Check if the bare JID of the sender of the packet matches the
 			// specified JID
-			return packet.getFrom().toLowerCase().startsWith(address);
+			return address.equals(StringUtils.parseBareAddress(
+					packet.getFrom()).toLowerCase());
 		} else {
 			// Check if the full JID of the sender of the packet matches the
 			// specified JID
@@ -75,6 +76,25 @@ public class FromMatchesFilter implements PacketFilter {
 		}
 	}
 
+	/**
+	 * Returns the address the "from" field is matched against, in lower case.
+	 * 
+	 * @return the address of the filter.
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns true if the filter matches the bare JID of the sender instead of
+	 * the full JID.
+	 * 
+	 * @return true if only the bare JID of the sender is matched.
+	 */
+	public boolean isMatchBareJID() {
+		return matchBareJID;
+	}
+
 	@Override
 	public String toString() {
 		return "FromMatchesFilter: " + address;
@@ -62,4 +62,23 @@ public class PacketExtensionFilter implements PacketFilter {
 	public boolean accept(Packet packet) {
 		return packet.getExtension(elementName, namespace) != null;
 	}
+
+	/**
+	 * Returns the XML element name of the packet extension, or <tt>null</tt>
+	 * if any element name matches.
+	 * 
+	 * @return the XML element name of the packet extension.
+	 */
+	public String getElementName() {
+		return elementName;
+	}
+
+	/**
+	 * Returns the XML namespace of the packet extension.
+	 * 
+	 * @return the XML namespace of the packet extension.
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
 }
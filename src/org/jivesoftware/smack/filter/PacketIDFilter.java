@@ -49,6 +49,15 @@ public class PacketIDFilter implements PacketFilter {
 		return packetID.equals(packet.getPacketID());
 	}
 
+	/**
+	 * Returns the packet ID to filter for.
+	 * 
+	 * @return the packet ID.
+	 */
+	public String getPacketID() {
+		return packetID;
+	}
+
 	@Override
 	public String toString() {
 		return "PacketIDFilter by id: " + packetID;
@@ -58,6 +58,15 @@ public class PacketTypeFilter implements PacketFilter {
 		return packetType.isInstance(packet);
 	}
 
+	/**
+	 * Returns the Class type packets must be an instance of.
+	 * 
+	 * @return the packet type.
+	 */
+	public Class<?> getPacketType() {
+		return packetType;
+	}
+
 	@Override
 	public String toString() {
 		return "PacketTypeFilter: " + packetType.getName();
@@ -20,6 +20,8 @@
 
 package org.jivesoftware.smack.packet;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.util.StringUtils;
 
 /**
@@ -185,6 +187,26 @@ public abstract class IQ extends Packet {
 
 	private Type type = Type.GET;
 
+	/**
+	 * Writes the sub-element XML section of the IQ packet to the given target.
+	 * The default implementation appends the String returned by
+	 * {@link #getChildElementXML()}, if there is one. Extensions of this class
+	 * may override this method to stream large child elements without
+	 * building them as a String first; they must still implement
+	 * {@link #getChildElementXML()}.
+	 * 
+	 * @param buf
+	 *            the target to write the XML to.
+	 * @throws IOException
+	 *             if writing to the target fails.
+	 */
+	protected void appendChildElementXML(Appendable buf) throws IOException {
+		final String queryXML = getChildElementXML();
+		if (queryXML != null) {
+			buf.append(queryXML);
+		}
+	}
+
 	/**
 	 * Returns the sub-element XML section of the IQ packet, or <tt>null</tt> if
 	 * there isn't one. Packet extensions <b>must</b> be included, if any are
@@ -222,35 +244,37 @@ public abstract class IQ extends Packet {
 
 	@Override
 	public String toXML() {
-		final StringBuilder buf = new StringBuilder();
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
 		buf.append("<iq ");
 		if (getPacketID() != null) {
-			buf.append("id=\"" + getPacketID() + "\" ");
+			buf.append("id=\"").append(getPacketID()).append("\" ");
 		}
 		if (getTo() != null) {
-			buf.append("to=\"").append(StringUtils.escapeForXML(getTo()))
-					.append("\" ");
+			buf.append("to=\"");
+			StringUtils.escapeForXML(getTo(), buf);
+			buf.append("\" ");
 		}
 		if (getFrom() != null) {
-			buf.append("from=\"").append(StringUtils.escapeForXML(getFrom()))
-					.append("\" ");
+			buf.append("from=\"");
+			StringUtils.escapeForXML(getFrom(), buf);
+			buf.append("\" ");
 		}
 		if (type == null) {
 			buf.append("type=\"get\">");
 		} else {
-			buf.append("type=\"").append(getType()).append("\">");
+			buf.append("type=\"").append(getType().toString()).append("\">");
 		}
 		// Add the query section if there is one.
-		final String queryXML = getChildElementXML();
-		if (queryXML != null) {
-			buf.append(queryXML);
-		}
+		appendChildElementXML(buf);
 		// Add the error sub-packet, if there is one.
 		final XMPPError error = getError();
 		if (error != null) {
-			buf.append(error.toXML());
+			error.toXML(buf);
 		}
 		buf.append("</iq>");
-		return buf.toString();
 	}
 }
@@ -20,6 +20,7 @@
 
 package org.jivesoftware.smack.packet;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -704,7 +705,11 @@ public class Message extends Packet {
 
 	@Override
 	public String toXML() {
-		final StringBuilder buf = new StringBuilder();
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
 		buf.append("<message");
 		if (getXmlns() != null) {
 			buf.append(" xmlns=\"").append(getXmlns()).append("\"");
@@ -716,23 +721,25 @@ public class Message extends Packet {
 			buf.append(" id=\"").append(getPacketID()).append("\"");
 		}
 		if (getTo() != null) {
-			buf.append(" to=\"").append(StringUtils.escapeForXML(getTo()))
-					.append("\"");
+			buf.append(" to=\"");
+			StringUtils.escapeForXML(getTo(), buf);
+			buf.append("\"");
 		}
 		if (getFrom() != null) {
-			buf.append(" from=\"").append(StringUtils.escapeForXML(getFrom()))
-					.append("\"");
+			buf.append(" from=\"");
+			StringUtils.escapeForXML(getFrom(), buf);
+			buf.append("\"");
 		}
 		if (type != Type.normal) {
-			buf.append(" type=\"").append(type).append("\"");
+			buf.append(" type=\"").append(type.toString()).append("\"");
 		}
 		buf.append(">");
 		// Add the subject in the default language
 		final Subject defaultSubject = getMessageSubject(null);
 		if (defaultSubject != null) {
-			buf.append("<subject>")
-					.append(StringUtils.escapeForXML(defaultSubject.subject))
-					.append("</subject>");
+			buf.append("<subject>");
+			StringUtils.escapeForXML(defaultSubject.subject, buf);
+			buf.append("</subject>");
 		}
 		// Add the subject in other languages
 		for (final Subject subject : getSubjects()) {
@@ -742,15 +749,15 @@ public class Message extends Packet {
 			}
 			buf.append("<subject xml:lang=\"").append(subject.language)
 					.append("\">");
-			buf.append(StringUtils.escapeForXML(subject.subject));
+			StringUtils.escapeForXML(subject.subject, buf);
 			buf.append("</subject>");
 		}
 		// Add the body in the default language
 		final Body defaultBody = getMessageBody(null);
 		if (defaultBody != null) {
-			buf.append("<body>")
-					.append(StringUtils.escapeForXML(defaultBody.message))
-					.append("</body>");
+			buf.append("<body>");
+			StringUtils.escapeForXML(defaultBody.message, buf);
+			buf.append("</body>");
 		}
 		// Add the bodies in other languages
 		for (final Body body : getBodies()) {
@@ -760,7 +767,7 @@ public class Message extends Packet {
 			}
 			buf.append("<body xml:lang=\"").append(body.getLanguage())
 					.append("\">");
-			buf.append(StringUtils.escapeForXML(body.getMessage()));
+			StringUtils.escapeForXML(body.getMessage(), buf);
 			buf.append("</body>");
 		}
 		if (thread != null) {
@@ -770,12 +777,11 @@ public class Message extends Packet {
 		if (type == Type.error) {
 			final XMPPError error = getError();
 			if (error != null) {
-				buf.append(error.toXML());
+				error.toXML(buf);
 			}
 		}
 		// Add packet extensions, if any are defined.
-		buf.append(getExtensionsXML());
+		appendExtensionsXML(buf);
 		buf.append("</message>");
-		return buf.toString();
 	}
 }
\ No newline at end of file
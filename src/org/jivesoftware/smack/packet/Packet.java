@@ -21,6 +21,7 @@
 package org.jivesoftware.smack.packet;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -46,7 +47,7 @@ import org.jivesoftware.smack.util.StringUtils;
  * 
  * @author Matt Tucker
  */
-public abstract class Packet {
+public abstract class Packet implements XMLStreamable {
 
 	protected static final String DEFAULT_LANGUAGE = java.util.Locale
 			.getDefault().getLanguage().toLowerCase();
@@ -232,17 +233,19 @@ public abstract class Packet {
 	}
 
 	/**
-	 * Returns the extension sub-packets (including properties data) as an XML
-	 * String, or the Empty String if there are no packet extensions.
+	 * Writes the extension sub-packets (including properties data) to the
+	 * given target. Nothing is written if there are no packet extensions.
 	 * 
-	 * @return the extension sub-packets as XML or the Empty String if there are
-	 *         no packet extensions.
+	 * @param buf
+	 *            the target to write the XML to.
+	 * @throws IOException
+	 *             if writing to the target fails.
 	 */
-	protected synchronized String getExtensionsXML() {
-		final StringBuilder buf = new StringBuilder();
+	protected synchronized void appendExtensionsXML(Appendable buf)
+			throws IOException {
 		// Add in all standard extension sub-packets.
 		for (final PacketExtension extension : getExtensions()) {
-			buf.append(extension.toXML());
+			StringUtils.appendXML(buf, extension);
 		}
 		// Add in packet properties.
 		if (properties != null && !properties.isEmpty()) {
@@ -251,22 +254,28 @@ public abstract class Packet {
 			for (final String name : getPropertyNames()) {
 				final Object value = getProperty(name);
 				buf.append("<property>");
-				buf.append("<name>").append(StringUtils.escapeForXML(name))
-						.append("</name>");
+				buf.append("<name>");
+				StringUtils.escapeForXML(name, buf);
+				buf.append("</name>");
 				buf.append("<value type=\"");
 				if (value instanceof Integer) {
-					buf.append("integer\">").append(value).append("</value>");
+					buf.append("integer\">").append(String.valueOf(value))
+							.append("</value>");
 				} else if (value instanceof Long) {
-					buf.append("long\">").append(value).append("</value>");
+					buf.append("long\">").append(String.valueOf(value))
+							.append("</value>");
 				} else if (value instanceof Float) {
-					buf.append("float\">").append(value).append("</value>");
+					buf.append("float\">").append(String.valueOf(value))
+							.append("</value>");
 				} else if (value instanceof Double) {
-					buf.append("double\">").append(value).append("</value>");
+					buf.append("double\">").append(String.valueOf(value))
+							.append("</value>");
 				} else if (value instanceof Boolean) {
-					buf.append("boolean\">").append(value).append("</value>");
+					buf.append("boolean\">").append(String.valueOf(value))
+							.append("</value>");
 				} else if (value instanceof String) {
 					buf.append("string\">");
-					buf.append(StringUtils.escapeForXML((String) value));
+					StringUtils.escapeForXML((String) value, buf);
 					buf.append("</value>");
 				}
 				// Otherwise, it's a generic Serializable object. Serialized
@@ -308,6 +317,23 @@ public abstract class Packet {
 			}
 			buf.append("</properties>");
 		}
+	}
+
+	/**
+	 * Returns the extension sub-packets (including properties data) as an XML
+	 * String, or the Empty String if there are no packet extensions.
+	 * 
+	 * @return the extension sub-packets as XML or the Empty String if there are
+	 *         no packet extensions.
+	 */
+	protected synchronized String getExtensionsXML() {
+		final StringBuilder buf = new StringBuilder();
+		try {
+			appendExtensionsXML(buf);
+		} catch (final IOException e) {
+			// Can't happen, a StringBuilder never throws
+			throw new IllegalStateException(e);
+		}
 		return buf.toString();
 	}
 
@@ -495,4 +521,21 @@ public abstract class Packet {
 	 * @return the XML format of the packet as a String.
 	 */
 	public abstract String toXML();
+
+	/**
+	 * Writes the packet as XML to the given target. The default
+	 * implementation appends the String returned by {@link #toXML()};
+	 * sub-classes should override this method to stream their XML, including
+	 * the error and the extensions data, without building intermediate
+	 * Strings.
+	 * 
+	 * @param buf
+	 *            the target to write the XML to.
+	 * @throws IOException
+	 *             if writing to the target fails.
+	 */
+	@Override
+	public void toXML(Appendable buf) throws IOException {
+		buf.append(toXML());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack.packet;
+
+/**
+ * A ping as defined by XEP-0199. The entity that receives a ping answers with
+ * an empty IQ result, or with an error if it doesn't support pings. Either
+ * answer proves that the stream is alive.
+ * 
+ * @see <a href="http://xmpp.org/extensions/xep-0199.html">XEP-0199: XMPP
+ *      Ping</a>
+ */
+public class Ping extends IQ {
+
+	public static final String ELEMENT_NAME = "ping";
+
+	public static final String NAMESPACE = "urn:xmpp:ping";
+
+	/**
+	 * Creates a ping to the server.
+	 */
+	public Ping() {
+		setType(IQ.Type.GET);
+	}
+
+	@Override
+	public String getChildElementXML() {
+		return "<" + ELEMENT_NAME + " xmlns=\"" + NAMESPACE + "\"/>";
+	}
+}
@@ -20,6 +20,8 @@
 
 package org.jivesoftware.smack.packet;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.util.StringUtils;
 
 /**
@@ -341,7 +343,11 @@ public class Presence extends Packet {
 
 	@Override
 	public String toXML() {
-		final StringBuilder buf = new StringBuilder();
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
 		buf.append("<presence");
 		if (getXmlns() != null) {
 			buf.append(" xmlns=\"").append(getXmlns()).append("\"");
@@ -353,38 +359,40 @@ public class Presence extends Packet {
 			buf.append(" id=\"").append(getPacketID()).append("\"");
 		}
 		if (getTo() != null) {
-			buf.append(" to=\"").append(StringUtils.escapeForXML(getTo()))
-					.append("\"");
+			buf.append(" to=\"");
+			StringUtils.escapeForXML(getTo(), buf);
+			buf.append("\"");
 		}
 		if (getFrom() != null) {
-			buf.append(" from=\"").append(StringUtils.escapeForXML(getFrom()))
-					.append("\"");
+			buf.append(" from=\"");
+			StringUtils.escapeForXML(getFrom(), buf);
+			buf.append("\"");
 		}
 		if (type != Type.available) {
-			buf.append(" type=\"").append(type).append("\"");
+			buf.append(" type=\"").append(type.toString()).append("\"");
 		}
 		buf.append(">");
 		if (status != null) {
-			buf.append("<status>").append(StringUtils.escapeForXML(status))
-					.append("</status>");
+			buf.append("<status>");
+			StringUtils.escapeForXML(status, buf);
+			buf.append("</status>");
 		}
 		if (priority != Integer.MIN_VALUE) {
-			buf.append("<priority>").append(priority).append("</priority>");
+			buf.append("<priority>").append(Integer.toString(priority))
+					.append("</priority>");
 		}
 		if (mode != null && mode != Mode.available) {
-			buf.append("<show>").append(mode).append("</show>");
+			buf.append("<show>").append(mode.toString()).append("</show>");
 		}
 
-		buf.append(getExtensionsXML());
+		appendExtensionsXML(buf);
 
 		// Add the error sub-packet, if there is one.
 		final XMPPError error = getError();
 		if (error != null) {
-			buf.append(error.toXML());
+			error.toXML(buf);
 		}
 
 		buf.append("</presence>");
-
-		return buf.toString();
 	}
 }
\ No newline at end of file
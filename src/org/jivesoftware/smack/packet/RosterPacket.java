@@ -267,6 +267,7 @@ public class RosterPacket extends IQ {
 	}
 
 	private final List<Item> rosterItems = new ArrayList<Item>();
+	private String version;
 
 	/**
 	 * Adds a roster item to the packet.
@@ -283,7 +284,12 @@ public class RosterPacket extends IQ {
 	@Override
 	public String getChildElementXML() {
 		final StringBuilder buf = new StringBuilder();
-		buf.append("<query xmlns=\"jabber:iq:roster\">");
+		buf.append("<query xmlns=\"jabber:iq:roster\"");
+		if (version != null) {
+			buf.append(" ver=\"").append(StringUtils.escapeForXML(version))
+					.append("\"");
+		}
+		buf.append(">");
 		synchronized (rosterItems) {
 			for (final Item entry : rosterItems) {
 				buf.append(entry.toXML());
@@ -315,4 +321,27 @@ public class RosterPacket extends IQ {
 					.unmodifiableList(new ArrayList<Item>(rosterItems));
 		}
 	}
+
+	/**
+	 * Returns the roster version (XEP-0237) of the packet, or <tt>null</tt> if
+	 * the packet carries no version.
+	 * 
+	 * @return the roster version or <tt>null</tt>.
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the roster version (XEP-0237). In a roster request the version
+	 * tells the server which roster the client has stored, an empty string
+	 * requests the complete roster. In a roster result or push it is the
+	 * version the roster has after the packet was applied.
+	 * 
+	 * @param version
+	 *            the roster version or <tt>null</tt>.
+	 */
+	public void setVersion(String version) {
+		this.version = version;
+	}
 }
@@ -0,0 +1,44 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smack.packet;
+
+import java.io.IOException;
+
+/**
+ * Implemented by packets and packet extensions that are able to write their
+ * XML representation directly into an {@link Appendable}, such as the writer
+ * of the connection. Parents stream their children into the same target
+ * instead of concatenating the Strings returned by <tt>toXML()</tt>, so a
+ * stanza is serialized without intermediate copies.
+ * <p>
+ * 
+ * Packet extensions that do not implement this interface are still supported,
+ * their <tt>toXML()</tt> String is appended as a whole.
+ * 
+ * @see org.jivesoftware.smack.util.StringUtils#appendXML(Appendable,
+ *      PacketExtension)
+ */
+public interface XMLStreamable {
+
+	/**
+	 * Writes the XML representation of this object to the given target.
+	 * 
+	 * @param buf
+	 *            the target to write the XML to.
+	 * @throws IOException
+	 *             if writing to the target fails.
+	 */
+	public void toXML(Appendable buf) throws IOException;
+}
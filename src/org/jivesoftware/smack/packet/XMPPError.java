@@ -20,12 +20,15 @@
 
 package org.jivesoftware.smack.packet;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.jivesoftware.smack.util.StringUtils;
+
 /**
  * Represents a XMPP error sub-packet. Typically, a server responds to a request
  * that has problems by sending the packet back and including an error packet.
@@ -163,7 +166,7 @@ import java.util.Map;
  * 
  * @author Matt Tucker
  */
-public class XMPPError {
+public class XMPPError implements XMLStreamable {
 
 	/**
 	 * A class to represent predefined error conditions.
@@ -592,8 +595,21 @@ public class XMPPError {
 	 * @return the error as XML.
 	 */
 	public String toXML() {
-		final StringBuilder buf = new StringBuilder();
-		buf.append("<error code=\"").append(code).append("\"");
+		return StringUtils.toXML(this);
+	}
+
+	/**
+	 * Writes the error as XML to the given target.
+	 * 
+	 * @param buf
+	 *            the target to write the XML to.
+	 * @throws IOException
+	 *             if writing to the target fails.
+	 */
+	@Override
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<error code=\"").append(Integer.toString(code))
+				.append("\"");
 		if (type != null) {
 			buf.append(" type=\"");
 			buf.append(type.name());
@@ -610,9 +626,8 @@ public class XMPPError {
 			buf.append("</text>");
 		}
 		for (final PacketExtension element : getExtensions()) {
-			buf.append(element.toXML());
+			StringUtils.appendXML(buf, element);
 		}
 		buf.append("</error>");
-		return buf.toString();
 	}
 }
@@ -19,6 +19,11 @@ class DirectSocketFactory extends SocketFactory {
 	public DirectSocketFactory() {
 	}
 
+	@Override
+	public Socket createSocket() throws IOException {
+		return new Socket(Proxy.NO_PROXY);
+	}
+
 	@Override
 	public Socket createSocket(InetAddress host, int port) throws IOException {
 		final Socket newSocket = new Socket(Proxy.NO_PROXY);
@@ -19,17 +19,33 @@
 
 package org.jivesoftware.smack.util;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Hashtable;
-import java.util.Map;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import org.apache.harmony.javax.naming.NamingEnumeration;
 import org.apache.harmony.javax.naming.directory.Attribute;
 import org.apache.harmony.javax.naming.directory.Attributes;
 import org.apache.harmony.javax.naming.directory.DirContext;
 import org.apache.harmony.javax.naming.directory.InitialDirContext;
+import org.apache.harmony.jndi.provider.dns.Resolver;
 
 /**
  * Utilty class to perform DNS lookups for XMPP services.
+ * <p>
+ * 
+ * The lookups go through the DNS provider, which caches the records
+ * according to their TTL and shares it between all lookups. Lookups of names
+ * that don't exist are cached as well, expired records are served while they
+ * are refreshed in the background.
  * 
  * @author Matt Tucker
  */
@@ -42,10 +58,26 @@ public class DNSUtil {
 
 		private final String host;
 		private final int port;
+		private final int priority;
+		private final int weight;
+
+		/**
+		 * Creates an address that wasn't looked up in a SRV record.
+		 * 
+		 * @param host
+		 *            the hostname.
+		 * @param port
+		 *            the port.
+		 */
+		public HostAddress(String host, int port) {
+			this(host, port, 0, 0);
+		}
 
-		private HostAddress(String host, int port) {
+		private HostAddress(String host, int port, int priority, int weight) {
 			this.host = host;
 			this.port = port;
+			this.priority = priority;
+			this.weight = weight;
 		}
 
 		@Override
@@ -83,77 +115,180 @@ public class DNSUtil {
 			return port;
 		}
 
+		/**
+		 * Returns the priority of the SRV record, lower values are preferred.
+		 * 
+		 * @return the priority, or 0 if the address wasn't looked up in a SRV
+		 *         record.
+		 */
+		public int getPriority() {
+			return priority;
+		}
+
+		/**
+		 * Returns the weight of the SRV record among the records of the same
+		 * priority.
+		 * 
+		 * @return the weight, or 0 if the address wasn't looked up in a SRV
+		 *         record.
+		 */
+		public int getWeight() {
+			return weight;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * host.hashCode() + port;
+		}
+
 		@Override
 		public String toString() {
 			return host + ":" + port;
 		}
 	}
 
+	private static final Random random = new Random();
+
+	// The nameservers the context was created for
+	private static String nameservers = "";
+
+	private static DirContext context;
+
 	/**
-	 * Create a cache to hold the 100 most recently accessed DNS lookups for a
-	 * period of 10 minutes.
+	 * Orders the SRV records of a single priority by the weighted random
+	 * selection described in RFC 2782, so records with a higher weight are
+	 * more likely to come first.
+	 * 
+	 * @param records
+	 *            the records of the same priority, emptied by this method.
+	 * @param ordered
+	 *            the list the ordered records are added to.
 	 */
-	private static Map<String, HostAddress> cache = new Cache<String, HostAddress>(
-			100, 1000 * 60 * 10);
+	private static void addWeighted(List<HostAddress> records,
+			List<HostAddress> ordered) {
+		while (!records.isEmpty()) {
+			int total = 0;
+			for (final HostAddress record : records) {
+				total += record.weight;
+			}
+			int index = 0;
+			if (total > 0) {
+				// Records with a weight of 0 are only chosen last
+				int selected = random.nextInt(total) + 1;
+				while (index < records.size() - 1
+						&& (selected -= records.get(index).weight) > 0) {
+					index++;
+				}
+			} else {
+				index = random.nextInt(records.size());
+			}
+			ordered.add(records.remove(index));
+		}
+	}
 
-	private static DirContext context;
+	/**
+	 * Returns the context to look up records with. The nameservers of the
+	 * system change with the network, so they are read on every lookup. The
+	 * context is created again when they changed, and the negative answers of
+	 * the previous nameservers are dropped from the cache.
+	 * 
+	 * @return the context, or null if no nameserver is known.
+	 */
+	private static synchronized DirContext getContext() {
+		final String servers = getNameservers();
+		if (servers.equals(nameservers)) {
+			return context;
+		}
+		DirContext newContext = null;
+		if (servers.length() > 0) {
+			try {
+				final Hashtable<String, String> env = new Hashtable<String, String>();
+				env.put("java.naming.factory.initial",
+						"org.apache.harmony.jndi.provider.dns.DNSContextFactory");
+				env.put("java.naming.provider.url", servers);
+				newContext = new InitialDirContext(env);
+			} catch (final Exception e) {
+				// Ignore, tried again with the next lookup.
+				return context;
+			}
+		}
+		nameservers = servers;
+		context = newContext;
+		Resolver.clearNegativeCache();
+		return context;
+	}
 
-	static {
+	/**
+	 * Returns the DNS servers of the system as DNS URLs separated by spaces.
+	 * The servers are taken from the Android system properties and from
+	 * /etc/resolv.conf. IPv6 servers are skipped because the DNS provider
+	 * doesn't support them.
+	 * 
+	 * @return the DNS URLs, or an empty string if no server is known.
+	 */
+	private static String getNameservers() {
+		final Set<String> servers = new LinkedHashSet<String>();
+		try {
+			final Method get = Class.forName("android.os.SystemProperties")
+					.getMethod("get", String.class);
+			for (int i = 1; i <= 4; i++) {
+				final String server = (String) get.invoke(null, "net.dns" + i);
+				if (server != null && server.length() > 0) {
+					servers.add(server);
+				}
+			}
+		} catch (final Exception e) {
+			// Not running on Android.
+		}
 		try {
-			final Hashtable<String, String> env = new Hashtable<String, String>();
-			env.put("java.naming.factory.initial",
-					"com.sun.jndi.dns.DnsContextFactory");
-			context = new InitialDirContext(env);
+			final BufferedReader reader = new BufferedReader(new FileReader(
+					"/etc/resolv.conf"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final String[] fields = line.trim().split("\\s+");
+					if (fields.length >= 2 && fields[0].equals("nameserver")) {
+						servers.add(fields[1]);
+					}
+				}
+			} finally {
+				reader.close();
+			}
 		} catch (final Exception e) {
 			// Ignore.
 		}
+		final StringBuilder urls = new StringBuilder();
+		for (final String server : servers) {
+			if (server.indexOf(':') == -1) {
+				if (urls.length() > 0) {
+					urls.append(' ');
+				}
+				urls.append("dns://").append(server);
+			}
+		}
+		return urls.toString();
 	}
 
 	/**
-	 * Returns the host name and port that the specified XMPP server can be
-	 * reached at for client-to-server communication. A DNS lookup for a SRV
-	 * record in the form "_xmpp-client._tcp.example.com" is attempted,
-	 * according to section 14.4 of RFC 3920. If that lookup fails, a lookup in
-	 * the older form of "_jabber._tcp.example.com" is attempted since servers
-	 * that implement an older version of the protocol may be listed using that
-	 * notation. If that lookup fails as well, it's assumed that the XMPP server
-	 * lives at the host resolved by a DNS lookup at the specified domain on the
-	 * default port of 5222.
-	 * <p>
-	 * 
-	 * As an example, a lookup for "example.com" may return
-	 * "im.example.com:5269".
+	 * Looks up the SRV records of a service and orders them by priority,
+	 * records of the same priority are shuffled by their weight as described
+	 * in RFC 2782.
 	 * 
-	 * Note on SRV record selection. We now check priority and weight, but we
-	 * still don't do this correctly. The missing behavior is this: if we fail
-	 * to reach a host based on its SRV record then we need to select another
-	 * host from the other SRV records. In Smack 3.1.1 we're not going to be
-	 * able to do the major system redesign to correct this.
-	 * 
-	 * @param domain
-	 *            the domain.
-	 * @return a HostAddress, which encompasses the hostname and port that the
-	 *         XMPP server can be reached at for the specified domain.
+	 * @param name
+	 *            the name of the service, e.g.
+	 *            "_xmpp-client._tcp.example.com".
+	 * @return the targets of the records in the order they should be tried,
+	 *         empty if the lookup failed.
 	 */
-	public static HostAddress resolveXMPPDomain(String domain) {
+	private static List<HostAddress> resolveSRV(String name) {
+		final DirContext context = getContext();
 		if (context == null) {
-			return new HostAddress(domain, 5222);
+			return Collections.emptyList();
 		}
-		final String key = "c" + domain;
-		// Return item from cache if it exists.
-		if (cache.containsKey(key)) {
-			final HostAddress address = cache.get(key);
-			if (address != null) {
-				return address;
-			}
-		}
-		String bestHost = domain;
-		int bestPort = 5222;
-		int bestPriority = 0;
-		int bestWeight = 0;
+		final List<HostAddress> records = new ArrayList<HostAddress>();
 		try {
-			final Attributes dnsLookup = context.getAttributes(
-					"_xmpp-client._tcp." + domain, new String[] { "SRV" });
+			final Attributes dnsLookup = context.getAttributes(name,
+					new String[] { "SRV" });
 			final Attribute srvAttribute = dnsLookup.get("SRV");
 			final NamingEnumeration<?> srvRecords = srvAttribute.getAll();
 			while (srvRecords.hasMore()) {
@@ -161,43 +296,106 @@ public class DNSUtil {
 				final String[] srvRecordEntries = srvRecord.split(" ");
 				final int priority = Integer
 						.parseInt(srvRecordEntries[srvRecordEntries.length - 4]);
+				final int weight = Integer
+						.parseInt(srvRecordEntries[srvRecordEntries.length - 3]);
 				final int port = Integer
 						.parseInt(srvRecordEntries[srvRecordEntries.length - 2]);
-				int weight = Integer
-						.parseInt(srvRecordEntries[srvRecordEntries.length - 3]);
-				final String host = srvRecordEntries[srvRecordEntries.length - 1];
-
-				// Randomize the weight.
-				weight *= Math.random() * weight;
-
-				if ((bestPriority == 0) || (priority < bestPriority)) {
-					// Choose a server with the lowest priority.
-					bestPriority = priority;
-					bestWeight = weight;
-					bestHost = host;
-					bestPort = port;
-				} else if (priority == bestPriority) {
-					// When we have like priorities then randomly choose a
-					// server based on its weight
-					// The weights were randomized above.
-					if (weight > bestWeight) {
-						bestWeight = weight;
-						bestHost = host;
-						bestPort = port;
-					}
+				String host = srvRecordEntries[srvRecordEntries.length - 1];
+				// A target of "." means the service is not available
+				if (host.equals(".")) {
+					continue;
+				}
+				// Host entries in DNS should end with a ".".
+				if (host.endsWith(".")) {
+					host = host.substring(0, host.length() - 1);
 				}
+				records.add(new HostAddress(host, port, priority, weight));
 			}
 		} catch (final Exception e) {
 			// Ignore.
 		}
-		// Host entries in DNS should end with a ".".
-		if (bestHost.endsWith(".")) {
-			bestHost = bestHost.substring(0, bestHost.length() - 1);
+		Collections.sort(records, new Comparator<HostAddress>() {
+
+			@Override
+			public int compare(HostAddress a, HostAddress b) {
+				return a.priority < b.priority ? -1
+						: a.priority == b.priority ? 0 : 1;
+			}
+		});
+		final List<HostAddress> ordered = new ArrayList<HostAddress>(
+				records.size());
+		int from = 0;
+		while (from < records.size()) {
+			int to = from + 1;
+			while (to < records.size()
+					&& records.get(to).priority == records.get(from).priority) {
+				to++;
+			}
+			addWeighted(new ArrayList<HostAddress>(records.subList(from, to)),
+					ordered);
+			from = to;
 		}
-		final HostAddress address = new HostAddress(bestHost, bestPort);
-		// Add item to cache.
-		cache.put(key, address);
-		return address;
+		return Collections.unmodifiableList(ordered);
+	}
+
+	/**
+	 * Returns all host names and ports that the specified XMPP server can be
+	 * reached at for client-to-server communication, in the order they should
+	 * be tried. A DNS lookup for SRV records in the form
+	 * "_xmpp-client._tcp.example.com" is attempted, according to section 14.4
+	 * of RFC 3920. The records are ordered by priority, records of the same
+	 * priority are shuffled by their weight as described in RFC 2782. If the
+	 * lookup fails, it's assumed that the XMPP server lives at the host
+	 * resolved by a DNS lookup at the specified domain on the default port of
+	 * 5222.
+	 * 
+	 * @param domain
+	 *            the domain.
+	 * @return the addresses of the XMPP server, never empty.
+	 */
+	public static List<HostAddress> resolveXMPPClientAddresses(String domain) {
+		final List<HostAddress> addresses = resolveSRV("_xmpp-client._tcp."
+				+ domain);
+		if (addresses.isEmpty()) {
+			return Collections.singletonList(new HostAddress(domain, 5222));
+		}
+		return addresses;
+	}
+
+	/**
+	 * Returns the host name and port that the specified XMPP server can be
+	 * reached at for client-to-server communication. This is the first of the
+	 * addresses returned by {@link #resolveXMPPClientAddresses(String)}.
+	 * <p>
+	 * 
+	 * As an example, a lookup for "example.com" may return
+	 * "im.example.com:5269".
+	 * 
+	 * @param domain
+	 *            the domain.
+	 * @return a HostAddress, which encompasses the hostname and port that the
+	 *         XMPP server can be reached at for the specified domain.
+	 */
+	public static HostAddress resolveXMPPDomain(String domain) {
+		return resolveXMPPClientAddresses(domain).get(0);
+	}
+
+	/**
+	 * Returns the host names and ports that the specified XMPP server accepts
+	 * TLS connections at without STARTTLS negotiation (XEP-0368), in the order
+	 * they should be tried. A DNS lookup for SRV records in the form
+	 * "_xmpps-client._tcp.example.com" is attempted. Unlike
+	 * {@link #resolveXMPPClientAddresses(String)} there is no fallback, the
+	 * result is empty if the server doesn't publish such records.
+	 * 
+	 * @param domain
+	 *            the domain.
+	 * @return the addresses for direct TLS, possibly empty.
+	 * @see <a href="http://xmpp.org/extensions/xep-0368.html">XEP-0368:
+	 *      SRV records for XMPP over TLS</a>
+	 */
+	public static List<HostAddress> resolveXMPPSClientAddresses(String domain) {
+		return resolveSRV("_xmpps-client._tcp." + domain);
 	}
 
 	/**
@@ -221,17 +419,10 @@ public class DNSUtil {
 	 *         XMPP server can be reached at for the specified domain.
 	 */
 	public static HostAddress resolveXMPPServerDomain(String domain) {
+		final DirContext context = getContext();
 		if (context == null) {
 			return new HostAddress(domain, 5269);
 		}
-		final String key = "s" + domain;
-		// Return item from cache if it exists.
-		if (cache.containsKey(key)) {
-			final HostAddress address = cache.get(key);
-			if (address != null) {
-				return address;
-			}
-		}
 		String host = domain;
 		int port = 5269;
 		try {
@@ -260,9 +451,6 @@ public class DNSUtil {
 		if (host.endsWith(".")) {
 			host = host.substring(0, host.length() - 1);
 		}
-		final HostAddress address = new HostAddress(host, port);
-		// Add item to cache.
-		cache.put(key, address);
-		return address;
+		return new HostAddress(host, port);
 	}
 }
\ No newline at end of file
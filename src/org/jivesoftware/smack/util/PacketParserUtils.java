@@ -37,6 +37,7 @@ import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.Ping;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Registration;
 import org.jivesoftware.smack.packet.RosterPacket;
@@ -295,6 +296,9 @@ public class PacketParserUtils {
 				} else if (elementName.equals("bind")
 						&& namespace.equals("urn:ietf:params:xml:ns:xmpp-bind")) {
 					iqPacket = parseResourceBinding(parser);
+				} else if (elementName.equals(Ping.ELEMENT_NAME)
+						&& namespace.equals(Ping.NAMESPACE)) {
+					iqPacket = new Ping();
 				}
 				// Otherwise, see if there is a registered provider for
 				// this element name and namespace.
@@ -777,30 +781,55 @@ public class PacketParserUtils {
 	private static RosterPacket parseRoster(XmlPullParser parser)
 			throws Exception {
 		final RosterPacket roster = new RosterPacket();
+		roster.setVersion(parser.getAttributeValue("", "ver"));
 		boolean done = false;
-		RosterPacket.Item item = null;
 		while (!done) {
 			final int eventType = parser.next();
 			if (eventType == XmlPullParser.START_TAG) {
 				if (parser.getName().equals("item")) {
-					final String jid = parser.getAttributeValue("", "jid");
-					final String name = parser.getAttributeValue("", "name");
-					// Create packet.
-					item = new RosterPacket.Item(jid, name);
-					// Set status.
-					final String ask = parser.getAttributeValue("", "ask");
-					final RosterPacket.ItemStatus status = RosterPacket.ItemStatus
-							.fromString(ask);
-					item.setItemStatus(status);
-					// Set type.
-					final String subscription = parser.getAttributeValue("",
-							"subscription");
-					final RosterPacket.ItemType type = RosterPacket.ItemType
-							.valueOf(subscription != null ? subscription
-									: "none");
-					item.setItemType(type);
-				}
-				if (parser.getName().equals("group") && item != null) {
+					roster.addRosterItem(parseRosterItem(parser));
+				}
+			} else if (eventType == XmlPullParser.END_TAG) {
+				if (parser.getName().equals("query")) {
+					done = true;
+				}
+			}
+		}
+		return roster;
+	}
+
+	/**
+	 * Parses a roster item. The parser must be positioned on the start tag of
+	 * the item and is positioned on its end tag afterwards.
+	 * 
+	 * @param parser
+	 *            the XML parser.
+	 * @return the roster item.
+	 * @throws Exception
+	 *             if an exception occurs while parsing the item.
+	 */
+	public static RosterPacket.Item parseRosterItem(XmlPullParser parser)
+			throws Exception {
+		final String jid = parser.getAttributeValue("", "jid");
+		final String name = parser.getAttributeValue("", "name");
+		// Create packet.
+		final RosterPacket.Item item = new RosterPacket.Item(jid, name);
+		// Set status.
+		final String ask = parser.getAttributeValue("", "ask");
+		final RosterPacket.ItemStatus status = RosterPacket.ItemStatus
+				.fromString(ask);
+		item.setItemStatus(status);
+		// Set type.
+		final String subscription = parser.getAttributeValue("",
+				"subscription");
+		final RosterPacket.ItemType type = RosterPacket.ItemType
+				.valueOf(subscription != null ? subscription : "none");
+		item.setItemType(type);
+		boolean done = false;
+		while (!done) {
+			final int eventType = parser.next();
+			if (eventType == XmlPullParser.START_TAG) {
+				if (parser.getName().equals("group")) {
 					final String groupName = parser.nextText();
 					if (groupName != null && groupName.trim().length() > 0) {
 						item.addGroupName(groupName);
@@ -808,14 +837,11 @@ public class PacketParserUtils {
 				}
 			} else if (eventType == XmlPullParser.END_TAG) {
 				if (parser.getName().equals("item")) {
-					roster.addRosterItem(item);
-				}
-				if (parser.getName().equals("query")) {
 					done = true;
 				}
 			}
 		}
-		return roster;
+		return item;
 	}
 
 	/**
@@ -20,6 +20,7 @@
 
 package org.jivesoftware.smack.util;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -30,6 +31,9 @@ import java.util.Date;
 import java.util.Random;
 import java.util.TimeZone;
 
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.XMLStreamable;
+
 /**
  * A collection of utility methods for String objects.
  */
@@ -77,6 +81,31 @@ public class StringUtils {
 	private static char[] numbersAndLetters = ("0123456789abcdefghijklmnopqrstuvwxyz"
 			+ "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ").toCharArray();
 
+	/**
+	 * Writes the XML representation of a packet extension to the given target.
+	 * Extensions that implement {@link XMLStreamable} are streamed directly,
+	 * for all others the String returned by {@link PacketExtension#toXML()} is
+	 * appended.
+	 * 
+	 * @param out
+	 *            the target to write the XML to.
+	 * @param extension
+	 *            the packet extension to write.
+	 * @throws IOException
+	 *             if writing to the target fails.
+	 */
+	public static void appendXML(Appendable out, PacketExtension extension)
+			throws IOException {
+		if (extension instanceof XMLStreamable) {
+			((XMLStreamable) extension).toXML(out);
+		} else {
+			final String xml = extension.toXML();
+			if (xml != null) {
+				out.append(xml);
+			}
+		}
+	}
+
 	/**
 	 * Decodes a base64 String.
 	 * 
@@ -241,6 +270,78 @@ public class StringUtils {
 		return out.toString();
 	}
 
+	/**
+	 * Escapes all necessary characters in the String and writes the result to
+	 * the given target. Unlike {@link #escapeForXML(String)} no intermediate
+	 * String is created, unescaped runs of the input are appended as they are.
+	 * Nothing is written if the string is <tt>null</tt>.
+	 * 
+	 * @param string
+	 *            the string to escape.
+	 * @param out
+	 *            the target to write the escaped string to.
+	 * @throws IOException
+	 *             if writing to the target fails.
+	 */
+	public static void escapeForXML(String string, Appendable out)
+			throws IOException {
+		if (string == null) {
+			return;
+		}
+		char ch;
+		int i = 0;
+		int last = 0;
+		final int len = string.length();
+		for (; i < len; i++) {
+			ch = string.charAt(i);
+			if (ch > '>') {
+			} else if (ch == '<') {
+				if (i > last) {
+					out.append(string, last, i);
+				}
+				last = i + 1;
+				out.append("&lt;");
+			} else if (ch == '>') {
+				if (i > last) {
+					out.append(string, last, i);
+				}
+				last = i + 1;
+				out.append("&gt;");
+			} else if (ch == '&') {
+				if (i > last) {
+					out.append(string, last, i);
+				}
+				// Do nothing if the string is of the form &#235; (unicode
+				// value)
+				if (!(len > i + 5 && string.charAt(i + 1) == '#'
+						&& Character.isDigit(string.charAt(i + 2))
+						&& Character.isDigit(string.charAt(i + 3))
+						&& Character.isDigit(string.charAt(i + 4)) && string
+						.charAt(i + 5) == ';')) {
+					last = i + 1;
+					out.append("&amp;");
+				} else {
+					last = i;
+				}
+			} else if (ch == '"') {
+				if (i > last) {
+					out.append(string, last, i);
+				}
+				last = i + 1;
+				out.append("&quot;");
+			} else if (ch == '\'') {
+				if (i > last) {
+					out.append(string, last, i);
+				}
+				last = i + 1;
+				out.append("&apos;");
+			}
+		}
+		if (i > last) {
+			out.append(string, last, i);
+		}
+	}
+
 	/**
 	 * Escapes the node portion of a JID according to "JID Escaping" (JEP-0106).
 	 * Escaping replaces characters prohibited by node-prep with escape
@@ -542,6 +643,26 @@ public class StringUtils {
 		return new String(randBuffer);
 	}
 
+	/**
+	 * Returns the XML representation of the given object as a String. This is
+	 * the compatibility path for callers of <tt>toXML()</tt>; the connection
+	 * streams the XML without building the String.
+	 * 
+	 * @param streamable
+	 *            the object to serialize.
+	 * @return the XML representation of the object.
+	 */
+	public static String toXML(XMLStreamable streamable) {
+		final StringBuilder buf = new StringBuilder();
+		try {
+			streamable.toXML(buf);
+		} catch (final IOException e) {
+			// Can't happen, a StringBuilder never throws
+			throw new IllegalStateException(e);
+		}
+		return buf.toString();
+	}
+
 	/**
 	 * Un-escapes the node portion of a JID according to "JID Escaping"
 	 * (JEP-0106).
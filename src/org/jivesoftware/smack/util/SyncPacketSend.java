@@ -19,6 +19,7 @@ import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.filter.PacketIDFilter;
+import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Packet;
 
 /**
@@ -36,6 +37,11 @@ final public class SyncPacketSend {
 
 	static public Packet getReply(Connection connection, Packet packet,
 			long timeout) throws XMPPException {
+		if (packet instanceof IQ) {
+			// Let the packet reader complete the request instead of scanning
+			// a packet collector
+			return connection.sendIqAsync((IQ) packet, timeout).getResult();
+		}
 		final PacketFilter responseFilter = new PacketIDFilter(
 				packet.getPacketID());
 		final PacketCollector response = connection
@@ -0,0 +1,476 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.Connection;
+import org.jivesoftware.smack.PacketInterceptor;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketTypeFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smackx.packet.CapsExtension;
+import org.jivesoftware.smackx.packet.DataForm;
+import org.jivesoftware.smackx.packet.DiscoverInfo;
+
+/**
+ * Implements entity capabilities as defined by XEP-0115. Every available
+ * presence sent by the connection carries the verification string of the own
+ * service discovery information, and the verification strings of other
+ * entities are taken from the presence packets they send.
+ * <p>
+ * 
+ * Service discovery information that was verified against its verification
+ * string is cached in memory, and optionally in an
+ * {@link EntityCapsPersistentCache}. The cache is shared by all connections
+ * because many entities run the same software, so
+ * {@link ServiceDiscoveryManager#discoverInfo(String)} only has to ask the
+ * first entity with a given verification string.
+ * 
+ * @see <a href="http://xmpp.org/extensions/xep-0115.html">XEP-0115: Entity
+ *      Capabilities</a>
+ */
+public class EntityCapsManager {
+
+	/**
+	 * The hash function used for the own verification string.
+	 */
+	public static final String HASH_METHOD = "sha-1";
+
+	private static String capsNode = "http://www.igniterealtime.org/projects/smack/";
+
+	private static int cacheSize = 500;
+
+	/**
+	 * The verified service discovery information mapped by verification
+	 * string, least recently used first.
+	 */
+	private static final Map<String, DiscoverInfo> caps = new LinkedHashMap<String, DiscoverInfo>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, DiscoverInfo> eldest) {
+			return size() > cacheSize;
+		}
+	};
+
+	private static volatile EntityCapsPersistentCache persistentCache;
+
+	private static final Comparator<DiscoverInfo.Identity> IDENTITY_COMPARATOR = new Comparator<DiscoverInfo.Identity>() {
+
+		@Override
+		public int compare(DiscoverInfo.Identity i1, DiscoverInfo.Identity i2) {
+			int result = compareStrings(i1.getCategory(), i2.getCategory());
+			if (result == 0) {
+				result = compareStrings(i1.getType(), i2.getType());
+			}
+			if (result == 0) {
+				result = compareStrings(i1.getName(), i2.getName());
+			}
+			return result;
+		}
+	};
+
+	private static final Comparator<FormField> FIELD_COMPARATOR = new Comparator<FormField>() {
+
+		@Override
+		public int compare(FormField f1, FormField f2) {
+			return compareStrings(f1.getVariable(), f2.getVariable());
+		}
+	};
+
+	/**
+	 * Adds verified service discovery information to the caches.
+	 * 
+	 * @param ver
+	 *            the verification string.
+	 * @param info
+	 *            the service discovery information.
+	 */
+	static void addDiscoverInfoByVer(String ver, DiscoverInfo info) {
+		synchronized (caps) {
+			caps.put(ver, info);
+		}
+		final EntityCapsPersistentCache cache = persistentCache;
+		if (cache != null) {
+			cache.addDiscoverInfo(ver, info);
+		}
+	}
+
+	private static int compareStrings(String s1, String s2) {
+		if (s1 == null) {
+			return s2 == null ? 0 : -1;
+		}
+		return s2 == null ? 1 : s1.compareTo(s2);
+	}
+
+	/**
+	 * Generates the verification string of service discovery information as
+	 * described in XEP-0115 section 5.
+	 * 
+	 * @param info
+	 *            the service discovery information.
+	 * @param hash
+	 *            the hash function, only "sha-1" is supported.
+	 * @return the verification string or <tt>null</tt> if the hash function
+	 *         is not supported.
+	 */
+	public static String generateVerificationString(DiscoverInfo info,
+			String hash) {
+		if (!HASH_METHOD.equalsIgnoreCase(hash)) {
+			return null;
+		}
+		final StringBuilder s = new StringBuilder();
+
+		// Identities sorted by category, type, xml:lang and name
+		final List<DiscoverInfo.Identity> identities = new ArrayList<DiscoverInfo.Identity>();
+		for (final Iterator<DiscoverInfo.Identity> it = info.getIdentities(); it
+				.hasNext();) {
+			identities.add(it.next());
+		}
+		Collections.sort(identities, IDENTITY_COMPARATOR);
+		for (final DiscoverInfo.Identity identity : identities) {
+			s.append(nullToEmpty(identity.getCategory())).append('/')
+					.append(nullToEmpty(identity.getType())).append("//")
+					.append(nullToEmpty(identity.getName())).append('<');
+		}
+
+		// Features sorted by their variable
+		final List<String> features = new ArrayList<String>();
+		for (final Iterator<DiscoverInfo.Feature> it = info.getFeatures(); it
+				.hasNext();) {
+			features.add(it.next().getVar());
+		}
+		Collections.sort(features);
+		for (final String feature : features) {
+			s.append(feature).append('<');
+		}
+
+		// Extended information sorted by FORM_TYPE, with the fields of every
+		// form sorted by their variable
+		final Map<String, DataForm> forms = new TreeMap<String, DataForm>();
+		for (final PacketExtension extension : info.getExtensions()) {
+			if (extension instanceof DataForm) {
+				final DataForm form = (DataForm) extension;
+				final String formType = getFormType(form);
+				if (formType != null) {
+					forms.put(formType, form);
+				}
+			}
+		}
+		for (final Map.Entry<String, DataForm> entry : forms.entrySet()) {
+			s.append(entry.getKey()).append('<');
+			final List<FormField> fields = new ArrayList<FormField>();
+			for (final Iterator<FormField> it = entry.getValue().getFields(); it
+					.hasNext();) {
+				final FormField field = it.next();
+				if (!"FORM_TYPE".equals(field.getVariable())) {
+					fields.add(field);
+				}
+			}
+			Collections.sort(fields, FIELD_COMPARATOR);
+			for (final FormField field : fields) {
+				s.append(field.getVariable()).append('<');
+				final List<String> values = new ArrayList<String>();
+				for (final Iterator<String> it = field.getValues(); it
+						.hasNext();) {
+					values.add(it.next());
+				}
+				Collections.sort(values);
+				for (final String value : values) {
+					s.append(value).append('<');
+				}
+			}
+		}
+
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return StringUtils.encodeBase64(digest.digest(s.toString()
+					.getBytes("UTF-8")));
+		} catch (final NoSuchAlgorithmException e) {
+			return null;
+		} catch (final UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the node announced in the entity capabilities of this client.
+	 * 
+	 * @return the caps node.
+	 */
+	public static String getCapsNode() {
+		return capsNode;
+	}
+
+	/**
+	 * Returns verified service discovery information from the caches.
+	 * 
+	 * @param ver
+	 *            the verification string.
+	 * @return the service discovery information or <tt>null</tt> if the
+	 *         verification string is unknown.
+	 */
+	static DiscoverInfo getDiscoverInfoByVer(String ver) {
+		synchronized (caps) {
+			final DiscoverInfo info = caps.get(ver);
+			if (info != null) {
+				return info;
+			}
+		}
+		final EntityCapsPersistentCache cache = persistentCache;
+		if (cache == null) {
+			return null;
+		}
+		final DiscoverInfo info = cache.getDiscoverInfo(ver);
+		if (info != null) {
+			synchronized (caps) {
+				caps.put(ver, info);
+			}
+		}
+		return info;
+	}
+
+	private static String getFormType(DataForm form) {
+		for (final Iterator<FormField> it = form.getFields(); it.hasNext();) {
+			final FormField field = it.next();
+			if ("FORM_TYPE".equals(field.getVariable())) {
+				final Iterator<String> values = field.getValues();
+				return values.hasNext() ? values.next() : null;
+			}
+		}
+		return null;
+	}
+
+	private static String nullToEmpty(String s) {
+		return s == null ? "" : s;
+	}
+
+	/**
+	 * Sets the maximum number of verification strings kept in memory. The
+	 * default is 500.
+	 * 
+	 * @param size
+	 *            the maximum number of cached verification strings.
+	 */
+	public static void setCacheSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Cache size must be positive.");
+		}
+		synchronized (caps) {
+			cacheSize = size;
+		}
+	}
+
+	/**
+	 * Sets the node announced in the entity capabilities of this client. The
+	 * node should be a URI identifying the client software.
+	 * 
+	 * @param node
+	 *            the caps node.
+	 */
+	public static void setCapsNode(String node) {
+		capsNode = node;
+	}
+
+	/**
+	 * Sets the second level cache that keeps verified service discovery
+	 * information beyond the lifetime of the application.
+	 * 
+	 * @param cache
+	 *            the persistent cache, or <tt>null</tt> to keep the
+	 *            information in memory only.
+	 */
+	public static void setPersistentCache(EntityCapsPersistentCache cache) {
+		persistentCache = cache;
+	}
+
+	private final ServiceDiscoveryManager discoveryManager;
+
+	/**
+	 * The entity capabilities of the available entities, mapped by full JID.
+	 */
+	private final Map<String, CapsExtension> jidCaps = new ConcurrentHashMap<String, CapsExtension>();
+
+	/**
+	 * Creates the entity capabilities manager of a connection.
+	 * 
+	 * @param connection
+	 *            the connection.
+	 * @param discoveryManager
+	 *            the service discovery manager providing the own service
+	 *            discovery information.
+	 */
+	EntityCapsManager(Connection connection,
+			ServiceDiscoveryManager discoveryManager) {
+		this.discoveryManager = discoveryManager;
+
+		// Remember the entity capabilities of the available entities
+		connection.addPacketListener(new PacketListener() {
+
+			@Override
+			public void processPacket(Packet packet) {
+				final Presence presence = (Presence) packet;
+				final String from = presence.getFrom();
+				if (from == null) {
+					return;
+				}
+				if (presence.getType() == Presence.Type.available) {
+					final CapsExtension ext = (CapsExtension) presence
+							.getExtension(CapsExtension.ELEMENT_NAME,
+									CapsExtension.NAMESPACE);
+					if (ext != null && ext.getVer() != null) {
+						jidCaps.put(from, ext);
+					} else {
+						jidCaps.remove(from);
+					}
+				} else if (presence.getType() == Presence.Type.unavailable) {
+					jidCaps.remove(from);
+				}
+			}
+		}, new PacketTypeFilter(Presence.class));
+
+		// Announce the own entity capabilities in every available presence
+		connection.addPacketInterceptor(new PacketInterceptor() {
+
+			@Override
+			public void interceptPacket(Packet packet) {
+				final Presence presence = (Presence) packet;
+				if (presence.getType() == Presence.Type.available
+						&& presence.getExtension(CapsExtension.ELEMENT_NAME,
+								CapsExtension.NAMESPACE) == null) {
+					presence.addExtension(new CapsExtension(capsNode,
+							getCapsVersion(), HASH_METHOD));
+				}
+			}
+		}, new PacketTypeFilter(Presence.class));
+
+		connection.addConnectionListener(new AbstractConnectionListener() {
+
+			@Override
+			public void connectionClosed() {
+				jidCaps.clear();
+			}
+
+			@Override
+			public void connectionClosedOnError(Exception e) {
+				jidCaps.clear();
+			}
+		});
+	}
+
+	/**
+	 * Returns the entity capabilities an entity announced in its last
+	 * available presence.
+	 * 
+	 * @param jid
+	 *            the full JID of the entity.
+	 * @return the entity capabilities or <tt>null</tt>.
+	 */
+	public CapsExtension getCapsByUser(String jid) {
+		return jidCaps.get(jid);
+	}
+
+	/**
+	 * Returns the verification string of the own service discovery
+	 * information.
+	 * 
+	 * @return the own verification string.
+	 */
+	public String getCapsVersion() {
+		final DiscoverInfo info = new DiscoverInfo();
+		discoveryManager.addOwnDiscoverInfo(info);
+		return generateVerificationString(info, HASH_METHOD);
+	}
+
+	/**
+	 * Returns the verified service discovery information of an entity, or
+	 * <tt>null</tt> if the entity announced no entity capabilities or their
+	 * information is not cached yet.
+	 * 
+	 * @param jid
+	 *            the full JID of the entity.
+	 * @return a copy of the cached service discovery information addressed
+	 *         from the entity, or <tt>null</tt>.
+	 */
+	public DiscoverInfo getDiscoverInfoByUser(String jid) {
+		final CapsExtension ext = jidCaps.get(jid);
+		if (ext == null || ext.getHash() == null) {
+			return null;
+		}
+		final DiscoverInfo cached = getDiscoverInfoByVer(ext.getVer());
+		if (cached == null) {
+			return null;
+		}
+		// Hand out a copy, so callers can't modify the shared information
+		final DiscoverInfo info = new DiscoverInfo();
+		info.setType(IQ.Type.RESULT);
+		info.setFrom(jid);
+		for (final Iterator<DiscoverInfo.Identity> it = cached
+				.getIdentities(); it.hasNext();) {
+			info.addIdentity(it.next());
+		}
+		for (final Iterator<DiscoverInfo.Feature> it = cached.getFeatures(); it
+				.hasNext();) {
+			info.addFeature(it.next().getVar());
+		}
+		for (final PacketExtension extension : cached.getExtensions()) {
+			info.addExtension(extension);
+		}
+		return info;
+	}
+
+	/**
+	 * Caches the service discovery information received from an entity if it
+	 * matches the verification string the entity announced.
+	 * 
+	 * @param jid
+	 *            the full JID of the entity.
+	 * @param info
+	 *            the service discovery information received from the entity.
+	 * @return true if the information was verified and cached.
+	 */
+	boolean verifyAndCache(String jid, DiscoverInfo info) {
+		final CapsExtension ext = jidCaps.get(jid);
+		if (ext == null || ext.getVer() == null) {
+			return false;
+		}
+		final String ver = generateVerificationString(info, ext.getHash());
+		if (!ext.getVer().equals(ver)) {
+			return false;
+		}
+		addDiscoverInfoByVer(ver, info);
+		return true;
+	}
+}
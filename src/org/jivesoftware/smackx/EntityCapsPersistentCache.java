@@ -0,0 +1,49 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx;
+
+import org.jivesoftware.smackx.packet.DiscoverInfo;
+
+/**
+ * A second level cache of the {@link EntityCapsManager} that keeps verified
+ * service discovery information beyond the lifetime of the application, so
+ * the information of known clients doesn't have to be requested again after a
+ * restart.
+ * 
+ * @see EntityCapsManager#setPersistentCache(EntityCapsPersistentCache)
+ * @see SimpleDirectoryPersistentCache
+ */
+public interface EntityCapsPersistentCache {
+
+	/**
+	 * Stores the service discovery information of a verification string.
+	 * 
+	 * @param ver
+	 *            the verification string.
+	 * @param info
+	 *            the verified service discovery information.
+	 */
+	public void addDiscoverInfo(String ver, DiscoverInfo info);
+
+	/**
+	 * Returns the stored service discovery information of a verification
+	 * string, or <tt>null</tt> if none is stored.
+	 * 
+	 * @param ver
+	 *            the verification string.
+	 * @return the service discovery information or <tt>null</tt>.
+	 */
+	public DiscoverInfo getDiscoverInfo(String ver);
+}
@@ -20,11 +20,13 @@
 
 package org.jivesoftware.smackx;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import org.jivesoftware.smack.packet.XMLStreamable;
 import org.jivesoftware.smack.util.StringUtils;
 
 /**
@@ -34,14 +36,14 @@ import org.jivesoftware.smack.util.StringUtils;
  * 
  * @author Gaston Dombiak
  */
-public class FormField {
+public class FormField implements XMLStreamable {
 
 	/**
 	 * Represents the available option of a given FormField.
 	 * 
 	 * @author Gaston Dombiak
 	 */
-	public static class Option {
+	public static class Option implements XMLStreamable {
 
 		private String label;
 		private final String value;
@@ -79,7 +81,11 @@ public class FormField {
 		}
 
 		public String toXML() {
-			final StringBuilder buf = new StringBuilder();
+			return StringUtils.toXML(this);
+		}
+
+		@Override
+		public void toXML(Appendable buf) throws IOException {
 			buf.append("<option");
 			// Add attribute
 			if (getLabel() != null) {
@@ -87,11 +93,11 @@ public class FormField {
 			}
 			buf.append(">");
 			// Add element
-			buf.append("<value>").append(StringUtils.escapeForXML(getValue()))
-					.append("</value>");
+			buf.append("<value>");
+			StringUtils.escapeForXML(getValue(), buf);
+			buf.append("</value>");
 
 			buf.append("</option>");
-			return buf.toString();
 		}
 	}
 
@@ -350,7 +356,11 @@ public class FormField {
 	}
 
 	public String toXML() {
-		final StringBuilder buf = new StringBuilder();
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
 		buf.append("<field");
 		// Add attributes
 		if (getLabel() != null) {
@@ -376,9 +386,8 @@ public class FormField {
 		}
 		// Loop through all the values and append them to the string buffer
 		for (final Iterator<Option> i = getOptions(); i.hasNext();) {
-			buf.append(i.next().toXML());
+			i.next().toXML(buf);
 		}
 		buf.append("</field>");
-		return buf.toString();
 	}
 }
@@ -30,16 +30,15 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.jivesoftware.smack.Connection;
 import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.ConnectionListener;
-import org.jivesoftware.smack.PacketCollector;
+import org.jivesoftware.smack.IQFuture;
 import org.jivesoftware.smack.PacketListener;
-import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.filter.PacketFilter;
-import org.jivesoftware.smack.filter.PacketIDFilter;
 import org.jivesoftware.smack.filter.PacketTypeFilter;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smackx.packet.CapsExtension;
 import org.jivesoftware.smackx.packet.DataForm;
 import org.jivesoftware.smackx.packet.DiscoverInfo;
 import org.jivesoftware.smackx.packet.DiscoverItems;
@@ -141,6 +140,8 @@ public class ServiceDiscoveryManager {
 
 	private final Map<String, NodeInformationProvider> nodeInformationProviders = new ConcurrentHashMap<String, NodeInformationProvider>();
 
+	private EntityCapsManager capsManager;
+
 	// Create a new ServiceDiscoveryManager on every established connection
 	static {
 		Connection
@@ -194,6 +195,30 @@ public class ServiceDiscoveryManager {
 		}
 	}
 
+	/**
+	 * Adds the identity, features and extended information of this XMPP entity
+	 * to a disco#info packet.
+	 * 
+	 * @param response
+	 *            the disco#info packet.
+	 */
+	void addOwnDiscoverInfo(DiscoverInfo response) {
+		// Set this client identity
+		final DiscoverInfo.Identity identity = new DiscoverInfo.Identity(
+				"client", getIdentityName());
+		identity.setType(getIdentityType());
+		response.addIdentity(identity);
+		// Add the registered features to the response
+		synchronized (features) {
+			for (final Iterator<String> it = getFeatures(); it.hasNext();) {
+				response.addFeature(it.next());
+			}
+			if (extendedInfo != null) {
+				response.addExtension(extendedInfo);
+			}
+		}
+	}
+
 	/**
 	 * Returns true if the server supports publishing of items. A client may
 	 * wish to publish items to the server so that the server can provide items
@@ -230,6 +255,11 @@ public class ServiceDiscoveryManager {
 	 * Returns the discovered information of a given XMPP entity addressed by
 	 * its JID and note attribute. Use this message only when trying to query
 	 * information which is not directly addressable.
+	 * <p>
+	 * 
+	 * If no node is given and the entity announced entity capabilities whose
+	 * information is already known, the information is answered from the
+	 * {@link EntityCapsManager} cache without a request.
 	 * 
 	 * @param entityID
 	 *            the address of the XMPP entity.
@@ -241,30 +271,43 @@ public class ServiceDiscoveryManager {
 	 */
 	public DiscoverInfo discoverInfo(String entityID, String node)
 			throws XMPPException {
+		if (node == null) {
+			final DiscoverInfo cached = capsManager
+					.getDiscoverInfoByUser(entityID);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		// Wait up to 5 seconds for a result.
+		final DiscoverInfo info = (DiscoverInfo) discoverInfoAsync(entityID,
+				node).getResult();
+		if (node == null) {
+			capsManager.verifyAndCache(entityID, info);
+		}
+		return info;
+	}
+
+	/**
+	 * Requests the discovered information of a given XMPP entity addressed by
+	 * its JID and node attribute without blocking for the response. This
+	 * allows to query many entities at once without blocking a thread per
+	 * query.
+	 * 
+	 * @param entityID
+	 *            the address of the XMPP entity.
+	 * @param node
+	 *            the attribute that supplements the 'jid' attribute, may be
+	 *            <tt>null</tt>.
+	 * @return the future that is completed with the {@link DiscoverInfo}
+	 *         response.
+	 */
+	public IQFuture discoverInfoAsync(String entityID, String node) {
 		// Discover the entity's info
 		final DiscoverInfo disco = new DiscoverInfo();
 		disco.setType(IQ.Type.GET);
 		disco.setTo(entityID);
 		disco.setNode(node);
-
-		// Create a packet collector to listen for a response.
-		final PacketCollector collector = connection
-				.createPacketCollector(new PacketIDFilter(disco.getPacketID()));
-
-		connection.sendPacket(disco);
-
-		// Wait up to 5 seconds for a result.
-		final IQ result = (IQ) collector.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		collector.cancel();
-		if (result == null) {
-			throw new XMPPException("No response from the server.");
-		}
-		if (result.getType() == IQ.Type.ERROR) {
-			throw new XMPPException(result.getError());
-		}
-		return (DiscoverInfo) result;
+		return connection.sendIqAsync(disco);
 	}
 
 	/**
@@ -295,30 +338,40 @@ public class ServiceDiscoveryManager {
 	 */
 	public DiscoverItems discoverItems(String entityID, String node)
 			throws XMPPException {
+		// Wait up to 5 seconds for a result.
+		return (DiscoverItems) discoverItemsAsync(entityID, node).getResult();
+	}
+
+	/**
+	 * Requests the discovered items of a given XMPP entity addressed by
+	 * its JID and node attribute without blocking for the response. This
+	 * allows to query many entities at once without blocking a thread per
+	 * query.
+	 * 
+	 * @param entityID
+	 *            the address of the XMPP entity.
+	 * @param node
+	 *            the attribute that supplements the 'jid' attribute, may be
+	 *            <tt>null</tt>.
+	 * @return the future that is completed with the {@link DiscoverItems}
+	 *         response.
+	 */
+	public IQFuture discoverItemsAsync(String entityID, String node) {
 		// Discover the entity's items
 		final DiscoverItems disco = new DiscoverItems();
 		disco.setType(IQ.Type.GET);
 		disco.setTo(entityID);
 		disco.setNode(node);
+		return connection.sendIqAsync(disco);
+	}
 
-		// Create a packet collector to listen for a response.
-		final PacketCollector collector = connection
-				.createPacketCollector(new PacketIDFilter(disco.getPacketID()));
-
-		connection.sendPacket(disco);
-
-		// Wait up to 5 seconds for a result.
-		final IQ result = (IQ) collector.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		collector.cancel();
-		if (result == null) {
-			throw new XMPPException("No response from the server.");
-		}
-		if (result.getType() == IQ.Type.ERROR) {
-			throw new XMPPException(result.getError());
-		}
-		return (DiscoverItems) result;
+	/**
+	 * Returns the entity capabilities manager of the connection.
+	 * 
+	 * @return the entity capabilities manager.
+	 */
+	public EntityCapsManager getEntityCapsManager() {
+		return capsManager;
 	}
 
 	/**
@@ -376,6 +429,9 @@ public class ServiceDiscoveryManager {
 	private void init() {
 		// Register the new instance and associate it with the connection
 		instances.put(connection, this);
+		// Announce and cache entity capabilities
+		capsManager = new EntityCapsManager(connection, this);
+		addFeature(CapsExtension.NAMESPACE);
 		// Add a listener to the connection that removes the registered instance
 		// when
 		// the connection is closed
@@ -470,23 +526,11 @@ public class ServiceDiscoveryManager {
 					response.setPacketID(discoverInfo.getPacketID());
 					response.setNode(discoverInfo.getNode());
 					// Add the client's identity and features only if "node" is
-					// null
-					if (discoverInfo.getNode() == null) {
-						// Set this client identity
-						final DiscoverInfo.Identity identity = new DiscoverInfo.Identity(
-								"client", getIdentityName());
-						identity.setType(getIdentityType());
-						response.addIdentity(identity);
-						// Add the registered features to the response
-						synchronized (features) {
-							for (final Iterator<String> it = getFeatures(); it
-									.hasNext();) {
-								response.addFeature(it.next());
-							}
-							if (extendedInfo != null) {
-								response.addExtension(extendedInfo);
-							}
-						}
+					// null or the node of the entity capabilities
+					if (discoverInfo.getNode() == null
+							|| discoverInfo.getNode().startsWith(
+									EntityCapsManager.getCapsNode() + "#")) {
+						addOwnDiscoverInfo(response);
 					} else {
 						// Disco#info was sent to a node. Check if we have
 						// information of the
@@ -564,24 +608,8 @@ public class ServiceDiscoveryManager {
 		discoverItems.setTo(entityID);
 		discoverItems.setNode(node);
 
-		// Create a packet collector to listen for a response.
-		final PacketCollector collector = connection
-				.createPacketCollector(new PacketIDFilter(discoverItems
-						.getPacketID()));
-
-		connection.sendPacket(discoverItems);
-
 		// Wait up to 5 seconds for a result.
-		final IQ result = (IQ) collector.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		collector.cancel();
-		if (result == null) {
-			throw new XMPPException("No response from the server.");
-		}
-		if (result.getType() == IQ.Type.ERROR) {
-			throw new XMPPException(result.getError());
-		}
+		connection.sendIqAsync(discoverItems).getResult();
 	}
 
 	/**
@@ -0,0 +1,112 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smackx.packet.DiscoverInfo;
+import org.jivesoftware.smackx.provider.DiscoverInfoProvider;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * An {@link EntityCapsPersistentCache} that stores the service discovery
+ * information of every verification string in a file of its own in a
+ * directory. Files that can't be read are deleted, so the information is
+ * requested again.
+ */
+public class SimpleDirectoryPersistentCache implements
+		EntityCapsPersistentCache {
+
+	private final File directory;
+
+	/**
+	 * Creates a cache in the given directory. The directory is created if it
+	 * doesn't exist.
+	 * 
+	 * @param directory
+	 *            the directory to store the information in.
+	 * @throws IllegalArgumentException
+	 *             if the directory can't be created.
+	 */
+	public SimpleDirectoryPersistentCache(File directory) {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Can't create directory "
+					+ directory);
+		}
+	}
+
+	@Override
+	public void addDiscoverInfo(String ver, DiscoverInfo info) {
+		final File file = getFile(ver);
+		final File temp = new File(file.getPath() + ".tmp");
+		try {
+			final Writer writer = new OutputStreamWriter(new FileOutputStream(
+					temp), "UTF-8");
+			try {
+				writer.write(info.getChildElementXML());
+			} finally {
+				writer.close();
+			}
+			if (!temp.renameTo(file)) {
+				temp.delete();
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+			temp.delete();
+		}
+	}
+
+	@Override
+	public DiscoverInfo getDiscoverInfo(String ver) {
+		final File file = getFile(ver);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			final Reader reader = new InputStreamReader(new FileInputStream(
+					file), "UTF-8");
+			try {
+				final XmlPullParser parser = new MXParser();
+				parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES,
+						true);
+				parser.setInput(reader);
+				parser.nextTag();
+				return (DiscoverInfo) new DiscoverInfoProvider()
+						.parseIQ(parser);
+			} finally {
+				reader.close();
+			}
+		} catch (final Exception e) {
+			e.printStackTrace();
+			file.delete();
+			return null;
+		}
+	}
+
+	private File getFile(String ver) {
+		// Verification strings are Base64 and may contain '/'
+		return new File(directory, StringUtils.hash(ver));
+	}
+}
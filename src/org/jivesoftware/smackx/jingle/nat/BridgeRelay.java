@@ -0,0 +1,431 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx.jingle.nat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jivesoftware.smackx.jingle.SmackLogger;
+
+/**
+ * The relay loop shared by all TCP/UDP bridges. A single daemon thread moves
+ * the datagrams between the UDP and the TCP channels of all bridges, so the
+ * number of threads doesn't grow with the number of bridges.
+ * <p>
+ * 
+ * Every datagram is sent over TCP as a frame, a two byte length in network
+ * byte order followed by the datagram, so the other side can send exactly the
+ * datagrams that were received. A datagram is received into a pooled direct
+ * buffer right behind the room for the length, and written to TCP from that
+ * buffer. The frames received over TCP are sent as datagrams straight from
+ * the receive buffer. So the data is never copied.
+ * <p>
+ * 
+ * When the TCP connection can't take the datagrams as fast as they arrive,
+ * up to {@link #MAX_QUEUED_FRAMES} frames are queued and the following
+ * datagrams are dropped. For real-time media a late datagram is as good as a
+ * lost one.
+ */
+final class BridgeRelay implements Runnable {
+
+	/**
+	 * The channels of a bridge and the state of the relay.
+	 */
+	static final class Bridge {
+
+		private final DatagramChannel udp;
+		private final InetSocketAddress remoteUdp;
+		private final BridgeStatistics statistics;
+		private volatile SocketChannel tcp;
+		private volatile boolean closed;
+		private ServerSocketChannel server;
+
+		// Only accessed by the relay thread
+		private SelectionKey tcpKey;
+		private ByteBuffer received;
+		private final LinkedList<ByteBuffer> queued = new LinkedList<ByteBuffer>();
+
+		/**
+		 * Creates a bridge.
+		 * 
+		 * @param udp
+		 *            the local UDP channel.
+		 * @param remoteUdp
+		 *            the address the datagrams received over TCP are sent
+		 *            to.
+		 * @param statistics
+		 *            the counters of the bridge.
+		 */
+		Bridge(DatagramChannel udp, InetSocketAddress remoteUdp,
+				BridgeStatistics statistics) {
+			this.udp = udp;
+			this.remoteUdp = remoteUdp;
+			this.statistics = statistics;
+		}
+
+		/**
+		 * Returns the TCP channel.
+		 * 
+		 * @return the TCP channel or <tt>null</tt> if it isn't connected yet.
+		 */
+		SocketChannel getTcp() {
+			return tcp;
+		}
+	}
+
+	private static final SmackLogger LOGGER = SmackLogger
+			.getLogger(BridgeRelay.class);
+
+	/**
+	 * The length of the longest datagram that is relayed. Longer datagrams
+	 * are truncated.
+	 */
+	static final int MAX_DATAGRAM = 2048;
+
+	/**
+	 * The number of frames a bridge queues while the TCP connection is busy.
+	 */
+	static final int MAX_QUEUED_FRAMES = 64;
+
+	/**
+	 * The number of free buffers kept for reuse.
+	 */
+	private static final int POOL_SIZE = 256;
+
+	private static final int FRAME_HEADER = 2;
+
+	private static BridgeRelay instance;
+
+	/**
+	 * Returns the shared relay, it is started on first use.
+	 * 
+	 * @return the shared relay.
+	 * @throws IOException
+	 *             if the selector can't be opened.
+	 */
+	static synchronized BridgeRelay getInstance() throws IOException {
+		if (instance == null) {
+			instance = new BridgeRelay();
+			final Thread thread = new Thread(instance, "Smack Bridge Relay");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return instance;
+	}
+
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	// Only accessed by the relay thread
+	private final List<ByteBuffer> pool = new ArrayList<ByteBuffer>();
+
+	private BridgeRelay() throws IOException {
+		selector = Selector.open();
+	}
+
+	/**
+	 * Accepts the TCP connection of a bridge. The bridge is started once the
+	 * connection is accepted, the server channel is closed then.
+	 * 
+	 * @param bridge
+	 *            the bridge.
+	 * @param server
+	 *            the non-blocking server channel.
+	 */
+	void accept(final Bridge bridge, final ServerSocketChannel server) {
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				bridge.server = server;
+				try {
+					server.register(selector, SelectionKey.OP_ACCEPT, bridge);
+				} catch (final ClosedChannelException e) {
+					shutdown(bridge);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Accepts the connection of a bridge that is waiting for it.
+	 */
+	private void acceptable(SelectionKey key) throws IOException {
+		final Bridge bridge = (Bridge) key.attachment();
+		final ServerSocketChannel server = (ServerSocketChannel) key
+				.channel();
+		final SocketChannel tcp = server.accept();
+		if (tcp == null) {
+			return;
+		}
+		// A bridge has a single connection
+		server.close();
+		bridge.tcp = tcp;
+		register(bridge);
+	}
+
+	/**
+	 * Returns a buffer from the pool.
+	 */
+	private ByteBuffer allocate() {
+		if (pool.isEmpty()) {
+			return ByteBuffer.allocateDirect(FRAME_HEADER + MAX_DATAGRAM);
+		}
+		final ByteBuffer buffer = pool.remove(pool.size() - 1);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Closes the channels of a bridge.
+	 * 
+	 * @param bridge
+	 *            the bridge.
+	 */
+	void close(final Bridge bridge) {
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				shutdown(bridge);
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on the relay thread.
+	 */
+	private void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Returns a buffer to the pool.
+	 */
+	private void recycle(ByteBuffer buffer) {
+		if (buffer != null && pool.size() < POOL_SIZE) {
+			pool.add(buffer);
+		}
+	}
+
+	/**
+	 * Registers a bridge whose TCP channel is connected, so the relay
+	 * starts.
+	 */
+	private void register(Bridge bridge) throws IOException {
+		if (bridge.closed) {
+			shutdown(bridge);
+			return;
+		}
+		bridge.tcp.configureBlocking(false);
+		bridge.udp.configureBlocking(false);
+		bridge.tcpKey = bridge.tcp.register(selector, SelectionKey.OP_READ,
+				bridge);
+		bridge.udp.register(selector, SelectionKey.OP_READ, bridge);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				final Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					final Bridge bridge = (Bridge) key.attachment();
+					try {
+						if (key.isAcceptable()) {
+							acceptable(key);
+						} else if (key.channel() == bridge.udp) {
+							udpReadable(bridge);
+						} else {
+							if (key.isWritable()) {
+								write(bridge);
+							}
+							if (key.isValid() && key.isReadable()) {
+								tcpReadable(bridge);
+							}
+						}
+					} catch (final CancelledKeyException e) {
+						// The bridge was closed in the meantime
+					} catch (final IOException e) {
+						LOGGER.debug("Bridge closed: " + e.getMessage());
+						shutdown(bridge);
+					}
+				}
+			} catch (final IOException e) {
+				// Keep serving the other bridges
+				LOGGER.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Closes the channels of a bridge and returns its buffers to the pool.
+	 */
+	private void shutdown(Bridge bridge) {
+		bridge.closed = true;
+		try {
+			bridge.udp.close();
+		} catch (final IOException e) {
+			// Ignore
+		}
+		if (bridge.server != null) {
+			try {
+				bridge.server.close();
+			} catch (final IOException e) {
+				// Ignore
+			}
+		}
+		if (bridge.tcp != null) {
+			try {
+				bridge.tcp.close();
+			} catch (final IOException e) {
+				// Ignore
+			}
+		}
+		recycle(bridge.received);
+		bridge.received = null;
+		for (final ByteBuffer buffer : bridge.queued) {
+			recycle(buffer);
+		}
+		bridge.queued.clear();
+	}
+
+	/**
+	 * Starts a bridge whose TCP channel is connected.
+	 * 
+	 * @param bridge
+	 *            the bridge.
+	 * @param tcp
+	 *            the connected TCP channel.
+	 */
+	void start(final Bridge bridge, SocketChannel tcp) {
+		bridge.tcp = tcp;
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					register(bridge);
+				} catch (final IOException e) {
+					LOGGER.error(e.getMessage(), e);
+					shutdown(bridge);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends the complete frames received over TCP as datagrams.
+	 */
+	private void tcpReadable(Bridge bridge) throws IOException {
+		if (bridge.received == null) {
+			bridge.received = allocate();
+		}
+		final ByteBuffer buffer = bridge.received;
+		if (bridge.tcp.read(buffer) < 0) {
+			throw new IOException("Connection closed by peer");
+		}
+		buffer.flip();
+		while (buffer.remaining() >= FRAME_HEADER) {
+			final int start = buffer.position();
+			final int length = buffer.getShort(start) & 0xFFFF;
+			if (length > MAX_DATAGRAM) {
+				throw new IOException("Frame too long: " + length);
+			}
+			final int end = start + FRAME_HEADER + length;
+			final int limit = buffer.limit();
+			if (end > limit) {
+				// Wait for the rest of the frame
+				break;
+			}
+			buffer.limit(end);
+			buffer.position(start + FRAME_HEADER);
+			if (bridge.udp.send(buffer, bridge.remoteUdp) == 0 && length > 0) {
+				// The socket buffer is full
+				bridge.statistics.recordDropped();
+			} else {
+				bridge.statistics.recordFromTcp(length);
+			}
+			buffer.limit(limit);
+			buffer.position(end);
+		}
+		buffer.compact();
+	}
+
+	/**
+	 * Receives the datagrams on the UDP channel and queues them as frames.
+	 */
+	private void udpReadable(Bridge bridge) throws IOException {
+		while (true) {
+			final ByteBuffer buffer = allocate();
+			buffer.position(FRAME_HEADER);
+			if (bridge.udp.receive(buffer) == null) {
+				recycle(buffer);
+				break;
+			}
+			final int length = buffer.position() - FRAME_HEADER;
+			if (bridge.queued.size() >= MAX_QUEUED_FRAMES) {
+				bridge.statistics.recordDropped();
+				recycle(buffer);
+				continue;
+			}
+			buffer.putShort(0, (short) length);
+			buffer.flip();
+			bridge.queued.add(buffer);
+			bridge.statistics.recordFromUdp(length);
+		}
+		write(bridge);
+	}
+
+	/**
+	 * Writes the queued frames until the TCP channel doesn't take more. The
+	 * relay waits until the channel is writable again then.
+	 */
+	private void write(Bridge bridge) throws IOException {
+		while (!bridge.queued.isEmpty()) {
+			final ByteBuffer buffer = bridge.queued.getFirst();
+			bridge.tcp.write(buffer);
+			if (buffer.hasRemaining()) {
+				break;
+			}
+			recycle(bridge.queued.removeFirst());
+		}
+		bridge.tcpKey.interestOps(bridge.queued.isEmpty() ? SelectionKey.OP_READ
+				: SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+}
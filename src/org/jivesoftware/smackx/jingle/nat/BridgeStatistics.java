@@ -0,0 +1,123 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx.jingle.nat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the traffic relayed by a TCP/UDP bridge. Datagrams received on
+ * the UDP socket are sent over TCP, and the datagrams received over TCP are
+ * sent from the UDP socket.
+ * 
+ * @see TcpUdpBridgeClient#getStatistics()
+ * @see TcpUdpBridgeServer#getStatistics()
+ */
+public class BridgeStatistics {
+
+	private final AtomicLong packetsFromUdp = new AtomicLong();
+	private final AtomicLong bytesFromUdp = new AtomicLong();
+	private final AtomicLong packetsFromTcp = new AtomicLong();
+	private final AtomicLong bytesFromTcp = new AtomicLong();
+	private final AtomicLong droppedPackets = new AtomicLong();
+
+	BridgeStatistics() {
+	}
+
+	/**
+	 * Returns the number of bytes received over TCP and sent from the UDP
+	 * socket, without framing.
+	 * 
+	 * @return the number of bytes.
+	 */
+	public long getBytesFromTcp() {
+		return bytesFromTcp.get();
+	}
+
+	/**
+	 * Returns the number of bytes received on the UDP socket and sent over
+	 * TCP, without framing.
+	 * 
+	 * @return the number of bytes.
+	 */
+	public long getBytesFromUdp() {
+		return bytesFromUdp.get();
+	}
+
+	/**
+	 * Returns the number of datagrams that were dropped, because the other
+	 * side couldn't take them fast enough.
+	 * 
+	 * @return the number of dropped datagrams.
+	 */
+	public long getDroppedPackets() {
+		return droppedPackets.get();
+	}
+
+	/**
+	 * Returns the number of datagrams received over TCP and sent from the UDP
+	 * socket.
+	 * 
+	 * @return the number of datagrams.
+	 */
+	public long getPacketsFromTcp() {
+		return packetsFromTcp.get();
+	}
+
+	/**
+	 * Returns the number of datagrams received on the UDP socket and sent
+	 * over TCP.
+	 * 
+	 * @return the number of datagrams.
+	 */
+	public long getPacketsFromUdp() {
+		return packetsFromUdp.get();
+	}
+
+	/**
+	 * Records a dropped datagram.
+	 */
+	void recordDropped() {
+		droppedPackets.incrementAndGet();
+	}
+
+	/**
+	 * Records a datagram received over TCP.
+	 * 
+	 * @param bytes
+	 *            the length of the datagram.
+	 */
+	void recordFromTcp(int bytes) {
+		packetsFromTcp.incrementAndGet();
+		bytesFromTcp.addAndGet(bytes);
+	}
+
+	/**
+	 * Records a datagram received on the UDP socket.
+	 * 
+	 * @param bytes
+	 *            the length of the datagram.
+	 */
+	void recordFromUdp(int bytes) {
+		packetsFromUdp.incrementAndGet();
+		bytesFromUdp.addAndGet(bytes);
+	}
+
+	@Override
+	public String toString() {
+		return "fromUdp=" + getPacketsFromUdp() + "/" + getBytesFromUdp()
+				+ "B, fromTcp=" + getPacketsFromTcp() + "/"
+				+ getBytesFromTcp() + "B, dropped=" + getDroppedPackets();
+	}
+}
@@ -0,0 +1,519 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx.jingle.nat;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jivesoftware.smackx.jingle.SmackLogger;
+import org.jivesoftware.smackx.jingle.nat.TransportCandidate.CandidateEcho;
+
+/**
+ * Checks the connectivity between the local candidates and the candidates
+ * offered by the other endpoints of all Jingle sessions. The channels of the
+ * local candidates are non-blocking and served by a single daemon thread,
+ * which answers the checks of the other endpoints and sends our own checks.
+ * <p>
+ * 
+ * A remote candidate is checked against every local candidate of the same
+ * type at once. The checks of all candidate pairs are paced, one check every
+ * {@link #PACING_INTERVAL} milliseconds, and the pair with the highest
+ * priority as defined by ICE is checked first. The first pair that is
+ * answered is nominated and the checks of the other pairs of the remote
+ * candidate are cancelled.
+ * <p>
+ * 
+ * A check is a datagram holding the password of the remote candidate and the
+ * address of the local candidate, separated by a semicolon. It is answered
+ * with the password and the address of the candidate that was checked.
+ */
+final class ConnectivityChecker implements Runnable {
+
+	/**
+	 * The check of a remote candidate against the local candidates.
+	 */
+	static final class Check {
+
+		private final ICECandidate remote;
+		private final List<Pair> pairs = new ArrayList<Pair>();
+		private int failedPairs;
+		private boolean done;
+		private volatile Pair nominated;
+
+		private Check(ICECandidate remote) {
+			this.remote = remote;
+		}
+
+		/**
+		 * Returns the local candidate of the nominated pair.
+		 * 
+		 * @return the local candidate or <tt>null</tt> if no pair was
+		 *         nominated.
+		 */
+		TransportCandidate getNominatedCandidate() {
+			final Pair pair = nominated;
+			return pair != null ? pair.local.candidate : null;
+		}
+
+		/**
+		 * Returns the round-trip time of the nominated pair.
+		 * 
+		 * @return the round-trip time in milliseconds or -1 if no pair was
+		 *         nominated or its check was retransmitted.
+		 */
+		long getRoundTripTime() {
+			final Pair pair = nominated;
+			return pair != null ? pair.roundTripTime : -1;
+		}
+	}
+
+	/**
+	 * A local candidate paired with a remote candidate.
+	 */
+	private static final class Pair {
+
+		private final Check check;
+		private final CandidateEcho local;
+		private final long priority;
+		private final InetSocketAddress remoteAddress;
+		private final byte[] request;
+		private int transmissions;
+		private long lastTransmission;
+		private long roundTripTime = -1;
+
+		private Pair(Check check, CandidateEcho local, long priority,
+				InetSocketAddress remoteAddress, byte[] request) {
+			this.check = check;
+			this.local = local;
+			this.priority = priority;
+			this.remoteAddress = remoteAddress;
+			this.request = request;
+		}
+	}
+
+	private static final SmackLogger LOGGER = SmackLogger
+			.getLogger(ConnectivityChecker.class);
+
+	/**
+	 * The minimum time between two checks in milliseconds.
+	 */
+	static final long PACING_INTERVAL = 20;
+
+	/**
+	 * The time between two transmissions of the check of a pair in
+	 * milliseconds.
+	 */
+	private static final long RETRANSMISSION_INTERVAL = 200;
+
+	/**
+	 * The number of transmissions of the check of a pair.
+	 */
+	private static final int MAX_TRANSMISSIONS = 10;
+
+	/**
+	 * The time a pair waits for an answer after the last transmission in
+	 * milliseconds.
+	 */
+	private static final long ANSWER_TIMEOUT = 1000;
+
+	private static ConnectivityChecker instance;
+
+	/**
+	 * Encodes the payload of a check or an answer.
+	 * 
+	 * @param password
+	 *            the password of the checked candidate.
+	 * @param candidate
+	 *            the candidate whose address is sent.
+	 * @return the payload.
+	 */
+	private static byte[] encode(String password, TransportCandidate candidate) {
+		try {
+			return (password + ";" + candidate.getIp() + ":" + candidate
+					.getPort()).getBytes("UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the shared checker, it is started on first use.
+	 * 
+	 * @return the shared checker.
+	 * @throws IOException
+	 *             if the selector can't be opened.
+	 */
+	static synchronized ConnectivityChecker getInstance() throws IOException {
+		if (instance == null) {
+			instance = new ConnectivityChecker();
+			final Thread thread = new Thread(instance,
+					"Smack Connectivity Checker");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return instance;
+	}
+
+	/**
+	 * Computes the priority of a candidate pair as defined by ICE.
+	 * 
+	 * @param controlling
+	 *            the priority of the candidate of the endpoint that initiated
+	 *            the session.
+	 * @param controlled
+	 *            the priority of the candidate of the other endpoint.
+	 * @return the priority of the pair.
+	 */
+	private static long pairPriority(long controlling, long controlled) {
+		return (Math.min(controlling, controlled) << 32) + 2
+				* Math.max(controlling, controlled)
+				+ (controlling > controlled ? 1 : 0);
+	}
+
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final ByteBuffer buffer = ByteBuffer.allocate(1500);
+
+	// Only accessed by the checker thread
+	private final List<Pair> pairs = new ArrayList<Pair>();
+	private long lastTransmission;
+
+	private ConnectivityChecker() throws IOException {
+		selector = Selector.open();
+	}
+
+	/**
+	 * Answers a check of the other endpoint, unless a datagram listener of
+	 * the local candidate accepted the datagram.
+	 */
+	private void answer(CandidateEcho echo, byte[] content,
+			SocketAddress source, String password) throws IOException {
+		final DatagramPacket packet = new DatagramPacket(content,
+				content.length, source);
+		for (final DatagramListener listener : echo.listeners) {
+			if (listener.datagramReceived(packet)) {
+				return;
+			}
+		}
+		if (password.equals(echo.candidate.getPassword())) {
+			// Answer to the address the check came from, which is the one
+			// that reaches the other endpoint through its NAT
+			echo.channel.send(
+					ByteBuffer.wrap(encode(password, echo.candidate)), source);
+		}
+	}
+
+	/**
+	 * Cancels a check. The listeners of the remote candidate aren't
+	 * notified.
+	 * 
+	 * @param check
+	 *            the check.
+	 */
+	void cancel(final Check check) {
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				check.done = true;
+				pairs.removeAll(check.pairs);
+			}
+		});
+	}
+
+	/**
+	 * Starts to check a remote candidate against local candidates. The
+	 * listeners of the remote candidate are notified about the result, unless
+	 * the check is cancelled.
+	 * 
+	 * @param remote
+	 *            the remote candidate.
+	 * @param locals
+	 *            the local candidates to pair the remote candidate with.
+	 * @return the check.
+	 */
+	Check check(final ICECandidate remote, final List<CandidateEcho> locals) {
+		final Check check = new Check(remote);
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				final InetSocketAddress remoteAddress = new InetSocketAddress(
+						remote.getIp(), remote.getPort());
+				for (final CandidateEcho local : locals) {
+					if (remoteAddress.isUnresolved() || !local.channel.isOpen()) {
+						continue;
+					}
+					final long localPriority = ((ICECandidate) local.candidate)
+							.getPreference();
+					final long remotePriority = remote.getPreference();
+					final long priority = local.controlling ? pairPriority(
+							localPriority, remotePriority) : pairPriority(
+							remotePriority, localPriority);
+					final Pair pair = new Pair(check, local, priority,
+							remoteAddress, encode(remote.getPassword(),
+									local.candidate));
+					check.pairs.add(pair);
+					pairs.add(pair);
+				}
+				if (check.pairs.isEmpty()) {
+					finish(check, false);
+				}
+			}
+		});
+		return check;
+	}
+
+	/**
+	 * Runs a task on the checker thread.
+	 * 
+	 * @param task
+	 *            the task.
+	 */
+	private void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Notes that a pair failed. The check fails once all its pairs failed.
+	 */
+	private void failed(Pair pair) {
+		final Check check = pair.check;
+		if (!check.done && ++check.failedPairs == check.pairs.size()) {
+			finish(check, false);
+		}
+	}
+
+	/**
+	 * Ends a check and notifies the listeners of the remote candidate.
+	 */
+	private void finish(Check check, boolean result) {
+		check.done = true;
+		check.remote.triggerCandidateChecked(result);
+	}
+
+	/**
+	 * Handles a datagram received on the channel of a local candidate. It is
+	 * either the answer to one of our checks or a check of the other
+	 * endpoint.
+	 */
+	private void received(CandidateEcho echo) throws IOException {
+		buffer.clear();
+		final SocketAddress source = echo.channel.receive(buffer);
+		if (source == null) {
+			return;
+		}
+		buffer.flip();
+		final byte[] content = new byte[buffer.remaining()];
+		buffer.get(content);
+
+		final String[] fields = new String(content, "UTF-8").split(";");
+		if (fields.length < 2) {
+			return;
+		}
+		final String password = fields[0];
+		final int separator = fields[1].lastIndexOf(':');
+		if (separator < 0) {
+			return;
+		}
+		final String ip = fields[1].substring(0, separator);
+		final String port = fields[1].substring(separator + 1);
+
+		for (final Pair pair : pairs) {
+			final ICECandidate remote = pair.check.remote;
+			if (pair.local == echo && password.equals(remote.getPassword())
+					&& remote.getIp().indexOf(ip) != -1
+					&& port.equals(String.valueOf(remote.getPort()))) {
+				succeeded(pair);
+				return;
+			}
+		}
+		answer(echo, content, source, password);
+	}
+
+	/**
+	 * Registers the channel of a local candidate, so the checks of the other
+	 * endpoint are answered.
+	 * 
+	 * @param echo
+	 *            the local candidate.
+	 */
+	void register(final CandidateEcho echo) {
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					echo.channel.register(selector, SelectionKey.OP_READ, echo);
+				} catch (final ClosedChannelException e) {
+					// Unregistered in the meantime
+				}
+			}
+		});
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				final long timeout = transmit();
+				selector.select(timeout);
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				final Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isReadable()) {
+						try {
+							received((CandidateEcho) key.attachment());
+						} catch (final IOException e) {
+							// E.g. ICMP port unreachable from an earlier check
+							LOGGER.debug(e.getMessage());
+						}
+					}
+				}
+			} catch (final IOException e) {
+				// Keep serving the other channels
+				LOGGER.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Nominates a pair that was answered, the other pairs of its check are
+	 * cancelled. All transmissions of a check are the same datagram, so an
+	 * answer to a retransmitted check can't be matched to a transmission and
+	 * gives no round-trip time (Karn's algorithm).
+	 */
+	private void succeeded(Pair pair) {
+		final Check check = pair.check;
+		if (pair.transmissions == 1) {
+			pair.roundTripTime = System.currentTimeMillis()
+					- pair.lastTransmission;
+		}
+		check.nominated = pair;
+		pairs.removeAll(check.pairs);
+		LOGGER.debug("Candidate reachable: " + check.remote.getIp() + ":"
+				+ check.remote.getPort() + " from "
+				+ pair.local.candidate.getIp() + ":"
+				+ pair.local.candidate.getPort() + " after "
+				+ pair.transmissions + " transmissions, round-trip time "
+				+ pair.roundTripTime + " ms");
+		finish(check, true);
+	}
+
+	/**
+	 * Sends the check of the pair with the highest priority that is due,
+	 * unless a check was sent less than the pacing interval ago. A pair that
+	 * was sent less often goes first, so the retransmissions of the pairs with
+	 * a high priority don't hold back the others. Pairs that weren't answered
+	 * in time fail.
+	 * 
+	 * @return the time until a check is due in milliseconds, 0 if there are
+	 *         no checks.
+	 */
+	private long transmit() {
+		final long now = System.currentTimeMillis();
+		long next = Long.MAX_VALUE;
+		Pair due = null;
+		for (final Iterator<Pair> it = pairs.iterator(); it.hasNext();) {
+			final Pair pair = it.next();
+			if (pair.transmissions >= MAX_TRANSMISSIONS) {
+				final long expiry = pair.lastTransmission + ANSWER_TIMEOUT;
+				if (now >= expiry) {
+					it.remove();
+					failed(pair);
+				} else {
+					next = Math.min(next, expiry);
+				}
+				continue;
+			}
+			final long time = pair.transmissions == 0 ? 0
+					: pair.lastTransmission + RETRANSMISSION_INTERVAL;
+			if (time > now) {
+				next = Math.min(next, time);
+			} else if (due == null
+					|| pair.transmissions < due.transmissions
+					|| (pair.transmissions == due.transmissions && pair.priority > due.priority)) {
+				due = pair;
+			}
+		}
+		if (due != null) {
+			final long paced = lastTransmission + PACING_INTERVAL;
+			if (now < paced) {
+				next = Math.min(next, paced);
+			} else {
+				due.transmissions++;
+				due.lastTransmission = now;
+				lastTransmission = now;
+				try {
+					due.local.channel.send(ByteBuffer.wrap(due.request),
+							due.remoteAddress);
+				} catch (final IOException e) {
+					// Sent again later, until the pair fails
+					LOGGER.debug(e.getMessage());
+				}
+				next = Math.min(next, now + PACING_INTERVAL);
+			}
+		}
+		return next == Long.MAX_VALUE ? 0 : Math.max(1, next - now);
+	}
+
+	/**
+	 * Closes the channel of a local candidate. The pairs with the local
+	 * candidate fail.
+	 * 
+	 * @param echo
+	 *            the local candidate.
+	 */
+	void unregister(final CandidateEcho echo) {
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					echo.channel.close();
+				} catch (final IOException e) {
+					// Ignore
+				}
+				for (final Iterator<Pair> it = pairs.iterator(); it.hasNext();) {
+					final Pair pair = it.next();
+					if (pair.local == echo) {
+						it.remove();
+						failed(pair);
+					}
+				}
+			}
+		});
+	}
+}
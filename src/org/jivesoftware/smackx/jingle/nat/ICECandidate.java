@@ -51,8 +51,8 @@
  */
 package org.jivesoftware.smackx.jingle.nat;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.jivesoftware.smackx.jingle.SmackLogger;
@@ -88,6 +88,8 @@ public class ICECandidate extends TransportCandidate implements Comparable {
 
 	private Type type;
 
+	private volatile ConnectivityChecker.Check check;
+
 	public ICECandidate() {
 		super();
 	}
@@ -127,95 +129,55 @@ public class ICECandidate extends TransportCandidate implements Comparable {
 		this.type = type;
 	}
 
+	/**
+	 * Cancels the connectivity check of this candidate. The listeners aren't
+	 * notified about the result.
+	 */
+	public void cancelCheck() {
+		final ConnectivityChecker.Check current = check;
+		if (current != null) {
+			try {
+				ConnectivityChecker.getInstance().cancel(current);
+			} catch (final IOException e) {
+				// The checker is running if there's a check
+			}
+		}
+	}
+
 	/**
 	 * Check if a transport candidate is usable. The transport resolver should
 	 * check if the transport candidate the other endpoint has provided is
 	 * usable.
 	 * <p/>
-	 * ICE Candidate can check connectivity using UDP echo Test.
+	 * The candidate is checked against all local candidates of the same type
+	 * at once. It is usable as soon as one of the local candidates receives
+	 * an answer.
 	 */
 	@Override
 	public void check(final List<TransportCandidate> localCandidates) {
-		// TODO candidate is being checked trigger
-		// candidatesChecking.add(cand);
-
-		final ICECandidate checkingCandidate = this;
-
-		final Thread checkThread = new Thread(new Runnable() {
-			@Override
-			public void run() {
-
-				final TestResult result = new TestResult();
-
-				// Media Proxy don't have Echo features.
-				// If its a relayed candidate we assumpt that is NOT Valid while
-				// other candidates still being checked.
-				// The negotiator MUST add then in the correct situations
-				if (getType().equals("relay")) {
-					triggerCandidateChecked(false);
-					return;
-				}
-
-				final ResultListener resultListener = new ResultListener() {
-					@Override
-					public void testFinished(TestResult testResult,
-							TransportCandidate candidate) {
-						if (testResult.isReachable()
-								&& checkingCandidate.equals(candidate)) {
-							result.setResult(true);
-							LOGGER.debug("Candidate reachable: "
-									+ candidate.getIp() + ":"
-									+ candidate.getPort() + " from " + getIp()
-									+ ":" + getPort());
-						}
-					}
-				};
-
-				for (final TransportCandidate candidate : localCandidates) {
-					final CandidateEcho echo = candidate.getCandidateEcho();
-					if (echo != null) {
-						if (candidate instanceof ICECandidate) {
-							final ICECandidate iceCandidate = (ICECandidate) candidate;
-							if (iceCandidate.getType().equals(getType())) {
-								try {
-									echo.addResultListener(resultListener);
-									final InetAddress address = InetAddress
-											.getByName(getIp());
-									echo.testASync(checkingCandidate,
-											getPassword());
-								} catch (final UnknownHostException e) {
-									e.printStackTrace();
-								}
-							}
-						}
-					}
-				}
-
-				for (int i = 0; i < 10 && !result.isReachable(); i++) {
-					try {
-						LOGGER.error("ICE Candidate retry #" + i);
-						Thread.sleep(400);
-					} catch (final InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-
-				for (final TransportCandidate candidate : localCandidates) {
-					final CandidateEcho echo = candidate.getCandidateEcho();
-					if (echo != null) {
-						echo.removeResultListener(resultListener);
-					}
-				}
-
-				triggerCandidateChecked(result.isReachable());
-
-				// TODO candidate is being checked trigger
-				// candidatesChecking.remove(cand);
-			}
-		}, "Transport candidate check");
+		// Media Proxy don't have Echo features.
+		// If its a relayed candidate we assumpt that is NOT Valid while
+		// other candidates still being checked.
+		// The negotiator MUST add then in the correct situations
+		if (getType() == Type.relay) {
+			triggerCandidateChecked(false);
+			return;
+		}
 
-		checkThread.setName("Transport candidate test");
-		checkThread.start();
+		final List<CandidateEcho> echoes = new ArrayList<CandidateEcho>();
+		for (final TransportCandidate candidate : localCandidates) {
+			final CandidateEcho echo = candidate.getCandidateEcho();
+			if (echo != null && candidate instanceof ICECandidate
+					&& ((ICECandidate) candidate).getType() == getType()) {
+				echoes.add(echo);
+			}
+		}
+		try {
+			check = ConnectivityChecker.getInstance().check(this, echoes);
+		} catch (final IOException e) {
+			LOGGER.error(e.getMessage(), e);
+			triggerCandidateChecked(false);
+		}
 	}
 
 	/**
@@ -349,6 +311,17 @@ public class ICECandidate extends TransportCandidate implements Comparable {
 		return network;
 	}
 
+	/**
+	 * Get the local candidate that reached this candidate first, after the
+	 * check succeeded.
+	 * 
+	 * @return the local candidate or <tt>null</tt>
+	 */
+	public TransportCandidate getNominatedCandidate() {
+		final ConnectivityChecker.Check current = check;
+		return current != null ? current.getNominatedCandidate() : null;
+	}
+
 	/**
 	 * Get the preference number for this transportElement
 	 * 
@@ -367,6 +340,17 @@ public class ICECandidate extends TransportCandidate implements Comparable {
 		return proto;
 	}
 
+	/**
+	 * Get the round-trip time between this candidate and the nominated local
+	 * candidate, measured by the check.
+	 * 
+	 * @return the round-trip time in milliseconds or -1 if unknown
+	 */
+	public long getRoundTripTime() {
+		final ConnectivityChecker.Check current = check;
+		return current != null ? current.getRoundTripTime() : -1;
+	}
+
 	/**
 	 * Get the Candidate Type
 	 * 
@@ -25,9 +25,9 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jivesoftware.smack.Connection;
 import org.jivesoftware.smack.XMPPException;
@@ -59,7 +59,7 @@ public class ICEResolver extends TransportResolver {
 	long sid;
 	String server;
 	int port;
-	static Map<String, ICENegociator> negociatorsMap = new HashMap<String, ICENegociator>();
+	static Map<String, ICENegociator> negociatorsMap = new ConcurrentHashMap<String, ICENegociator>();
 
 	// ICENegociator iceNegociator = null;
 
@@ -82,22 +82,17 @@ public class ICEResolver extends TransportResolver {
 			LOGGER.debug("Initialized");
 
 			// Negotiation with a STUN server for a set of interfaces is quite
-			// slow, but the results
-			// never change over then instance of a JVM. To increase connection
-			// performance considerably
-			// we now cache established/initialized negotiators for each STUN
-			// server, so that subsequent uses
-			// of the STUN server are much, much faster.
-			if (negociatorsMap.get(server) == null) {
-				final ICENegociator iceNegociator = new ICENegociator(server,
-						port, (short) 1);
-				negociatorsMap.put(server, iceNegociator);
-
-				// gather candidates
-				iceNegociator.gatherCandidateAddresses();
-				// priorize candidates
-				iceNegociator.prioritizeCandidates();
-			}
+			// slow. The results are cached by DiscoveryCache as long as the
+			// network doesn't change, so gathering the candidates again is
+			// fast, and picks up the new addresses when the network changed.
+			final ICENegociator iceNegociator = new ICENegociator(server,
+					port, (short) 1);
+
+			// gather candidates
+			iceNegociator.gatherCandidateAddresses();
+			// priorize candidates
+			iceNegociator.prioritizeCandidates();
+			negociatorsMap.put(server, iceNegociator);
 
 		}
 		setInitialized();
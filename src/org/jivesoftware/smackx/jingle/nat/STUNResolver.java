@@ -26,6 +26,14 @@ import java.net.SocketException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smackx.jingle.JingleSession;
@@ -35,6 +43,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import de.javawi.jstun.test.BindingLifetimeTest;
+import de.javawi.jstun.test.DiscoveryCache;
 import de.javawi.jstun.test.DiscoveryInfo;
 import de.javawi.jstun.test.DiscoveryTest;
 
@@ -208,6 +217,35 @@ public class STUNResolver extends TransportResolver {
 		this.defaultPort = defaultPort;
 	}
 
+	/**
+	 * Adds the candidate discovered by a test.
+	 * 
+	 * @param di
+	 *            the result of the test.
+	 * @return true if the test found a public address.
+	 */
+	private boolean addCandidate(DiscoveryInfo di) {
+		if (di.getPublicIP() == null) {
+			return false;
+		}
+
+		// Get a valid port
+		final int candPort = defaultPort == 0 ? getFreePort() : defaultPort;
+		if (candPort < 0) {
+			return false;
+		}
+		final InetAddress iaddress = di.getLocalIP();
+		final TransportCandidate candidate = new TransportCandidate.Fixed(di
+				.getPublicIP().getHostAddress(), candPort);
+		candidate.setLocalIp(iaddress.getHostAddress() != null ? iaddress
+				.getHostAddress() : iaddress.getHostName());
+		addCandidate(candidate);
+
+		resolvedPublicIP = candidate.getIp();
+		resolvedLocalIP = candidate.getLocalIp();
+		return true;
+	}
+
 	/**
 	 * Get the best usable STUN server from a list.
 	 * 
@@ -246,6 +284,93 @@ public class STUNResolver extends TransportResolver {
 		super.clear();
 	}
 
+	/**
+	 * Asks the STUN server for our public address from all interface
+	 * addresses at once, so the addresses without connectivity don't delay
+	 * the others. The address that gets an answer first is used. No test is
+	 * run if the cache has a result for one of the addresses.
+	 */
+	private void discover() {
+		final List<InetAddress> addresses = new ArrayList<InetAddress>();
+		try {
+			final Enumeration<NetworkInterface> ifaces = NetworkInterface
+					.getNetworkInterfaces();
+			while (ifaces.hasMoreElements()) {
+				final Enumeration<InetAddress> iaddresses = ifaces
+						.nextElement().getInetAddresses();
+				while (iaddresses.hasMoreElements()) {
+					final InetAddress iaddress = iaddresses.nextElement();
+					if (!iaddress.isLoopbackAddress()
+							&& !iaddress.isLinkLocalAddress()) {
+						addresses.add(iaddress);
+					}
+				}
+			}
+		} catch (final SocketException e) {
+			LOGGER.error(e.getMessage(), e);
+			return;
+		}
+		if (addresses.isEmpty()) {
+			return;
+		}
+
+		final DiscoveryCache cache = DiscoveryCache.getInstance();
+		for (final InetAddress iaddress : addresses) {
+			final DiscoveryInfo di = cache.get(iaddress,
+					currentServer.getHostname(), currentServer.getPort());
+			if (di != null && addCandidate(di)) {
+				return;
+			}
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(
+				addresses.size(), new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								"STUN discovery");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		final CompletionService<DiscoveryInfo> tests = new ExecutorCompletionService<DiscoveryInfo>(
+				executor);
+		for (final InetAddress iaddress : addresses) {
+			tests.submit(new Callable<DiscoveryInfo>() {
+
+				@Override
+				public DiscoveryInfo call() throws Exception {
+					final DiscoveryInfo di = new DiscoveryTest(iaddress,
+							currentServer.getHostname(), currentServer
+									.getPort()).test();
+					cache.put(currentServer.getHostname(),
+							currentServer.getPort(), di);
+					return di;
+				}
+			});
+		}
+		try {
+			for (int i = 0; i < addresses.size(); i++) {
+				final DiscoveryInfo di;
+				try {
+					di = tests.take().get();
+				} catch (final ExecutionException e) {
+					LOGGER.error(e.getMessage(), e);
+					continue;
+				}
+				if (addCandidate(di)) {
+					return;
+				}
+			}
+		} catch (final InterruptedException e) {
+			// Cancelled
+		} finally {
+			// The remaining tests end with their timeouts
+			executor.shutdownNow();
+		}
+	}
+
 	/**
 	 * Get the name of the current STUN server.
 	 * 
@@ -293,81 +418,8 @@ public class STUNResolver extends TransportResolver {
 				resolverThread = new Thread(new Runnable() {
 					@Override
 					public void run() {
-						// Iterate through the list of interfaces, and ask
-						// to the STUN server for our address.
 						try {
-							final Enumeration ifaces = NetworkInterface.getNetworkInterfaces();
-							String candAddress;
-							int candPort;
-
-							while (ifaces.hasMoreElements()) {
-
-								final NetworkInterface iface = (NetworkInterface) ifaces
-										.nextElement();
-								final Enumeration iaddresses = iface
-										.getInetAddresses();
-
-								while (iaddresses.hasMoreElements()) {
-									final InetAddress iaddress = (InetAddress) iaddresses
-											.nextElement();
-									if (!iaddress.isLoopbackAddress()
-											&& !iaddress.isLinkLocalAddress()) {
-
-										// Reset the candidate
-										candAddress = null;
-										candPort = -1;
-
-										final DiscoveryTest test = new DiscoveryTest(
-												iaddress, currentServer
-														.getHostname(),
-												currentServer.getPort());
-										try {
-											// Run the tests and get the
-											// discovery
-											// information, where all the
-											// info is stored...
-											final DiscoveryInfo di = test
-													.test();
-
-											candAddress = di.getPublicIP() != null ? di
-													.getPublicIP()
-													.getHostAddress() : null;
-
-											// Get a valid port
-											if (defaultPort == 0) {
-												candPort = getFreePort();
-											} else {
-												candPort = defaultPort;
-											}
-
-											// If we have a valid candidate,
-											// add it to the list.
-											if (candAddress != null
-													&& candPort >= 0) {
-												final TransportCandidate candidate = new TransportCandidate.Fixed(
-														candAddress, candPort);
-												candidate
-														.setLocalIp(iaddress
-																.getHostAddress() != null ? iaddress
-																.getHostAddress()
-																: iaddress
-																		.getHostName());
-												addCandidate(candidate);
-
-												resolvedPublicIP = candidate
-														.getIp();
-												resolvedLocalIP = candidate
-														.getLocalIp();
-												return;
-											}
-										} catch (final Exception e) {
-											LOGGER.error(e.getMessage(), e);
-										}
-									}
-								}
-							}
-						} catch (final SocketException e) {
-							LOGGER.error(e.getMessage(), e);
+							discover();
 						} finally {
 							setInitialized();
 						}
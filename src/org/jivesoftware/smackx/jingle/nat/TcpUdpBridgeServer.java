@@ -1,13 +1,11 @@
 package org.jivesoftware.smackx.jingle.nat;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
 
 import org.jivesoftware.smackx.jingle.SmackLogger;
 
@@ -15,6 +13,10 @@ import org.jivesoftware.smackx.jingle.SmackLogger;
  * A Simple and Experimental Bridge. It Creates a TCP Socket Listeners for
  * Connections and forwards every packets received to an UDP Listener. And
  * forwards every packets received in UDP Socket, to the TCP Client
+ * <p>
+ * 
+ * The datagrams are framed over TCP, so the other side must be a bridge as
+ * well. The bridge is served by the shared {@link BridgeRelay}.
  */
 public class TcpUdpBridgeServer {
 
@@ -27,9 +29,10 @@ public class TcpUdpBridgeServer {
 	private int remoteUdpPort = -1;
 	private int localUdpPort = -1;
 
-	private DatagramSocket localUdpSocket;
-	private Socket localTcpSocket;
-	private ServerSocket serverTcpSocket;
+	private DatagramChannel localUdpChannel;
+	private ServerSocketChannel serverTcpChannel;
+	private volatile BridgeRelay.Bridge bridge;
+	private final BridgeStatistics statistics = new BridgeStatistics();
 
 	public TcpUdpBridgeServer(String remoteTcpHost, String remoteUdpHost,
 			int remoteTcpPort, int remoteUdpPort) {
@@ -39,95 +42,69 @@ public class TcpUdpBridgeServer {
 		this.remoteUdpPort = remoteUdpPort;
 
 		try {
-			serverTcpSocket = new ServerSocket(remoteTcpPort);
-			localUdpSocket = new DatagramSocket(0);
-			localUdpPort = localUdpSocket.getLocalPort();
-			LOGGER.debug("UDP: " + localUdpSocket.getLocalPort());
+			serverTcpChannel = ServerSocketChannel.open();
+			serverTcpChannel.socket().bind(
+					new InetSocketAddress(remoteTcpPort));
+			serverTcpChannel.configureBlocking(false);
+			localUdpChannel = DatagramChannel.open();
+			localUdpChannel.socket().bind(new InetSocketAddress(0));
+			localUdpPort = localUdpChannel.socket().getLocalPort();
+			LOGGER.debug("UDP: " + localUdpPort);
 		} catch (final IOException e) {
 			e.printStackTrace();
 		}
 		startBridge();
 	}
 
+	/**
+	 * Stops the bridge and closes its sockets.
+	 */
+	public void close() {
+		if (bridge != null) {
+			try {
+				BridgeRelay.getInstance().close(bridge);
+			} catch (final IOException e) {
+				// The relay is running if there's a bridge
+			}
+		}
+	}
+
+	/**
+	 * Returns the accepted TCP socket.
+	 * 
+	 * @return the socket or <tt>null</tt> if no connection was accepted yet.
+	 */
 	public Socket getLocalTcpSocket() {
-		return localTcpSocket;
+		final BridgeRelay.Bridge current = bridge;
+		return current != null && current.getTcp() != null ? current.getTcp()
+				.socket() : null;
 	}
 
 	public DatagramSocket getLocalUdpSocket() {
-		return localUdpSocket;
+		return localUdpChannel != null ? localUdpChannel.socket() : null;
 	}
 
-	public void startBridge() {
-
-		final Thread process = new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				try {
-					final OutputStream out = localTcpSocket.getOutputStream();
-
-					while (true) {
-
-						final byte b[] = new byte[500];
-						final DatagramPacket p = new DatagramPacket(b, 500);
-
-						localUdpSocket.receive(p);
-						if (p.getLength() == 0) {
-							continue;
-						}
-
-						LOGGER.debug("UDP Server Received and Sending to TCP Client:"
-								+ new String(p.getData(), 0, p.getLength(),
-										"UTF-8"));
-
-						out.write(p.getData(), 0, p.getLength());
-						out.flush();
-						LOGGER.debug("Server Flush");
-					}
-
-				} catch (final IOException e) {
-					e.printStackTrace();
-				}
-			}
-
-		});
-
-		new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				try {
-
-					localTcpSocket = serverTcpSocket.accept();
-					process.start();
-					final InputStream in = localTcpSocket.getInputStream();
-					final InetAddress remoteHost = InetAddress
-							.getByName(remoteUdpHost);
-
-					while (true) {
-						final byte b[] = new byte[500];
-
-						final int s = in.read(b);
-						// if (s == -1) continue;
-
-						LOGGER.debug("TCP Server:"
-								+ new String(b, 0, s, "UTF-8"));
-
-						final DatagramPacket udpPacket = new DatagramPacket(b,
-								s);
-
-						udpPacket.setAddress(remoteHost);
-						udpPacket.setPort(remoteUdpPort);
-
-						localUdpSocket.send(udpPacket);
-
-					}
-
-				} catch (final IOException e) {
-					e.printStackTrace();
-				}
-			}
+	/**
+	 * Returns the counters of the relayed traffic.
+	 * 
+	 * @return the statistics of the bridge.
+	 */
+	public BridgeStatistics getStatistics() {
+		return statistics;
+	}
 
-		}).start();
+	public synchronized void startBridge() {
+		if (bridge != null || serverTcpChannel == null
+				|| localUdpChannel == null) {
+			return;
+		}
+		try {
+			bridge = new BridgeRelay.Bridge(localUdpChannel,
+					new InetSocketAddress(remoteUdpHost, remoteUdpPort),
+					statistics);
+			BridgeRelay.getInstance().accept(bridge, serverTcpChannel);
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
 	}
 }
@@ -53,15 +53,14 @@
 package org.jivesoftware.smackx.jingle.nat;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jivesoftware.smack.Connection;
 import org.jivesoftware.smackx.jingle.JingleSession;
@@ -78,279 +77,74 @@ import org.jivesoftware.smackx.jingle.SmackLogger;
  */
 public abstract class TransportCandidate {
 
-	public class CandidateEcho implements Runnable {
-
-		DatagramSocket socket = null;
-		String localUser = null;
-		String remoteUser = null;
-		String id = null;
-		byte send[] = null;
-		byte receive[] = null;
-		DatagramPacket sendPacket = null;
-		List<DatagramListener> listeners = new ArrayList<DatagramListener>();
-		List<ResultListener> resultListeners = new ArrayList<ResultListener>();
-		boolean enabled = true;
-		boolean ended = false;
-		long replyTries = 2;
-		long tries = 10;
-		TransportCandidate candidate = null;
+	/**
+	 * Answers the connectivity checks of the other endpoint on the port of a
+	 * local candidate, and sends our own checks from it. The channel is served
+	 * by the shared {@link ConnectivityChecker}, so no thread is needed per
+	 * candidate.
+	 */
+	public class CandidateEcho {
+
+		final DatagramChannel channel;
+		final TransportCandidate candidate;
+		// True if this endpoint initiated the session
+		final boolean controlling;
+		final List<DatagramListener> listeners = new CopyOnWriteArrayList<DatagramListener>();
+		private final ConnectivityChecker checker;
 
 		public CandidateEcho(TransportCandidate candidate, JingleSession session)
 				throws UnknownHostException, SocketException {
-			socket = new DatagramSocket(candidate.getPort(),
-					InetAddress.getByName(candidate.getLocalIp()));
-			localUser = session.getInitiator();
-			remoteUser = session.getResponder();
-			id = session.getSid();
 			this.candidate = candidate;
-
-			final int keySplitIndex = ((int) Math
-					.ceil(((float) id.length()) / 2));
-
-			final String local = id.substring(0, keySplitIndex) + ";"
-					+ localUser;
-			final String remote = id.substring(keySplitIndex) + ";"
-					+ remoteUser;
-
+			controlling = session.getConnection().getUser()
+					.equals(session.getInitiator());
+			final InetSocketAddress address = new InetSocketAddress(
+					InetAddress.getByName(candidate.getLocalIp()),
+					candidate.getPort());
+			try {
+				checker = ConnectivityChecker.getInstance();
+				channel = DatagramChannel.open();
+			} catch (final IOException e) {
+				final SocketException se = new SocketException(e.getMessage());
+				se.initCause(e);
+				throw se;
+			}
 			try {
-				if (session.getConnection().getUser()
-						.equals(session.getInitiator())) {
-
-					send = local.getBytes("UTF-8");
-					receive = remote.getBytes("UTF-8");
-				} else {
-					receive = local.getBytes("UTF-8");
-					send = remote.getBytes("UTF-8");
+				channel.socket().bind(address);
+				channel.configureBlocking(false);
+			} catch (final IOException e) {
+				try {
+					channel.close();
+				} catch (final IOException ignore) {
+					// Ignore
 				}
-			} catch (final UnsupportedEncodingException e) {
-				e.printStackTrace();
+				final SocketException se = new SocketException(e.getMessage());
+				se.initCause(e);
+				throw se;
 			}
-
+			checker.register(this);
 		}
 
+		/**
+		 * Adds a listener that is offered the datagrams received on the
+		 * channel before they are handled as checks.
+		 * 
+		 * @param listener
+		 *            the listener.
+		 */
 		public void addListener(DatagramListener listener) {
 			listeners.add(listener);
 		}
 
-		public void addResultListener(ResultListener resultListener) {
-			resultListeners.add(resultListener);
-		}
-
+		/**
+		 * Closes the channel, the checks using it fail.
+		 */
 		public void cancel() {
-			enabled = false;
-			socket.close();
-		}
-
-		private void fireTestResult(TestResult testResult,
-				TransportCandidate candidate) {
-			for (final ResultListener resultListener : resultListeners) {
-				resultListener.testFinished(testResult, candidate);
-			}
+			checker.unregister(this);
 		}
 
 		public void removeListener(DatagramListener listener) {
 			listeners.remove(listener);
 		}
-
-		public void removeResultListener(ResultListener resultListener) {
-			resultListeners.remove(resultListener);
-		}
-
-		@Override
-		public void run() {
-			try {
-				LOGGER.debug("Listening for ECHO: "
-						+ socket.getLocalAddress().getHostAddress() + ":"
-						+ socket.getLocalPort());
-				while (true) {
-
-					final DatagramPacket packet = new DatagramPacket(
-							new byte[150], 150);
-
-					socket.receive(packet);
-
-					// LOGGER.debug("ECHO Packet Received in: " +
-					// socket.getLocalAddress().getHostAddress() + ":" +
-					// socket.getLocalPort() + " From: " +
-					// packet.getAddress().getHostAddress() + ":" +
-					// packet.getPort());
-
-					boolean accept = false;
-
-					ByteBuffer buf = ByteBuffer.wrap(packet.getData());
-					final byte[] content = new byte[packet.getLength()];
-					buf = buf.get(content, 0, packet.getLength());
-
-					packet.setData(content);
-
-					for (final DatagramListener listener : listeners) {
-						accept = listener.datagramReceived(packet);
-						if (accept) {
-							break;
-						}
-					}
-
-					final long delay = 100 / replyTries;
-
-					final String str[] = new String(packet.getData(), "UTF-8")
-							.split(";");
-					final String pass = str[0];
-					final String address[] = str[1].split(":");
-					final String ip = address[0];
-					final String port = address[1];
-
-					if (pass.equals(candidate.getPassword()) && !accept) {
-
-						byte[] cont = null;
-						try {
-							cont = (password + ";" + candidate.getIp() + ":" + candidate
-									.getPort()).getBytes("UTF-8");
-						} catch (final UnsupportedEncodingException e) {
-							e.printStackTrace();
-						}
-
-						packet.setData(cont);
-						packet.setLength(cont.length);
-						packet.setAddress(InetAddress.getByName(ip));
-						packet.setPort(Integer.parseInt(port));
-
-						for (int i = 0; i < replyTries; i++) {
-							socket.send(packet);
-							if (!enabled) {
-								break;
-							}
-							try {
-								Thread.sleep(delay);
-							} catch (final InterruptedException e) {
-								e.printStackTrace();
-							}
-						}
-					}
-				}
-			} catch (final UnknownHostException uhe) {
-				if (enabled) {
-				}
-			} catch (final SocketException se) {
-				if (enabled) {
-				}
-			} catch (final IOException ioe) {
-				if (enabled) {
-				}
-			} catch (final Exception e) {
-				if (enabled) {
-				}
-			}
-		}
-
-		public void testASync(final TransportCandidate transportCandidate,
-				final String password) {
-
-			final Thread thread = new Thread(new Runnable() {
-
-				@Override
-				public void run() {
-
-					final DatagramListener listener = new DatagramListener() {
-						@Override
-						public boolean datagramReceived(
-								DatagramPacket datagramPacket) {
-
-							try {
-								LOGGER.debug("ECHO Received to: "
-										+ candidate.getIp()
-										+ ":"
-										+ candidate.getPort()
-										+ "  data: "
-										+ new String(datagramPacket.getData(),
-												"UTF-8"));
-								final String str[] = new String(datagramPacket
-										.getData(), "UTF-8").split(";");
-								final String pass = str[0];
-								final String addr[] = str[1].split(":");
-								final String ip = addr[0];
-								final String pt = addr[1];
-
-								if (pass.equals(password)
-										&& transportCandidate.getIp().indexOf(
-												ip) != -1
-										&& transportCandidate.getPort() == Integer
-												.parseInt(pt)) {
-									LOGGER.debug("ECHO OK: "
-											+ candidate.getIp() + ":"
-											+ candidate.getPort() + " <-> "
-											+ transportCandidate.getIp() + ":"
-											+ transportCandidate.getPort());
-									final TestResult testResult = new TestResult();
-									testResult.setResult(true);
-									ended = true;
-									fireTestResult(testResult,
-											transportCandidate);
-									return true;
-								}
-
-							} catch (final UnsupportedEncodingException e) {
-								e.printStackTrace();
-							}
-
-							LOGGER.debug("ECHO Wrong Data: "
-									+ datagramPacket.getAddress()
-											.getHostAddress() + ":"
-									+ datagramPacket.getPort());
-							return false;
-						}
-					};
-
-					addListener(listener);
-
-					byte[] content = null;
-					try {
-						content = new String(password + ";" + getIp() + ":"
-								+ getPort()).getBytes("UTF-8");
-					} catch (final UnsupportedEncodingException e) {
-						e.printStackTrace();
-					}
-
-					final DatagramPacket packet = new DatagramPacket(content,
-							content.length);
-
-					try {
-						packet.setAddress(InetAddress
-								.getByName(transportCandidate.getIp()));
-					} catch (final UnknownHostException e) {
-						e.printStackTrace();
-					}
-					packet.setPort(transportCandidate.getPort());
-
-					final long delay = 200;
-
-					try {
-						for (int i = 0; i < tries; i++) {
-							socket.send(packet);
-							if (ended) {
-								break;
-							}
-							try {
-								Thread.sleep(delay);
-							} catch (final InterruptedException e) {
-								e.printStackTrace();
-							}
-						}
-					} catch (final IOException e) {
-						// Do Nothing
-					}
-
-					try {
-						Thread.sleep(2000);
-					} catch (final InterruptedException e) {
-						e.printStackTrace();
-					}
-
-					removeListener(listener);
-				}
-			});
-			thread.start();
-		}
-
 	}
 
 	/**
@@ -584,8 +378,6 @@ public abstract class TransportCandidate {
 
 	private CandidateEcho candidateEcho = null;
 
-	private Thread echoThread = null;
-
 	// Listeners for events
 	private final List<TransportResolverListener.Checker> listeners = new ArrayList();
 
@@ -627,8 +419,6 @@ public abstract class TransportCandidate {
 	public void addCandidateEcho(JingleSession session) throws SocketException,
 			UnknownHostException {
 		candidateEcho = new CandidateEcho(this, session);
-		echoThread = new Thread(candidateEcho);
-		echoThread.start();
 	}
 
 	/**
@@ -836,7 +626,6 @@ public abstract class TransportCandidate {
 			candidateEcho.cancel();
 		}
 		candidateEcho = null;
-		echoThread = null;
 	}
 
 	/**
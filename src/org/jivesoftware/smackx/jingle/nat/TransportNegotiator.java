@@ -354,6 +354,14 @@ public abstract class TransportNegotiator extends JingleNegotiator {
 	public void close() {
 		super.close();
 
+		// Stop checking the candidates that weren't answered yet
+		synchronized (remoteCandidates) {
+			for (final TransportCandidate candidate : remoteCandidates) {
+				if (candidate instanceof ICECandidate) {
+					((ICECandidate) candidate).cancelCheck();
+				}
+			}
+		}
 	}
 
 	/**
@@ -47,7 +47,6 @@ import org.jivesoftware.smack.filter.FromMatchesFilter;
 import org.jivesoftware.smack.filter.MessageTypeFilter;
 import org.jivesoftware.smack.filter.PacketExtensionFilter;
 import org.jivesoftware.smack.filter.PacketFilter;
-import org.jivesoftware.smack.filter.PacketIDFilter;
 import org.jivesoftware.smack.filter.PacketTypeFilter;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
@@ -756,23 +755,9 @@ public class MultiUserChat {
 			iq.addItem(item);
 		}
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the change request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the change request to the server and wait up to a certain
+		// number of seconds for a reply. An error answer raises an exception.
+		connection.sendIqAsync(iq).getResult();
 	}
 
 	private void changeAffiliationByAdmin(String jid, String affiliation,
@@ -786,23 +771,9 @@ public class MultiUserChat {
 		item.setReason(reason);
 		iq.addItem(item);
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the change request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the change request to the server and wait up to a certain
+		// number of seconds for a reply. An error answer raises an exception.
+		connection.sendIqAsync(iq).getResult();
 	}
 
 	private void changeAffiliationByOwner(Collection<String> jids,
@@ -817,23 +788,9 @@ public class MultiUserChat {
 			iq.addItem(item);
 		}
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the change request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the change request to the server and wait up to a certain
+		// number of seconds for a reply. An error answer raises an exception.
+		connection.sendIqAsync(iq).getResult();
 	}
 
 	private void changeAffiliationByOwner(String jid, String affiliation)
@@ -846,23 +803,9 @@ public class MultiUserChat {
 		item.setJid(jid);
 		iq.addItem(item);
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the change request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the change request to the server and wait up to a certain
+		// number of seconds for a reply. An error answer raises an exception.
+		connection.sendIqAsync(iq).getResult();
 	}
 
 	/**
@@ -976,23 +919,9 @@ public class MultiUserChat {
 			iq.addItem(item);
 		}
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the change request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the change request to the server and wait up to a certain
+		// number of seconds for a reply. An error answer raises an exception.
+		connection.sendIqAsync(iq).getResult();
 	}
 
 	private void changeRole(String nickname, String role, String reason)
@@ -1006,23 +935,9 @@ public class MultiUserChat {
 		item.setReason(reason);
 		iq.addItem(item);
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the change request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the change request to the server and wait up to a certain
+		// number of seconds for a reply. An error answer raises an exception.
+		connection.sendIqAsync(iq).getResult();
 	}
 
 	/**
@@ -1522,23 +1437,9 @@ public class MultiUserChat {
 		destroy.setJid(alternateJID);
 		iq.setDestroy(destroy);
 
-		// Wait for a presence packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the room destruction request.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the room destruction request and wait up to a certain number of
+		// seconds for a reply. An error answer raises an exception.
+		connection.sendIqAsync(iq).getResult();
 		// Reset occupant information.
 		occupantsMap.clear();
 		nickname = null;
@@ -1694,23 +1595,10 @@ public class MultiUserChat {
 		final MUCAdmin.Item item = new MUCAdmin.Item(affiliation, null);
 		iq.addItem(item);
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final MUCAdmin answer = (MUCAdmin) response
-				.nextResult(SmackConfiguration.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the request to the server and wait up to a certain number of
+		// seconds for a reply. An error answer raises an exception.
+		final MUCAdmin answer = (MUCAdmin) connection.sendIqAsync(iq)
+				.getResult();
 		// Get the list of affiliates from the server's answer
 		final List<Affiliate> affiliates = new ArrayList<Affiliate>();
 		for (final Iterator<?> it = answer.getItems(); it.hasNext();) {
@@ -1742,23 +1630,10 @@ public class MultiUserChat {
 		final MUCOwner.Item item = new MUCOwner.Item(affiliation);
 		iq.addItem(item);
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final MUCOwner answer = (MUCOwner) response
-				.nextResult(SmackConfiguration.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the request to the server and wait up to a certain number of
+		// seconds for a reply. An error answer raises an exception.
+		final MUCOwner answer = (MUCOwner) connection.sendIqAsync(iq)
+				.getResult();
 		// Get the list of affiliates from the server's answer
 		final List<Affiliate> affiliates = new ArrayList<Affiliate>();
 		for (final Iterator<?> it = answer.getItems(); it.hasNext();) {
@@ -1784,23 +1659,10 @@ public class MultiUserChat {
 		iq.setTo(room);
 		iq.setType(IQ.Type.GET);
 
-		// Filter packets looking for an answer from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Request the configuration form to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Request the configuration form to the server and wait up to a
+		// certain number of seconds for a reply. An error answer raises an
+		// exception.
+		final IQ answer = connection.sendIqAsync(iq).getResult();
 		return Form.getFormFrom(answer);
 	}
 
@@ -1934,23 +1796,10 @@ public class MultiUserChat {
 		final MUCAdmin.Item item = new MUCAdmin.Item(null, role);
 		iq.addItem(item);
 
-		// Wait for a response packet back from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the request to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final MUCAdmin answer = (MUCAdmin) response
-				.nextResult(SmackConfiguration.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the request to the server and wait up to a certain number of
+		// seconds for a reply. An error answer raises an exception.
+		final MUCAdmin answer = (MUCAdmin) connection.sendIqAsync(iq)
+				.getResult();
 		// Get the list of participants from the server's answer
 		final List<Occupant> participants = new ArrayList<Occupant>();
 		for (final Iterator<?> it = answer.getItems(); it.hasNext();) {
@@ -2037,19 +1886,7 @@ public class MultiUserChat {
 		reg.setType(IQ.Type.GET);
 		reg.setTo(room);
 
-		final PacketFilter filter = new AndFilter(new PacketIDFilter(
-				reg.getPacketID()), new PacketTypeFilter(IQ.class));
-		final PacketCollector collector = connection
-				.createPacketCollector(filter);
-		connection.sendPacket(reg);
-		final IQ result = (IQ) collector.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		collector.cancel();
-		if (result == null) {
-			throw new XMPPException("No response from server.");
-		} else if (result.getType() == IQ.Type.ERROR) {
-			throw new XMPPException(result.getError());
-		}
+		final IQ result = connection.sendIqAsync(reg).getResult();
 		return Form.getFormFrom(result);
 	}
 
@@ -2980,23 +2817,10 @@ public class MultiUserChat {
 		iq.setType(IQ.Type.SET);
 		iq.addExtension(form.getDataFormToSend());
 
-		// Filter packets looking for an answer from the server.
-		final PacketFilter responseFilter = new PacketIDFilter(iq.getPacketID());
-		final PacketCollector response = connection
-				.createPacketCollector(responseFilter);
-		// Send the completed configuration form to the server.
-		connection.sendPacket(iq);
-		// Wait up to a certain number of seconds for a reply.
-		final IQ answer = (IQ) response.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		// Stop queuing results
-		response.cancel();
-
-		if (answer == null) {
-			throw new XMPPException("No response from server.");
-		} else if (answer.getError() != null) {
-			throw new XMPPException(answer.getError());
-		}
+		// Send the completed configuration form to the server and wait up to a
+		// certain number of seconds for a reply. An error answer raises an
+		// exception.
+		connection.sendIqAsync(iq).getResult();
 	}
 
 	/**
@@ -3051,19 +2875,7 @@ public class MultiUserChat {
 		reg.setTo(room);
 		reg.addExtension(form.getDataFormToSend());
 
-		final PacketFilter filter = new AndFilter(new PacketIDFilter(
-				reg.getPacketID()), new PacketTypeFilter(IQ.class));
-		final PacketCollector collector = connection
-				.createPacketCollector(filter);
-		connection.sendPacket(reg);
-		final IQ result = (IQ) collector.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-		collector.cancel();
-		if (result == null) {
-			throw new XMPPException("No response from server.");
-		} else if (result.getType() == IQ.Type.ERROR) {
-			throw new XMPPException(result.getError());
-		}
+		connection.sendIqAsync(reg).getResult();
 	}
 
 	/**
@@ -0,0 +1,135 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx.packet;
+
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.provider.PacketExtensionProvider;
+import org.jivesoftware.smack.util.StringUtils;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * The entity capabilities of the sender of a presence packet as defined by
+ * XEP-0115. The verification string identifies the service discovery
+ * information of the sender, so it only has to be requested once per
+ * verification string instead of once per entity.
+ * 
+ * @see <a href="http://xmpp.org/extensions/xep-0115.html">XEP-0115: Entity
+ *      Capabilities</a>
+ */
+public class CapsExtension implements PacketExtension {
+
+	public static class Provider implements PacketExtensionProvider {
+
+		@Override
+		public PacketExtension parseExtension(XmlPullParser parser)
+				throws Exception {
+			final String node = parser.getAttributeValue("", "node");
+			final String ver = parser.getAttributeValue("", "ver");
+			final String hash = parser.getAttributeValue("", "hash");
+
+			// Advance to end of extension.
+			while (parser.getEventType() != XmlPullParser.END_TAG
+					|| !ELEMENT_NAME.equals(parser.getName())) {
+				parser.next();
+			}
+
+			return new CapsExtension(node, ver, hash);
+		}
+	}
+
+	public static final String NAMESPACE = "http://jabber.org/protocol/caps";
+
+	public static final String ELEMENT_NAME = "c";
+
+	private final String node;
+	private final String ver;
+	private final String hash;
+
+	/**
+	 * Creates new entity capabilities.
+	 * 
+	 * @param node
+	 *            the URI identifying the software of the entity.
+	 * @param ver
+	 *            the verification string.
+	 * @param hash
+	 *            the hash function the verification string was generated
+	 *            with, or <tt>null</tt> for the legacy format.
+	 */
+	public CapsExtension(String node, String ver, String hash) {
+		this.node = node;
+		this.ver = ver;
+		this.hash = hash;
+	}
+
+	@Override
+	public String getElementName() {
+		return ELEMENT_NAME;
+	}
+
+	/**
+	 * Returns the hash function the verification string was generated with,
+	 * e.g. "sha-1". Legacy entity capabilities have no hash function.
+	 * 
+	 * @return the hash function or <tt>null</tt>.
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	@Override
+	public String getNamespace() {
+		return NAMESPACE;
+	}
+
+	/**
+	 * Returns the URI identifying the software of the entity.
+	 * 
+	 * @return the node.
+	 */
+	public String getNode() {
+		return node;
+	}
+
+	/**
+	 * Returns the verification string.
+	 * 
+	 * @return the verification string.
+	 */
+	public String getVer() {
+		return ver;
+	}
+
+	@Override
+	public String toXML() {
+		final StringBuilder buf = new StringBuilder();
+		buf.append("<").append(ELEMENT_NAME).append(" xmlns=\"")
+				.append(NAMESPACE).append("\"");
+		if (hash != null) {
+			buf.append(" hash=\"").append(StringUtils.escapeForXML(hash))
+					.append("\"");
+		}
+		if (node != null) {
+			buf.append(" node=\"").append(StringUtils.escapeForXML(node))
+					.append("\"");
+		}
+		if (ver != null) {
+			buf.append(" ver=\"").append(StringUtils.escapeForXML(ver))
+					.append("\"");
+		}
+		buf.append("/>");
+		return buf.toString();
+	}
+}
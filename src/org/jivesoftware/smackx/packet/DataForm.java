@@ -20,12 +20,15 @@
 
 package org.jivesoftware.smackx.packet;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.XMLStreamable;
+import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smackx.FormField;
 
 /**
@@ -34,7 +37,7 @@ import org.jivesoftware.smackx.FormField;
  * 
  * @author Gaston Dombiak
  */
-public class DataForm implements PacketExtension {
+public class DataForm implements PacketExtension, XMLStreamable {
 
 	/**
 	 * 
@@ -42,7 +45,7 @@ public class DataForm implements PacketExtension {
 	 * 
 	 * @author Gaston Dombiak
 	 */
-	public static class Item {
+	public static class Item implements XMLStreamable {
 		private List<FormField> fields = new ArrayList<FormField>();
 
 		public Item(List<FormField> fields) {
@@ -60,16 +63,19 @@ public class DataForm implements PacketExtension {
 		}
 
 		public String toXML() {
-			final StringBuilder buf = new StringBuilder();
+			return StringUtils.toXML(this);
+		}
+
+		@Override
+		public void toXML(Appendable buf) throws IOException {
 			buf.append("<item>");
 			// Loop through all the form items and append them to the string
 			// buffer
 			for (final Iterator<FormField> i = getFields(); i.hasNext();) {
 				final FormField field = i.next();
-				buf.append(field.toXML());
+				field.toXML(buf);
 			}
 			buf.append("</item>");
-			return buf.toString();
 		}
 	}
 
@@ -81,7 +87,7 @@ public class DataForm implements PacketExtension {
 	 * 
 	 * @author Gaston Dombiak
 	 */
-	public static class ReportedData {
+	public static class ReportedData implements XMLStreamable {
 		private List<FormField> fields = new ArrayList<FormField>();
 
 		public ReportedData(List<FormField> fields) {
@@ -99,16 +105,19 @@ public class DataForm implements PacketExtension {
 		}
 
 		public String toXML() {
-			final StringBuilder buf = new StringBuilder();
+			return StringUtils.toXML(this);
+		}
+
+		@Override
+		public void toXML(Appendable buf) throws IOException {
 			buf.append("<reported>");
 			// Loop through all the form items and append them to the string
 			// buffer
 			for (final Iterator<FormField> i = getFields(); i.hasNext();) {
 				final FormField field = i.next();
-				buf.append(field.toXML());
+				field.toXML(buf);
 			}
 			buf.append("</reported>");
-			return buf.toString();
 		}
 	}
 
@@ -294,10 +303,14 @@ public class DataForm implements PacketExtension {
 
 	@Override
 	public String toXML() {
-		final StringBuilder buf = new StringBuilder();
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
 		buf.append("<").append(getElementName()).append(" xmlns=\"")
 				.append(getNamespace())
-				.append("\" type=\"" + getType() + "\">");
+				.append("\" type=\"").append(getType()).append("\">");
 		if (getTitle() != null) {
 			buf.append("<title>").append(getTitle()).append("</title>");
 		}
@@ -307,20 +320,19 @@ public class DataForm implements PacketExtension {
 		}
 		// Append the list of fields returned from a search
 		if (getReportedData() != null) {
-			buf.append(getReportedData().toXML());
+			getReportedData().toXML(buf);
 		}
 		// Loop through all the items returned from a search and append them to
 		// the string buffer
 		for (final Iterator<Item> i = getItems(); i.hasNext();) {
 			final Item item = i.next();
-			buf.append(item.toXML());
+			item.toXML(buf);
 		}
 		// Loop through all the form fields and append them to the string buffer
 		for (final Iterator<FormField> i = getFields(); i.hasNext();) {
 			final FormField field = i.next();
-			buf.append(field.toXML());
+			field.toXML(buf);
 		}
 		buf.append("</").append(getElementName()).append(">");
-		return buf.toString();
 	}
 }
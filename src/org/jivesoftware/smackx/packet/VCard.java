@@ -35,13 +35,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.jivesoftware.smack.Connection;
-import org.jivesoftware.smack.PacketCollector;
-import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.IQFuture;
 import org.jivesoftware.smack.XMPPException;
-import org.jivesoftware.smack.filter.PacketIDFilter;
 import org.jivesoftware.smack.packet.IQ;
-import org.jivesoftware.smack.packet.Packet;
-import org.jivesoftware.smack.packet.XMPPError;
 import org.jivesoftware.smack.util.StringUtils;
 
 /**
@@ -92,61 +88,75 @@ public class VCard extends IQ {
 
 	private interface ContentBuilder {
 
-		void addTagContent();
+		void addTagContent() throws IOException;
 	}
 
 	private class VCardWriter {
 
-		private final StringBuilder sb;
+		private final Appendable sb;
 
-		VCardWriter(StringBuilder sb) {
+		VCardWriter(Appendable sb) {
 			this.sb = sb;
 		}
 
 		private void appendAddress(final Map<String, String> addr,
-				final String code) {
+				final String code) throws IOException {
 			if (addr.size() > 0) {
 				appendTag("ADR", true, new ContentBuilder() {
 					@Override
-					public void addTagContent() {
+					public void addTagContent() throws IOException {
 						appendEmptyTag(code);
 
 						final Iterator<Entry<String, String>> it = addr
 								.entrySet().iterator();
 						while (it.hasNext()) {
 							final Entry<String, String> entry = it.next();
-							appendTag(entry.getKey(),
-									StringUtils.escapeForXML(entry.getValue()));
+							appendEscapedTag(entry.getKey(), entry.getValue());
 						}
 					}
 				});
 			}
 		}
 
-		private void appendEmail(final String email, final String type) {
+		private void appendEmail(final String email, final String type)
+				throws IOException {
 			if (email != null) {
 				appendTag("EMAIL", true, new ContentBuilder() {
 					@Override
-					public void addTagContent() {
+					public void addTagContent() throws IOException {
 						appendEmptyTag(type);
 						appendEmptyTag("INTERNET");
 						appendEmptyTag("PREF");
-						appendTag("USERID", StringUtils.escapeForXML(email));
+						appendEscapedTag("USERID", email);
 					}
 				});
 			}
 		}
 
-		private void appendEmptyTag(Object tag) {
-			sb.append('<').append(tag).append("/>");
+		private void appendEmptyTag(Object tag) throws IOException {
+			sb.append('<').append(String.valueOf(tag)).append("/>");
 		}
 
-		private void appendGenericFields() {
+		private void appendEscapedTag(String tag, final String tagText)
+				throws IOException {
+			if (tagText == null) {
+				return;
+			}
+			final ContentBuilder contentBuilder = new ContentBuilder() {
+				@Override
+				public void addTagContent() throws IOException {
+					StringUtils.escapeForXML(tagText.trim(), sb);
+				}
+			};
+			appendTag(tag, true, contentBuilder);
+		}
+
+		private void appendGenericFields() throws IOException {
 			Iterator<?> it = otherSimpleFields.entrySet().iterator();
 			while (it.hasNext()) {
 				final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) it.next();
-				appendTag(entry.getKey().toString(),
-						StringUtils.escapeForXML((String) entry.getValue()));
+				appendEscapedTag(entry.getKey().toString(),
+						(String) entry.getValue());
 			}
 
 			it = otherUnescapableFields.entrySet().iterator();
@@ -156,59 +166,58 @@ public class VCard extends IQ {
 			}
 		}
 
-		private void appendN() {
+		private void appendN() throws IOException {
 			appendTag("N", true, new ContentBuilder() {
 				@Override
-				public void addTagContent() {
-					appendTag("FAMILY", StringUtils.escapeForXML(lastName));
-					appendTag("GIVEN", StringUtils.escapeForXML(firstName));
-					appendTag("MIDDLE", StringUtils.escapeForXML(middleName));
+				public void addTagContent() throws IOException {
+					appendEscapedTag("FAMILY", lastName);
+					appendEscapedTag("GIVEN", firstName);
+					appendEscapedTag("MIDDLE", middleName);
 				}
 			});
 		}
 
-		private void appendOrganization() {
+		private void appendOrganization() throws IOException {
 			if (hasOrganizationFields()) {
 				appendTag("ORG", true, new ContentBuilder() {
 					@Override
-					public void addTagContent() {
-						appendTag("ORGNAME",
-								StringUtils.escapeForXML(organization));
-						appendTag("ORGUNIT",
-								StringUtils.escapeForXML(organizationUnit));
+					public void addTagContent() throws IOException {
+						appendEscapedTag("ORGNAME", organization);
+						appendEscapedTag("ORGUNIT", organizationUnit);
 					}
 				});
 			}
 		}
 
-		private void appendPhones(Map<String, String> phones, final String code) {
+		private void appendPhones(Map<String, String> phones,
+				final String code) throws IOException {
 			final Iterator<?> it = phones.entrySet().iterator();
 			while (it.hasNext()) {
 				final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) it.next();
 				appendTag("TEL", true, new ContentBuilder() {
 					@Override
-					public void addTagContent() {
+					public void addTagContent() throws IOException {
 						appendEmptyTag(entry.getKey());
 						appendEmptyTag(code);
-						appendTag("NUMBER", StringUtils
-								.escapeForXML((String) entry.getValue()));
+						appendEscapedTag("NUMBER", (String) entry.getValue());
 					}
 				});
 			}
 		}
 
 		private void appendTag(String tag, boolean hasContent,
-				ContentBuilder builder) {
+				ContentBuilder builder) throws IOException {
 			appendTag(tag, null, null, hasContent, builder);
 		}
 
-		private void appendTag(String tag, final String tagText) {
+		private void appendTag(String tag, final String tagText)
+				throws IOException {
 			if (tagText == null) {
 				return;
 			}
 			final ContentBuilder contentBuilder = new ContentBuilder() {
 				@Override
-				public void addTagContent() {
+				public void addTagContent() throws IOException {
 					sb.append(tagText.trim());
 				}
 			};
@@ -216,7 +225,7 @@ public class VCard extends IQ {
 		}
 
 		private void appendTag(String tag, String attr, String attrValue,
-				boolean hasContent, ContentBuilder builder) {
+				boolean hasContent, ContentBuilder builder) throws IOException {
 			sb.append('<').append(tag);
 			if (attr != null) {
 				sb.append(' ').append(attr).append('=').append('\'')
@@ -232,7 +241,7 @@ public class VCard extends IQ {
 			}
 		}
 
-		private void buildActualContent() {
+		private void buildActualContent() throws IOException {
 			if (hasNameField()) {
 				appendN();
 			}
@@ -250,11 +259,11 @@ public class VCard extends IQ {
 			appendAddress(homeAddr, "HOME");
 		}
 
-		public void write() {
+		public void write() throws IOException {
 			appendTag("vCard", "xmlns", "vcard-temp", hasContent(),
 					new ContentBuilder() {
 						@Override
-						public void addTagContent() {
+						public void addTagContent() throws IOException {
 							buildActualContent();
 						}
 					});
@@ -372,23 +381,12 @@ public class VCard extends IQ {
 	private void doLoad(Connection connection, String user)
 			throws XMPPException {
 		setType(Type.GET);
-		final PacketCollector collector = connection
-				.createPacketCollector(new PacketIDFilter(getPacketID()));
-		connection.sendPacket(this);
+		final IQFuture future = connection.sendIqAsync(this);
 
 		VCard result = null;
 		try {
-			result = (VCard) collector.nextResult(SmackConfiguration
-					.getPacketReplyTimeout());
-
-			if (result == null) {
-				final String errorMessage = "Timeout getting VCard information";
-				throw new XMPPException(errorMessage, new XMPPError(
-						XMPPError.Condition.request_timeout, errorMessage));
-			}
-			if (result.getError() != null) {
-				throw new XMPPException(result.getError());
-			}
+			// Fails if the server answered with an error or timed out
+			result = (VCard) future.getResult();
 		} catch (final ClassCastException e) {
 			System.out.println("No VCard for " + user);
 		}
@@ -527,10 +525,22 @@ public class VCard extends IQ {
 		return StringUtils.encodeHex(digest.digest());
 	}
 
+	@Override
+	protected void appendChildElementXML(Appendable buf) throws IOException {
+		// Stream the vCard, including a possibly large photo, directly into
+		// the connection writer
+		new VCardWriter(buf).write();
+	}
+
 	@Override
 	public String getChildElementXML() {
 		final StringBuilder sb = new StringBuilder();
-		new VCardWriter(sb).write();
+		try {
+			new VCardWriter(sb).write();
+		} catch (final IOException e) {
+			// Can't happen, a StringBuilder never throws
+			throw new IllegalStateException(e);
+		}
 		return sb.toString();
 	}
 
@@ -681,21 +691,8 @@ public class VCard extends IQ {
 
 		setType(IQ.Type.SET);
 		setFrom(connection.getUser());
-		final PacketCollector collector = connection
-				.createPacketCollector(new PacketIDFilter(getPacketID()));
-		connection.sendPacket(this);
-
-		final Packet response = collector.nextResult(SmackConfiguration
-				.getPacketReplyTimeout());
-
-		// Cancel the collector.
-		collector.cancel();
-		if (response == null) {
-			throw new XMPPException("No response from server on status set.");
-		}
-		if (response.getError() != null) {
-			throw new XMPPException(response.getError());
-		}
+		// Fails if the server answered with an error or timed out
+		connection.sendIqAsync(this).getResult();
 	}
 
 	/**
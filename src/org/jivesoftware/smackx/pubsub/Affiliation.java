@@ -13,8 +13,12 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.Connection;
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.XMLStreamable;
+import org.jivesoftware.smack.util.StringUtils;
 
 /**
  * Represents a affiliation between a user and a node, where the {@link #type}
@@ -26,7 +30,7 @@ import org.jivesoftware.smack.packet.PacketExtension;
  * 
  * @author Robin Collier
  */
-public class Affiliation implements PacketExtension {
+public class Affiliation implements PacketExtension, XMLStreamable {
 	public enum Type {
 		member, none, outcast, owner, publisher
 	}
@@ -48,7 +52,8 @@ public class Affiliation implements PacketExtension {
 		type = affiliation;
 	}
 
-	private void appendAttribute(StringBuilder builder, String att, String value) {
+	private void appendAttribute(Appendable builder, String att, String value)
+			throws IOException {
 		builder.append(" ");
 		builder.append(att);
 		builder.append("='");
@@ -76,12 +81,16 @@ public class Affiliation implements PacketExtension {
 
 	@Override
 	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<");
-		builder.append(getElementName());
-		appendAttribute(builder, "node", node);
-		appendAttribute(builder, "affiliation", type.toString());
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<");
+		buf.append(getElementName());
+		appendAttribute(buf, "node", node);
+		appendAttribute(buf, "affiliation", type.toString());
 
-		builder.append("/>");
-		return builder.toString();
+		buf.append("/>");
 	}
 }
@@ -13,9 +13,12 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
+import org.jivesoftware.smack.util.StringUtils;
+
 /**
  * Represents the <b>affiliations</b> element of the reply to a request for
  * affiliations. It is defined in the specification in section <a
@@ -41,22 +44,21 @@ public class AffiliationsExtension extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
+	public void toXML(Appendable buf) throws IOException {
 		if ((items == null) || (items.size() == 0)) {
-			return super.toXML();
+			super.toXML(buf);
 		} else {
-			final StringBuilder builder = new StringBuilder("<");
-			builder.append(getElementName());
-			builder.append(">");
+			buf.append("<");
+			buf.append(getElementName());
+			buf.append(">");
 
 			for (final Affiliation item : items) {
-				builder.append(item.toXML());
+				StringUtils.appendXML(buf, item);
 			}
 
-			builder.append("</");
-			builder.append(getElementName());
-			builder.append(">");
-			return builder.toString();
+			buf.append("</");
+			buf.append(getElementName());
+			buf.append(">");
 		}
 	}
 }
@@ -13,10 +13,13 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.XMLStreamable;
+import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smackx.pubsub.packet.PubSubNamespace;
 
 /**
@@ -27,7 +30,8 @@ import org.jivesoftware.smackx.pubsub.packet.PubSubNamespace;
  * 
  * @author Robin Collier
  */
-public class EventElement implements EmbeddedPacketExtension {
+public class EventElement implements EmbeddedPacketExtension,
+		XMLStreamable {
 	private final EventElementType type;
 	private final NodeExtension ext;
 
@@ -61,11 +65,15 @@ public class EventElement implements EmbeddedPacketExtension {
 
 	@Override
 	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<event xmlns='"
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<event xmlns='"
 				+ PubSubNamespace.EVENT.getXmlns() + "'>");
 
-		builder.append(ext.toXML());
-		builder.append("</event>");
-		return builder.toString();
+		StringUtils.appendXML(buf, ext);
+		buf.append("</event>");
 	}
 }
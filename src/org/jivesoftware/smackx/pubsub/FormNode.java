@@ -13,6 +13,8 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smackx.Form;
 
 /**
@@ -73,24 +75,23 @@ public class FormNode extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
+	public void toXML(Appendable buf) throws IOException {
 		if (configForm == null) {
-			return super.toXML();
+			super.toXML(buf);
 		} else {
-			final StringBuilder builder = new StringBuilder("<");
-			builder.append(getElementName());
+			buf.append("<");
+			buf.append(getElementName());
 
 			if (getNode() != null) {
-				builder.append(" node='");
-				builder.append(getNode());
-				builder.append("'>");
+				buf.append(" node='");
+				buf.append(getNode());
+				buf.append("'>");
 			} else {
-				builder.append('>');
+				buf.append('>');
 			}
-			builder.append(configForm.getDataFormToSend().toXML());
-			builder.append("</");
-			builder.append(getElementName() + '>');
-			return builder.toString();
+			configForm.getDataFormToSend().toXML(buf);
+			buf.append("</");
+			buf.append(getElementName() + '>');
 		}
 	}
 
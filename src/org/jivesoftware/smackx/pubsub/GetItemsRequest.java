@@ -13,6 +13,8 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 /**
  * Represents a request to subscribe to a node.
  * 
@@ -51,26 +53,25 @@ public class GetItemsRequest extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<");
-		builder.append(getElementName());
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<");
+		buf.append(getElementName());
 
-		builder.append(" node='");
-		builder.append(getNode());
-		builder.append("'");
+		buf.append(" node='");
+		buf.append(getNode());
+		buf.append("'");
 
 		if (getSubscriptionId() != null) {
-			builder.append(" subid='");
-			builder.append(getSubscriptionId());
-			builder.append("'");
+			buf.append(" subid='");
+			buf.append(getSubscriptionId());
+			buf.append("'");
 		}
 
 		if (getMaxItems() > 0) {
-			builder.append(" max_items='");
-			builder.append(getMaxItems());
-			builder.append("'");
+			buf.append(" max_items='");
+			buf.append(String.valueOf(getMaxItems()));
+			buf.append("'");
 		}
-		builder.append("/>");
-		return builder.toString();
+		buf.append("/>");
 	}
 }
@@ -13,6 +13,8 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smackx.pubsub.provider.ItemProvider;
 
@@ -118,22 +120,20 @@ public class Item extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<item");
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<item");
 
 		if (id != null) {
-			builder.append(" id='");
-			builder.append(id);
-			builder.append("'");
+			buf.append(" id='");
+			buf.append(id);
+			buf.append("'");
 		}
 
 		if (getNode() != null) {
-			builder.append(" node='");
-			builder.append(getNode());
-			builder.append("'");
+			buf.append(" node='");
+			buf.append(getNode());
+			buf.append("'");
 		}
-		builder.append("/>");
-
-		return builder.toString();
+		buf.append("/>");
 	}
 }
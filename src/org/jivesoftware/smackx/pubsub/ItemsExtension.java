@@ -13,9 +13,11 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.util.StringUtils;
 
 /**
  * This class is used to for multiple purposes. <li>It can represent an event
@@ -176,32 +178,31 @@ public class ItemsExtension extends NodeExtension implements
 	}
 
 	@Override
-	public String toXML() {
+	public void toXML(Appendable buf) throws IOException {
 		if ((items == null) || (items.size() == 0)) {
-			return super.toXML();
+			super.toXML(buf);
 		} else {
-			final StringBuilder builder = new StringBuilder("<");
-			builder.append(getElementName());
-			builder.append(" node='");
-			builder.append(getNode());
+			buf.append("<");
+			buf.append(getElementName());
+			buf.append(" node='");
+			buf.append(getNode());
 
 			if (notify != null) {
-				builder.append("' ");
-				builder.append(type.getElementAttribute());
-				builder.append("='");
-				builder.append(notify.equals(Boolean.TRUE) ? 1 : 0);
-				builder.append("'>");
+				buf.append("' ");
+				buf.append(type.getElementAttribute());
+				buf.append("='");
+				buf.append(notify.equals(Boolean.TRUE) ? "1" : "0");
+				buf.append("'>");
 			} else {
-				builder.append("'>");
+				buf.append("'>");
 				for (final PacketExtension item : items) {
-					builder.append(item.toXML());
+					StringUtils.appendXML(buf, item);
 				}
 			}
 
-			builder.append("</");
-			builder.append(getElementName());
-			builder.append(">");
-			return builder.toString();
+			buf.append("</");
+			buf.append(getElementName());
+			buf.append(">");
 		}
 	}
 
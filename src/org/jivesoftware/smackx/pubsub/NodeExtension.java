@@ -13,7 +13,11 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.XMLStreamable;
+import org.jivesoftware.smack.util.StringUtils;
 
 /**
  * A class which represents a common element within the pubsub defined schemas.
@@ -23,7 +27,7 @@ import org.jivesoftware.smack.packet.PacketExtension;
  * 
  * @author Robin Collier
  */
-public class NodeExtension implements PacketExtension {
+public class NodeExtension implements PacketExtension, XMLStreamable {
 	private final PubSubElementType element;
 	private final String node;
 
@@ -76,9 +80,22 @@ public class NodeExtension implements PacketExtension {
 		return getClass().getName() + " - content [" + toXML() + "]";
 	}
 
+	/**
+	 * Serializes this extension through {@link #toXML(Appendable)}, which is
+	 * also what the packet writer streams. Subclasses add their attributes
+	 * and children by overriding that method, so this one is final.
+	 */
+	@Override
+	public final String toXML() {
+		return StringUtils.toXML(this);
+	}
+
 	@Override
-	public String toXML() {
-		return '<' + getElementName()
-				+ (node == null ? "" : " node='" + node + '\'') + "/>";
+	public void toXML(Appendable buf) throws IOException {
+		buf.append('<').append(getElementName());
+		if (node != null) {
+			buf.append(" node='").append(node).append('\'');
+		}
+		buf.append("/>");
 	}
 }
@@ -13,8 +13,11 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smackx.pubsub.provider.ItemProvider;
 
 /**
@@ -127,24 +130,22 @@ public class PayloadItem<E extends PacketExtension> extends Item {
 	}
 
 	@Override
-	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<item");
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<item");
 
 		if (getId() != null) {
-			builder.append(" id='");
-			builder.append(getId());
-			builder.append("'");
+			buf.append(" id='");
+			buf.append(getId());
+			buf.append("'");
 		}
 
 		if (getNode() != null) {
-			builder.append(" node='");
-			builder.append(getNode());
-			builder.append("'");
+			buf.append(" node='");
+			buf.append(getNode());
+			buf.append("'");
 		}
-		builder.append(">");
-		builder.append(payload.toXML());
-		builder.append("</item>");
-
-		return builder.toString();
+		buf.append(">");
+		StringUtils.appendXML(buf, payload);
+		buf.append("</item>");
 	}
 }
\ No newline at end of file
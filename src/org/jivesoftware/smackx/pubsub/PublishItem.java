@@ -13,9 +13,12 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import org.jivesoftware.smack.util.StringUtils;
+
 /**
  * Represents a request to publish an item(s) to a specific node.
  * 
@@ -52,18 +55,16 @@ public class PublishItem<T extends Item> extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<");
-		builder.append(getElementName());
-		builder.append(" node='");
-		builder.append(getNode());
-		builder.append("'>");
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<");
+		buf.append(getElementName());
+		buf.append(" node='");
+		buf.append(getNode());
+		buf.append("'>");
 
 		for (final Item item : items) {
-			builder.append(item.toXML());
+			StringUtils.appendXML(buf, item);
 		}
-		builder.append("</publish>");
-
-		return builder.toString();
+		buf.append("</publish>");
 	}
 }
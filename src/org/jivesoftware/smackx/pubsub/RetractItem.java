@@ -13,7 +13,11 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.XMLStreamable;
+import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smackx.pubsub.packet.PubSubNamespace;
 
 /**
@@ -21,7 +25,7 @@ import org.jivesoftware.smackx.pubsub.packet.PubSubNamespace;
  * 
  * @author Robin Collier
  */
-public class RetractItem implements PacketExtension {
+public class RetractItem implements PacketExtension, XMLStreamable {
 	private final String id;
 
 	/**
@@ -53,6 +57,11 @@ public class RetractItem implements PacketExtension {
 
 	@Override
 	public String toXML() {
-		return "<retract id='" + id + "'/>";
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<retract id='").append(id).append("'/>");
 	}
 }
@@ -13,7 +13,11 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.XMLStreamable;
+import org.jivesoftware.smack.util.StringUtils;
 
 /**
  * The default payload representation for {@link Item#getPayload()}. It simply
@@ -21,7 +25,7 @@ import org.jivesoftware.smack.packet.PacketExtension;
  * 
  * @author Robin Collier
  */
-public class SimplePayload implements PacketExtension {
+public class SimplePayload implements PacketExtension, XMLStreamable {
 	private final String elemName;
 	private final String ns;
 	private final String payload;
@@ -60,6 +64,11 @@ public class SimplePayload implements PacketExtension {
 
 	@Override
 	public String toXML() {
-		return payload;
+		return StringUtils.toXML(this);
+	}
+
+	@Override
+	public void toXML(Appendable buf) throws IOException {
+		buf.append(payload);
 	}
 }
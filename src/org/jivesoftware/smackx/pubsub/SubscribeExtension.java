@@ -13,6 +13,8 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 /**
  * Represents a request to subscribe to a node.
  * 
@@ -36,19 +38,17 @@ public class SubscribeExtension extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<");
-		builder.append(getElementName());
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<");
+		buf.append(getElementName());
 
 		if (getNode() != null) {
-			builder.append(" node='");
-			builder.append(getNode());
-			builder.append("'");
+			buf.append(" node='");
+			buf.append(getNode());
+			buf.append("'");
 		}
-		builder.append(" jid='");
-		builder.append(getJid());
-		builder.append("'/>");
-
-		return builder.toString();
+		buf.append(" jid='");
+		buf.append(getJid());
+		buf.append("'/>");
 	}
 }
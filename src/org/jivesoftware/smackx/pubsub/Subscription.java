@@ -13,6 +13,8 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 /**
  * Represents a subscription to node for both requests and replies.
  * 
@@ -100,7 +102,8 @@ public class Subscription extends NodeExtension {
 		this.configRequired = configRequired;
 	}
 
-	private void appendAttribute(StringBuilder builder, String att, String value) {
+	private void appendAttribute(Appendable builder, String att, String value)
+			throws IOException {
 		builder.append(" ");
 		builder.append(att);
 		builder.append("='");
@@ -146,24 +149,23 @@ public class Subscription extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<subscription");
-		appendAttribute(builder, "jid", jid);
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<subscription");
+		appendAttribute(buf, "jid", jid);
 
 		if (getNode() != null) {
-			appendAttribute(builder, "node", getNode());
+			appendAttribute(buf, "node", getNode());
 		}
 
 		if (id != null) {
-			appendAttribute(builder, "subid", id);
+			appendAttribute(buf, "subid", id);
 		}
 
 		if (state != null) {
-			appendAttribute(builder, "subscription", state.toString());
+			appendAttribute(buf, "subscription", state.toString());
 		}
 
-		builder.append("/>");
-		return builder.toString();
+		buf.append("/>");
 	}
 
 }
@@ -13,9 +13,12 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
+import org.jivesoftware.smack.util.StringUtils;
+
 /**
  * Represents the element holding the list of subscription elements.
  * 
@@ -64,28 +67,27 @@ public class SubscriptionsExtension extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
+	public void toXML(Appendable buf) throws IOException {
 		if ((items == null) || (items.size() == 0)) {
-			return super.toXML();
+			super.toXML(buf);
 		} else {
-			final StringBuilder builder = new StringBuilder("<");
-			builder.append(getElementName());
+			buf.append("<");
+			buf.append(getElementName());
 
 			if (getNode() != null) {
-				builder.append(" node='");
-				builder.append(getNode());
-				builder.append("'");
+				buf.append(" node='");
+				buf.append(getNode());
+				buf.append("'");
 			}
-			builder.append(">");
+			buf.append(">");
 
 			for (final Subscription item : items) {
-				builder.append(item.toXML());
+				StringUtils.appendXML(buf, item);
 			}
 
-			builder.append("</");
-			builder.append(getElementName());
-			builder.append(">");
-			return builder.toString();
+			buf.append("</");
+			buf.append(getElementName());
+			buf.append(">");
 		}
 	}
 }
@@ -13,6 +13,8 @@
  */
 package org.jivesoftware.smackx.pubsub;
 
+import java.io.IOException;
+
 import org.jivesoftware.smackx.pubsub.util.XmlUtils;
 
 /**
@@ -47,21 +49,20 @@ public class UnsubscribeExtension extends NodeExtension {
 	}
 
 	@Override
-	public String toXML() {
-		final StringBuilder builder = new StringBuilder("<");
-		builder.append(getElementName());
-		XmlUtils.appendAttribute(builder, "jid", jid);
+	public void toXML(Appendable buf) throws IOException {
+		buf.append("<");
+		buf.append(getElementName());
+		XmlUtils.appendAttribute(buf, "jid", jid);
 
 		if (getNode() != null) {
-			XmlUtils.appendAttribute(builder, "node", getNode());
+			XmlUtils.appendAttribute(buf, "node", getNode());
 		}
 
 		if (id != null) {
-			XmlUtils.appendAttribute(builder, "subid", id);
+			XmlUtils.appendAttribute(buf, "subid", id);
 		}
 
-		builder.append("/>");
-		return builder.toString();
+		buf.append("/>");
 	}
 
 }
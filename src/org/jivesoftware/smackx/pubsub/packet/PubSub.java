@@ -13,6 +13,8 @@
  */
 package org.jivesoftware.smackx.pubsub.packet;
 
+import java.io.IOException;
+
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.PacketExtension;
 import org.jivesoftware.smackx.pubsub.PubSubElementType;
@@ -28,6 +30,14 @@ import org.jivesoftware.smackx.pubsub.PubSubElementType;
 public class PubSub extends IQ {
 	private PubSubNamespace ns = PubSubNamespace.BASIC;
 
+	@Override
+	protected void appendChildElementXML(Appendable buf) throws IOException {
+		buf.append("<").append(getElementName()).append(" xmlns=\"")
+				.append(getNamespace()).append("\">");
+		appendExtensionsXML(buf);
+		buf.append("</").append(getElementName()).append(">");
+	}
+
 	/**
 	 * Returns the XML representation of a pubsub element according the
 	 * specification.
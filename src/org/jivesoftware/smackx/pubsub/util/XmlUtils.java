@@ -13,6 +13,7 @@
  */
 package org.jivesoftware.smackx.pubsub.util;
 
+import java.io.IOException;
 import java.io.StringReader;
 
 import javax.xml.transform.OutputKeys;
@@ -27,6 +28,15 @@ import javax.xml.transform.stream.StreamSource;
  * @author Robin Collier
  */
 public class XmlUtils {
+	static public void appendAttribute(Appendable builder, String att,
+			String value) throws IOException {
+		builder.append(" ");
+		builder.append(att);
+		builder.append("='");
+		builder.append(value);
+		builder.append("'");
+	}
+
 	static public void appendAttribute(StringBuilder builder, String att,
 			String value) {
 		builder.append(" ");
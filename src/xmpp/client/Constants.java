@@ -42,6 +42,7 @@ public interface Constants {
 	public static final int SIG_ROSTER_GET_CONTACTS = 14;
 	public static final int SIG_ROSTER_GET_CONTACTS_ERROR = -14;
 	public static final int SIG_CHAT_SESSION_UPDATE = 15;
+	public static final int SIG_ROSTER_SYNC = 16;
 
 	public static final int SIG_SEND_MESSAGE = 20;
 	public static final int SIG_SEND_MESSAGE_ERROR = -20;
@@ -55,6 +56,7 @@ public interface Constants {
 
 	public static final int SIG_UPDATE_USER = 40;
 	public static final int SIG_UPDATE_CONTACT = 41;
+	public static final int SIG_GET_AVATARS = 42;
 
 	public static final int SIG_GET_MUCS = 60;
 	public static final int SIG_ADD_MUC = 61;
@@ -76,6 +78,14 @@ public interface Constants {
 	public static final String FIELD_USER = "user";
 	public static final String FIELD_NICKNAME = "nick";
 	public static final String FIELD_JID = "jid";
+	public static final String FIELD_JID_LIST = "jids";
+	public static final String FIELD_USER_LIST = "users";
+	public static final String FIELD_ROSTER_ID = "rosterId";
+	public static final String FIELD_ROSTER_VERSION = "rosterVersion";
+	public static final String FIELD_ROSTER_SNAPSHOT = "rosterSnapshot";
+	public static final String FIELD_ROSTER_MORE = "rosterMore";
+	public static final String FIELD_AVATAR_HASHES = "avatarHashes";
+	public static final String FIELD_AVATAR_MISSING = "avatarMissing";
 
 	public static final String XMPP_RESSOURCE = "XMPP";
 
@@ -1,5 +1,6 @@
 package xmpp.client.service;
 
+import java.io.File;
 import java.security.Security;
 import java.util.Date;
 
@@ -7,10 +8,14 @@ import org.apache.qpid.management.common.sasl.SaslProvider;
 import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
 import org.jivesoftware.smack.ConnectionListener;
+import org.jivesoftware.smack.DefaultRosterStore;
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smackx.EntityCapsManager;
+import org.jivesoftware.smackx.SimpleDirectoryPersistentCache;
 
 import xmpp.client.Constants;
 import xmpp.client.R;
@@ -51,6 +56,16 @@ public class MainService implements Constants, ConnectionProvider,
 		AvatarServiceProvider, ContextProvider {
 
 	private static final String TAG = MainService.class.getName();
+
+	static {
+		// No smack-config.xml is packaged, so the reconnection manager has to
+		// be loaded here to register with the new connections
+		try {
+			Class.forName("org.jivesoftware.smack.ReconnectionManager");
+		} catch (final ClassNotFoundException e) {
+			Log.e(TAG, "ReconnectionManager", e);
+		}
+	}
 	private final ContextProvider contextProvider;
 	private final NotificationManager notificationManager;
 
@@ -189,10 +204,17 @@ public class MainService implements Constants, ConnectionProvider,
 			config.setSecurityMode(SecurityMode.required);
 		}
 		config.setReconnectionAllowed(true);
+		config.setNetworkAvailability(listener.getNetworkAvailability());
 		config.setCompressionEnabled(true);
 		config.setSelfSignedCertificateEnabled(true);
 		config.setTruststoreType("BKS");
 		config.setRosterLoadedAtLogin(false);
+		EntityCapsManager.setPersistentCache(new SimpleDirectoryPersistentCache(
+				new File(getCacheDir(), "caps")));
+		config.setRosterStore(new DefaultRosterStore(new File(getFilesDir(),
+				"roster-"
+						+ StringUtils.hash(accountInfo.getUsername() + "@"
+								+ accountInfo.getHostname()))));
 		config.setSendPresence(true);
 		SmackConfiguration.setKeepAliveInterval(60000);
 		SmackConfiguration.setPacketReplyTimeout(30000);
@@ -1,5 +1,7 @@
 package xmpp.client.service;
 
+import org.jivesoftware.smack.NetworkAvailability;
+
 import xmpp.client.account.AccountInfo;
 import xmpp.client.service.chat.ChatSession;
 import xmpp.client.service.chat.ParcelableMessage;
@@ -7,6 +9,8 @@ import xmpp.client.service.user.User;
 
 public interface MainServiceListener {
 
+	NetworkAvailability getNetworkAvailability();
+
 	boolean isActiveAccount(AccountInfo accountInfo);
 
 	boolean isActiveChatSession(AccountInfo accountInfo, ChatSession session);
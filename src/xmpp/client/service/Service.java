@@ -1,6 +1,13 @@
 package xmpp.client.service;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jivesoftware.smack.NetworkAvailability;
+
+import de.javawi.jstun.test.DiscoveryCache;
 
 import xmpp.client.Constants;
 import xmpp.client.account.AccountInfo;
@@ -9,12 +16,19 @@ import xmpp.client.service.chat.ParcelableMessage;
 import xmpp.client.service.chat.multi.MultiChatInfoList;
 import xmpp.client.service.handlers.SimpleMessageHandler;
 import xmpp.client.service.handlers.SimpleMessageHandlerClient;
+import xmpp.client.service.user.RosterLog;
 import xmpp.client.service.user.User;
+import xmpp.client.service.user.UserList;
+import xmpp.client.service.user.UserService;
 import xmpp.client.service.user.UserState;
 import xmpp.client.service.user.contact.Contact;
 import xmpp.client.service.user.contact.ContactList;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.os.HandlerThread;
 import android.os.IBinder;
@@ -29,12 +43,25 @@ public class Service extends android.app.Service implements
 
 	private static final String TAG = Service.class.getName();
 
+	/**
+	 * The number of users sent in one message, so a large roster doesn't
+	 * exceed the size of a binder transaction.
+	 */
+	private static final int ROSTER_PAGE_SIZE = 100;
+
+	/**
+	 * The number of avatar bytes sent in one message.
+	 */
+	private static final int AVATAR_PAGE_BYTES = 256 * 1024;
+
 	private Messenger messenger;
 	private Messenger activeClient;
 	private ChatSession activeChatSession;
 	private AccountInfo activeAccount;
 	private HashMap<String, MainService> services;
 	private HandlerThread thread;
+	private NetworkAvailability networkAvailability;
+	private BroadcastReceiver connectivityReceiver;
 
 	private void addUser(Message msg) {
 		Bundle b = msg.getData();
@@ -114,6 +141,52 @@ public class Service extends android.app.Service implements
 		return getServiceByAccountInfo(activeAccount);
 	}
 
+	/**
+	 * Sends the avatars of the requested hashes, in as many messages as
+	 * needed. The last message lists the hashes of the avatars that weren't
+	 * found, so the client may request them again later.
+	 */
+	private void getAvatars(Message msg) {
+		final MainService service = getServiceByAccountInfo(getAccountInfo(msg));
+		final ArrayList<String> hashes = msg.getData().getStringArrayList(
+				FIELD_AVATAR_HASHES);
+		if (service == null || service.getUserService() == null
+				|| hashes == null) {
+			return;
+		}
+		final Map<String, byte[]> avatars = service.getUserService()
+				.getAvatars(hashes);
+		final ArrayList<String> missing = new ArrayList<String>();
+		for (final String hash : hashes) {
+			if (!avatars.containsKey(hash)) {
+				missing.add(hash);
+			}
+		}
+		Bundle b = new Bundle();
+		ArrayList<String> sent = new ArrayList<String>();
+		int bytes = 0;
+		for (final Map.Entry<String, byte[]> avatar : avatars.entrySet()) {
+			if (!sent.isEmpty()
+					&& bytes + avatar.getValue().length > AVATAR_PAGE_BYTES) {
+				b.putStringArrayList(FIELD_AVATAR_HASHES, sent);
+				sendMsg(msg.replyTo, SIG_GET_AVATARS, b);
+				b = new Bundle();
+				sent = new ArrayList<String>();
+				bytes = 0;
+			}
+			b.putByteArray(avatar.getKey(), avatar.getValue());
+			sent.add(avatar.getKey());
+			bytes += avatar.getValue().length;
+		}
+		if (!missing.isEmpty()) {
+			b.putStringArrayList(FIELD_AVATAR_MISSING, missing);
+		}
+		if (!sent.isEmpty() || !missing.isEmpty()) {
+			b.putStringArrayList(FIELD_AVATAR_HASHES, sent);
+			sendMsg(msg.replyTo, SIG_GET_AVATARS, b);
+		}
+	}
+
 	private ContactList getContactList(AccountInfo accountInfo) {
 		return getServiceByAccountInfo(accountInfo).getContactList();
 	}
@@ -148,6 +221,19 @@ public class Service extends android.app.Service implements
 		sendMsg(msg.replyTo, SIG_GET_MUCS, b);
 	}
 
+	@Override
+	public NetworkAvailability getNetworkAvailability() {
+		return networkAvailability;
+	}
+
+	private RosterLog<User> getRosterLog(AccountInfo accountInfo) {
+		final MainService service = getServiceByAccountInfo(accountInfo);
+		if (service == null || service.getUserService() == null) {
+			return null;
+		}
+		return service.getUserService().getRosterLog();
+	}
+
 	private MainService getServiceByAccountInfo(AccountInfo info) {
 		if (info == null) {
 			return null;
@@ -209,6 +295,12 @@ public class Service extends android.app.Service implements
 		case SIG_ROSTER_GET_CONTACTS:
 			getContacts(msg);
 			break;
+		case SIG_ROSTER_SYNC:
+			syncRoster(msg);
+			break;
+		case SIG_GET_AVATARS:
+			getAvatars(msg);
+			break;
 		case SIG_ROSTER_ADD:
 			addUser(msg);
 			break;
@@ -252,6 +344,12 @@ public class Service extends android.app.Service implements
 				.equals(activeChatSession));
 	}
 
+	private boolean isNetworkConnected() {
+		final NetworkInfo info = ((ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE))
+				.getActiveNetworkInfo();
+		return info != null && info.isConnected();
+	}
+
 	private boolean isOnline(AccountInfo accountInfo) {
 		if (getServiceByAccountInfo(accountInfo) == null) {
 			return false;
@@ -310,10 +408,26 @@ public class Service extends android.app.Service implements
 		messenger = new Messenger(new SimpleMessageHandler(this,
 				thread.getLooper()));
 		services = new HashMap<String, MainService>();
+		// Reconnect as soon as the device is online again
+		networkAvailability = new NetworkAvailability(isNetworkConnected());
+		connectivityReceiver = new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				// The NAT discovered on the previous network doesn't apply
+				DiscoveryCache.getInstance().invalidate();
+				networkAvailability.setAvailable(isNetworkConnected());
+			}
+		};
+		registerReceiver(connectivityReceiver, new IntentFilter(
+				ConnectivityManager.CONNECTIVITY_ACTION));
 	}
 
 	@Override
 	public void onDestroy() {
+		if (connectivityReceiver != null) {
+			unregisterReceiver(connectivityReceiver);
+			connectivityReceiver = null;
+		}
 		services = null;
 		if (thread != null) {
 			thread.interrupt();
@@ -379,6 +493,24 @@ public class Service extends android.app.Service implements
 		}
 	}
 
+	/**
+	 * Adds the version of a roster change to a roster update, so the client
+	 * notices a change it missed. Changes the roster log doesn't know are
+	 * sent without a version.
+	 */
+	private void putRosterVersion(Bundle b, AccountInfo accountInfo,
+			User user, String uid) {
+		final RosterLog<User> log = getRosterLog(accountInfo);
+		if (log != null) {
+			final long version = user != null ? log.getVersion(user) : log
+					.getRemovedVersion(uid);
+			if (version > 0) {
+				b.putString(FIELD_ROSTER_ID, log.getId());
+				b.putLong(FIELD_ROSTER_VERSION, version);
+			}
+		}
+	}
+
 	public void register(Message msg) {
 		if (msg.replyTo != null) {
 			if (activeClient != null) {
@@ -433,7 +565,8 @@ public class Service extends android.app.Service implements
 			final Bundle b = new Bundle();
 			b.putInt(FIELD_TYPE, ROSTER_ADDED);
 			b.putString(FIELD_JID, user.getUserLogin());
-			b.putParcelable(FIELD_USER, user);
+			b.putParcelable(FIELD_USER, user.withAvatarByHash());
+			putRosterVersion(b, accountInfo, user, null);
 			sendToActive(SIG_ROSTER_UPDATE, b);
 		}
 	}
@@ -444,6 +577,7 @@ public class Service extends android.app.Service implements
 			final Bundle b = new Bundle();
 			b.putInt(FIELD_TYPE, ROSTER_DELETED);
 			b.putString(FIELD_JID, uid);
+			putRosterVersion(b, accountInfo, null, uid);
 			sendToActive(SIG_ROSTER_UPDATE, b);
 		}
 	}
@@ -454,7 +588,8 @@ public class Service extends android.app.Service implements
 			final Bundle b = new Bundle();
 			b.putInt(FIELD_TYPE, ROSTER_UPDATED);
 			b.putString(FIELD_JID, user.getUserLogin());
-			b.putParcelable(FIELD_USER, user);
+			b.putParcelable(FIELD_USER, user.withAvatarByHash());
+			putRosterVersion(b, accountInfo, user, null);
 			sendToActive(SIG_ROSTER_UPDATE, b);
 		}
 	}
@@ -482,6 +617,48 @@ public class Service extends android.app.Service implements
 		sendMsg(activeClient, msg);
 	}
 
+	/**
+	 * Sends the roster changes since the version the client knows, or a
+	 * snapshot of the roster, in pages. The users refer to their avatars by
+	 * hash.
+	 */
+	private void syncRoster(Message msg) {
+		final Bundle request = msg.getData();
+		final MainService service = getServiceByAccountInfo(getAccountInfo(msg));
+		final UserService userService = service != null ? service
+				.getUserService() : null;
+		if (userService == null) {
+			sendMsg(msg.replyTo, SIG_ROSTER_GET_CONTACTS_ERROR);
+			return;
+		}
+		final RosterLog<User> log = userService.getRosterLog();
+		final RosterLog.Delta<User> delta = log.since(
+				request.getString(FIELD_ROSTER_ID),
+				request.getLong(FIELD_ROSTER_VERSION, -1));
+		final List<User> changed = delta.getChanged();
+		int start = 0;
+		do {
+			final int end = Math.min(changed.size(), start + ROSTER_PAGE_SIZE);
+			final UserList users = new UserList();
+			for (int i = start; i < end; i++) {
+				users.add(changed.get(i).withAvatarByHash());
+			}
+			final Bundle b = new Bundle();
+			b.putString(FIELD_ROSTER_ID, log.getId());
+			b.putLong(FIELD_ROSTER_VERSION, delta.getVersion());
+			b.putBoolean(FIELD_ROSTER_SNAPSHOT, delta.isSnapshot()
+					&& start == 0);
+			b.putParcelable(FIELD_USER_LIST, users);
+			if (start == 0) {
+				b.putStringArrayList(FIELD_JID_LIST, new ArrayList<String>(
+						delta.getRemoved()));
+			}
+			b.putBoolean(FIELD_ROSTER_MORE, end < changed.size());
+			sendMsg(msg.replyTo, SIG_ROSTER_SYNC, b);
+			start = end;
+		} while (start < changed.size());
+	}
+
 	private void unregister(Message msg) {
 		activeClient = null;
 		disableChatSession(activeChatSession);
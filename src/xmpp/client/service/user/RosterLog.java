@@ -0,0 +1,217 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xmpp.client.service.user;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Versions the changes of a roster, so a client that knows the roster of a
+ * version only has to receive the items that changed and the keys that were
+ * removed since. Every change increments the version. A client that knows no
+ * version, the version of another log or a version that is too old receives
+ * a snapshot of all items.
+ * 
+ * @param <T>
+ *            the type of the items, compared by identity.
+ */
+public class RosterLog<T> {
+
+	/**
+	 * The changes since a version.
+	 */
+	public static class Delta<T> {
+
+		private final long version;
+		private final boolean snapshot;
+		private final List<T> changed;
+		private final List<String> removed;
+
+		private Delta(long version, boolean snapshot, List<T> changed,
+				List<String> removed) {
+			this.version = version;
+			this.snapshot = snapshot;
+			this.changed = changed;
+			this.removed = removed;
+		}
+
+		/**
+		 * Returns the items that were added or changed, in the order of their
+		 * last change.
+		 * 
+		 * @return the items.
+		 */
+		public List<T> getChanged() {
+			return changed;
+		}
+
+		/**
+		 * Returns the keys of the items that were removed.
+		 * 
+		 * @return the keys.
+		 */
+		public List<String> getRemoved() {
+			return removed;
+		}
+
+		/**
+		 * Returns the version of the roster after the changes.
+		 * 
+		 * @return the version.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Returns true if the changes are all items of the roster, so the
+		 * client has to forget the items it knows.
+		 * 
+		 * @return true if this is a snapshot.
+		 */
+		public boolean isSnapshot() {
+			return snapshot;
+		}
+	}
+
+	/**
+	 * The number of removed keys that are remembered.
+	 */
+	private static final int MAX_REMOVED = 1000;
+
+	private final String id = UUID.randomUUID().toString();
+	private long version;
+
+	// Deltas since versions before this miss removed keys that were forgotten
+	private long forgotten;
+
+	private final IdentityHashMap<T, Long> versions = new IdentityHashMap<T, Long>();
+	private final TreeMap<Long, T> changed = new TreeMap<Long, T>();
+	private final HashMap<String, Long> removedVersions = new HashMap<String, Long>();
+	private final TreeMap<Long, String> removed = new TreeMap<Long, String>();
+
+	/**
+	 * Notes that an item was added or changed.
+	 * 
+	 * @param item
+	 *            the item.
+	 * @return the new version.
+	 */
+	public synchronized long changed(T item) {
+		final Long previous = versions.put(item, ++version);
+		if (previous != null) {
+			changed.remove(previous);
+		}
+		changed.put(version, item);
+		return version;
+	}
+
+	/**
+	 * Returns the id of the log. Versions of different logs aren't related.
+	 * 
+	 * @return the id.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the version of the last removal of a key.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the version or 0 if the removal isn't known.
+	 */
+	public synchronized long getRemovedVersion(String key) {
+		final Long removedVersion = removedVersions.get(key);
+		return removedVersion != null ? removedVersion : 0;
+	}
+
+	/**
+	 * Returns the current version.
+	 * 
+	 * @return the version.
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the version of the last change of an item.
+	 * 
+	 * @param item
+	 *            the item.
+	 * @return the version or 0 if the item isn't known.
+	 */
+	public synchronized long getVersion(T item) {
+		final Long itemVersion = versions.get(item);
+		return itemVersion != null ? itemVersion : 0;
+	}
+
+	/**
+	 * Notes that an item was removed.
+	 * 
+	 * @param item
+	 *            the item or null if it isn't known.
+	 * @param key
+	 *            the key the clients know the item by.
+	 * @return the new version.
+	 */
+	public synchronized long removed(T item, String key) {
+		if (item != null) {
+			final Long previous = versions.remove(item);
+			if (previous != null) {
+				changed.remove(previous);
+			}
+		}
+		final Long previous = removedVersions.put(key, ++version);
+		if (previous != null) {
+			removed.remove(previous);
+		}
+		removed.put(version, key);
+		while (removed.size() > MAX_REMOVED) {
+			final Map.Entry<Long, String> oldest = removed.pollFirstEntry();
+			removedVersions.remove(oldest.getValue());
+			forgotten = oldest.getKey();
+		}
+		return version;
+	}
+
+	/**
+	 * Returns the changes since a version of this log, or a snapshot if they
+	 * aren't known.
+	 * 
+	 * @param logId
+	 *            the id of the log the client knows, or null.
+	 * @param since
+	 *            the version the client knows.
+	 * @return the changes.
+	 */
+	public synchronized Delta<T> since(String logId, long since) {
+		if (!id.equals(logId) || since < forgotten || since > version) {
+			return new Delta<T>(version, true, new ArrayList<T>(
+					changed.values()), Collections.<String> emptyList());
+		}
+		return new Delta<T>(version, false, new ArrayList<T>(changed.tailMap(
+				since, false).values()), new ArrayList<String>(removed.tailMap(
+				since, false).values()));
+	}
+}
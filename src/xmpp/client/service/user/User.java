@@ -1,5 +1,7 @@
 package xmpp.client.service.user;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 
 import org.jivesoftware.smack.packet.Presence;
@@ -7,6 +9,7 @@ import org.jivesoftware.smack.util.Base64;
 import org.jivesoftware.smack.util.StringUtils;
 
 import xmpp.client.R;
+import xmpp.client.service.user.avatar.AvatarCache;
 import xmpp.client.service.user.group.GroupList;
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -40,6 +43,15 @@ public class User implements Parcelable, Comparable<User> {
 	public static final int TRANSPORT_YAHOO = 5;
 	public static final int TRANSPORT_IRC = 6;
 
+	private static String hash(byte[] avatar) {
+		try {
+			return StringUtils.encodeHex(MessageDigest.getInstance("SHA-1")
+					.digest(avatar));
+		} catch (final NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
 	public static String intToARGB(int i) {
 		return "#" + intToHex((i >> 24) & 0xFF) + intToHex((i >> 16) & 0xFF)
 				+ intToHex((i >> 8) & 0xFF) + intToHex(i & 0xFF);
@@ -65,6 +77,7 @@ public class User implements Parcelable, Comparable<User> {
 	private ArrayList<String> mAdditionalInfo;
 
 	private byte[] mAvatar;
+	private String mAvatarHash;
 
 	private int mUnreadMessages;
 
@@ -129,6 +142,7 @@ public class User implements Parcelable, Comparable<User> {
 		}
 		mAdditionalInfo = new ArrayList<String>();
 		in.readStringList(mAdditionalInfo);
+		mAvatarHash = in.readString();
 	}
 
 	public User(String login, String name, ArrayList<String> info, Presence p) {
@@ -212,15 +226,38 @@ public class User implements Parcelable, Comparable<User> {
 	}
 
 	public Bitmap getAvatar() {
-		if (mAvatar != null) {
-			return BitmapFactory.decodeByteArray(mAvatar, 0, mAvatar.length);
+		final byte[] avatar = getAvatarData();
+		if (avatar != null) {
+			return BitmapFactory.decodeByteArray(avatar, 0, avatar.length);
 		}
 		return null;
 	}
 
+	/**
+	 * Returns the avatar, or the avatar of its hash the client received if
+	 * the user refers to it by the hash only.
+	 * 
+	 * @return the encoded image or null if it isn't known.
+	 */
+	public byte[] getAvatarData() {
+		if (mAvatar != null) {
+			return mAvatar;
+		}
+		return AvatarCache.getInstance().get(mAvatarHash);
+	}
+
+	/**
+	 * Returns the SHA-1 hash of the avatar.
+	 * 
+	 * @return the hex encoded hash or null if the user has no avatar.
+	 */
+	public String getAvatarHash() {
+		return mAvatarHash;
+	}
+
 	public Bitmap getBitmap(Context context, boolean showIcon) {
 		Bitmap ava = null;
-		if (mAvatar != null) {
+		if (getAvatarData() != null) {
 			ava = getAvatar();
 		} else {
 			ava = BitmapFactory.decodeResource(context.getResources(),
@@ -336,6 +373,7 @@ public class User implements Parcelable, Comparable<User> {
 
 	public void setAvatar(byte[] avatar) {
 		mAvatar = avatar;
+		mAvatarHash = avatar != null ? hash(avatar) : null;
 	}
 
 	public void setGroups(GroupList groups) {
@@ -379,6 +417,31 @@ public class User implements Parcelable, Comparable<User> {
 		return false;
 	}
 
+	/**
+	 * Returns a copy of the user that refers to the avatar by its hash only,
+	 * so the avatar isn't parcelled with the user.
+	 * 
+	 * @return the copy.
+	 */
+	public User withAvatarByHash() {
+		final User user = new User();
+		user.mUserName = mUserName;
+		user.mUserLogin = mUserLogin;
+		user.mRessource = mRessource;
+		user.mUserState = mUserState;
+		user.mGroups = mGroups;
+		user.mTransportState = mTransportState;
+		user.mTransportType = mTransportType;
+		user.mUserContact = mUserContact;
+		user.mAdditionalInfo = mAdditionalInfo;
+		user.mUnreadMessages = mUnreadMessages;
+		user.mAvatarHash = mAvatarHash;
+		if (mAvatarHash == null) {
+			user.mAvatar = mAvatar;
+		}
+		return user;
+	}
+
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
 		dest.writeString(mUserLogin);
@@ -395,6 +458,7 @@ public class User implements Parcelable, Comparable<User> {
 			dest.writeString("");
 		}
 		dest.writeStringList(mAdditionalInfo);
+		dest.writeString(mAvatarHash);
 	}
 
 }
@@ -1,6 +1,9 @@
 package xmpp.client.service.user;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jivesoftware.smack.Roster;
 import org.jivesoftware.smack.RosterEntry;
@@ -16,8 +19,17 @@ import android.util.Log;
 
 public class UserService implements RosterListener, UserServiceProvider {
 	private static final String TAG = UserService.class.getName();
+
+	private static String key(String login) {
+		return login != null ? login.toLowerCase() : null;
+	}
+
 	private UserList mUserList;
+	// The users of the list by lower-cased bare and full login
+	private final ConcurrentHashMap<String, User> mUsersByLogin = new ConcurrentHashMap<String, User>();
+	private final ConcurrentHashMap<String, User> mUsersByFullLogin = new ConcurrentHashMap<String, User>();
 	private ContactList mContactList;
+	private final RosterLog<User> mRosterLog = new RosterLog<User>();
 	private Roster mRoster;
 	private final MainService service;
 	private User mUserMe;
@@ -58,17 +70,39 @@ public class UserService implements RosterListener, UserServiceProvider {
 		return addUser(uid, uid, groups);
 	}
 
+	/**
+	 * Creates the users of the roster entries in a single pass.
+	 */
 	public void buildUserList() {
 		final Collection<RosterEntry> roster = mRoster.getEntries();
+		mUserList.ensureCapacity(mUserList.size() + roster.size());
 		for (final RosterEntry rosterEntry : roster) {
-			getUser(rosterEntry.getUser(), true);
+			if (getUser(rosterEntry.getUser(), false, false) == null) {
+				final User user = new User(rosterEntry,
+						mRoster.getPresence(rosterEntry.getUser()));
+				user.setAvatar(service.getAvatarService().getAvatar(user));
+				setupUser(user);
+			}
 		}
 		transportCheck();
 	}
 
+	/**
+	 * Notes that a user changed, so clients receive it with the next delta.
+	 * Users that aren't in the list, e.g. the own user, aren't noted.
+	 */
+	private void changed(User user) {
+		if (user.getUserLogin() != null
+				&& getUserByFullUserLogin(user.getFullUserLogin()) == user) {
+			mRosterLog.changed(user);
+		}
+	}
+
 	public void destroy() {
 		mUserList.clear();
 		mUserList = null;
+		mUsersByLogin.clear();
+		mUsersByFullLogin.clear();
 		mContactList.clear();
 		mContactList = null;
 		mRoster.removeRosterListener(this);
@@ -87,7 +121,11 @@ public class UserService implements RosterListener, UserServiceProvider {
 	public void entriesDeleted(Collection<String> addresses) {
 		for (final String uid : addresses) {
 			final User user = getUser(uid, false);
-			mUserList.remove(user);
+			final boolean removed = mUserList.remove(user);
+			if (removed) {
+				unindex(user);
+			}
+			mRosterLog.removed(removed ? user : null, uid);
 			mContactList.removeUser(uid);
 			service.sendRosterDeleted(uid);
 		}
@@ -100,10 +138,38 @@ public class UserService implements RosterListener, UserServiceProvider {
 			final RosterEntry re = mRoster.getEntry(uid);
 			user.setUserName(re.getName());
 			user.setGroups(new GroupList(re.getGroups()));
+			mContactList.userChanged(user);
+			changed(user);
 			service.sendRosterUpdated(user);
 		}
 	}
 
+	/**
+	 * Returns the avatars of the users by their hash.
+	 * 
+	 * @param hashes
+	 *            the hashes of the avatars.
+	 * @return the avatars that were found.
+	 */
+	public HashMap<String, byte[]> getAvatars(Collection<String> hashes) {
+		final HashSet<String> wanted = new HashSet<String>(hashes);
+		final HashMap<String, byte[]> avatars = new HashMap<String, byte[]>();
+		for (final User user : mUserList) {
+			if (wanted.isEmpty()) {
+				break;
+			}
+			final String hash = user.getAvatarHash();
+			if (hash != null && wanted.contains(hash)) {
+				final byte[] avatar = user.getAvatarData();
+				if (avatar != null) {
+					wanted.remove(hash);
+					avatars.put(hash, avatar);
+				}
+			}
+		}
+		return avatars;
+	}
+
 	public Contact getContact(String uid, boolean addIfNotExists) {
 		return getContact(getUser(uid, addIfNotExists), addIfNotExists);
 	}
@@ -123,6 +189,15 @@ public class UserService implements RosterListener, UserServiceProvider {
 		return new GroupList(mRoster.getGroups());
 	}
 
+	/**
+	 * Returns the log of the changes of the user list.
+	 * 
+	 * @return the roster log.
+	 */
+	public RosterLog<User> getRosterLog() {
+		return mRosterLog;
+	}
+
 	public User getUser(String uid, boolean addIfNotExists) {
 		return getUser(uid, addIfNotExists, true);
 	}
@@ -149,24 +224,17 @@ public class UserService implements RosterListener, UserServiceProvider {
 	}
 
 	public User getUserByFullUserLogin(String fullUserLogin) {
-		for (int i = 0; i < mUserList.size(); i++) {
-			final User user = mUserList.get(i);
-			if (user.getFullUserLogin().equalsIgnoreCase(fullUserLogin)) {
-				return user;
-			}
+		if (fullUserLogin == null) {
+			return null;
 		}
-		return null;
+		return mUsersByFullLogin.get(key(fullUserLogin));
 	}
 
 	private User getUserByLogin(String userLogin) {
-		for (int i = 0; i < mUserList.size(); i++) {
-			final User user = mUserList.get(i);
-			if (user.getUserLogin().equalsIgnoreCase(
-					StringUtils.parseBareAddress(userLogin))) {
-				return user;
-			}
+		if (userLogin == null) {
+			return null;
 		}
-		return null;
+		return mUsersByLogin.get(key(StringUtils.parseBareAddress(userLogin)));
 	}
 
 	UserList getUserList() {
@@ -182,6 +250,17 @@ public class UserService implements RosterListener, UserServiceProvider {
 		return this;
 	}
 
+	/**
+	 * Adds a user of the list to the indexes. The first user of a login is
+	 * found by it, like a scan of the list would.
+	 */
+	private void index(User user) {
+		if (user.getUserLogin() != null) {
+			mUsersByLogin.putIfAbsent(key(user.getUserLogin()), user);
+			mUsersByFullLogin.putIfAbsent(key(user.getFullUserLogin()), user);
+		}
+	}
+
 	@Override
 	public void presenceChanged(Presence presence) {
 		final User user = getUser(presence.getFrom(), true, false);
@@ -190,7 +269,15 @@ public class UserService implements RosterListener, UserServiceProvider {
 		}
 		user.setUserState(new UserState(presence));
 		user.setAvatar(service.getAvatarService().getAvatar(user));
+		// The full login changes with the resource
+		final boolean indexed = user.getUserLogin() != null
+				&& mUsersByFullLogin.remove(key(user.getFullUserLogin()), user);
 		user.setRessource(StringUtils.parseResource(presence.getFrom()));
+		if (indexed) {
+			mUsersByFullLogin.putIfAbsent(key(user.getFullUserLogin()), user);
+		}
+		mContactList.userChanged(user);
+		changed(user);
 		service.sendRosterUpdated(user);
 	}
 
@@ -217,11 +304,14 @@ public class UserService implements RosterListener, UserServiceProvider {
 		final User user2 = getUserByFullUserLogin(user.getFullUserLogin());
 		if (user2 == null) {
 			mUserList.add(user);
+			index(user);
 			mContactList.add(user);
+			changed(user);
 			service.sendRosterAdded(user);
 			return user;
 		} else {
 			user2.setUserState(user.getUserState());
+			changed(user2);
 			service.sendRosterUpdated(user2);
 			return user2;
 		}
@@ -248,6 +338,27 @@ public class UserService implements RosterListener, UserServiceProvider {
 		}
 	}
 
+	/**
+	 * Removes a user that was removed from the list from the indexes. Another
+	 * user of the same login takes its place.
+	 */
+	private void unindex(User user) {
+		if (user.getUserLogin() == null) {
+			return;
+		}
+		mUsersByFullLogin.remove(key(user.getFullUserLogin()), user);
+		if (mUsersByLogin.remove(key(user.getUserLogin()), user)) {
+			for (final User other : mUserList) {
+				if (other.getUserLogin() != null
+						&& other.getUserLogin().equalsIgnoreCase(
+								user.getUserLogin())) {
+					mUsersByLogin.putIfAbsent(key(other.getUserLogin()), other);
+					break;
+				}
+			}
+		}
+	}
+
 	public void updateUser(User user) {
 		final User u = getUser(user.getUserLogin(), true);
 		u.setUserContact(user.getUserContact());
@@ -0,0 +1,141 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xmpp.client.service.user.avatar;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the avatars a client received by their hash. The roster refers to
+ * avatars by their hash only, so an avatar is transferred once however often
+ * its users change. The least recently used avatars are dropped when the
+ * avatars take more than {@link #MAX_BYTES}.
+ */
+public class AvatarCache {
+
+	/**
+	 * Receives the hashes of the avatars that were looked up but aren't
+	 * known, either because they didn't arrive yet or because they were
+	 * dropped.
+	 */
+	public interface Listener {
+
+		/**
+		 * Notification that an avatar isn't known.
+		 * 
+		 * @param hash
+		 *            the hash of the avatar.
+		 */
+		void avatarMissing(String hash);
+	}
+
+	/**
+	 * The number of bytes the avatars may take.
+	 */
+	public static final int MAX_BYTES = 4 * 1024 * 1024;
+
+	private static AvatarCache instance;
+
+	/**
+	 * Returns the avatar cache of this process.
+	 * 
+	 * @return the avatar cache.
+	 */
+	public static synchronized AvatarCache getInstance() {
+		if (instance == null) {
+			instance = new AvatarCache();
+		}
+		return instance;
+	}
+
+	private final LinkedHashMap<String, byte[]> avatars = new LinkedHashMap<String, byte[]>(
+			16, 0.75f, true);
+	private int size;
+	private Listener listener;
+
+	private AvatarCache() {
+	}
+
+	/**
+	 * Returns true if the avatar of a hash is known.
+	 * 
+	 * @param hash
+	 *            the hash of the avatar.
+	 * @return true if the avatar is known.
+	 */
+	public synchronized boolean contains(String hash) {
+		return hash != null && avatars.containsKey(hash);
+	}
+
+	/**
+	 * Returns the avatar of a hash. The listener is notified if the avatar
+	 * isn't known.
+	 * 
+	 * @param hash
+	 *            the hash of the avatar.
+	 * @return the avatar or null if it isn't known.
+	 */
+	public byte[] get(String hash) {
+		if (hash == null) {
+			return null;
+		}
+		final byte[] avatar;
+		final Listener missed;
+		synchronized (this) {
+			avatar = avatars.get(hash);
+			missed = avatar == null ? listener : null;
+		}
+		if (missed != null) {
+			missed.avatarMissing(hash);
+		}
+		return avatar;
+	}
+
+	/**
+	 * Keeps an avatar.
+	 * 
+	 * @param hash
+	 *            the hash of the avatar.
+	 * @param avatar
+	 *            the avatar.
+	 */
+	public synchronized void put(String hash, byte[] avatar) {
+		final byte[] previous = avatars.put(hash, avatar);
+		if (previous != null) {
+			size -= previous.length;
+		}
+		size += avatar.length;
+		final Iterator<Map.Entry<String, byte[]>> it = avatars.entrySet()
+				.iterator();
+		while (size > MAX_BYTES && it.hasNext()) {
+			final Map.Entry<String, byte[]> eldest = it.next();
+			if (eldest.getValue() != avatar) {
+				size -= eldest.getValue().length;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Sets the listener that is notified of avatars that aren't known.
+	 * 
+	 * @param listener
+	 *            the listener or null.
+	 */
+	public synchronized void setListener(Listener listener) {
+		this.listener = listener;
+	}
+}
@@ -1,7 +1,14 @@
 package xmpp.client.service.user.contact;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.jivesoftware.smack.util.StringUtils;
 
 import xmpp.client.service.user.User;
 import xmpp.client.service.user.UserList;
@@ -9,12 +16,22 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
 
-public class ContactList extends ArrayList<Contact> implements Parcelable {
+/**
+ * The contacts of the roster. The contacts are indexed by their lower-cased
+ * name, by the lower-cased logins of their users and by the real JIDs of
+ * their MUC users, so a contact is found without scanning the list. The
+ * contacts of every group and the online contacts are collected in one pass
+ * on the first access after the list changed.
+ * <p>
+ * 
+ * Every change of the list goes through {@link #add(int, Contact)},
+ * {@link #set(int, Contact)} or {@link #remove(int)}, which keep the indexes.
+ * If a user of the list is changed in place, {@link #userChanged(User)} has
+ * to be called.
+ */
+public class ContactList extends AbstractList<Contact> implements
+		RandomAccess, Parcelable {
 
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = 1L;
 	private final boolean mHideTransports = true;
 
 	public static final Parcelable.Creator<ContactList> CREATOR = new Parcelable.Creator<ContactList>() {
@@ -29,6 +46,76 @@ public class ContactList extends ArrayList<Contact> implements Parcelable {
 		}
 	};
 
+	/**
+	 * Returns the first contact of a key in an index.
+	 */
+	private static Contact first(HashMap<String, ArrayList<Contact>> index,
+			String key) {
+		final ArrayList<Contact> contacts = index.get(key);
+		return contacts != null ? contacts.get(0) : null;
+	}
+
+	private static String key(String name) {
+		return name != null ? name.toLowerCase() : null;
+	}
+
+	/**
+	 * Returns the key of the real JID of a MUC user.
+	 */
+	private static String mucKey(User user) {
+		if (!user.isMUCUser()) {
+			return null;
+		}
+		final String jid = user.getAdditionalInformation(0);
+		return jid != null ? key(StringUtils.parseBareAddress(jid)) : null;
+	}
+
+	/**
+	 * Adds a contact to the contacts of a key in an index.
+	 */
+	private static void put(HashMap<String, ArrayList<Contact>> index,
+			String key, Contact contact) {
+		if (key == null) {
+			return;
+		}
+		ArrayList<Contact> contacts = index.get(key);
+		if (contacts == null) {
+			contacts = new ArrayList<Contact>(1);
+			index.put(key, contacts);
+		}
+		if (!contacts.contains(contact)) {
+			contacts.add(contact);
+		}
+	}
+
+	/**
+	 * Removes a contact from the contacts of a key in an index.
+	 */
+	private static void remove(HashMap<String, ArrayList<Contact>> index,
+			String key, Contact contact) {
+		final ArrayList<Contact> contacts = index.get(key);
+		if (contacts != null && contacts.remove(contact) && contacts.isEmpty()) {
+			index.remove(key);
+		}
+	}
+
+	private final ArrayList<Contact> mContacts = new ArrayList<Contact>();
+
+	// The indexes
+	private final HashMap<String, ArrayList<Contact>> mNameIndex = new HashMap<String, ArrayList<Contact>>();
+	private final HashMap<String, ArrayList<Contact>> mLoginIndex = new HashMap<String, ArrayList<Contact>>();
+	private final HashMap<String, ArrayList<Contact>> mMUCIndex = new HashMap<String, ArrayList<Contact>>();
+	// The name every contact is indexed by
+	private final IdentityHashMap<Contact, String> mNames = new IdentityHashMap<Contact, String>();
+
+	// The views, valid until the list changes
+	private boolean mViewsValid;
+	private final ArrayList<Contact> mOnline = new ArrayList<Contact>();
+	private final HashMap<String, ArrayList<Contact>> mGroups = new HashMap<String, ArrayList<Contact>>();
+	private final HashMap<String, Integer> mGroupSizes = new HashMap<String, Integer>();
+	private int mVisibleSize;
+	private int mOnlineSize;
+
 	public ContactList() {
 		super();
 	}
@@ -48,52 +135,65 @@ public class ContactList extends ArrayList<Contact> implements Parcelable {
 		}
 	}
 
+	@Override
+	public synchronized void add(int location, Contact contact) {
+		mContacts.add(location, contact);
+		index(contact);
+		mViewsValid = false;
+	}
+
+	/**
+	 * Adds a user to the contact of the same name or, for a MUC user, to the
+	 * contact of its real JID. A new contact is created if there is none.
+	 * 
+	 * @param user
+	 *            the user.
+	 */
 	public synchronized void add(User user) {
 		Log.d("ContactProvider",
 				user.getFullUserLogin() + ":" + user.getDisplayName());
-		for (final Contact contact : this) {
-			if (contact.getUserName().equalsIgnoreCase(user.getDisplayName())) {
-				if (user.isMUCUser()) {
-					Log.d("ContactProvider", user.getDisplayName() + "="
-							+ contact.getUserName());
-				}
-				contact.add(user);
-				return;
+		Contact contact = first(mNameIndex, key(user.getDisplayName()));
+		final String mucKey = mucKey(user);
+		if (contact == null && mucKey != null) {
+			// The roster contact of the occupant, or a contact of the same
+			// occupant in another room
+			contact = first(mLoginIndex, mucKey);
+			if (contact == null) {
+				contact = first(mMUCIndex, mucKey);
 			}
+		}
+		if (contact != null) {
 			if (user.isMUCUser()) {
-				final String jid = user.getAdditionalInformation(0);
-				if (jid != null && contact.contains(jid, false)) {
-
-					if (user.isMUCUser()) {
-						Log.d("ContactProvider", user.getDisplayName() + "="
-								+ contact.getUserName());
-					}
-					contact.add(user);
-					return;
-				}
+				Log.d("ContactProvider", user.getDisplayName() + "="
+						+ contact.getUserName());
 			}
+			unindex(contact);
+			contact.add(user);
+			index(contact);
+			mViewsValid = false;
+			return;
 		}
 		Log.d("ContactProvider", user.getDisplayName() + "=new");
 		add(new Contact(user));
 	}
 
+	@Override
+	public synchronized void clear() {
+		mContacts.clear();
+		mNameIndex.clear();
+		mLoginIndex.clear();
+		mMUCIndex.clear();
+		mNames.clear();
+		mViewsValid = false;
+	}
+
 	@Deprecated
 	public synchronized boolean contains(String uid) {
-		for (final Contact contact : this) {
-			if (contact.contains(uid, false)) {
-				return true;
-			}
-		}
-		return false;
+		return find(uid) != null;
 	}
 
 	public synchronized boolean contains(User user) {
-		for (final Contact contact : this) {
-			if (contact.contains(user)) {
-				return true;
-			}
-		}
-		return false;
+		return get(user) != null;
 	}
 
 	@Override
@@ -102,111 +202,243 @@ public class ContactList extends ArrayList<Contact> implements Parcelable {
 		return 0;
 	}
 
+	/**
+	 * Returns the first contact with a user of a login.
+	 * 
+	 * @param address
+	 *            the login, compared ignoring the case.
+	 * @return the contact or null.
+	 */
+	private Contact find(String address) {
+		return first(mLoginIndex, key(address));
+	}
+
+	@Override
+	public synchronized Contact get(int location) {
+		return mContacts.get(location);
+	}
+
 	@Deprecated
 	public synchronized Contact get(String uid) {
-		for (final Contact contact : this) {
-			if (contact.contains(uid, false)) {
-				return contact;
-			}
-		}
-		return null;
+		return find(uid);
 	}
 
 	public synchronized Contact get(User user) {
-		for (final Contact contact : this) {
-			if (contact.contains(user)) {
-				return contact;
-			}
-		}
-		return null;
-	}
-
-	private synchronized ContactList getGroup(CharSequence activeGroup) {
-		final ContactList list = new ContactList();
-		for (final Contact contact : this) {
-			for (final User user : contact.getUsers()) {
-				if (user.getGroups().contains(activeGroup)) {
-					list.add(contact);
-					break;
+		final ArrayList<Contact> contacts = mLoginIndex.get(key(user
+				.getUserLogin()));
+		if (contacts != null) {
+			for (final Contact contact : contacts) {
+				if (contact.contains(user)) {
+					return contact;
 				}
 			}
-
 		}
-		return list;
+		return null;
 	}
 
 	public synchronized Contact getInGroup(CharSequence activeGroup,
 			int position) {
-		return getGroup(activeGroup).get(position);
+		updateViews();
+		final List<Contact> group = mGroups.get(activeGroup.toString());
+		return (group != null ? group : Collections.<Contact> emptyList())
+				.get(position);
 	}
 
 	public synchronized Contact getOnline(int i) {
-		int c = 0;
-		for (int j = 0; j < size(); j++) {
-			if (get(j).getUserState().isOnline()) {
-				if (c == i) {
-					return get(j);
-				} else {
-					c++;
-				}
-			}
-		}
-		return null;
+		updateViews();
+		return i < mOnline.size() ? mOnline.get(i) : null;
 	}
 
 	public synchronized int groupSize(CharSequence activeGroup) {
-		return getGroup(activeGroup).sizeVisible();
+		updateViews();
+		final Integer size = mGroupSizes.get(activeGroup.toString());
+		return size != null ? size : 0;
+	}
+
+	/**
+	 * Adds a contact to the indexes.
+	 */
+	private void index(Contact contact) {
+		final UserList users = contact.getUsers();
+		if (users.isEmpty()) {
+			return;
+		}
+		final String name = key(contact.getUserName());
+		if (name != null) {
+			put(mNameIndex, name, contact);
+			mNames.put(contact, name);
+		}
+		for (final User user : users) {
+			put(mLoginIndex, key(user.getUserLogin()), contact);
+			put(mMUCIndex, mucKey(user), contact);
+		}
+	}
+
+	@Override
+	public synchronized Contact remove(int location) {
+		final Contact contact = mContacts.remove(location);
+		unindex(contact);
+		mViewsValid = false;
+		return contact;
 	}
 
 	public synchronized void removeUser(String address) {
-		for (final Contact contact : this) {
-			if (contact.contains(address, false)) {
-				contact.remove(address);
-				return;
+		final Contact contact = find(address);
+		if (contact != null) {
+			unindex(contact);
+			contact.remove(address);
+			if (contact.getUsers().isEmpty()) {
+				mContacts.remove(contact);
+			} else {
+				index(contact);
 			}
+			mViewsValid = false;
 		}
 	}
 
+	@Override
+	public synchronized Contact set(int location, Contact contact) {
+		final Contact previous = mContacts.set(location, contact);
+		unindex(previous);
+		index(contact);
+		mViewsValid = false;
+		return previous;
+	}
+
+	@Override
+	public synchronized int size() {
+		return mContacts.size();
+	}
+
 	public synchronized int sizeOffline() {
 		return sizeVisible() - sizeOnline();
 	}
 
 	public synchronized int sizeOnline() {
-		int num = 0;
-		for (final Contact contact : this) {
-			if (contact.getUser().isInvisible()) {
-				continue;
-			}
-			if (contact.getUserState().isOnline()) {
-				num++;
-			}
-		}
-		return num;
+		updateViews();
+		return mOnlineSize;
 	}
 
 	public synchronized int sizeVisible() {
 		if (mHideTransports) {
-			int i = 0;
-			for (final Contact contact : this) {
-				if (!contact.getUser().isInvisible()) {
-					i++;
-				}
-			}
-			return i;
+			updateViews();
+			return mVisibleSize;
 		} else {
 			return size();
 		}
 	}
 
 	public synchronized void sort() {
-		Collections.sort(this);
+		Collections.sort(mContacts);
+		mViewsValid = false;
+	}
+
+	/**
+	 * Removes a contact from the indexes.
+	 */
+	private void unindex(Contact contact) {
+		final String name = mNames.remove(contact);
+		if (name != null) {
+			remove(mNameIndex, name, contact);
+		}
+		for (final User user : contact.getUsers()) {
+			remove(mLoginIndex, key(user.getUserLogin()), contact);
+			remove(mMUCIndex, mucKey(user), contact);
+		}
+	}
+
+	/**
+	 * Replaces the user of the same login by a newer version.
+	 * 
+	 * @param user
+	 *            the user.
+	 * @return false if the list has no user of the login.
+	 */
+	public synchronized boolean update(User user) {
+		final Contact contact = find(user.getUserLogin());
+		if (contact == null) {
+			return false;
+		}
+		unindex(contact);
+		contact.remove(user.getUserLogin());
+		contact.add(user);
+		index(contact);
+		mViewsValid = false;
+		return true;
+	}
+
+	/**
+	 * Collects the contacts of every group and the online contacts, if the
+	 * list changed since they were collected.
+	 */
+	private void updateViews() {
+		if (mViewsValid) {
+			return;
+		}
+		mOnline.clear();
+		mGroups.clear();
+		mGroupSizes.clear();
+		mVisibleSize = 0;
+		mOnlineSize = 0;
+		for (final Contact contact : mContacts) {
+			final boolean visible = !contact.getUser().isInvisible();
+			final boolean online = contact.getUserState().isOnline();
+			if (visible) {
+				mVisibleSize++;
+			}
+			if (online) {
+				mOnline.add(contact);
+				if (visible) {
+					mOnlineSize++;
+				}
+			}
+			for (final User user : contact.getUsers()) {
+				if (user.getGroups() == null) {
+					continue;
+				}
+				for (final String name : user.getGroups()) {
+					ArrayList<Contact> group = mGroups.get(name);
+					if (group == null) {
+						group = new ArrayList<Contact>();
+						mGroups.put(name, group);
+					}
+					// The contacts are collected in order, so a contact with
+					// several users in the group is the last one
+					if (group.isEmpty()
+							|| group.get(group.size() - 1) != contact) {
+						group.add(contact);
+						if (!mHideTransports || visible) {
+							final Integer size = mGroupSizes.get(name);
+							mGroupSizes.put(name, size != null ? size + 1 : 1);
+						}
+					}
+				}
+			}
+		}
+		mViewsValid = true;
+	}
+
+	/**
+	 * Notification that a user of the list was changed in place, e.g. its
+	 * name, groups or state.
+	 * 
+	 * @param user
+	 *            the user.
+	 */
+	public synchronized void userChanged(User user) {
+		final Contact contact = get(user);
+		if (contact != null) {
+			unindex(contact);
+			index(contact);
+		}
+		mViewsValid = false;
 	}
 
 	@Override
 	public synchronized void writeToParcel(Parcel dest, int flags) {
-		dest.writeInt(size());
-		for (int i = 0; i < size(); i++) {
-			dest.writeParcelable(get(i), flags);
+		dest.writeInt(mContacts.size());
+		for (final Contact contact : mContacts) {
+			dest.writeParcelable(contact, flags);
 		}
 	}
 }
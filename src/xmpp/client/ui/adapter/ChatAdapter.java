@@ -1,8 +1,7 @@
 package xmpp.client.ui.adapter;
 
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 
 import xmpp.client.R;
 import xmpp.client.service.chat.ChatMessage;
@@ -30,17 +29,18 @@ import android.widget.TextView;
 
 public class ChatAdapter extends BaseAdapter {
 
-	private static boolean sameDay(Date date1, Date date2) {
-		// TODO Do it without deprecated functions and also compare month and
-		// year
-		return date1.getDate() == date2.getDate();
-	}
+	/**
+	 * The number of rendered message texts that are kept.
+	 */
+	private static final int SPAN_CACHE_SIZE = 500;
+
+	private final GroupedMessages groupedMessages;
+	private final SpanCache spanCache;
 
+	// The views of the groups, tagged with the number of messages drawn
 	private final HashMap<Integer, View> viewCache;
 	private View lastView;
 
-	private int cachedSize;
-
 	private final Context mContext;
 	private final ChatProvider mChatProvider;
 
@@ -51,26 +51,24 @@ public class ChatAdapter extends BaseAdapter {
 		mContext = context;
 		mChatProvider = chatProvider;
 		mContactProvider = contactProvider;
+		groupedMessages = new GroupedMessages();
+		spanCache = new SpanCache(SPAN_CACHE_SIZE);
 		viewCache = new HashMap<Integer, View>();
-		cachedSize = -1;
 	}
 
+	/**
+	 * Draws the messages of a group that weren't drawn yet.
+	 */
 	private void drawMessages(ViewGroup parent,
-			final ArrayList<ChatMessage> msgs, final boolean itsMe,
-			final LayoutInflater layoutInflater, final LinearLayout container) {
-		for (final ChatMessage chatMessage : msgs) {
-			final CharSequence seq = SmileyHandler.getSmiledText(
-					chatMessage.getText(), mContext);
+			final GroupedMessages.Group group, final int first,
+			final boolean itsMe, final LayoutInflater layoutInflater,
+			final LinearLayout container) {
+		for (int i = first; i < group.size(); i++) {
+			final ChatMessage chatMessage = group.getMessages().get(i);
+			final CharSequence seq = getSmiledText(group.getId(i),
+					chatMessage, itsMe);
 			View temp = null;
 			if (itsMe) {
-				((SpannableStringBuilder) seq).setSpan(new AlignmentSpan() {
-
-					@Override
-					public Alignment getAlignment() {
-						return Alignment.ALIGN_OPPOSITE;
-					}
-
-				}, 0, seq.length(), 0);
 				temp = layoutInflater.inflate(
 						R.layout.chat_entry_outgoing_message, parent, false);
 			} else {
@@ -92,41 +90,26 @@ public class ChatAdapter extends BaseAdapter {
 		return getGroupedMessages().size() + 1;
 	}
 
-	private ArrayList<ArrayList<xmpp.client.service.chat.ChatMessage>> getGroupedMessages() {
-		final ArrayList<ArrayList<xmpp.client.service.chat.ChatMessage>> list = new ArrayList<ArrayList<xmpp.client.service.chat.ChatMessage>>();
-		String lastUser = null;
-		Date lastDate = null;
-		for (int i = 0; i < mChatProvider.size(); i++) {
-			final xmpp.client.service.chat.ChatMessage msg = mChatProvider
-					.getMessage(i);
-			switch (msg.getType()) {
-			case MultiUserChat:
-			case SingleUserChat:
-				if (lastUser == null || !lastUser.equals(msg.getFrom())
-						|| !sameDay(lastDate, msg.getDate())) {
-					lastUser = msg.getFrom();
-					lastDate = msg.getDate();
-					list.add(new ArrayList<xmpp.client.service.chat.ChatMessage>());
-				}
-				list.get(list.size() - 1).add(msg);
-				break;
-			case Info:
-				list.add(new ArrayList<xmpp.client.service.chat.ChatMessage>());
-				list.get(list.size() - 1).add(msg);
-				break;
-			default:
-				break;
-			}
+	/**
+	 * Returns the grouped messages, after grouping the messages that arrived
+	 * since the last call. The cached views and texts are dropped if the chat
+	 * session was replaced by one with other messages.
+	 */
+	private GroupedMessages getGroupedMessages() {
+		if (groupedMessages.update(mChatProvider.getMessages())) {
+			viewCache.clear();
+			spanCache.clear();
 		}
-		return list;
+		return groupedMessages;
 	}
 
 	@Override
 	public Object getItem(int position) {
-		if (position == mChatProvider.size()) {
+		final GroupedMessages groups = getGroupedMessages();
+		if (position == groups.size()) {
 			return 0;
 		}
-		return getGroupedMessages().get(position);
+		return groups.get(position);
 	}
 
 	@Override
@@ -134,21 +117,56 @@ public class ChatAdapter extends BaseAdapter {
 		return getItem(position).hashCode();
 	}
 
+	/**
+	 * Returns the text of a message with the emoticons replaced, rendered only
+	 * the first time the message is shown.
+	 */
+	private CharSequence getSmiledText(int id, ChatMessage chatMessage,
+			boolean itsMe) {
+		CharSequence seq = spanCache.get(id);
+		if (seq == null) {
+			seq = SmileyHandler.getSmiledText(chatMessage.getText(), mContext);
+			if (itsMe) {
+				((SpannableStringBuilder) seq).setSpan(new AlignmentSpan() {
+
+					@Override
+					public Alignment getAlignment() {
+						return Alignment.ALIGN_OPPOSITE;
+					}
+
+				}, 0, seq.length(), 0);
+			}
+			spanCache.put(id, seq);
+		}
+		return seq;
+	}
+
 	@Override
 	public View getView(int position, View view, ViewGroup parent) {
-		final ArrayList<ArrayList<ChatMessage>> msgss = getGroupedMessages();
-		final boolean itsLastChat = position == msgss.size() - 1;
-		final boolean itsLast = (position == msgss.size());
-		final ArrayList<ChatMessage> msgs = itsLast ? null : msgss
+		final GroupedMessages groups = getGroupedMessages();
+		final boolean itsLast = (position == groups.size());
+		final GroupedMessages.Group group = itsLast ? null : groups
 				.get(position);
+		final List<ChatMessage> msgs = itsLast ? null : group.getMessages();
 		final boolean itsMe = itsLast ? false : mContactProvider
 				.getMeUserLogin().equals(msgs.get(0).getFrom());
 		final boolean itsStatus = itsLast
 				|| (msgs.get(0).getType() == MessageType.Info || msgs.get(0)
 						.getType() == MessageType.UserState);
-		if (viewCache.containsKey(position)
-				&& !(itsLastChat && cachedSize != mChatProvider.size())) {
+		if (viewCache.containsKey(position)) {
 			view = viewCache.get(position);
+			// Only the last group grows, by the messages that arrived since
+			// it was drawn
+			final int drawn = (Integer) view.getTag();
+			if (!itsStatus && drawn < group.size()) {
+				final LayoutInflater layoutInflater = (LayoutInflater) mContext
+						.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+				final LinearLayout container = (LinearLayout) view
+						.findViewById(R.id.lst_msgs);
+				drawMessages(parent, group, drawn, itsMe, layoutInflater,
+						container);
+				view.setTag(group.size());
+			}
 		} else if (!itsLast) {
 			final LayoutInflater layoutInflater = (LayoutInflater) mContext
 					.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -169,8 +187,10 @@ public class ChatAdapter extends BaseAdapter {
 						.getDate()));
 				final LinearLayout container = (LinearLayout) view
 						.findViewById(R.id.lst_msgs);
-				drawMessages(parent, msgs, itsMe, layoutInflater, container);
+				drawMessages(parent, group, 0, itsMe, layoutInflater,
+						container);
 			}
+			view.setTag(group.size());
 		}
 		if (!itsStatus) {
 			final TextView user = (TextView) view.findViewById(R.id.msg_user);
@@ -236,9 +256,6 @@ public class ChatAdapter extends BaseAdapter {
 			view = lastView;
 		} else {
 			viewCache.put(position, view);
-			if (itsLastChat) {
-				cachedSize = mChatProvider.size();
-			}
 		}
 		return view;
 	}
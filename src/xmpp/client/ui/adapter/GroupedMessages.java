@@ -0,0 +1,204 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xmpp.client.ui.adapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import xmpp.client.service.chat.ChatMessage;
+
+/**
+ * The messages of a chat grouped for display. Consecutive chat messages of
+ * the same sender on the same day form a group, every info message is a group
+ * of its own and the other messages aren't shown.
+ * <p>
+ * 
+ * The message list of a chat session only grows, so an update only groups
+ * the messages that arrived since the previous update. The id of a message is
+ * its index in the message list.
+ */
+public class GroupedMessages {
+
+	/**
+	 * Consecutive messages that are shown together.
+	 */
+	public static class Group {
+
+		private final List<ChatMessage> messages = new ArrayList<ChatMessage>();
+		private final List<Integer> ids = new ArrayList<Integer>();
+
+		private void add(int id, ChatMessage message) {
+			ids.add(id);
+			messages.add(message);
+		}
+
+		/**
+		 * Returns the first message of the group.
+		 * 
+		 * @return the first message.
+		 */
+		public ChatMessage getFirst() {
+			return messages.get(0);
+		}
+
+		/**
+		 * Returns the id of a message of the group.
+		 * 
+		 * @param index
+		 *            the index of the message in the group.
+		 * @return the id of the message.
+		 */
+		public int getId(int index) {
+			return ids.get(index);
+		}
+
+		/**
+		 * Returns the messages of the group.
+		 * 
+		 * @return an unmodifiable list of the messages.
+		 */
+		public List<ChatMessage> getMessages() {
+			return Collections.unmodifiableList(messages);
+		}
+
+		/**
+		 * Returns the number of messages of the group.
+		 * 
+		 * @return the number of messages.
+		 */
+		public int size() {
+			return messages.size();
+		}
+	}
+
+	/**
+	 * Returns true if two messages are equal. A chat session that was sent
+	 * between processes holds copies of the messages.
+	 */
+	private static boolean equal(ChatMessage msg1, ChatMessage msg2) {
+		return msg1.getType() == msg2.getType()
+				&& same(msg1.getDate(), msg2.getDate())
+				&& same(msg1.getFrom(), msg2.getFrom())
+				&& same(msg1.getText(), msg2.getText());
+	}
+
+	private static boolean same(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	private static boolean sameDay(Date date1, Date date2) {
+		// TODO Do it without deprecated functions and also compare month and
+		// year
+		return date1.getDate() == date2.getDate();
+	}
+
+	private final List<Group> groups = new ArrayList<Group>();
+
+	// The messages grouped so far
+	private int count;
+	private ChatMessage last;
+
+	// The group chat messages are added to, or null if the next chat
+	// message starts a new group
+	private Group current;
+
+	/**
+	 * Groups a message.
+	 * 
+	 * @param id
+	 *            the id of the message.
+	 * @param msg
+	 *            the message.
+	 */
+	private void add(int id, ChatMessage msg) {
+		switch (msg.getType()) {
+		case MultiUserChat:
+		case SingleUserChat:
+			if (current == null
+					|| !current.getFirst().getFrom().equals(msg.getFrom())
+					|| !sameDay(current.getFirst().getDate(), msg.getDate())) {
+				current = new Group();
+				groups.add(current);
+			}
+			current.add(id, msg);
+			break;
+		case Info:
+			final Group group = new Group();
+			group.add(id, msg);
+			groups.add(group);
+			// The next chat message starts a new group
+			current = null;
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Discards all groups.
+	 */
+	public void clear() {
+		groups.clear();
+		count = 0;
+		last = null;
+		current = null;
+	}
+
+	/**
+	 * Returns a group.
+	 * 
+	 * @param position
+	 *            the position of the group.
+	 * @return the group.
+	 */
+	public Group get(int position) {
+		return groups.get(position);
+	}
+
+	/**
+	 * Returns the number of groups.
+	 * 
+	 * @return the number of groups.
+	 */
+	public int size() {
+		return groups.size();
+	}
+
+	/**
+	 * Groups the messages that were added to the list since the last update.
+	 * If the list doesn't start with the messages grouped so far, e.g.
+	 * because the chat session was replaced, all messages are grouped again.
+	 * 
+	 * @param messages
+	 *            the message list of the chat session.
+	 * @return true if the previous groups were discarded.
+	 */
+	public boolean update(List<ChatMessage> messages) {
+		boolean reset = false;
+		if (messages.size() < count
+				|| (count > 0 && !equal(messages.get(count - 1), last))) {
+			clear();
+			reset = true;
+		}
+		for (int i = count; i < messages.size(); i++) {
+			add(i, messages.get(i));
+		}
+		count = messages.size();
+		last = count > 0 ? messages.get(count - 1) : null;
+		return reset;
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xmpp.client.ui.adapter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the rendered text of the most recently shown messages, so the
+ * emoticons of a message are only replaced once. The texts are kept by message
+ * id, the least recently used text is dropped when the cache is full.
+ */
+public class SpanCache {
+
+	private final LinkedHashMap<Integer, CharSequence> texts;
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param capacity
+	 *            the maximum number of texts kept.
+	 */
+	public SpanCache(final int capacity) {
+		texts = new LinkedHashMap<Integer, CharSequence>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, CharSequence> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Drops all texts, e.g. because the ids were assigned to other messages.
+	 */
+	public void clear() {
+		texts.clear();
+	}
+
+	/**
+	 * Returns the rendered text of a message.
+	 * 
+	 * @param id
+	 *            the id of the message.
+	 * @return the text or null if it isn't cached.
+	 */
+	public CharSequence get(int id) {
+		return texts.get(id);
+	}
+
+	/**
+	 * Keeps the rendered text of a message.
+	 * 
+	 * @param id
+	 *            the id of the message.
+	 * @param text
+	 *            the text.
+	 */
+	public void put(int id, CharSequence text) {
+		texts.put(id, text);
+	}
+
+	/**
+	 * Returns the number of texts kept.
+	 * 
+	 * @return the number of texts.
+	 */
+	public int size() {
+		return texts.size();
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xmpp.client.ui.extras;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Finds emoticons in a text. The emoticons are compiled into a trie once, so a
+ * text is scanned in a single pass without allocations, however many
+ * emoticons there are. At every position the longest emoticon that starts
+ * there wins and the scan continues behind it.
+ * 
+ * @param <V>
+ *            the type of the values the emoticons are mapped to.
+ */
+public class EmoticonMatcher<V> {
+
+	/**
+	 * Receives the emoticons that were found in a text.
+	 */
+	public interface Listener<V> {
+
+		/**
+		 * Notification that an emoticon was found.
+		 * 
+		 * @param start
+		 *            the index of the first character of the emoticon.
+		 * @param end
+		 *            the index after the last character of the emoticon.
+		 * @param value
+		 *            the value of the emoticon.
+		 */
+		void matched(int start, int end, V value);
+	}
+
+	/**
+	 * A node of the trie. The children are sorted by their character.
+	 */
+	private static class Node {
+
+		private char[] chars = new char[0];
+		private Node[] children = new Node[0];
+
+		// The value of the emoticon that ends here, or null
+		private Object value;
+
+		private Node add(char c) {
+			int index = Arrays.binarySearch(chars, c);
+			if (index >= 0) {
+				return children[index];
+			}
+			index = -index - 1;
+			final char[] newChars = new char[chars.length + 1];
+			final Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(chars, 0, newChars, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(chars, index, newChars, index + 1, chars.length
+					- index);
+			System.arraycopy(children, index, newChildren, index + 1,
+					children.length - index);
+			newChars[index] = c;
+			newChildren[index] = new Node();
+			chars = newChars;
+			children = newChildren;
+			return newChildren[index];
+		}
+
+		private Node get(char c) {
+			final int index = Arrays.binarySearch(chars, c);
+			return index >= 0 ? children[index] : null;
+		}
+	}
+
+	private final Node root = new Node();
+
+	/**
+	 * Compiles the emoticons.
+	 * 
+	 * @param emoticons
+	 *            the emoticons and their values.
+	 */
+	public EmoticonMatcher(Map<String, ? extends V> emoticons) {
+		for (final Map.Entry<String, ? extends V> entry : emoticons.entrySet()) {
+			final String emoticon = entry.getKey();
+			if (emoticon.length() == 0 || entry.getValue() == null) {
+				continue;
+			}
+			Node node = root;
+			for (int i = 0; i < emoticon.length(); i++) {
+				node = node.add(emoticon.charAt(i));
+			}
+			node.value = entry.getValue();
+		}
+	}
+
+	/**
+	 * Finds the emoticons in a text. The listener is notified in the order
+	 * the emoticons appear, emoticons don't overlap.
+	 * 
+	 * @param text
+	 *            the text.
+	 * @param listener
+	 *            the listener notified about every emoticon.
+	 */
+	@SuppressWarnings("unchecked")
+	public void find(CharSequence text, Listener<V> listener) {
+		final int length = text.length();
+		int start = 0;
+		while (start < length) {
+			Node node = root;
+			int end = -1;
+			Object value = null;
+			for (int i = start; i < length
+					&& (node = node.get(text.charAt(i))) != null; i++) {
+				if (node.value != null) {
+					end = i + 1;
+					value = node.value;
+				}
+			}
+			if (end > 0) {
+				listener.matched(start, end, (V) value);
+				start = end;
+			} else {
+				start++;
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package xmpp.client.ui.extras;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import xmpp.client.R;
@@ -59,33 +60,41 @@ public final class SmileyHandler {
 		emoticons.put(":-*", R.drawable.emo_im_kissing);
 	}
 
-	public static Spannable getSmiledText(String text, Context context) {
+	// Compiled from the emoticons, replaced when a pack is added
+	private static volatile EmoticonMatcher<Integer> matcher = new EmoticonMatcher<Integer>(
+			emoticons);
+
+	/**
+	 * Adds an emoticon pack. An emoticon of the pack replaces a known
+	 * emoticon.
+	 * 
+	 * @param pack
+	 *            the emoticons and their drawable resources.
+	 */
+	public static synchronized void addEmoticons(Map<String, Integer> pack) {
+		emoticons.putAll(pack);
+		matcher = new EmoticonMatcher<Integer>(emoticons);
+	}
+
+	public static Spannable getSmiledText(String text, final Context context) {
 		final SpannableStringBuilder builder = new SpannableStringBuilder(text);
-		int index;
-		for (index = 0; index < builder.length(); index++) {
-			for (final String smiley : getSmileyStrings()) {
-				final int length = smiley.length();
-				if (index + length > builder.length()) {
-					continue;
-				}
-				if (builder.subSequence(index, index + length).toString()
-						.equals(smiley)) {
-					builder.setSpan(new ImageSpan(context,
-							getSmileyDrawable(smiley)), index, index + length,
-							Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-					index += length - 1;
-					break;
-				}
+		matcher.find(text, new EmoticonMatcher.Listener<Integer>() {
+
+			@Override
+			public void matched(int start, int end, Integer drawable) {
+				builder.setSpan(new ImageSpan(context, drawable), start, end,
+						Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
 			}
-		}
+
+		});
 		return builder;
 	}
 
-	public static int getSmileyDrawable(String smiley) {
+	public static synchronized int getSmileyDrawable(String smiley) {
 		return emoticons.get(smiley);
 	}
 
-	public static String[] getSmileyStrings() {
+	public static synchronized String[] getSmileyStrings() {
 		final Set<String> set = emoticons.keySet();
 		return set.toArray(new String[set.size()]);
 	}
@@ -1,5 +1,7 @@
 package xmpp.client.ui.provider;
 
+import java.util.List;
+
 import xmpp.client.Constants;
 import xmpp.client.service.chat.Chat;
 import xmpp.client.service.chat.ChatCodes;
@@ -45,6 +47,14 @@ public class ChatProvider implements SimpleMessageHandlerClient, Constants,
 		return mChatSession.getMessageList().get(position);
 	}
 
+	/**
+	 * Returns the messages of the chat session. The list only grows while the
+	 * session isn't replaced.
+	 */
+	public List<ChatMessage> getMessages() {
+		return mChatSession.getMessageList();
+	}
+
 	public UserList getUsers() {
 		if (mChatSession.isMUC() && (mChatSession instanceof MultiChatSession)) {
 			return ((MultiChatSession) mChatSession).getUsers();
@@ -1,12 +1,18 @@
 package xmpp.client.ui.provider;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
 import xmpp.client.Constants;
 import xmpp.client.service.handlers.SimpleMessageHandler;
 import xmpp.client.service.handlers.SimpleMessageHandlerClient;
 import xmpp.client.service.user.User;
+import xmpp.client.service.user.UserList;
 import xmpp.client.service.user.UserState;
+import xmpp.client.service.user.avatar.AvatarCache;
 import xmpp.client.service.user.contact.Contact;
 import xmpp.client.service.user.contact.ContactList;
 import xmpp.client.service.user.group.GroupList;
@@ -15,9 +21,11 @@ import android.os.Bundle;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.Parcelable;
+import android.os.RemoteException;
 import android.util.Log;
 
-public class ContactProvider implements SimpleMessageHandlerClient, Constants {
+public class ContactProvider implements SimpleMessageHandlerClient,
+		AvatarCache.Listener, Constants {
 	private static final String TAG = ContactProvider.class.getName();
 	private ContactList mContactList;
 	private final GroupList mGroupList;
@@ -28,6 +36,15 @@ public class ContactProvider implements SimpleMessageHandlerClient, Constants {
 	private final Context mContext;
 	private boolean initDone;
 
+	// The version of the roster the contact list reflects
+	private String mRosterId;
+	private long mRosterVersion;
+	private boolean mSyncing;
+	private boolean mResync;
+	private boolean mReadyPending;
+	// The hashes of the avatars requested from the service without answer
+	private final HashSet<String> mRequestedAvatars;
+
 	public ContactProvider(Messenger localMessenger,
 			Messenger serviceMessenger, Context context) {
 		mMessenger = localMessenger;
@@ -41,6 +58,9 @@ public class ContactProvider implements SimpleMessageHandlerClient, Constants {
 		mContact = new Contact(u);
 		mListeners = new ArrayList<ContactProviderListener>();
 		initDone = false;
+		mRosterVersion = -1;
+		mRequestedAvatars = new HashSet<String>();
+		AvatarCache.getInstance().setListener(this);
 	}
 
 	public ContactProvider(Messenger localMessenger,
@@ -74,6 +94,59 @@ public class ContactProvider implements SimpleMessageHandlerClient, Constants {
 		mListeners.add(listener);
 	}
 
+	/**
+	 * Applies a page of roster changes the service sent. The contact list is
+	 * updated and the listeners are notified after the last page.
+	 */
+	private void applyRoster(Bundle b) throws RemoteException {
+		if (b.getBoolean(FIELD_ROSTER_SNAPSHOT)) {
+			mContactList = new ContactList();
+		}
+		final ArrayList<String> removed = b.getStringArrayList(FIELD_JID_LIST);
+		if (removed != null) {
+			for (final String jid : removed) {
+				mContactList.removeUser(jid);
+			}
+		}
+		final UserList users = b.getParcelable(FIELD_USER_LIST);
+		if (users != null) {
+			for (final User user : users) {
+				if (!mContactList.update(user)) {
+					mContactList.add(user);
+				}
+			}
+			requestUserAvatars(users);
+		}
+		if (!b.getBoolean(FIELD_ROSTER_MORE)) {
+			mRosterId = b.getString(FIELD_ROSTER_ID);
+			mRosterVersion = b.getLong(FIELD_ROSTER_VERSION);
+			mSyncing = false;
+			update();
+			if (mReadyPending) {
+				mReadyPending = false;
+				sendReady();
+			}
+			sendChanged();
+			if (mResync) {
+				mResync = false;
+				requestRoster();
+			}
+		}
+	}
+
+	/**
+	 * Requests an avatar again that was looked up but isn't known, as the
+	 * avatar cache dropped it or it wasn't received yet.
+	 */
+	@Override
+	public void avatarMissing(String hash) {
+		try {
+			requestAvatars(Collections.singletonList(hash));
+		} catch (final RemoteException e) {
+			Log.w(TAG, "avatarMissing", e);
+		}
+	}
+
 	public void clearListeners() {
 		mListeners.clear();
 	}
@@ -94,10 +167,9 @@ public class ContactProvider implements SimpleMessageHandlerClient, Constants {
 		if (mContact.contains(address, true)) {
 			return mContact;
 		}
-		for (final Contact contact : mContactList) {
-			if (contact.contains(address, false)) {
-				return contact;
-			}
+		final Contact contact = mContactList.get(address);
+		if (contact != null) {
+			return contact;
 		}
 		Log.w(TAG, "Roster Entry not found:" + address);
 		return null;
@@ -130,14 +202,43 @@ public class ContactProvider implements SimpleMessageHandlerClient, Constants {
 			switch (msg.what) {
 			case SIG_ROSTER_GET_CONTACTS_ERROR:
 				Log.e(TAG, "GET_CONTACTS_ERROR");
+				mSyncing = false;
+				mResync = false;
 				break;
 			case SIG_IS_ONLINE:
 				initDone = true;
 				b.setClassLoader(Contact.class.getClassLoader());
 				mContact = (Contact) b.getParcelable(FIELD_CONTACT);
-				msg = Message.obtain(null, SIG_ROSTER_GET_CONTACTS);
-				msg.replyTo = mMessenger;
-				mService.send(msg);
+				// Only the changes since the known version are sent
+				mSyncing = false;
+				mReadyPending = true;
+				// Pending requests may not be answered by a new service
+				mRequestedAvatars.clear();
+				requestRoster();
+				break;
+			case SIG_ROSTER_SYNC:
+				b.setClassLoader(UserList.class.getClassLoader());
+				applyRoster(b);
+				break;
+			case SIG_GET_AVATARS:
+				final ArrayList<String> hashes = b
+						.getStringArrayList(FIELD_AVATAR_HASHES);
+				final ArrayList<String> missing = b
+						.getStringArrayList(FIELD_AVATAR_MISSING);
+				if (missing != null) {
+					// Requested again when they are looked up the next time
+					mRequestedAvatars.removeAll(missing);
+				}
+				if (hashes != null && !hashes.isEmpty()) {
+					for (final String hash : hashes) {
+						mRequestedAvatars.remove(hash);
+						final byte[] avatar = b.getByteArray(hash);
+						if (avatar != null) {
+							AvatarCache.getInstance().put(hash, avatar);
+						}
+					}
+					sendChanged();
+				}
 				break;
 			case SIG_ROSTER_GET_CONTACTS:
 				b.setClassLoader(ContactList.class.getClassLoader());
@@ -157,13 +258,32 @@ public class ContactProvider implements SimpleMessageHandlerClient, Constants {
 				}
 				b.setClassLoader(User.class.getClassLoader());
 				if (b.containsKey(FIELD_TYPE)) {
+					if (b.containsKey(FIELD_ROSTER_VERSION)) {
+						final long version = b.getLong(FIELD_ROSTER_VERSION);
+						final boolean sameRoster = b.getString(FIELD_ROSTER_ID)
+								.equals(mRosterId);
+						if (sameRoster && version <= mRosterVersion) {
+							// Already received with a delta
+							break;
+						}
+						if (mSyncing || !sameRoster
+								|| version != mRosterVersion + 1) {
+							// A change was missed, get all changes since the
+							// known version
+							requestRoster();
+							break;
+						}
+						mRosterVersion = version;
+					}
 					switch (b.getInt(FIELD_TYPE)) {
 					case ROSTER_ADDED:
-						final User u = b.getParcelable(FIELD_USER);
-						add(u);
-						break;
 					case ROSTER_UPDATED:
-						update((User) b.getParcelable(FIELD_USER));
+						final User u = b.getParcelable(FIELD_USER);
+						if (!mContactList.update(u)) {
+							mContactList.add(u);
+						}
+						update();
+						requestUserAvatars(Collections.singletonList(u));
 						break;
 					case ROSTER_DELETED:
 						remove(b.getString(FIELD_JID));
@@ -191,6 +311,63 @@ public class ContactProvider implements SimpleMessageHandlerClient, Constants {
 		update();
 	}
 
+	/**
+	 * Requests the avatars of hashes that aren't known yet. An avatar is not
+	 * requested again while the service didn't answer.
+	 */
+	private void requestAvatars(Collection<String> wanted)
+			throws RemoteException {
+		final ArrayList<String> hashes = new ArrayList<String>();
+		for (final String hash : wanted) {
+			if (!AvatarCache.getInstance().contains(hash)
+					&& mRequestedAvatars.add(hash)) {
+				hashes.add(hash);
+			}
+		}
+		if (!hashes.isEmpty()) {
+			final Message msg = Message.obtain(null, SIG_GET_AVATARS);
+			final Bundle b = new Bundle();
+			b.putStringArrayList(FIELD_AVATAR_HASHES, hashes);
+			msg.setData(b);
+			msg.replyTo = mMessenger;
+			mService.send(msg);
+		}
+	}
+
+	/**
+	 * Requests the roster changes since the known version. The service sends
+	 * a snapshot if it can't tell the changes.
+	 */
+	private void requestRoster() throws RemoteException {
+		if (mSyncing) {
+			// Request again once the running sync is done
+			mResync = true;
+			return;
+		}
+		mSyncing = true;
+		final Message msg = Message.obtain(null, SIG_ROSTER_SYNC);
+		final Bundle b = new Bundle();
+		b.putString(FIELD_ROSTER_ID, mRosterId);
+		b.putLong(FIELD_ROSTER_VERSION, mRosterVersion);
+		msg.setData(b);
+		msg.replyTo = mMessenger;
+		mService.send(msg);
+	}
+
+	/**
+	 * Requests the avatars of the users that aren't known yet. The users
+	 * refer to their avatars by hash, so an avatar is shared by its users.
+	 */
+	private void requestUserAvatars(List<User> users) throws RemoteException {
+		final ArrayList<String> hashes = new ArrayList<String>();
+		for (final User user : users) {
+			if (user.getAvatarHash() != null) {
+				hashes.add(user.getAvatarHash());
+			}
+		}
+		requestAvatars(hashes);
+	}
+
 	private void sendChanged() {
 		for (final ContactProviderListener listener : mListeners) {
 			if (listener != null && listener.isReady()) {
@@ -213,13 +390,7 @@ public class ContactProvider implements SimpleMessageHandlerClient, Constants {
 	}
 
 	public void update(User user) {
-		for (final Contact contact : mContactList) {
-			if (contact.contains(user.getUserLogin(), false)) {
-				contact.remove(user.getUserLogin());
-				contact.add(user);
-				break;
-			}
-		}
+		mContactList.update(user);
 		update();
 	}
 